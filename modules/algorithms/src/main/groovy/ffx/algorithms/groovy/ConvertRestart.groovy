@@ -0,0 +1,115 @@
+//******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+//******************************************************************************
+package ffx.algorithms.groovy
+
+import ffx.algorithms.cli.AlgorithmsScript
+import ffx.algorithms.optimize.manybody.BinaryEnergyRestart
+import picocli.CommandLine.Command
+import picocli.CommandLine.Parameters
+
+import static java.lang.String.format
+
+/**
+ * The ConvertRestart script converts a text many-body energy restart file to the binary format.
+ * <br>
+ * Usage:
+ * <br>
+ * ffxc ConvertRestart &lt;text restart&gt; [binary restart]
+ */
+@Command(description = " Convert a many-body energy restart file to the binary format.",
+    name = "ffxc ConvertRestart")
+class ConvertRestart extends AlgorithmsScript {
+
+  /**
+   * The text energy restart file, optionally followed by the binary restart file to write.
+   */
+  @Parameters(arity = "1..2", paramLabel = "files",
+      description = 'Text energy restart file and (optionally) the binary file to write.')
+  List<String> filenames = null
+
+  /**
+   * ConvertRestart Constructor.
+   */
+  ConvertRestart() {
+    this(new Binding())
+  }
+
+  /**
+   * ConvertRestart Constructor.
+   * @param binding The Groovy Binding to use.
+   */
+  ConvertRestart(Binding binding) {
+    super(binding)
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  ConvertRestart run() {
+
+    if (!init()) {
+      return this
+    }
+
+    if (filenames == null || filenames.isEmpty()) {
+      logger.info(helpString())
+      return this
+    }
+
+    File textFile = new File(filenames.get(0))
+    if (!textFile.isFile()) {
+      logger.info(format(" Energy restart file %s was not found.", textFile.getPath()))
+      return this
+    }
+    if (BinaryEnergyRestart.isBinary(textFile)) {
+      logger.info(format(" %s is already a binary energy restart file.", textFile.getName()))
+      return this
+    }
+
+    File binaryFile
+    if (filenames.size() > 1) {
+      binaryFile = new File(filenames.get(1))
+    } else {
+      binaryFile = new File(textFile.getPath() + ".bin")
+    }
+    BinaryEnergyRestart.convert(textFile, binaryFile)
+
+    return this
+  }
+}
@@ -68,14 +68,18 @@ import ffx.potential.MolecularAssembly;
 import ffx.potential.bonded.Atom;
 import ffx.potential.bonded.LambdaInterface;
 import ffx.potential.extended.ExtendedSystem;
+import ffx.potential.parsers.ArchiveIndex;
 import ffx.potential.parsers.DYNFilter;
 import ffx.potential.parsers.PDBFilter;
+import ffx.potential.parsers.TRJFilter;
+import ffx.potential.parsers.TRJWriter;
 import ffx.potential.parsers.XYZFilter;
 import ffx.potential.utils.EnergyException;
 import ffx.potential.utils.PotentialsFunctions;
 import ffx.potential.utils.PotentialsUtils;
 import ffx.utilities.FileUtils;
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
@@ -198,6 +202,8 @@ public class MolecularDynamics implements Runnable, Terminatable {
   double currentTotalEnergy;
   /** Save snapshots in PDB format. */
   boolean saveSnapshotAsPDB = true;
+  /** Save snapshots to a binary trajectory, written by a background thread. */
+  boolean saveSnapshotAsTRJ = false;
   /** Monte Carlo listener. */
   private MonteCarloListener monteCarloListener;
   /** Number of MD steps to take. */
@@ -604,7 +610,7 @@ public class MolecularDynamics implements Runnable, Terminatable {
    *     picoseconds.
    * @param temperature Temperature in Kelvins.
    * @param initVelocities Initialize new velocities from a Maxwell-Boltzmann distribution.
-   * @param fileType XYZ or ARC to save to .arc, PDB for .pdb files
+   * @param fileType XYZ or ARC to save to .arc, PDB for .pdb files, TRJ for a binary .trj
    * @param restartInterval Interval between writing new restart files in picoseconds.
    * @param dyn A {@link java.io.File} object to write the restart file to.
    */
@@ -859,7 +865,7 @@ public class MolecularDynamics implements Runnable, Terminatable {
    * @param loggingInterval Interval between printing/logging information in picoseconds.
    * @param trajectoryInterval Interval between adding a frame to the trajectory file in
    *     picoseconds.
-   * @param fileType XYZ or ARC to save to .arc, PDB for .pdb files
+   * @param fileType XYZ or ARC to save to .arc, PDB for .pdb files, TRJ for a binary .trj
    * @param restartInterval Interval between writing new restart files in picoseconds.
    * @param temperature Temperature in Kelvins.
    * @param initVelocities Initialize new velocities from a Maxwell-Boltzmann distribution.
@@ -924,8 +930,12 @@ public class MolecularDynamics implements Runnable, Terminatable {
 
     // Set snapshot file type.
     saveSnapshotAsPDB = true;
+    saveSnapshotAsTRJ = false;
     if (fileType.equalsIgnoreCase("XYZ") || fileType.equalsIgnoreCase("ARC")) {
       saveSnapshotAsPDB = false;
+    } else if (fileType.equalsIgnoreCase("TRJ")) {
+      saveSnapshotAsPDB = false;
+      saveSnapshotAsTRJ = true;
     } else if (!fileType.equalsIgnoreCase("PDB")) {
       logger.warning("Snapshot file type unrecognized; saving snapshots as PDB.\n");
     }
@@ -1295,7 +1305,7 @@ public class MolecularDynamics implements Runnable, Terminatable {
           String filename = FilenameUtils.removeExtension(file.getAbsolutePath());
           File archFile = ainfo.archiveFile;
           if (archFile == null) {
-            archFile = new File(filename + ".arc");
+            archFile = new File(filename + (saveSnapshotAsTRJ ? ".trj" : ".arc"));
             ainfo.archiveFile = XYZFilter.version(archFile);
           }
           if (ainfo.pdbFile == null) {
@@ -1486,6 +1496,11 @@ public class MolecularDynamics implements Runnable, Terminatable {
       logger.log(basicLogging, format(" Completed %8d time steps\n", nSteps));
     }
 
+    // Write any queued binary trajectory frames.
+    for (AssemblyInfo ai : assemblies) {
+      ai.closeTRJWriter();
+    }
+
     // Reset the done and terminate flags.
     done = true;
     terminate = false;
@@ -1502,9 +1517,16 @@ public class MolecularDynamics implements Runnable, Terminatable {
    */
   protected void appendSnapshot(String[] extraLines) {
     for (AssemblyInfo ai : assemblies) {
-      if (ai.archiveFile != null && !saveSnapshotAsPDB) {
+      if (ai.archiveFile != null && saveSnapshotAsTRJ) {
+        String aiName = FileUtils.relativePathTo(ai.archiveFile).toString();
+        if (ai.appendTRJ(extraLines)) {
+          logger.log(basicLogging, format(" Appended snap shot to %s", aiName));
+        } else {
+          logger.warning(format(" Appending snap shot to %s failed", aiName));
+        }
+      } else if (ai.archiveFile != null && !saveSnapshotAsPDB) {
         String aiName = FileUtils.relativePathTo(ai.archiveFile).toString();
-        if (ai.xyzFilter.writeFile(ai.archiveFile, true, extraLines)) {
+        if (ai.appendARC(extraLines)) {
           logger.log(basicLogging, format(" Appended snap shot to %s", aiName));
         } else {
           logger.warning(format(" Appending snap shot to %s failed", aiName));
@@ -1828,6 +1850,7 @@ public class MolecularDynamics implements Runnable, Terminatable {
     File pdbFile;
     PDBFilter pdbFilter;
     XYZFilter xyzFilter = null;
+    TRJWriter trjWriter = null;
 
     AssemblyInfo(MolecularAssembly assembly) {
       this.assembly = assembly;
@@ -1848,6 +1871,56 @@ public class MolecularDynamics implements Runnable, Terminatable {
     void setArchiveFile(File file) {
       archiveFile = file;
     }
+
+    /**
+     * Append a frame to the archive and record its offset in the archive's frame index, which
+     * can be disabled with the "archive-index" property.
+     *
+     * @param extraLines Strings of meta-data to include.
+     * @return false if the frame could not be written.
+     */
+    boolean appendARC(String[] extraLines) {
+      long offset = archiveFile.exists() ? archiveFile.length() : 0;
+      if (!xyzFilter.writeFile(archiveFile, true, extraLines)) {
+        return false;
+      }
+      if (compositeConfiguration.getBoolean("archive-index", true)) {
+        ArchiveIndex.appendOffset(archiveFile, assembly.getAtomList().size(), offset);
+      }
+      return true;
+    }
+
+    /**
+     * Queue a frame for the binary trajectory, opening its writer if necessary.
+     *
+     * @param extraLines Strings of meta-data to include.
+     * @return false if the frame could not be queued.
+     */
+    boolean appendTRJ(String[] extraLines) {
+      if (trjWriter == null) {
+        try {
+          File topology = TRJFilter.writeTopology(assembly, archiveFile);
+          double precision = compositeConfiguration.getDouble("trajectory-precision", 0.0);
+          trjWriter =
+              new TRJWriter(
+                  archiveFile, assembly, topology, TRJWriter.DEFAULT_BUFFERS, precision);
+        } catch (IOException e) {
+          logger.log(Level.WARNING, format(" Exception opening %s.", archiveFile), e);
+          return false;
+        }
+      }
+      return trjWriter.append(extraLines);
+    }
+
+    /** Write queued frames and close the binary trajectory writer, if open. */
+    void closeTRJWriter() {
+      if (trjWriter != null) {
+        if (!trjWriter.close()) {
+          logger.warning(format(" Writing to %s failed.", trjWriter.getFile()));
+        }
+        trjWriter = null;
+      }
+    }
   }
 
   /**
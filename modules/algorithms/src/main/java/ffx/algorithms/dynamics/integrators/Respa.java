@@ -39,7 +39,10 @@ package ffx.algorithms.dynamics.integrators;
 
 import static ffx.utilities.Constants.KCAL_TO_GRAM_ANG2_PER_PS2;
 import static java.lang.String.format;
+import static java.lang.System.arraycopy;
+import static java.util.Arrays.copyOf;
 
+import ffx.numerics.Constraint;
 import ffx.numerics.Potential;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -76,6 +79,9 @@ public class Respa extends Integrator {
 
   private double halfStepEnergy = 0;
 
+  /** Coordinates before the current inner step, used to apply constraints. */
+  private double[] xPrior;
+
   /**
    * Initialize Respa multiple time step molecular dynamics.
    *
@@ -115,6 +121,10 @@ public class Respa extends Integrator {
       a[i] = -KCAL_TO_GRAM_ANG2_PER_PS2 * gradient[i] / mass[i];
       v[i] += a[i] * dt_2;
     }
+    if (useConstraints) {
+      constraints.forEach(
+          (Constraint c) -> c.applyConstraintToVelocities(x, v, mass, constraintTolerance));
+    }
   }
 
   /**
@@ -141,12 +151,29 @@ public class Respa extends Integrator {
     // Complete the inner RESPA loop.
     for (int j = 0; j < innerSteps; j++) {
 
+      if (useConstraints) {
+        if (xPrior == null || xPrior.length < nVariables) {
+          xPrior = copyOf(x, nVariables);
+        } else {
+          arraycopy(x, 0, xPrior, 0, nVariables);
+        }
+      }
+
       // Find fast-evolving velocities and positions via Verlet recursion.
       for (int i = 0; i < nVariables; i++) {
         v[i] += aPrevious[i] * halfInnerTimeStep;
         x[i] += v[i] * innerTimeStep;
       }
 
+      if (useConstraints) {
+        constraints.forEach(
+            (Constraint c) -> c.applyConstraintToStep(xPrior, x, mass, constraintTolerance));
+        double velScale = 1.0 / innerTimeStep;
+        for (int i = 0; i < nVariables; i++) {
+          v[i] = velScale * (x[i] - xPrior[i]);
+        }
+      }
+
       // Update accelerations from fast varying forces.
       halfStepEnergy = potential.energyAndGradient(x, gradient);
       for (int i = 0; i < nVariables; i++) {
@@ -158,6 +185,10 @@ public class Respa extends Integrator {
         aPrevious[i] = -KCAL_TO_GRAM_ANG2_PER_PS2 * gradient[i] / mass[i];
         v[i] += aPrevious[i] * halfInnerTimeStep;
       }
+      if (useConstraints) {
+        constraints.forEach(
+            (Constraint c) -> c.applyConstraintToVelocities(x, v, mass, constraintTolerance));
+      }
     }
 
     // Revert to computing slowly varying forces.
@@ -39,9 +39,12 @@ package ffx.algorithms.dynamics.integrators;
 
 import static ffx.utilities.Constants.KCAL_TO_GRAM_ANG2_PER_PS2;
 import static ffx.utilities.Constants.kB;
+import static java.lang.System.arraycopy;
+import static java.util.Arrays.copyOf;
 import static org.apache.commons.math3.util.FastMath.exp;
 import static org.apache.commons.math3.util.FastMath.sqrt;
 
+import ffx.numerics.Constraint;
 import ffx.numerics.Potential;
 import java.util.Random;
 
@@ -75,6 +78,8 @@ public class Stochastic extends Integrator {
   private double efdt;
   /** Simulation temperature. */
   private double temperature;
+  /** Coordinates before the current step, used to apply constraints. */
+  private double[] xPrior;
 
   /**
    * Constructor for Stochastic Dynamics.
@@ -116,6 +121,10 @@ public class Stochastic extends Integrator {
       a[i] = -KCAL_TO_GRAM_ANG2_PER_PS2 * gradient[i] / mass[i];
       v[i] += (0.5 * a[i] * vFriction[i] + vRandom[i]);
     }
+    if (useConstraints) {
+      constraints.forEach(
+          (Constraint c) -> c.applyConstraintToVelocities(x, v, mass, constraintTolerance));
+    }
   }
 
   /**
@@ -126,6 +135,13 @@ public class Stochastic extends Integrator {
    */
   @Override
   public void preForce(Potential potential) {
+    if (useConstraints) {
+      if (xPrior == null || xPrior.length < nVariables) {
+        xPrior = copyOf(x, nVariables);
+      } else {
+        arraycopy(x, 0, xPrior, 0, nVariables);
+      }
+    }
     for (int i = 0; i < nVariables; i++) {
       double m = mass[i];
       double pfric;
@@ -217,6 +233,14 @@ public class Stochastic extends Integrator {
       x[i] += (v[i] * vFriction[i] + a[i] * afric + prand);
       v[i] = v[i] * pfric + 0.5 * a[i] * vFriction[i];
     }
+
+    // Constrain the new positions, then remove velocity components along the constraints.
+    if (useConstraints) {
+      constraints.forEach(
+          (Constraint c) -> c.applyConstraintToStep(xPrior, x, mass, constraintTolerance));
+      constraints.forEach(
+          (Constraint c) -> c.applyConstraintToVelocities(x, v, mass, constraintTolerance));
+    }
   }
 
   /**
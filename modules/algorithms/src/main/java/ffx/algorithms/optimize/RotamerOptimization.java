@@ -53,11 +53,14 @@ import edu.rit.pj.WorkerTeam;
 import ffx.algorithms.AlgorithmListener;
 import ffx.algorithms.Terminatable;
 import ffx.algorithms.mc.MCMove;
+import ffx.algorithms.optimize.manybody.AStarSearch;
+import ffx.algorithms.optimize.manybody.BinaryEnergyRestart;
 import ffx.algorithms.optimize.manybody.BoxOptCell;
 import ffx.algorithms.optimize.manybody.DistanceMatrix;
 import ffx.algorithms.optimize.manybody.EliminatedRotamers;
 import ffx.algorithms.optimize.manybody.EnergyExpansion;
 import ffx.algorithms.optimize.manybody.EnergyRegion;
+import ffx.algorithms.optimize.manybody.EnergyRestartWriter;
 import ffx.algorithms.optimize.manybody.FourBodyEnergyRegion;
 import ffx.algorithms.optimize.manybody.GoldsteinPairRegion;
 import ffx.algorithms.optimize.manybody.RotamerMatrixMC;
@@ -162,6 +165,8 @@ public class RotamerOptimization implements Terminatable {
 
   private DistanceMatrix dM;
   private EnergyExpansion eE;
+  /** Flag to indicate the ro-subsetEnergy fallback has been reported. */
+  private boolean subsetEnergyFallbackLogged = false;
   private EliminatedRotamers eR;
   /** RotamerLibrary instance. */
   protected RotamerLibrary library = RotamerLibrary.getDefaultLibrary();
@@ -293,6 +298,8 @@ public class RotamerOptimization implements Terminatable {
   private boolean loadEnergyRestart = false;
   /** Energy restart File instance. */
   private File energyRestartFile;
+  /** If true, new energy restart files are written in the binary format. */
+  private boolean binaryEnergyRestart = false;
   /** ParallelTeam instance. */
   private ParallelTeam parallelTeam;
   /**
@@ -327,6 +334,10 @@ public class RotamerOptimization implements Terminatable {
   private boolean mcUseAll = false;
   /** Skips brute force enumeration in favor of pure Monte Carlo. Recommended only for testing. */
   private boolean mcNoEnum = false;
+  /** Finish the global optimization with an exact A* search instead of enumeration. */
+  private boolean useAStar = false;
+  /** Maximum number of nodes held by the A* frontier before it continues depth-first. */
+  private int aStarMaxNodes = 1000000;
   /**
    * Sets whether files should be printed; true for standalone applications, false for some
    * applications which use rotamer optimization as part of a larger process.
@@ -337,7 +348,7 @@ public class RotamerOptimization implements Terminatable {
   /** Maximum depth to check if a rotamer can be eliminated. */
   private int maxRotCheckDepth;
   /** Writes energies to restart file. */
-  private BufferedWriter energyWriter;
+  private EnergyRestartWriter energyWriter;
   /** False unless JUnit testing. */
   private boolean testing = false;
   /** False unless ManyBodyTest is occurring. */
@@ -436,6 +447,7 @@ public class RotamerOptimization implements Terminatable {
     String mcNoEnum = properties.getString("ro-debug-mcNoEnum");
     String addOrigRotStr = properties.getString("ro-addOrigRot");
     String origAtEndStr = properties.getString("ro-origAtEnd");
+    String binaryRestartStr = properties.getString("ro-binaryRestart");
 
     if (computeQuads != null) {
       this.compute4BodyEnergy = parseBoolean(computeQuads);
@@ -546,6 +558,16 @@ public class RotamerOptimization implements Terminatable {
       // Property works in the contest of Residue class.
       logger.info(format(" (KEY) origAtEnd: %b", value));
     }
+    if (binaryRestartStr != null) {
+      this.binaryEnergyRestart = parseBoolean(binaryRestartStr);
+      logger.info(format(" (KEY) binaryRestart: %b", binaryEnergyRestart));
+    }
+
+    useAStar = properties.getBoolean("ro-astar", false);
+    aStarMaxNodes = properties.getInt("ro-astarMaxNodes", aStarMaxNodes);
+    if (useAStar) {
+      logger.info(format(" (KEY) astar: %b (max nodes %d)", useAStar, aStarMaxNodes));
+    }
 
     String propStr = properties.getString("ro-maxRotCheckDepth");
     int defaultMaxRotCheckDepth = 1;
@@ -1419,6 +1441,17 @@ public class RotamerOptimization implements Terminatable {
     this.nMCsteps = nMCsteps;
   }
 
+  /**
+   * Sets the option to finish DEE with an exact A* search rather than enumeration.
+   *
+   * @param useAStar If true, use the A* search.
+   * @param maxNodes Maximum number of nodes held by the A* frontier.
+   */
+  public void setAStar(boolean useAStar, int maxNodes) {
+    this.useAStar = useAStar;
+    this.aStarMaxNodes = maxNodes;
+  }
+
   /**
    * Sets the monteCarloTesting boolean in RotamerOptimization.java to true or false. This should
    * only be set to true when monte carlo is being tested through the ManyBodyTest.java script. When
@@ -2414,7 +2447,10 @@ public class RotamerOptimization implements Terminatable {
 
     optimum = new int[nResidues];
 
-    if (ensembleEnergy > 0.0) {
+    // Monte Carlo needs the permutation count from enumeration, so it takes precedence over A*.
+    boolean aStar = useAStar && !monteCarlo;
+
+    if (ensembleEnergy > 0.0 && !aStar) {
       ensembleBuffer = ensembleEnergy;
       applyEliminationCriteria(residues, true, true);
       if (x == null) {
@@ -2451,26 +2487,7 @@ public class RotamerOptimization implements Terminatable {
         logger.severe(
             " No valid path through rotamer space found; try recomputing without pruning or using ensemble.");
       }
-      if (master && printFiles && ensembleFile == null) {
-        File file = molecularAssembly.getFile();
-        String filename = FilenameUtils.removeExtension(file.getAbsolutePath());
-        ensembleFile = new File(filename + ".ens");
-        if (ensembleFile.exists()) {
-          for (int i = 2; i < 1000; i++) {
-            ensembleFile = new File(filename + ".ens_" + i);
-            if (!ensembleFile.exists()) {
-              break;
-            }
-          }
-          if (ensembleFile.exists()) {
-            logger.warning(
-                format(" Versioning failed: appending to end of file %s", ensembleFile.getName()));
-          }
-        }
-        ensembleFilter =
-            new PDBFilter(new File(ensembleFile.getName()), molecularAssembly, null, null);
-        logger.info(format(" Ensemble file: %s", ensembleFile.getName()));
-      }
+      initEnsembleFile();
       logIfMaster(
           format(
               "%30s %35s %35s",
@@ -2677,7 +2694,11 @@ public class RotamerOptimization implements Terminatable {
       ensembleNumber = nPerms;
     }
 
-    while (currentEnsemble != ensembleNumber) {
+    if (aStar) {
+      aStarOptimization(residues);
+    }
+
+    while (!aStar && currentEnsemble != ensembleNumber) {
       if (monteCarlo) {
         logIfMaster(" Ensemble search not currently compatible with Monte Carlo");
         ensembleNumber = 1;
@@ -2728,27 +2749,7 @@ public class RotamerOptimization implements Terminatable {
             " No valid path through rotamer space found; try recomputing without pruning or using ensemble.");
       }
       if (ensembleNumber > 1) {
-        if (master && printFiles && ensembleFile == null) {
-          File file = molecularAssembly.getFile();
-          String filename = FilenameUtils.removeExtension(file.getAbsolutePath());
-          ensembleFile = new File(filename + ".ens");
-          if (ensembleFile.exists()) {
-            for (int i = 2; i < 1000; i++) {
-              ensembleFile = new File(filename + ".ens_" + i);
-              if (!ensembleFile.exists()) {
-                break;
-              }
-            }
-            if (ensembleFile.exists()) {
-              logger.warning(
-                  format(
-                      " Versioning failed: appending to end of file %s", ensembleFile.getName()));
-            }
-          }
-          ensembleFilter =
-              new PDBFilter(new File(ensembleFile.getName()), molecularAssembly, null, null);
-          logger.info(format(" Ensemble file: %s", ensembleFile.getName()));
-        }
+        initEnsembleFile();
         logIfMaster(
             format(
                 " Ensemble Search Stats: (buffer: %5.3f, current: %d, target: %d)",
@@ -2817,7 +2818,7 @@ public class RotamerOptimization implements Terminatable {
     if (useMonteCarlo()) {
       firstValidPerm(residues, 0, currentRotamers);
       rotamerOptimizationMC(residues, optimum, currentRotamers, nMCsteps, false, mcUseAll);
-    } else {
+    } else if (!aStar) {
       rotamerOptimizationDEE(
           molecularAssembly,
           residues,
@@ -2968,6 +2969,117 @@ public class RotamerOptimization implements Terminatable {
     return e;
   }
 
+  /**
+   * Apply DEE and then find the lowest energy conformations with an exact A* search. The global
+   * minimum is stored in the optimum array; for an ensemble, the lowest ensembleNumber
+   * conformations (or all within ensembleEnergy of the minimum) are stored in order of increasing
+   * energy.
+   *
+   * @param residues Residues to optimize.
+   */
+  private void aStarOptimization(Residue[] residues) {
+    int nResidues = residues.length;
+    boolean energyWindow = ensembleEnergy > 0.0;
+    if (energyWindow) {
+      ensembleBuffer = ensembleEnergy;
+    }
+    applyEliminationCriteria(residues, true, true);
+    if (x == null) {
+      Atom[] atoms = molecularAssembly.getAtomArray();
+      int nAtoms = atoms.length;
+      x = new double[nAtoms * 3];
+    }
+    if (parallelTeam == null) {
+      parallelTeam = new ParallelTeam();
+    }
+
+    int nConformations = energyWindow ? Integer.MAX_VALUE : ensembleNumber;
+    AStarSearch aStarSearch =
+        new AStarSearch(eE, eR, residues, library, threeBodyTerm, aStarMaxNodes);
+    List<ObjectPair<int[], Double>> conformations =
+        aStarSearch.search(parallelTeam, nConformations, energyWindow ? ensembleEnergy : 0.0);
+    evaluatedPermutations = conformations.size();
+    ensembleStates = new ArrayList<>();
+    if (conformations.isEmpty()) {
+      logger.severe(
+          " No valid path through rotamer space found; try recomputing without pruning or using ensemble.");
+      return;
+    }
+    if (!energyWindow && conformations.size() < ensembleNumber) {
+      logger.warning(
+          format(
+              " Requested an ensemble of %d, but only %d permutations survived elimination (buffer: %5.3f).",
+              ensembleNumber, conformations.size(), ensembleBuffer));
+    }
+    arraycopy(conformations.get(0).getVal(), 0, optimum, 0, nResidues);
+
+    logIfMaster("\n Energy of permutations:");
+    logIfMaster(format(" %12s %25s", "Permutation", "Energy"));
+    boolean ensemble = energyWindow || ensembleNumber > 1;
+    if (ensemble) {
+      initEnsembleFile();
+    }
+    for (int n = 0; n < conformations.size(); n++) {
+      int[] rotamers = conformations.get(n).getVal();
+      double energy = conformations.get(n).getKey();
+      logIfMaster(format(" %12d %25f", n + 1, energy));
+      if (!ensemble) {
+        continue;
+      }
+      for (int i = 0; i < nResidues; i++) {
+        Residue residue = residues[i];
+        RotamerLibrary.applyRotamer(residue, residue.getRotamers(library)[rotamers[i]]);
+      }
+      ResidueState[] states = ResidueState.storeAllCoordinates(residues);
+      ensembleStates.add(new ObjectPair<>(states, energy));
+      if (master && printFiles) {
+        try {
+          FileWriter fw = new FileWriter(ensembleFile, true);
+          BufferedWriter bw = new BufferedWriter(fw);
+          bw.write(format("MODEL        %d", n + 1));
+          for (int j = 0; j < 75; j++) {
+            bw.write(" ");
+          }
+          bw.newLine();
+          bw.flush();
+          ensembleFilter.writeFile(ensembleFile, true);
+          bw.write("ENDMDL");
+          for (int j = 0; j < 64; j++) {
+            bw.write(" ");
+          }
+          bw.newLine();
+          bw.close();
+        } catch (IOException e) {
+          logger.warning(format(" Exception writing to file: %s", ensembleFile.getName()));
+        }
+      }
+    }
+  }
+
+  /** Create the ensemble file and its PDBFilter, versioning the file name if needed. */
+  private void initEnsembleFile() {
+    if (master && printFiles && ensembleFile == null) {
+      File file = molecularAssembly.getFile();
+      String filename = FilenameUtils.removeExtension(file.getAbsolutePath());
+      ensembleFile = new File(filename + ".ens");
+      if (ensembleFile.exists()) {
+        for (int i = 2; i < 1000; i++) {
+          ensembleFile = new File(filename + ".ens_" + i);
+          if (!ensembleFile.exists()) {
+            break;
+          }
+        }
+        if (ensembleFile.exists()) {
+          logger.warning(
+              format(" Versioning failed: appending to end of file %s", ensembleFile.getName()));
+        }
+      }
+      ensembleFilter =
+          new PDBFilter(new File(ensembleFile.getName()), molecularAssembly, null, null);
+      logger.info(format(" Ensemble file: %s", ensembleFile.getName()));
+    }
+  }
+
   /**
    * Use Monte Carlo if monteCarlo specified, and either skipDEE specified or nMCsteps is smaller
    * then the remaining permutation size.
@@ -3634,15 +3746,21 @@ public class RotamerOptimization implements Terminatable {
     File restartFile;
     if (loadEnergyRestart) {
       restartFile = energyRestartFile;
+      if (binaryEnergyRestart && !BinaryEnergyRestart.isBinary(restartFile)) {
+        logger.info(
+            " Energies will be appended to the text restart file; use ConvertRestart to create a"
+                + " binary restart file.");
+      }
     } else {
       File file = molecularAssembly.getFile();
       String filename = FilenameUtils.removeExtension(file.getAbsolutePath());
-      Path restartPath = Paths.get(filename + ".restart");
+      String extension = binaryEnergyRestart ? ".restart.bin" : ".restart";
+      Path restartPath = Paths.get(filename + extension);
       restartFile = restartPath.toFile();
       energyRestartFile = restartFile;
     }
     try {
-      energyWriter = new BufferedWriter(new FileWriter(restartFile, true));
+      energyWriter = EnergyRestartWriter.open(restartFile, binaryEnergyRestart);
     } catch (IOException ex) {
       logger.log(Level.SEVERE, "Couldn't open energy restart file.", ex);
     }
@@ -3836,6 +3954,17 @@ public class RotamerOptimization implements Terminatable {
 
       long allTime = singlesTime + pairsTime + triplesTime + quadsTime;
       logIfMaster(format(" Time for all energies:    %12.4g", allTime * 1.0E-9));
+      String fallback = eE.getSubsetEnergyFallback();
+      if (fallback != null && !subsetEnergyFallbackLogged) {
+        logIfMaster(
+            format(
+                " ro-subsetEnergy was requested, but many-body energies are not pairwise additive"
+                    + " with %s;\n every energy above was computed with the full environment.",
+                fallback),
+            Level.WARNING);
+        subsetEnergyFallbackLogged = true;
+      }
+      eE.logStorageFootprint();
     } catch (Exception ex) {
       String message = " Exception computing rotamer energies in parallel.";
       logger.log(Level.SEVERE, message, ex);
@@ -4953,12 +5082,8 @@ public class RotamerOptimization implements Terminatable {
         int nResidues = residuesList.size();
         if (nResidues > 0) {
           if (master && writeEnergyRestart && printFiles) {
-            String boxHeader =
-                format(" Box %d: %d,%d,%d", i + 1, cellIndices[0], cellIndices[1], cellIndices[2]);
             try {
-              energyWriter.append(boxHeader);
-              energyWriter.newLine();
-              boxHeader = null;
+              energyWriter.writeBox(i + 1, cellIndices);
             } catch (IOException ex) {
               logger.log(Level.SEVERE, " Exception writing box header to energy restart file.", ex);
             }
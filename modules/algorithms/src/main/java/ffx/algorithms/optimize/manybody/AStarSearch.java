@@ -0,0 +1,586 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.algorithms.optimize.manybody;
+
+import static java.lang.Double.POSITIVE_INFINITY;
+import static java.lang.String.format;
+import static org.apache.commons.math3.util.FastMath.max;
+import static org.apache.commons.math3.util.FastMath.min;
+
+import edu.rit.pj.IntegerForLoop;
+import edu.rit.pj.IntegerSchedule;
+import edu.rit.pj.ParallelRegion;
+import edu.rit.pj.ParallelTeam;
+import ffx.potential.bonded.Residue;
+import ffx.potential.bonded.RotamerLibrary;
+import ffx.utilities.ObjectPair;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Exact search over the rotamers that survive dead-end elimination.
+ *
+ * <p>Residues are assigned in order. A node assigning residues 0..d-1 is scored by its exact
+ * many-body energy (backbone, self, 2-body and, if used, 3-body terms among the assigned residues)
+ * plus an admissible bound for the unassigned residues: for each unassigned residue k, the minimum
+ * over its surviving rotamers of the self energy, the 2-body energies with the assigned residues,
+ * the lowest 2-body energy with every later residue and the favorable 3-body minima that include
+ * it.
+ *
+ * <p>Nodes are expanded best-first in parallel batches. Once the frontier reaches its node limit,
+ * the children of each expanded node are finished by a depth-first branch-and-bound instead, so
+ * memory stays bounded while the search remains exact. Complete conformations leave the frontier
+ * in order of increasing energy, which gives the K lowest conformations directly.
+ *
+ * <p>In energy window mode only the lowest incumbent energy is kept, since every conformation
+ * within the window of the global minimum is also within the window of any incumbent. The cutoff
+ * is seeded by a greedy descent before the depth-first search starts, and nodes above the cutoff
+ * are dropped from the frontier while it is over its node limit.
+ */
+public class AStarSearch {
+
+  private static final Logger logger = Logger.getLogger(AStarSearch.class.getName());
+
+  private final EnergyExpansion eE;
+  private final EliminatedRotamers eR;
+  private final Residue[] residues;
+  private final int nResidues;
+  private final int[] nRotamers;
+  /** Flag to control use of 3-body terms. */
+  private final boolean threeBodyTerm;
+  /** Maximum number of nodes held in the frontier before switching to depth-first search. */
+  private final int maxNodes;
+  /** Sum over later residues j of the lowest 2-body energy between (k,rk) and j. */
+  private final double[][] pairBound;
+  /** Sum of the favorable 3-body minima that include (k,rk). */
+  private final double[][] threeBodyBound;
+  /** Nodes waiting to be expanded, ordered by their lower bound. */
+  private final PriorityQueue<Node> frontier = new PriorityQueue<>();
+  /** Energies of the best complete conformations found so far (largest first). */
+  private final PriorityQueue<Double> incumbents =
+      new PriorityQueue<>(Collections.reverseOrder());
+  /** Number of conformations requested. */
+  private int nConformations;
+  /** If positive, the energy window above the global minimum. */
+  private double energyWindow;
+  /** Nodes whose bound is not below this energy cannot improve the result. */
+  private volatile double cutoff;
+  /** Number of nodes expanded by the last search. */
+  private long expandedNodes;
+
+  /**
+   * Constructor for AStarSearch.
+   *
+   * @param eE The many-body energy expansion.
+   * @param eR The rotamers and rotamer pairs eliminated by DEE.
+   * @param residues The residues to optimize.
+   * @param library The rotamer library.
+   * @param threeBodyTerm Whether 3-body energies are included.
+   * @param maxNodes Maximum number of nodes held in the frontier.
+   */
+  public AStarSearch(
+      EnergyExpansion eE,
+      EliminatedRotamers eR,
+      Residue[] residues,
+      RotamerLibrary library,
+      boolean threeBodyTerm,
+      int maxNodes) {
+    this.eE = eE;
+    this.eR = eR;
+    this.residues = residues;
+    this.threeBodyTerm = threeBodyTerm;
+    this.maxNodes = maxNodes;
+    nResidues = residues.length;
+    nRotamers = new int[nResidues];
+    pairBound = new double[nResidues][];
+    threeBodyBound = new double[nResidues][];
+    for (int i = 0; i < nResidues; i++) {
+      nRotamers[i] = residues[i].getRotamers(library).length;
+      pairBound[i] = new double[nRotamers[i]];
+      threeBodyBound[i] = new double[nRotamers[i]];
+    }
+  }
+
+  /**
+   * Return the number of nodes expanded by the last search.
+   *
+   * @return The number of expanded nodes.
+   */
+  public long getExpandedNodes() {
+    return expandedNodes;
+  }
+
+  /**
+   * Find the lowest energy conformations.
+   *
+   * @param parallelTeam The ParallelTeam used to expand nodes.
+   * @param nConformations The number of conformations to return.
+   * @param energyWindow If positive, stop once conformations are more than this far above the
+   *     global minimum.
+   * @return Rotamer indices and energies of the conformations, in order of increasing energy.
+   */
+  public List<ObjectPair<int[], Double>> search(
+      ParallelTeam parallelTeam, int nConformations, double energyWindow) {
+    this.nConformations = nConformations;
+    this.energyWindow = energyWindow;
+    int nThreads = parallelTeam.getThreadCount();
+    frontier.clear();
+    incumbents.clear();
+    cutoff = POSITIVE_INFINITY;
+    expandedNodes = 0;
+
+    int maxRotamers = 1;
+    for (int n : nRotamers) {
+      maxRotamers = max(maxRotamers, n);
+    }
+
+    double windowEnergy = POSITIVE_INFINITY;
+    List<ObjectPair<int[], Double>> conformations = new ArrayList<>();
+    ExpansionRegion expansionRegion = new ExpansionRegion(nThreads);
+    try {
+      parallelTeam.execute(new BoundRegion());
+
+      Node root = new Node(new int[0], eE.getBackboneEnergy());
+      if (root.bound < cutoff) {
+        frontier.add(root);
+      }
+
+      int batchSize = 4 * nThreads;
+      List<Node> batch = new ArrayList<>(batchSize);
+      while (!frontier.isEmpty() && conformations.size() < nConformations) {
+        Node next = frontier.peek();
+        if (next.isComplete()) {
+          frontier.poll();
+          if (next.bound > windowEnergy) {
+            break;
+          }
+          conformations.add(new ObjectPair<>(next.rotamers, next.bound));
+          if (energyWindow > 0.0 && conformations.size() == 1) {
+            windowEnergy = next.bound + energyWindow;
+            updateCutoff(windowEnergy);
+          }
+          continue;
+        }
+
+        // Collect the best nodes, stopping at a complete conformation so results stay in order.
+        batch.clear();
+        while (batch.size() < batchSize && !frontier.isEmpty() && !frontier.peek().isComplete()) {
+          Node node = frontier.poll();
+          if (node.bound < cutoff) {
+            batch.add(node);
+          }
+        }
+        if (batch.isEmpty()) {
+          continue;
+        }
+
+        boolean depthFirst = frontier.size() + (long) batch.size() * maxRotamers > maxNodes;
+        if (depthFirst) {
+          if (energyWindow > 0.0 && cutoff == POSITIVE_INFINITY) {
+            seedCutoff(batch.get(0));
+          }
+          if (frontier.size() > maxNodes) {
+            frontier.removeIf(node -> node.bound >= cutoff);
+          }
+        }
+        expansionRegion.init(batch, depthFirst);
+        parallelTeam.execute(expansionRegion);
+        expandedNodes += expansionRegion.getExpandedNodes();
+        for (List<Node> children : expansionRegion.children) {
+          frontier.addAll(children);
+        }
+      }
+    } catch (Exception e) {
+      logger.log(Level.SEVERE, " Exception in A* rotamer search.", e);
+    }
+
+    logger.info(
+        format(
+            " A* search found %d conformation(s) after expanding %d nodes.",
+            conformations.size(), expandedNodes));
+    return conformations;
+  }
+
+  /**
+   * Record the energy of a complete conformation, lowering the cutoff once enough are known.
+   *
+   * @param energy The conformation energy.
+   * @return True if the conformation may be among those requested.
+   */
+  private synchronized boolean addIncumbent(double energy) {
+    if (energy >= cutoff) {
+      return false;
+    }
+    if (energyWindow > 0.0) {
+      updateCutoff(energy + energyWindow);
+      return true;
+    }
+    incumbents.add(energy);
+    if (incumbents.size() > nConformations) {
+      incumbents.poll();
+    }
+    if (incumbents.size() == nConformations) {
+      updateCutoff(incumbents.peek());
+    }
+    return true;
+  }
+
+  private synchronized void updateCutoff(double energy) {
+    if (energy < cutoff) {
+      cutoff = energy;
+    }
+  }
+
+  /**
+   * In energy window mode, set the cutoff from a complete conformation found by always descending
+   * to the child with the lowest bound.
+   *
+   * @param node The node to descend from.
+   */
+  private void seedCutoff(Node node) {
+    while (node != null && !node.isComplete()) {
+      int d = node.rotamers.length;
+      Node best = null;
+      for (int rd = 0; rd < nRotamers[d]; rd++) {
+        if (!allowed(node.rotamers, d, rd)) {
+          continue;
+        }
+        Node child = node.child(rd);
+        if (best == null || child.bound < best.bound) {
+          best = child;
+        }
+      }
+      node = best;
+    }
+    if (node != null) {
+      updateCutoff(node.bound + energyWindow);
+    }
+  }
+
+  /**
+   * Check whether rotamer rk of residue k survives DEE given the assigned residues.
+   *
+   * @param rotamers The assigned rotamers.
+   * @param k Residue k.
+   * @param rk Rotamer rk.
+   * @return True if the rotamer is still allowed.
+   */
+  private boolean allowed(int[] rotamers, int k, int rk) {
+    if (eR.check(k, rk)) {
+      return false;
+    }
+    for (int i = 0; i < rotamers.length; i++) {
+      if (eR.check(i, rotamers[i], k, rk)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Admissible lower bound on the energy contributed by residues not yet assigned.
+   *
+   * @param rotamers The assigned rotamers.
+   * @return The bound, or positive infinity if an unassigned residue has no allowed rotamer.
+   */
+  private double heuristic(int[] rotamers) {
+    int d = rotamers.length;
+    double h = 0.0;
+    for (int k = d; k < nResidues; k++) {
+      double best = POSITIVE_INFINITY;
+      for (int rk = 0; rk < nRotamers[k]; rk++) {
+        if (!allowed(rotamers, k, rk)) {
+          continue;
+        }
+        double e = eE.getSelf(k, rk) + pairBound[k][rk] + threeBodyBound[k][rk];
+        for (int i = 0; i < d; i++) {
+          e += eE.get2Body(i, rotamers[i], k, rk);
+        }
+        best = min(best, e);
+      }
+      if (best == POSITIVE_INFINITY) {
+        return best;
+      }
+      h += best;
+    }
+    return h;
+  }
+
+  /** A partial assignment of rotamers to residues 0..d-1. */
+  private class Node implements Comparable<Node> {
+
+    /** Rotamers of the assigned residues. */
+    final int[] rotamers;
+    /** Exact energy of the assigned residues. */
+    final double energy;
+    /** Lower bound on the energy of every completion of this node. */
+    final double bound;
+
+    Node(int[] rotamers, double energy) {
+      this.rotamers = rotamers;
+      this.energy = energy;
+      this.bound = isComplete() ? energy : energy + heuristic(rotamers);
+    }
+
+    /**
+     * Create the child that assigns rotamer rd to the next residue.
+     *
+     * @param rd Rotamer of residue d.
+     * @return The child node.
+     */
+    Node child(int rd) {
+      int d = rotamers.length;
+      int[] childRotamers = Arrays.copyOf(rotamers, d + 1);
+      childRotamers[d] = rd;
+      double e = energy + eE.getSelf(d, rd);
+      for (int i = 0; i < d; i++) {
+        int ri = rotamers[i];
+        e += eE.get2Body(i, ri, d, rd);
+        if (threeBodyTerm) {
+          for (int j = i + 1; j < d; j++) {
+            e += eE.get3Body(residues, i, ri, j, rotamers[j], d, rd);
+          }
+        }
+      }
+      return new Node(childRotamers, e);
+    }
+
+    boolean isComplete() {
+      return rotamers.length == nResidues;
+    }
+
+    @Override
+    public int compareTo(Node o) {
+      int c = Double.compare(bound, o.bound);
+      if (c == 0) {
+        // Prefer deeper nodes to reach complete conformations sooner.
+        c = Integer.compare(o.rotamers.length, rotamers.length);
+      }
+      return c;
+    }
+  }
+
+  /** Precompute the per-rotamer parts of the heuristic. */
+  private class BoundRegion extends ParallelRegion {
+
+    @Override
+    public void run() throws Exception {
+      execute(0, nResidues - 1, new BoundLoop());
+    }
+
+    private class BoundLoop extends IntegerForLoop {
+
+      @Override
+      public void run(int lb, int ub) {
+        for (int k = lb; k <= ub; k++) {
+          for (int rk = 0; rk < nRotamers[k]; rk++) {
+            if (eR.check(k, rk)) {
+              continue;
+            }
+            double pairs = 0.0;
+            for (int j = k + 1; j < nResidues; j++) {
+              pairs += eE.lowestPairEnergy(residues, k, rk, j);
+            }
+            pairBound[k][rk] = pairs;
+            if (threeBodyTerm) {
+              threeBodyBound[k][rk] = favorableThreeBody(k, rk);
+            }
+          }
+        }
+      }
+
+      /**
+       * Sum over residue pairs (a,b) of the lowest 3-body energy with (k,rk), if negative.
+       *
+       * <p>This covers every 3-body term that can be charged to residue k by the heuristic.
+       */
+      private double favorableThreeBody(int k, int rk) {
+        double sum = 0.0;
+        for (int a = 0; a < nResidues; a++) {
+          if (a == k) {
+            continue;
+          }
+          for (int b = a + 1; b < nResidues; b++) {
+            if (b == k) {
+              continue;
+            }
+            double lowest = 0.0;
+            for (int ra = 0; ra < nRotamers[a]; ra++) {
+              if (eR.check(a, ra) || eR.check(a, ra, k, rk)) {
+                continue;
+              }
+              for (int rb = 0; rb < nRotamers[b]; rb++) {
+                if (eR.check(b, rb) || eR.check(b, rb, k, rk)) {
+                  continue;
+                }
+                lowest = min(lowest, eE.get3Body(residues, k, rk, a, ra, b, rb));
+              }
+            }
+            sum += lowest;
+          }
+        }
+        return sum;
+      }
+
+      @Override
+      public IntegerSchedule schedule() {
+        return IntegerSchedule.dynamic();
+      }
+    }
+  }
+
+  /** Expand a batch of nodes in parallel. */
+  private class ExpansionRegion extends ParallelRegion {
+
+    /** Children produced by each thread. */
+    private final List<List<Node>> children;
+
+    private final long[] expanded;
+    private List<Node> batch;
+    private boolean depthFirst;
+
+    ExpansionRegion(int nThreads) {
+      children = new ArrayList<>(nThreads);
+      expanded = new long[nThreads];
+      for (int i = 0; i < nThreads; i++) {
+        children.add(new ArrayList<>());
+      }
+    }
+
+    void init(List<Node> batch, boolean depthFirst) {
+      this.batch = batch;
+      this.depthFirst = depthFirst;
+      for (int i = 0; i < expanded.length; i++) {
+        children.get(i).clear();
+        expanded[i] = 0;
+      }
+    }
+
+    long getExpandedNodes() {
+      long sum = 0;
+      for (long n : expanded) {
+        sum += n;
+      }
+      return sum;
+    }
+
+    @Override
+    public void run() throws Exception {
+      int threadID = getThreadIndex();
+      execute(0, batch.size() - 1, new ExpansionLoop(threadID));
+    }
+
+    private class ExpansionLoop extends IntegerForLoop {
+
+      private final int threadID;
+
+      ExpansionLoop(int threadID) {
+        this.threadID = threadID;
+      }
+
+      @Override
+      public void run(int lb, int ub) {
+        for (int n = lb; n <= ub; n++) {
+          Node node = batch.get(n);
+          if (node.bound >= cutoff) {
+            continue;
+          }
+          if (depthFirst) {
+            branchAndBound(node);
+          } else {
+            expand(node);
+          }
+        }
+      }
+
+      /** Queue the children of a node that could still improve the result. */
+      private void expand(Node node) {
+        expanded[threadID]++;
+        int d = node.rotamers.length;
+        for (int rd = 0; rd < nRotamers[d]; rd++) {
+          if (!allowed(node.rotamers, d, rd)) {
+            continue;
+          }
+          Node child = node.child(rd);
+          if (child.isComplete() ? addIncumbent(child.bound) : child.bound < cutoff) {
+            children.get(threadID).add(child);
+          }
+        }
+      }
+
+      /** Search the subtree below a node depth-first, queueing only complete conformations. */
+      private void branchAndBound(Node node) {
+        expanded[threadID]++;
+        int d = node.rotamers.length;
+        List<Node> nodes = new ArrayList<>(nRotamers[d]);
+        for (int rd = 0; rd < nRotamers[d]; rd++) {
+          if (!allowed(node.rotamers, d, rd)) {
+            continue;
+          }
+          Node child = node.child(rd);
+          if (child.bound < cutoff) {
+            nodes.add(child);
+          }
+        }
+        Collections.sort(nodes);
+        for (Node child : nodes) {
+          if (child.bound >= cutoff) {
+            break;
+          }
+          if (child.isComplete()) {
+            if (addIncumbent(child.bound)) {
+              children.get(threadID).add(child);
+            }
+          } else {
+            branchAndBound(child);
+          }
+        }
+      }
+
+      @Override
+      public IntegerSchedule schedule() {
+        return IntegerSchedule.dynamic();
+      }
+    }
+  }
+}
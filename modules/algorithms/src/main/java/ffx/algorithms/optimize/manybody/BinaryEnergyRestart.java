@@ -0,0 +1,382 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.algorithms.optimize.manybody;
+
+import static java.lang.String.format;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+/**
+ * Versioned binary energy restart format.
+ *
+ * <p>The file starts with a magic number and a format version, followed by fixed-length records
+ * that are appended as energies are computed. Each record is a one byte tag followed by its
+ * payload:
+ *
+ * <ul>
+ *   <li>Box: iteration and x, y, z cell indices (4 ints).
+ *   <li>Self: residue and rotamer (2 ints) and the energy (1 double).
+ *   <li>Pair: residue and rotamer for 2 residues (4 ints) and the energy (1 double).
+ *   <li>Triple: residue and rotamer for 3 residues (6 ints) and the energy (1 double).
+ * </ul>
+ *
+ * <p>Records are written whole, so a run that dies partway through writing leaves at most one
+ * truncated record at the end of the file. It is ignored when reading and removed before new
+ * records are appended. Files are read through memory-mapped windows of a {@link FileChannel}.
+ */
+public class BinaryEnergyRestart {
+
+  private static final Logger logger = Logger.getLogger(BinaryEnergyRestart.class.getName());
+
+  /** Magic number that identifies a binary energy restart file ("FFXR"). */
+  static final int MAGIC = 0x46465852;
+  /** Current version of the binary energy restart format. */
+  static final int VERSION = 1;
+  /** Length of the header in bytes. */
+  static final int HEADER_BYTES = 2 * Integer.BYTES;
+  /** Tag of a box record. */
+  static final byte BOX = 0;
+  /** Tag of a self energy record. */
+  static final byte SELF = 1;
+  /** Tag of a 2-body energy record. */
+  static final byte PAIR = 2;
+  /** Tag of a 3-body energy record. */
+  static final byte TRIPLE = 3;
+  /** Length of the largest record in bytes. */
+  static final int MAX_RECORD_BYTES = recordBytes(TRIPLE);
+  /** Largest region of the file mapped at once. */
+  private static final long MAP_WINDOW = 1L << 30;
+
+  private BinaryEnergyRestart() {}
+
+  /**
+   * Length of a record, including its tag.
+   *
+   * @param tag The record tag.
+   * @return The record length in bytes, or -1 for an unknown tag.
+   */
+  static int recordBytes(byte tag) {
+    switch (tag) {
+      case BOX:
+        return 1 + 4 * Integer.BYTES;
+      case SELF:
+      case PAIR:
+      case TRIPLE:
+        return 1 + 2 * tag * Integer.BYTES + Double.BYTES;
+      default:
+        return -1;
+    }
+  }
+
+  /**
+   * Check if a file starts with the binary energy restart magic number.
+   *
+   * @param file The file to check.
+   * @return True for a binary energy restart file.
+   */
+  public static boolean isBinary(File file) {
+    if (!file.isFile() || file.length() < HEADER_BYTES) {
+      return false;
+    }
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+      while (header.hasRemaining() && channel.read(header) >= 0) {
+        // Keep reading until the magic number is complete.
+      }
+      header.flip();
+      return header.remaining() == Integer.BYTES && header.getInt() == MAGIC;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Check the header of a binary energy restart file.
+   *
+   * @param channel Channel positioned anywhere in the file.
+   * @throws IOException If the header is missing or the version is not supported.
+   */
+  static void checkHeader(FileChannel channel) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    channel.position(0);
+    while (header.hasRemaining() && channel.read(header) >= 0) {
+      // Keep reading until the header is complete.
+    }
+    header.flip();
+    if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+      throw new IOException(" Not a binary energy restart file.");
+    }
+    int version = header.getInt();
+    if (version != VERSION) {
+      throw new IOException(
+          format(" Unsupported binary energy restart version %d (expected %d).", version, VERSION));
+    }
+  }
+
+  /**
+   * Read the energies of a binary restart file.
+   *
+   * @param restartFile The binary restart file.
+   * @param boxIteration Box to load, or a negative value to load every energy.
+   * @param cellIndices Cell indices of the box to load.
+   * @return The energies, or null if the requested box was not found.
+   * @throws IOException If the file could not be read.
+   */
+  public static RestartEnergies read(File restartFile, int boxIteration, int[] cellIndices)
+      throws IOException {
+    RestartEnergies restartEnergies = new RestartEnergies();
+    try (FileChannel channel = FileChannel.open(restartFile.toPath(), StandardOpenOption.READ)) {
+      checkHeader(channel);
+      RecordVisitor visitor = new RecordVisitor(restartEnergies, boxIteration, cellIndices);
+      long end = scan(channel, visitor);
+      if (end < channel.size()) {
+        logger.warning(
+            format(
+                " Ignoring %d bytes of an incomplete record at the end of %s.",
+                channel.size() - end, restartFile.getName()));
+      }
+      return visitor.foundBox ? restartEnergies : null;
+    }
+  }
+
+  /**
+   * Find the end of the last complete record of a binary restart file.
+   *
+   * @param channel Channel of the binary restart file.
+   * @return The length of the file that holds complete records.
+   * @throws IOException If the file could not be read.
+   */
+  static long validLength(FileChannel channel) throws IOException {
+    checkHeader(channel);
+    return scan(channel, null);
+  }
+
+  /**
+   * Convert a text energy restart file to the binary format.
+   *
+   * <p>Residues given by name rather than index cannot be resolved without the molecular system and
+   * are skipped.
+   *
+   * @param textFile The text restart file.
+   * @param binaryFile The binary restart file to create.
+   * @return The number of energies converted.
+   * @throws IOException If either file could not be accessed.
+   */
+  public static int convert(File textFile, File binaryFile) throws IOException {
+    Files.deleteIfExists(binaryFile.toPath());
+    int count = 0;
+    try (BufferedReader reader = Files.newBufferedReader(textFile.toPath(), StandardCharsets.UTF_8);
+        EnergyRestartWriter writer = EnergyRestartWriter.open(binaryFile, true)) {
+      RestartEnergies line = new RestartEnergies();
+      String text;
+      while ((text = reader.readLine()) != null) {
+        line.clear();
+        String trimmed = text.trim();
+        if (trimmed.startsWith("Box")) {
+          try {
+            int[] box = RestartEnergies.parseBox(trimmed);
+            writer.writeBox(box[0], new int[] {box[1], box[2], box[3]});
+          } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+            logger.warning(format(" Unparsable box header in energy restart file: \n%s", text));
+          }
+          continue;
+        }
+        int order = line.addText(text, null);
+        if (order == 0) {
+          continue;
+        }
+        int n = 0;
+        double energy = line.getEnergy(order, n);
+        int i = line.getIndex(order, n, 0);
+        int ri = line.getIndex(order, n, 1);
+        if (order == 1) {
+          writer.writeSelf(i, ri, energy);
+        } else {
+          int j = line.getIndex(order, n, 2);
+          int rj = line.getIndex(order, n, 3);
+          if (order == 2) {
+            writer.writePair(i, ri, j, rj, energy);
+          } else {
+            int k = line.getIndex(order, n, 4);
+            int rk = line.getIndex(order, n, 5);
+            writer.writeTriple(i, ri, j, rj, k, rk, energy);
+          }
+        }
+        count++;
+      }
+    }
+    logger.info(
+        format(
+            " Converted %d energies from %s to %s.",
+            count, textFile.getName(), binaryFile.getName()));
+    return count;
+  }
+
+  /**
+   * Walk the complete records of a binary restart file through memory-mapped windows.
+   *
+   * @param channel Channel of the binary restart file.
+   * @param visitor Receives each record; may be null to only find the end of the records.
+   * @return The offset just past the last complete record.
+   * @throws IOException If the file could not be mapped.
+   */
+  private static long scan(FileChannel channel, RecordVisitor visitor) throws IOException {
+    long size = channel.size();
+    long position = HEADER_BYTES;
+    while (position < size) {
+      long length = Math.min(MAP_WINDOW, size - position);
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+      boolean lastWindow = position + length == size;
+      int consumed = 0;
+      while (buffer.remaining() > 0) {
+        int start = buffer.position();
+        byte tag = buffer.get(start);
+        int bytes = recordBytes(tag);
+        if (bytes < 0) {
+          logger.warning(format(" Unknown record tag %d at offset %d.", tag, position + start));
+          return position + consumed;
+        }
+        if (buffer.remaining() < bytes) {
+          break;
+        }
+        buffer.get();
+        if (visitor != null) {
+          visitor.visit(tag, buffer);
+        } else {
+          buffer.position(start + bytes);
+        }
+        consumed = buffer.position();
+      }
+      if (consumed == 0 || lastWindow) {
+        // The remaining bytes cannot hold a complete record.
+        return position + consumed;
+      }
+      position += consumed;
+    }
+    return position;
+  }
+
+  /** Collects the records of a binary restart file, optionally limited to a single box. */
+  private static class RecordVisitor {
+
+    private final RestartEnergies restartEnergies;
+    private final int boxIteration;
+    private final int[] cellIndices;
+    private boolean inBox;
+    private boolean foundBox;
+    private boolean pastBox = false;
+
+    RecordVisitor(RestartEnergies restartEnergies, int boxIteration, int[] cellIndices) {
+      this.restartEnergies = restartEnergies;
+      this.boxIteration = boxIteration;
+      this.cellIndices = cellIndices;
+      inBox = boxIteration < 0;
+      foundBox = inBox;
+    }
+
+    /**
+     * Consume the payload of one record.
+     *
+     * @param tag The record tag.
+     * @param buffer Buffer positioned at the start of the payload.
+     */
+    void visit(byte tag, ByteBuffer buffer) {
+      switch (tag) {
+        case BOX:
+          int iteration = buffer.getInt();
+          int x = buffer.getInt();
+          int y = buffer.getInt();
+          int z = buffer.getInt();
+          if (boxIteration < 0) {
+            return;
+          }
+          if (foundBox) {
+            pastBox = true;
+          }
+          inBox =
+              !pastBox
+                  && iteration == boxIteration
+                  && x == cellIndices[0]
+                  && y == cellIndices[1]
+                  && z == cellIndices[2];
+          foundBox |= inBox;
+          break;
+        case SELF:
+          int i = buffer.getInt();
+          int ri = buffer.getInt();
+          double selfEnergy = buffer.getDouble();
+          if (inBox) {
+            restartEnergies.addSelf(i, ri, selfEnergy);
+          }
+          break;
+        case PAIR:
+          int pi = buffer.getInt();
+          int pri = buffer.getInt();
+          int pj = buffer.getInt();
+          int prj = buffer.getInt();
+          double pairEnergy = buffer.getDouble();
+          if (inBox) {
+            restartEnergies.addPair(pi, pri, pj, prj, pairEnergy);
+          }
+          break;
+        case TRIPLE:
+        default:
+          int ti = buffer.getInt();
+          int tri = buffer.getInt();
+          int tj = buffer.getInt();
+          int trj = buffer.getInt();
+          int tk = buffer.getInt();
+          int trk = buffer.getInt();
+          double tripleEnergy = buffer.getDouble();
+          if (inBox) {
+            restartEnergies.addTriple(ti, tri, tj, trj, tk, trk, tripleEnergy);
+          }
+          break;
+      }
+    }
+  }
+}
@@ -42,21 +42,23 @@ import static java.lang.String.format;
 import ffx.algorithms.AlgorithmListener;
 import ffx.algorithms.optimize.RotamerOptimization;
 import ffx.numerics.Potential;
+import ffx.potential.ForceFieldEnergy;
 import ffx.potential.ForceFieldEnergyOpenMM;
 import ffx.potential.MolecularAssembly;
 import ffx.potential.bonded.Atom;
 import ffx.potential.bonded.Residue;
 import ffx.potential.bonded.Rotamer;
 import ffx.potential.bonded.RotamerLibrary;
+import ffx.potential.nonbonded.ParticleMeshEwald;
+import ffx.potential.nonbonded.ParticleMeshEwald.Polarization;
 import ffx.potential.utils.EnergyException;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -71,14 +73,22 @@ public class EnergyExpansion {
   private static final double DEFAULT_OMM_RECALCULATE_THRESHOLD = -200;
   /** Default value for the singularityThreshold in kcal/mol. */
   private static final double DEFAULT_SINGULARITY_THRESHOLD = -1000;
+  /** Number of bits used for each global rotamer index within a packed many-body key. */
+  private static final int ROTAMER_KEY_BITS = 21;
+  /** Maximum number of rotamers that can be addressed by a packed many-body key. */
+  private static final int MAX_KEYED_ROTAMERS = 1 << ROTAMER_KEY_BITS;
+  /** Object header of an array with compressed class pointers, used for storage estimates. */
+  private static final long ARRAY_HEADER_BYTES = 16;
+  /** Size of a compressed object reference, used for storage estimates. */
+  private static final int REFERENCE_BYTES = 4;
   /** Map of self-energy values to compute. */
-  private final Map<Integer, Integer[]> selfEnergyMap = new HashMap<>();
+  private final Map<Integer, int[]> selfEnergyMap = new HashMap<>();
   /** Map of 2-body energy values to compute. */
-  private final Map<Integer, Integer[]> twoBodyEnergyMap = new HashMap<>();
+  private final Map<Integer, int[]> twoBodyEnergyMap = new HashMap<>();
   /** Map of 3-body energy values to compute. */
-  private final Map<Integer, Integer[]> threeBodyEnergyMap = new HashMap<>();
+  private final Map<Integer, int[]> threeBodyEnergyMap = new HashMap<>();
   /** Map of 4-body energy values to compute. */
-  private final Map<Integer, Integer[]> fourBodyEnergyMap = new HashMap<>();
+  private final Map<Integer, int[]> fourBodyEnergyMap = new HashMap<>();
   /** Flag to indicate if this is the master process. */
   private final boolean master;
   /**
@@ -95,6 +105,25 @@ public class EnergyExpansion {
   private final double singularityThreshold;
   /** Indicates if the Potential is an OpenMMForceFieldEnergy. */
   private final boolean potentialIsOpenMM;
+  /**
+   * If true, many-body energies are computed with the environment (all atoms that are not side-chain
+   * atoms of the residues under optimization) turned off. This is exact for pairwise additive
+   * energy functions, for which the environment contributes only to self energies.
+   */
+  private final boolean subsetEnergy;
+  /** Why ro-subsetEnergy was requested but disabled, or null if it was not. */
+  private final String subsetEnergyFallback;
+  /** The residues the environment and isolated energies were determined for. */
+  private Residue[] subsetResidues;
+  /** Atoms in use that are turned off to compute isolated energies. */
+  private Atom[] environmentAtoms;
+  /** Energy with the environment and all residues under optimization turned off. */
+  private double isolatedBackboneEnergy;
+  /**
+   * Energy of each rotamer with the environment and all other residues turned off, minus the
+   * isolated backbone energy. NaN until computed. [residue][rotamer]
+   */
+  private double[][] isolatedSelfEnergy;
 
   private final RotamerOptimization rO;
   private final DistanceMatrix dM;
@@ -131,15 +160,24 @@ public class EnergyExpansion {
   /** Self-energy of each residue for each rotamer. [residue][rotamer] */
   private double[][] selfEnergy;
   /**
-   * Two-body energies for each pair of residues and pair of rotamers.
-   * [residue1][rotamer1][residue2][rotamer2]
+   * Two-body energies for each pair of residues and pair of rotamers. The rotamers of every neighbor
+   * of residue1 share a single row. [residue1][rotamer1][pairOffset + rotamer2]
    */
-  private double[][][][] twoBodyEnergy;
+  private double[][][] twoBodyEnergy;
+  /** Offset of each neighbor's rotamers within a 2-body row. [residue1][neighbor index] */
+  private int[][] pairOffsets;
+  /** Offset of each residue's first rotamer in the global rotamer numbering used by packed keys. */
+  private int[] rotamerOffsets;
   /**
-   * Trimer-energies for each trimer of rotamers.
-   * [residue1][rotamer1][residue2][rotamer2][residue3][rotamer3]
+   * Trimer-energies for each trimer of rotamers. The rotamers of every neighbor of residue2 share a
+   * single row laid out as in the 2-body row of residue2, and rows without a trimer inside the
+   * cutoff are not allocated. [residue1][rotamer1][neighbor index][rotamer2][pairOffset + rotamer3]
    */
-  private double[][][][][][] threeBodyEnergy;
+  private double[][][][][] threeBodyEnergy;
+  /** Bytes the 3-body energies would occupy as nested [i][ri][indJ][rj][indK][rk] arrays. */
+  private long nestedThreeBodyBytes;
+  /** Number of trimers inside the cutoff when the 3-body energies were allocated. */
+  private int threeBodyCount;
 
   public EnergyExpansion(
       RotamerOptimization rO,
@@ -188,6 +226,43 @@ public class EnergyExpansion {
     } else {
       ommRecalculateThreshold = -1E200;
     }
+
+    boolean subset = properties.getBoolean("ro-subsetEnergy", false);
+    if (subset) {
+      String reason = null;
+      if (potentialIsOpenMM) {
+        reason = "OpenMM";
+      } else if (!(potential instanceof ForceFieldEnergy)) {
+        reason = "a potential other than ForceFieldEnergy";
+      } else {
+        ForceFieldEnergy forceFieldEnergy = (ForceFieldEnergy) potential;
+        ParticleMeshEwald pme = forceFieldEnergy.getPmeNode();
+        if (pme != null && pme.getPolarizationType() != Polarization.NONE) {
+          reason = "polarization";
+        } else if (forceFieldEnergy.getGK() != null) {
+          reason = "generalized Kirkwood";
+        }
+      }
+      if (reason != null) {
+        logger.fine(format(" Subset many-body energies are disabled with %s.", reason));
+        subset = false;
+      } else {
+        logger.info(" Computing many-body energies with the environment turned off.");
+      }
+      subsetEnergyFallback = reason;
+    } else {
+      subsetEnergyFallback = null;
+    }
+    subsetEnergy = subset;
+  }
+
+  /**
+   * Return why subset many-body energies (ro-subsetEnergy) were requested but disabled.
+   *
+   * @return The reason, or null if subset energies were not requested or are in use.
+   */
+  public String getSubsetEnergyFallback() {
+    return subsetEnergyFallback;
   }
 
   /**
@@ -196,20 +271,8 @@ public class EnergyExpansion {
    * @param residue The residue to turn off.
    */
   private static void turnOffAtoms(Residue residue) {
-    switch (residue.getResidueType()) {
-      case NA:
-      case AA:
-        List<Atom> atomList = residue.getVariableAtoms();
-        for (Atom atom : atomList) {
-          atom.setUse(false);
-        }
-        break;
-      default:
-        atomList = residue.getAtomList();
-        for (Atom atom : atomList) {
-          atom.setUse(false);
-        }
-        break;
+    for (Atom atom : getVariableAtoms(residue)) {
+      atom.setUse(false);
     }
   }
 
@@ -219,42 +282,60 @@ public class EnergyExpansion {
    * @param residue The Residue to turn on.
    */
   private static void turnOnAtoms(Residue residue) {
+    for (Atom atom : getVariableAtoms(residue)) {
+      atom.setUse(true);
+    }
+  }
+
+  /**
+   * The atoms of a residue that are turned on and off: side-chain atoms of amino and nucleic
+   * acids, and all atoms of other residues.
+   *
+   * @param residue The Residue.
+   * @return The variable atoms.
+   */
+  private static List<Atom> getVariableAtoms(Residue residue) {
     switch (residue.getResidueType()) {
       case NA:
       case AA:
-        List<Atom> atomList = residue.getVariableAtoms();
-        for (Atom atom : atomList) {
-          atom.setUse(true);
-        }
-        break;
+        return residue.getVariableAtoms();
       default:
-        atomList = residue.getAtomList();
-        for (Atom atom : atomList) {
-          atom.setUse(true);
-        }
-        break;
+        return residue.getAtomList();
     }
   }
 
-  public HashMap<String, Integer> allocate2BodyJobMap(
+  public Long2IntOpenHashMap allocate2BodyJobMap(
       Residue[] residues, int nResidues, boolean reverseMap) {
     twoBodyEnergyMap.clear();
+    computeRotamerOffsets(residues, nResidues);
     // allocated twoBodyEnergy array and create pair jobs
-    HashMap<String, Integer> reverseJobMapPairs = new HashMap<>();
+    Long2IntOpenHashMap reverseJobMapPairs = new Long2IntOpenHashMap();
+    reverseJobMapPairs.defaultReturnValue(-1);
     int pairJobIndex = 0;
-    twoBodyEnergy = new double[nResidues][][][];
+    twoBodyEnergy = new double[nResidues][][];
+    pairOffsets = new int[nResidues][];
     for (int i = 0; i < nResidues; i++) {
       Residue resi = residues[i];
       int indexI = allResiduesList.indexOf(resi);
       Rotamer[] roti = resi.getRotamers(library);
       int[] nI = resNeighbors[i];
       int lenNI = nI.length;
-      twoBodyEnergy[i] = new double[roti.length][lenNI][];
+
+      // Lay out the rotamers of each neighbor of residue i back-to-back within one row.
+      int[] offsets = new int[lenNI];
+      int rowLength = 0;
+      for (int indJ = 0; indJ < lenNI; indJ++) {
+        offsets[indJ] = rowLength;
+        rowLength += residues[nI[indJ]].getRotamers(library).length;
+      }
+      pairOffsets[i] = offsets;
+      twoBodyEnergy[i] = new double[roti.length][];
 
       for (int ri = 0; ri < roti.length; ri++) {
         if (eR.check(i, ri)) {
           continue;
         }
+        twoBodyEnergy[i][ri] = new double[rowLength];
         // for (int j = i + 1; j < nResidues; j++) {
         for (int indJ = 0; indJ < lenNI; indJ++) {
           int j = nI[indJ];
@@ -262,7 +343,6 @@ public class EnergyExpansion {
             Residue resj = residues[j];
             int indexJ = allResiduesList.indexOf(resj);
             Rotamer[] rotj = resj.getRotamers(library);
-            twoBodyEnergy[i][ri][indJ] = new double[rotj.length];
             for (int rj = 0; rj < rotj.length; rj++) {
               if (eR.checkToJ(i, ri, j, rj)) {
                 continue;
@@ -273,14 +353,13 @@ public class EnergyExpansion {
                 continue;
               }
 
-              Integer[] pairJob = {i, ri, j, rj};
+              int[] pairJob = {i, ri, j, rj};
               if (decomposeOriginal && (ri != 0 || rj != 0)) {
                 continue;
               }
               twoBodyEnergyMap.put(pairJobIndex, pairJob);
               if (reverseMap) {
-                String revKey = format("%d %d %d %d", i, ri, j, rj);
-                reverseJobMapPairs.put(revKey, pairJobIndex);
+                reverseJobMapPairs.put(rotamerKey(i, ri, j, rj), pairJobIndex);
               }
               pairJobIndex++;
             }
@@ -291,12 +370,22 @@ public class EnergyExpansion {
     return reverseJobMapPairs;
   }
 
-  public HashMap<String, Integer> allocate3BodyJobMap(
+  public Long2IntOpenHashMap allocate3BodyJobMap(
       Residue[] residues, int nResidues, boolean reverseMap) {
-    HashMap<String, Integer> reverseJobMapTrimers = new HashMap<>();
+    Long2IntOpenHashMap reverseJobMapTrimers = new Long2IntOpenHashMap();
+    reverseJobMapTrimers.defaultReturnValue(-1);
     threeBodyEnergyMap.clear();
-    // fill in 3-Body energies from the restart file.
-    threeBodyEnergy = new double[nResidues][][][][][];
+    computeRotamerOffsets(residues, nResidues);
+    // Each 3-body row spans the rotamers of every neighbor of residue j, as its 2-body row does.
+    int[] rowLengths = new int[nResidues];
+    for (int j = 0; j < nResidues; j++) {
+      for (int k : resNeighbors[j]) {
+        rowLengths[j] += residues[k].getRotamers(library).length;
+      }
+    }
+    threeBodyEnergy = new double[nResidues][][][][];
+    // Tally the nested arrays this layout replaces, so the storage summary can compare the two.
+    nestedThreeBodyBytes = arrayBytes(nResidues, REFERENCE_BYTES);
     int trimerJobIndex = 0;
     for (int i = 0; i < nResidues; i++) {
       Residue resi = residues[i];
@@ -305,12 +394,15 @@ public class EnergyExpansion {
       int lenri = roti.length;
       int[] nI = resNeighbors[i];
       int lenNI = nI.length;
-      threeBodyEnergy[i] = new double[lenri][lenNI][][][];
+      nestedThreeBodyBytes +=
+          arrayBytes(lenri, REFERENCE_BYTES) + lenri * arrayBytes(lenNI, REFERENCE_BYTES);
+      threeBodyEnergy[i] = new double[lenri][][][];
 
       for (int ri = 0; ri < lenri; ri++) {
         if (eR.check(i, ri)) {
           continue;
         }
+        threeBodyEnergy[i][ri] = new double[lenNI][][];
         for (int indJ = 0; indJ < lenNI; indJ++) {
           // for (int j = i + 1; j < nResidues; j++) {
           int j = nI[indJ];
@@ -320,7 +412,10 @@ public class EnergyExpansion {
           int lenrj = rotj.length;
           int[] nJ = resNeighbors[j];
           int lenNJ = nJ.length;
-          threeBodyEnergy[i][ri][indJ] = new double[lenrj][lenNJ][];
+          nestedThreeBodyBytes +=
+              arrayBytes(lenrj, REFERENCE_BYTES) + lenrj * arrayBytes(lenNJ, REFERENCE_BYTES);
+          double[][] rows = new double[lenrj][];
+          threeBodyEnergy[i][ri][indJ] = rows;
 
           for (int rj = 0; rj < lenrj; rj++) {
             if (eR.checkToJ(i, ri, j, rj)) {
@@ -333,23 +428,26 @@ public class EnergyExpansion {
               int indexK = allResiduesList.indexOf(resk);
               Rotamer[] rotk = resk.getRotamers(library);
               int lenrk = rotk.length;
-              threeBodyEnergy[i][ri][indJ][rj][indK] = new double[lenrk];
+              nestedThreeBodyBytes += arrayBytes(lenrk, Double.BYTES);
 
               for (int rk = 0; rk < lenrk; rk++) {
-                if (eR.checkToK(i, ri, j, rj, k, rk)) {
+                if (dM.checkTriDistThreshold(indexI, ri, indexJ, rj, indexK, rk)) {
                   continue;
                 }
-                if (dM.checkTriDistThreshold(indexI, ri, indexJ, rj, indexK, rk)) {
+                // Any trimer inside the cutoff can be read back, so its row must exist.
+                if (rows[rj] == null) {
+                  rows[rj] = new double[rowLengths[j]];
+                }
+                if (eR.checkToK(i, ri, j, rj, k, rk)) {
                   continue;
                 }
-                Integer[] trimerJob = {i, ri, j, rj, k, rk};
+                int[] trimerJob = {i, ri, j, rj, k, rk};
                 if (decomposeOriginal && (ri != 0 || rj != 0 || rk != 0)) {
                   continue;
                 }
                 threeBodyEnergyMap.put(trimerJobIndex, trimerJob);
                 if (reverseMap) {
-                  String revKey = format("%d %d %d %d %d %d", i, ri, j, rj, k, rk);
-                  reverseJobMapTrimers.put(revKey, trimerJobIndex);
+                  reverseJobMapTrimers.put(rotamerKey(i, ri, j, rj, k, rk), trimerJobIndex);
                 }
                 trimerJobIndex++;
               }
@@ -358,6 +456,7 @@ public class EnergyExpansion {
         }
       }
     }
+    threeBodyCount = trimerJobIndex;
     return reverseJobMapTrimers;
   }
 
@@ -401,7 +500,7 @@ public class EnergyExpansion {
                     if (eR.checkToL(i, ri, j, rj, k, rk, l, rl)) {
                       continue;
                     }
-                    Integer[] quadJob = {i, ri, j, rj, k, rk, l, rl};
+                    int[] quadJob = {i, ri, j, rj, k, rk, l, rl};
                     if (decomposeOriginal && (ri != 0 || rj != 0 || rk != 0 || rl != 0)) {
                       continue;
                     }
@@ -441,11 +540,13 @@ public class EnergyExpansion {
     }
   }
 
-  public HashMap<String, Integer> allocateSelfJobMap(
+  public Long2IntOpenHashMap allocateSelfJobMap(
       Residue[] residues, int nResidues, boolean reverseMap) {
     selfEnergyMap.clear();
+    computeRotamerOffsets(residues, nResidues);
     // allocate selfEnergy array and create self jobs
-    HashMap<String, Integer> reverseJobMapSingles = new HashMap<>();
+    Long2IntOpenHashMap reverseJobMapSingles = new Long2IntOpenHashMap();
+    reverseJobMapSingles.defaultReturnValue(-1);
     int singleJobIndex = 0;
     selfEnergy = new double[nResidues][];
     for (int i = 0; i < nResidues; i++) {
@@ -454,14 +555,13 @@ public class EnergyExpansion {
       selfEnergy[i] = new double[roti.length];
       for (int ri = 0; ri < roti.length; ri++) {
         if (!eR.check(i, ri)) {
-          Integer[] selfJob = {i, ri};
+          int[] selfJob = {i, ri};
           if (decomposeOriginal && ri != 0) {
             continue;
           }
           selfEnergyMap.put(singleJobIndex, selfJob);
           if (reverseMap) {
-            String revKey = format("%d %d", i, ri);
-            reverseJobMapSingles.put(revKey, singleJobIndex);
+            reverseJobMapSingles.put(rotamerKey(i, ri), singleJobIndex);
           }
           singleJobIndex++;
         }
@@ -483,14 +583,18 @@ public class EnergyExpansion {
    */
   public double compute2BodyEnergy(Residue[] residues, int i, int ri, int j, int rj) {
     rO.turnOffAllResidues(residues);
-    turnOnResidue(residues[i], ri);
-    turnOnResidue(residues[j], rj);
+    turnOffEnvironment(residues);
     double energy;
     try {
+      double subtract =
+          -getReferenceBackbone(residues)
+              - getReferenceSelf(residues, i, ri)
+              - getReferenceSelf(residues, j, rj);
+      turnOnResidue(residues[i], ri);
+      turnOnResidue(residues[j], rj);
       if (algorithmListener != null) {
         algorithmListener.algorithmUpdate(molecularAssembly);
       }
-      double subtract = -backboneEnergy - getSelf(i, ri) - getSelf(j, rj);
       energy = rO.currentEnergy(residues) + subtract;
       if (potentialIsOpenMM && energy < ommRecalculateThreshold) {
         logger.warning(
@@ -511,6 +615,7 @@ public class EnergyExpansion {
       // Revert if the currentEnergy call throws an exception.
       turnOffResidue(residues[i]);
       turnOffResidue(residues[j]);
+      turnOnEnvironment();
     }
     return energy;
   }
@@ -532,22 +637,23 @@ public class EnergyExpansion {
   public double compute3BodyEnergy(
       Residue[] residues, int i, int ri, int j, int rj, int k, int rk) {
     turnOffAllResidues(residues);
-    turnOnResidue(residues[i], ri);
-    turnOnResidue(residues[j], rj);
-    turnOnResidue(residues[k], rk);
+    turnOffEnvironment(residues);
     double energy;
     try {
-      if (algorithmListener != null) {
-        algorithmListener.algorithmUpdate(molecularAssembly);
-      }
       double subtract =
-          -backboneEnergy
-              - getSelf(i, ri)
-              - getSelf(j, rj)
-              - getSelf(k, rk)
+          -getReferenceBackbone(residues)
+              - getReferenceSelf(residues, i, ri)
+              - getReferenceSelf(residues, j, rj)
+              - getReferenceSelf(residues, k, rk)
               - get2Body(i, ri, j, rj)
               - get2Body(i, ri, k, rk)
               - get2Body(j, rj, k, rk);
+      turnOnResidue(residues[i], ri);
+      turnOnResidue(residues[j], rj);
+      turnOnResidue(residues[k], rk);
+      if (algorithmListener != null) {
+        algorithmListener.algorithmUpdate(molecularAssembly);
+      }
       energy = rO.currentEnergy(residues) + subtract;
       if (potentialIsOpenMM && energy < ommRecalculateThreshold) {
         logger.warning(
@@ -570,6 +676,7 @@ public class EnergyExpansion {
       turnOffResidue(residues[i]);
       turnOffResidue(residues[j]);
       turnOffResidue(residues[k]);
+      turnOnEnvironment();
     }
     return energy;
   }
@@ -592,21 +699,15 @@ public class EnergyExpansion {
   public double compute4BodyEnergy(
       Residue[] residues, int i, int ri, int j, int rj, int k, int rk, int l, int rl) {
     turnOffAllResidues(residues);
-    turnOnResidue(residues[i], ri);
-    turnOnResidue(residues[j], rj);
-    turnOnResidue(residues[k], rk);
-    turnOnResidue(residues[l], rl);
+    turnOffEnvironment(residues);
     double energy;
     try {
-      if (algorithmListener != null) {
-        algorithmListener.algorithmUpdate(molecularAssembly);
-      }
       double subtract =
-          -backboneEnergy
-              - getSelf(i, ri)
-              - getSelf(j, rj)
-              - getSelf(k, rk)
-              - getSelf(l, rl)
+          -getReferenceBackbone(residues)
+              - getReferenceSelf(residues, i, ri)
+              - getReferenceSelf(residues, j, rj)
+              - getReferenceSelf(residues, k, rk)
+              - getReferenceSelf(residues, l, rl)
               - get2Body(i, ri, j, rj)
               - get2Body(i, ri, k, rk)
               - get2Body(i, ri, l, rl)
@@ -617,6 +718,13 @@ public class EnergyExpansion {
               - get3Body(residues, i, ri, j, rj, l, rl)
               - get3Body(residues, i, ri, k, rk, l, rl)
               - get3Body(residues, j, rj, k, rk, l, rl);
+      turnOnResidue(residues[i], ri);
+      turnOnResidue(residues[j], rj);
+      turnOnResidue(residues[k], rk);
+      turnOnResidue(residues[l], rl);
+      if (algorithmListener != null) {
+        algorithmListener.algorithmUpdate(molecularAssembly);
+      }
       energy = rO.currentEnergy(residues) + subtract;
 
       if (potentialIsOpenMM && energy < ommRecalculateThreshold) {
@@ -651,10 +759,112 @@ public class EnergyExpansion {
       turnOffResidue(residues[j]);
       turnOffResidue(residues[k]);
       turnOffResidue(residues[l]);
+      turnOnEnvironment();
     }
     return energy;
   }
 
+  /**
+   * The backbone energy subtracted from many-body energies.
+   *
+   * <p>With subset energies, this is the energy with the environment and all residues under
+   * optimization turned off. The environment must be turned off when this is called.
+   *
+   * @param residues Residues under optimization.
+   * @return The reference backbone energy.
+   */
+  private double getReferenceBackbone(Residue[] residues) {
+    if (!subsetEnergy) {
+      return backboneEnergy;
+    }
+    return isolatedBackboneEnergy;
+  }
+
+  /**
+   * The self energy subtracted from many-body energies.
+   *
+   * <p>With subset energies, this is the energy of the rotamer with the environment and all other
+   * residues turned off, minus the isolated backbone energy. It is computed once per rotamer, and
+   * must be called while the environment and all residues under optimization are turned off.
+   *
+   * @param residues Residues under optimization.
+   * @param i A residue index.
+   * @param ri A rotamer index for residue i.
+   * @return The reference self energy.
+   */
+  private double getReferenceSelf(Residue[] residues, int i, int ri) {
+    if (!subsetEnergy) {
+      return getSelf(i, ri);
+    }
+    double[] selfI = isolatedSelfEnergy[i];
+    if (selfI == null) {
+      selfI = new double[residues[i].getRotamers(library).length];
+      Arrays.fill(selfI, Double.NaN);
+      isolatedSelfEnergy[i] = selfI;
+    }
+    if (Double.isNaN(selfI[ri])) {
+      turnOnResidue(residues[i], ri);
+      try {
+        selfI[ri] = rO.currentEnergy(residues) - isolatedBackboneEnergy;
+      } finally {
+        turnOffResidue(residues[i]);
+      }
+    }
+    return selfI[ri];
+  }
+
+  /**
+   * With subset energies, turn off all atoms in use that are not variable atoms of the residues
+   * under optimization. The residues under optimization must already be turned off.
+   *
+   * @param residues Residues under optimization.
+   */
+  private void turnOffEnvironment(Residue[] residues) {
+    if (!subsetEnergy) {
+      return;
+    }
+    if (subsetResidues != residues) {
+      // Every atom still in use belongs to the environment.
+      Set<Atom> variableAtoms = new HashSet<>();
+      for (Residue residue : residues) {
+        variableAtoms.addAll(getVariableAtoms(residue));
+      }
+      List<Atom> environment = new ArrayList<>();
+      for (Atom atom : molecularAssembly.getAtomArray()) {
+        if (atom.getUse() && !variableAtoms.contains(atom)) {
+          environment.add(atom);
+        }
+      }
+      environmentAtoms = environment.toArray(new Atom[0]);
+      isolatedSelfEnergy = new double[residues.length][];
+      subsetResidues = residues;
+      for (Atom atom : environmentAtoms) {
+        atom.setUse(false);
+      }
+      try {
+        isolatedBackboneEnergy = rO.currentEnergy(residues);
+      } catch (ArithmeticException ex) {
+        subsetResidues = null;
+        turnOnEnvironment();
+        throw ex;
+      }
+      return;
+    }
+    for (Atom atom : environmentAtoms) {
+      atom.setUse(false);
+    }
+  }
+
+  /** With subset energies, turn the environment back on. */
+  private void turnOnEnvironment() {
+    if (!subsetEnergy) {
+      return;
+    }
+    for (Atom atom : environmentAtoms) {
+      atom.setUse(true);
+    }
+  }
+
   /**
    * Computes a self energy, defined as energy with all sidechains but one turned off, minus the
    * backbone energy.
@@ -728,7 +938,7 @@ public class EnergyExpansion {
         logger.fine(format(" Residue %d not found in neighbors of %d; assumed past cutoff.", j, i));
         return 0;
       } else {
-        return twoBodyEnergy[i][ri][indJ][rj];
+        return twoBodyEnergy[i][ri][pairOffsets[i][indJ] + rj];
       }
     } catch (NullPointerException npe) {
       logger.info(format(" NPE for 2-body energy (%3d,%2d) (%3d,%2d).", i, ri, j, rj));
@@ -778,27 +988,7 @@ public class EnergyExpansion {
       rk = jrj;
     }
 
-    // Find where j is in i's neighbor list, and where k is in j's neighbor list.
-    int[] nI = resNeighbors[i];
-    int indJ = -1;
-    for (int l = 0; l < nI.length; l++) {
-      if (nI[l] == j) {
-        indJ = l;
-        break;
-      }
-    }
-
-    int[] nJ = resNeighbors[j];
-    int indK = -1;
-    for (int l = 0; l < nJ.length; l++) {
-      if (nJ[l] == k) {
-        indK = l;
-        break;
-      }
-    }
-
     // i,j,k: Indices in the current Residue array.
-    // indJ, indK: Index of j in i's neighbor list, index of k in j's neighbor list.
     // indexI, indexJ, indexK: Indices in allResiduesList.
     int indexI = allResiduesList.indexOf(residues[i]);
     int indexJ = allResiduesList.indexOf(residues[j]);
@@ -807,7 +997,10 @@ public class EnergyExpansion {
       return 0;
     } else {
       try {
-        return threeBodyEnergy[i][ri][indJ][rj][indK][rk];
+        // A residue missing from a neighbor list has index -1, which is out of bounds below.
+        int indJ = neighborIndex(i, j);
+        int indK = neighborIndex(j, k);
+        return threeBodyEnergy[i][ri][indJ][rj][pairOffsets[j][indK] + rk];
       } catch (NullPointerException | ArrayIndexOutOfBoundsException ex) {
         String message =
             format(
@@ -825,9 +1018,11 @@ public class EnergyExpansion {
 
   public void setBackboneEnergy(double backboneEnergy) {
     this.backboneEnergy = backboneEnergy;
+    // A new expansion starts, so isolated energies must be recomputed.
+    subsetResidues = null;
   }
 
-  public Map<Integer, Integer[]> getFourBodyEnergyMap() {
+  public Map<Integer, int[]> getFourBodyEnergyMap() {
     return fourBodyEnergyMap;
   }
 
@@ -847,15 +1042,15 @@ public class EnergyExpansion {
     }
   }
 
-  public Map<Integer, Integer[]> getSelfEnergyMap() {
+  public Map<Integer, int[]> getSelfEnergyMap() {
     return selfEnergyMap;
   }
 
-  public Map<Integer, Integer[]> getThreeBodyEnergyMap() {
+  public Map<Integer, int[]> getThreeBodyEnergyMap() {
     return threeBodyEnergyMap;
   }
 
-  public Map<Integer, Integer[]> getTwoBodyEnergyMap() {
+  public Map<Integer, int[]> getTwoBodyEnergyMap() {
     return twoBodyEnergyMap;
   }
 
@@ -867,10 +1062,8 @@ public class EnergyExpansion {
       File restartFile, Residue[] residues, int boxIteration, int[] cellIndices) {
     try {
       int nResidues = residues.length;
-      Path path = Paths.get(restartFile.getCanonicalPath());
-      List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
-      List<String> linesThisBox = new ArrayList<>();
 
+      subsetResidues = null;
       try {
         backboneEnergy = rO.computeBackboneEnergy(residues);
       } catch (ArithmeticException ex) {
@@ -880,113 +1073,81 @@ public class EnergyExpansion {
       }
       rO.logIfMaster(format(" Backbone energy:  %s\n", rO.formatEnergy(backboneEnergy)));
 
-      if (usingBoxOptimization && boxIteration >= 0) {
-        boolean foundBox = false;
-        for (int i = 0; i < lines.size(); i++) {
-          String line = lines.get(i);
-          if (line.startsWith("Box")) {
-            String[] tok =
-                line.replaceAll("Box", "").replaceAll(":", ",").replaceAll(" ", "").split(",");
-            int readIteration = Integer.parseInt(tok[0]);
-            int readCellIndexX = Integer.parseInt(tok[1]);
-            int readCellIndexY = Integer.parseInt(tok[2]);
-            int readCellIndexZ = Integer.parseInt(tok[3]);
-            if (readIteration == boxIteration
-                && readCellIndexX == cellIndices[0]
-                && readCellIndexY == cellIndices[1]
-                && readCellIndexZ == cellIndices[2]) {
-              foundBox = true;
-              for (int j = i + 1; j < lines.size(); j++) {
-                String l = lines.get(j);
-                if (l.startsWith("Box")) {
-                  break;
-                }
-                linesThisBox.add(l);
-              }
-              break;
-            }
-          }
-        }
-        if (!foundBox) {
-          rO.logIfMaster(
-              format(
-                  " Didn't find restart energies for Box %d: %d,%d,%d",
-                  boxIteration, cellIndices[0], cellIndices[1], cellIndices[2]));
-          return 0;
-        } else if (linesThisBox.size() == 0) {
-          return 0;
-        } else {
-          lines = linesThisBox;
-        }
+      int loadBox = usingBoxOptimization ? boxIteration : -1;
+      long readTime = -System.nanoTime();
+      boolean binary = BinaryEnergyRestart.isBinary(restartFile);
+      RestartEnergies restartEnergies;
+      if (binary) {
+        restartEnergies = BinaryEnergyRestart.read(restartFile, loadBox, cellIndices);
+      } else {
+        restartEnergies = RestartEnergies.readText(restartFile, residues, loadBox, cellIndices);
+      }
+      readTime += System.nanoTime();
+
+      if (restartEnergies == null) {
+        rO.logIfMaster(
+            format(
+                " Didn't find restart energies for Box %d: %d,%d,%d",
+                boxIteration, cellIndices[0], cellIndices[1], cellIndices[2]));
+        return 0;
       }
 
-      List<String> singleLines = new ArrayList<>();
-      List<String> pairLines = new ArrayList<>();
-      List<String> tripleLines = new ArrayList<>();
-      for (String line : lines) {
-        String[] tok = line.split("\\s");
-        if (tok[0].startsWith("Self")) {
-          singleLines.add(line);
-        } else if (tok[0].startsWith("Pair")) {
-          pairLines.add(line);
-        } else if (tok[0].startsWith("Triple")) {
-          tripleLines.add(line);
+      int loaded = restartEnergies.getLoadedOrder();
+      if (loaded == 0) {
+        if (loadBox < 0) {
+          logger.warning(
+              format(
+                  " Empty or unreadable energy restart file: %s.",
+                  restartFile.getCanonicalPath()));
         }
+        return 0;
       }
-      int loaded = 0;
-      if (tripleLines.size() > 0) {
-        loaded = 3;
-      } else if (pairLines.size() > 0) {
-        loaded = 2;
-      } else if (singleLines.size() > 0) {
-        loaded = 1;
-      } else {
-        logger.warning(
-            format(
-                " Empty or unreadable energy restart file: %s.", restartFile.getCanonicalPath()));
+      rO.logIfMaster(
+          format(
+              " Read %d self, %d 2-body and %d 3-body energies from the %s restart file in %6.3f"
+                  + " (sec).",
+              restartEnergies.size(1),
+              restartEnergies.size(2),
+              restartEnergies.size(3),
+              binary ? "binary" : "text",
+              readTime * 1.0e-9));
+
+      // Indices of the residues in allResiduesList.
+      int[] allIndices = new int[nResidues];
+      for (int i = 0; i < nResidues; i++) {
+        allIndices[i] = allResiduesList.indexOf(residues[i]);
       }
+
       if (loaded >= 1) {
         boolean reverseMap = true;
-        HashMap<String, Integer> reverseJobMapSingles =
+        Long2IntOpenHashMap reverseJobMapSingles =
             allocateSelfJobMap(residues, nResidues, reverseMap);
         // fill in self-energies from file while removing the corresponding jobs from selfEnergyMap
-        for (String line : singleLines) {
+        int nSelf = restartEnergies.size(1);
+        for (int n = 0; n < nSelf; n++) {
+          int i = restartEnergies.getIndex(1, n, 0);
+          int ri = restartEnergies.getIndex(1, n, 1);
+          double energy = restartEnergies.getEnergy(1, n);
           try {
-            String[] tok = line.replace(",", "").replace(":", "").split("\\s+");
-            int i;
-            if (tok[1].contains("-")) {
-              i = nameToNumber(tok[1], residues);
-            } else {
-              i = Integer.parseInt(tok[1]);
-            }
-            int ri = Integer.parseInt(tok[2]);
-            double energy = Double.parseDouble(tok[3]);
-            try {
-              setSelf(i, ri, energy);
-              if (verbose) {
-                rO.logIfMaster(
-                    format(
-                        " From restart file: Self energy %3d (%8s,%2d): %s",
-                        i,
-                        residues[i].toFormattedString(false, true),
-                        ri,
-                        rO.formatEnergy(energy)));
-              }
-            } catch (Exception e) {
-              if (verbose) {
-                rO.logIfMaster(format(" Restart file out-of-bounds index: %s", line));
-              }
+            setSelf(i, ri, energy);
+            if (verbose) {
+              rO.logIfMaster(
+                  format(
+                      " From restart file: Self energy %3d (%8s,%2d): %s",
+                      i,
+                      residues[i].toFormattedString(false, true),
+                      ri,
+                      rO.formatEnergy(energy)));
             }
-            // remove that job from the pool
-            String revKey = format("%d %d", i, ri);
-            Integer[] ret = selfEnergyMap.remove(reverseJobMapSingles.get(revKey));
-            if (ret == null) {
-              // logIfMaster(format("(sdl %d) Restart file contained unnecessary value for %s",
-              // BOXNUM, revKey));
+          } catch (Exception e) {
+            if (verbose) {
+              rO.logIfMaster(
+                  format(" Restart file out-of-bounds index: Self %d %d: %16.8f", i, ri, energy));
             }
-          } catch (NumberFormatException ex) {
-            logger.log(
-                Level.WARNING, format(" Unparsable line in energy restart file: \n%s", line), ex);
+          }
+          // remove that job from the pool
+          if (isKeyedRotamer(i, ri)) {
+            selfEnergyMap.remove(reverseJobMapSingles.get(rotamerKey(i, ri)));
           }
         }
         rO.logIfMaster(" Loaded self energies from restart file.");
@@ -1009,45 +1170,34 @@ public class EnergyExpansion {
               " Double-check that parameters match original run due to missing self-energies.");
         }
         boolean reverseMap = true;
-        HashMap<String, Integer> reverseJobMapPairs =
+        Long2IntOpenHashMap reverseJobMapPairs =
             allocate2BodyJobMap(residues, nResidues, reverseMap);
+        boolean logFine = logger.isLoggable(Level.FINE);
         // fill in pair-energies from file while removing the corresponding jobs from
         // twoBodyEnergyMap
-        for (String line : pairLines) {
+        int nPairs = restartEnergies.size(2);
+        for (int n = 0; n < nPairs; n++) {
+          int i = restartEnergies.getIndex(2, n, 0);
+          int ri = restartEnergies.getIndex(2, n, 1);
+          int j = restartEnergies.getIndex(2, n, 2);
+          int rj = restartEnergies.getIndex(2, n, 3);
+          double energy = restartEnergies.getEnergy(2, n);
           try {
-            String[] tok = line.replace(",", "").replace(":", "").split("\\s+");
-            int i;
-            if (tok[1].contains("-")) {
-              i = nameToNumber(tok[1], residues);
-            } else {
-              i = Integer.parseInt(tok[1]);
-            }
-            int ri = Integer.parseInt(tok[2]);
-            int j;
-            if (tok[3].contains("-")) {
-              j = nameToNumber(tok[3], residues);
-            } else {
-              j = Integer.parseInt(tok[3]);
-            }
-            int rj = Integer.parseInt(tok[4]);
-            double energy = Double.parseDouble(tok[5]);
-            try {
-              // When a restart file is generated using a large cutoff, but a new simulation is
-              // being done
-              // with a smaller cutoff, the two-body distance needs to be checked. If the two-body
-              // distance is larger than the cutoff, then the two residues are not considered
-              // 'neighbors'
-              // so that pair should not be added to the pairs map.
-              if (rO.checkNeighboringPair(i, j)) {
-                // If inside the cutoff, set energy to previously computed value.
-                // Gather distances and indices for printing.
-                Residue residueI = residues[i];
-                Residue residueJ = residues[j];
-                int indexI = allResiduesList.indexOf(residueI);
-                int indexJ = allResiduesList.indexOf(residueJ);
-                if (!dM.checkPairDistThreshold(indexI, ri, indexJ, rj)) {
-                  set2Body(i, ri, j, rj, energy);
-
+            // When a restart file is generated using a large cutoff, but a new simulation is
+            // being done
+            // with a smaller cutoff, the two-body distance needs to be checked. If the two-body
+            // distance is larger than the cutoff, then the two residues are not considered
+            // 'neighbors'
+            // so that pair should not be added to the pairs map.
+            if (rO.checkNeighboringPair(i, j)) {
+              // If inside the cutoff, set energy to previously computed value.
+              // Gather distances and indices for printing.
+              int indexI = allIndices[i];
+              int indexJ = allIndices[j];
+              if (!dM.checkPairDistThreshold(indexI, ri, indexJ, rj)) {
+                set2Body(i, ri, j, rj, energy);
+
+                if (logFine) {
                   double resDist = dM.getResidueDistance(indexI, ri, indexJ, rj);
                   String resDistString = "large";
                   if (resDist < Double.MAX_VALUE) {
@@ -1063,46 +1213,47 @@ public class EnergyExpansion {
                   logger.fine(
                       format(
                           " Pair %8s %-2d, %8s %-2d: %s at %s Ang (%s Ang by residue).",
-                          residueI.toFormattedString(false, true),
+                          residues[i].toFormattedString(false, true),
                           ri,
-                          residueJ.toFormattedString(false, true),
+                          residues[j].toFormattedString(false, true),
                           rj,
                           rO.formatEnergy(get2Body(i, ri, j, rj)),
                           distString,
                           resDistString));
                 }
-              } else {
-                logger.fine(
-                    format(
-                        "Ignoring a pair-energy from outside the cutoff: 2-energy [(%8s,%2d),(%8s,%2d)]: %12.4f",
-                        residues[i].toFormattedString(false, true),
-                        ri,
-                        residues[j].toFormattedString(false, true),
-                        rj,
-                        energy));
               }
+            } else if (logFine) {
+              logger.fine(
+                  format(
+                      "Ignoring a pair-energy from outside the cutoff: 2-energy [(%8s,%2d),(%8s,%2d)]: %12.4f",
+                      residues[i].toFormattedString(false, true),
+                      ri,
+                      residues[j].toFormattedString(false, true),
+                      rj,
+                      energy));
+            }
 
-              if (verbose) {
-                rO.logIfMaster(
-                    format(
-                        " From restart file: Pair energy [(%8s,%2d),(%8s,%2d)]: %12.4f",
-                        residues[i].toFormattedString(false, true),
-                        ri,
-                        residues[j].toFormattedString(false, true),
-                        rj,
-                        energy));
-              }
-            } catch (Exception e) {
-              if (verbose) {
-                rO.logIfMaster(format(" Restart file out-of-bounds index: %s", line));
-              }
+            if (verbose) {
+              rO.logIfMaster(
+                  format(
+                      " From restart file: Pair energy [(%8s,%2d),(%8s,%2d)]: %12.4f",
+                      residues[i].toFormattedString(false, true),
+                      ri,
+                      residues[j].toFormattedString(false, true),
+                      rj,
+                      energy));
+            }
+          } catch (Exception e) {
+            if (verbose) {
+              rO.logIfMaster(
+                  format(
+                      " Restart file out-of-bounds index: Pair %d %d, %d %d: %16.8f",
+                      i, ri, j, rj, energy));
             }
-            // remove that job from the pool
-            String revKey = format("%d %d %d %d", i, ri, j, rj);
-            Integer[] ret = twoBodyEnergyMap.remove(reverseJobMapPairs.get(revKey));
-          } catch (NumberFormatException ex) {
-            logger.log(
-                Level.WARNING, format("Unparsable line in energy restart file: \n%s", line), ex);
+          }
+          // remove that job from the pool
+          if (isKeyedRotamer(i, ri) && isKeyedRotamer(j, rj)) {
+            twoBodyEnergyMap.remove(reverseJobMapPairs.get(rotamerKey(i, ri, j, rj)));
           }
         }
         rO.logIfMaster(" Loaded 2-body energies from restart file.");
@@ -1127,61 +1278,40 @@ public class EnergyExpansion {
           }
         }
         boolean reverseMap = true;
-        HashMap<String, Integer> reverseJobMapTrimers =
+        Long2IntOpenHashMap reverseJobMapTrimers =
             allocate3BodyJobMap(residues, nResidues, reverseMap);
+        boolean logFine = logger.isLoggable(Level.FINE);
 
         // fill in 3-Body energies from file while removing the corresponding jobs from
         // threeBodyEnergyMap
-        for (String line : tripleLines) {
-          try {
-            String[] tok = line.replace(",", "").replace(":", "").split("\\s+");
-            int i;
-            if (tok[1].contains("-")) {
-              i = nameToNumber(tok[1], residues);
-            } else {
-              i = Integer.parseInt(tok[1]);
-            }
-            int ri = Integer.parseInt(tok[2]);
-            int j;
-            if (tok[3].contains("-")) {
-              j = nameToNumber(tok[3], residues);
-            } else {
-              j = Integer.parseInt(tok[3]);
-            }
-            int rj = Integer.parseInt(tok[4]);
-            int k;
-            if (tok[5].contains("-")) {
-              k = nameToNumber(tok[5], residues);
-            } else {
-              k = Integer.parseInt(tok[5]);
-            }
-            int rk = Integer.parseInt(tok[6]);
-            double energy = Double.parseDouble(tok[7]);
-
-            try {
-              // threeBodyEnergy[i][ri][j][rj][k][rk] = energy;
-              // IntegerKeyset ijk = new IntegerKeyset(i, ri, j, rj, k, rk);
-              // threeBodyEnergies.put(ijk, energy);
-
-              // When a restart file is generated using a large cutoff, but a new simulation is
-              // being done
-              // with a smaller cutoff, the three-body distance needs to be checked. If the
-              // three-body
-              // distance is larger than the cutoff, then the three residues are not considered
-              // 'neighbors'
-              // so that triple should not be added to the pairs map.
-              if (rO.checkNeighboringTriple(i, j, k)) {
-                // If within the cutoff, the energy should be set to the previously calculated
-                // energy.
-                Residue residueI = residues[i];
-                Residue residueJ = residues[j];
-                Residue residueK = residues[k];
-                int indexI = allResiduesList.indexOf(residueI);
-                int indexJ = allResiduesList.indexOf(residueJ);
-                int indexK = allResiduesList.indexOf(residueK);
-                if (!dM.checkTriDistThreshold(indexI, ri, indexJ, rj, indexK, rk)) {
-                  set3Body(residues, i, ri, j, rj, k, rk, energy);
+        int nTriples = restartEnergies.size(3);
+        for (int n = 0; n < nTriples; n++) {
+          int i = restartEnergies.getIndex(3, n, 0);
+          int ri = restartEnergies.getIndex(3, n, 1);
+          int j = restartEnergies.getIndex(3, n, 2);
+          int rj = restartEnergies.getIndex(3, n, 3);
+          int k = restartEnergies.getIndex(3, n, 4);
+          int rk = restartEnergies.getIndex(3, n, 5);
+          double energy = restartEnergies.getEnergy(3, n);
 
+          try {
+            // When a restart file is generated using a large cutoff, but a new simulation is
+            // being done
+            // with a smaller cutoff, the three-body distance needs to be checked. If the
+            // three-body
+            // distance is larger than the cutoff, then the three residues are not considered
+            // 'neighbors'
+            // so that triple should not be added to the pairs map.
+            if (rO.checkNeighboringTriple(i, j, k)) {
+              // If within the cutoff, the energy should be set to the previously calculated
+              // energy.
+              int indexI = allIndices[i];
+              int indexJ = allIndices[j];
+              int indexK = allIndices[k];
+              if (!dM.checkTriDistThreshold(indexI, ri, indexJ, rj, indexK, rk)) {
+                set3Body(residues, i, ri, j, rj, k, rk, energy);
+
+                if (logFine) {
                   double rawDist = dM.getRawNBodyDistance(indexI, ri, indexJ, rj, indexK, rk);
                   double resDist = dM.get3BodyResidueDistance(indexI, ri, indexJ, rj, indexK, rk);
 
@@ -1198,62 +1328,59 @@ public class EnergyExpansion {
                   logger.fine(
                       format(
                           " 3-Body %8s %-2d, %8s %-2d, %8s %-2d: %s at %s Ang (%s Ang by residue).",
-                          residueI.toFormattedString(false, true),
+                          residues[i].toFormattedString(false, true),
                           ri,
-                          residueJ.toFormattedString(false, true),
+                          residues[j].toFormattedString(false, true),
                           rj,
-                          residueK.toFormattedString(false, true),
+                          residues[k].toFormattedString(false, true),
                           rk,
                           rO.formatEnergy(get3Body(residues, i, ri, j, rj, k, rk)),
                           distString,
                           resDistString));
                 }
-              } else {
-                logger.fine(
-                    format(
-                        "Ignoring a triple-energy from outside the cutoff: 3-Body %8s %-2d, %8s %-2d, %8s %-2d: %s",
-                        residues[i].toFormattedString(false, true),
-                        ri,
-                        residues[j].toFormattedString(false, true),
-                        rj,
-                        residues[k].toFormattedString(false, true),
-                        rk,
-                        rO.formatEnergy(get3Body(residues, i, ri, j, rj, k, rk))));
-              }
-            } catch (ArrayIndexOutOfBoundsException ex) {
-              if (verbose) {
-                rO.logIfMaster(format(" Restart file out-of-bounds index: %s", line));
-              }
-            } catch (NullPointerException npe) {
-              if (verbose) {
-                rO.logIfMaster(
-                    format(
-                        " NPE in loading 3-body energies: pruning "
-                            + "likely changed! 3-body %s-%d %s-%d %s-%d",
-                        residues[i].toFormattedString(false, true),
-                        ri,
-                        residues[j],
-                        rj,
-                        residues[k],
-                        rk));
               }
+            } else if (logFine) {
+              logger.fine(
+                  format(
+                      "Ignoring a triple-energy from outside the cutoff: 3-Body %8s %-2d, %8s %-2d, %8s %-2d: %s",
+                      residues[i].toFormattedString(false, true),
+                      ri,
+                      residues[j].toFormattedString(false, true),
+                      rj,
+                      residues[k].toFormattedString(false, true),
+                      rk,
+                      rO.formatEnergy(get3Body(residues, i, ri, j, rj, k, rk))));
             }
+          } catch (ArrayIndexOutOfBoundsException ex) {
             if (verbose) {
               rO.logIfMaster(
                   format(
-                      " From restart file: Trimer energy %3d %-2d, %3d %-2d, %3d %-2d: %s",
-                      i, ri, j, rj, k, rk, rO.formatEnergy(energy)));
+                      " Restart file out-of-bounds index: Triple %d %d, %d %d, %d %d: %16.8f",
+                      i, ri, j, rj, k, rk, energy));
             }
-            // remove that job from the pool
-            String revKey = format("%d %d %d %d %d %d", i, ri, j, rj, k, rk);
-            Integer[] ret = threeBodyEnergyMap.remove(reverseJobMapTrimers.get(revKey));
-            if (ret == null) {
-              // logIfMaster(format("(sdl %d) Restart file contained unnecessary value for %s",
-              // BOXNUM, revKey));
+          } catch (NullPointerException npe) {
+            if (verbose) {
+              rO.logIfMaster(
+                  format(
+                      " NPE in loading 3-body energies: pruning "
+                          + "likely changed! 3-body %s-%d %s-%d %s-%d",
+                      residues[i].toFormattedString(false, true),
+                      ri,
+                      residues[j],
+                      rj,
+                      residues[k],
+                      rk));
             }
-          } catch (NumberFormatException ex) {
-            logger.log(
-                Level.WARNING, format("Unparsable line in energy restart file: \n%s", line), ex);
+          }
+          if (verbose) {
+            rO.logIfMaster(
+                format(
+                    " From restart file: Trimer energy %3d %-2d, %3d %-2d, %3d %-2d: %s",
+                    i, ri, j, rj, k, rk, rO.formatEnergy(energy)));
+          }
+          // remove that job from the pool
+          if (isKeyedRotamer(i, ri) && isKeyedRotamer(j, rj) && isKeyedRotamer(k, rk)) {
+            threeBodyEnergyMap.remove(reverseJobMapTrimers.get(rotamerKey(i, ri, j, rj, k, rk)));
           }
         }
         rO.logIfMaster(" Loaded trimer energies from restart file.");
@@ -1583,7 +1710,7 @@ public class EnergyExpansion {
         throw new IllegalArgumentException(
             format(" Residue %d not found in neighbors of %d; assumed past cutoff.", j, i));
       } else {
-        twoBodyEnergy[i][ri][indJ][rj] = e;
+        twoBodyEnergy[i][ri][pairOffsets[i][indJ] + rj] = e;
       }
     } catch (NullPointerException npe) {
       if (!quiet) {
@@ -1656,27 +1783,7 @@ public class EnergyExpansion {
       rk = jrj;
     }
 
-    // Find where j is in i's neighbor list, and where k is in j's neighbor list.
-    int[] nI = resNeighbors[i];
-    int indJ = -1;
-    for (int l = 0; l < nI.length; l++) {
-      if (nI[l] == j) {
-        indJ = l;
-        break;
-      }
-    }
-
-    int[] nJ = resNeighbors[j];
-    int indK = -1;
-    for (int l = 0; l < nJ.length; l++) {
-      if (nJ[l] == k) {
-        indK = l;
-        break;
-      }
-    }
-
     // i,j,k: Indices in the current Residue array.
-    // indJ, indK: Index of j in i's neighbor list, index of k in j's neighbor list.
     // indexI, indexJ, indexK: Indices in allResiduesList.
     int indexI = allResiduesList.indexOf(residues[i]);
     int indexJ = allResiduesList.indexOf(residues[j]);
@@ -1686,7 +1793,9 @@ public class EnergyExpansion {
           format(" Residue %d not found in neighbors of %d; assumed past cutoff.", j, i));
     } else {
       try {
-        threeBodyEnergy[i][ri][indJ][rj][indK][rk] = e;
+        int indJ = neighborIndex(i, j);
+        int indK = neighborIndex(j, k);
+        threeBodyEnergy[i][ri][indJ][rj][pairOffsets[j][indK] + rk] = e;
       } catch (NullPointerException | ArrayIndexOutOfBoundsException ex) {
         if (!quiet) {
           String message =
@@ -1941,23 +2050,175 @@ public class EnergyExpansion {
     RotamerLibrary.applyRotamer(residue, residue.getRotamers(library)[0]);
   }
 
-  private int nameToNumber(String residueString, Residue[] residues) throws NumberFormatException {
-    int ret = -1;
-    for (int x = 0; x < residues.length; x++) {
-      if (residueString.equals(residues[x].toString())) {
-        ret = x;
-        break;
+  /**
+   * Log the number of stored self, 2-body and 3-body energies and an estimate of the memory they
+   * occupy.
+   */
+  public void logStorageFootprint() {
+    if (!master) {
+      return;
+    }
+    // Every array carries an object header.
+    final long header = ARRAY_HEADER_BYTES;
+    long selfTerms = 0;
+    long selfBytes = 0;
+    if (selfEnergy != null) {
+      for (double[] energies : selfEnergy) {
+        if (energies != null) {
+          selfTerms += energies.length;
+          selfBytes += header + (long) Double.BYTES * energies.length;
+        }
       }
     }
-    if (ret == -1) {
-      throw new NumberFormatException();
+    long pairTerms = 0;
+    long pairBytes = 0;
+    if (twoBodyEnergy != null) {
+      for (int i = 0; i < twoBodyEnergy.length; i++) {
+        pairBytes += header + (long) Integer.BYTES * pairOffsets[i].length;
+        for (double[] row : twoBodyEnergy[i]) {
+          if (row != null) {
+            pairTerms += row.length;
+            pairBytes += header + (long) Double.BYTES * row.length;
+          }
+        }
+      }
     }
-    return ret;
+    long tripleTerms = 0;
+    long tripleBytes = 0;
+    if (threeBodyEnergy != null) {
+      // Rows hold zeros for trimers that are pruned, so report bytes per computed trimer.
+      tripleTerms = threeBodyCount;
+      tripleBytes = arrayBytes(threeBodyEnergy.length, REFERENCE_BYTES);
+      for (double[][][][] energyI : threeBodyEnergy) {
+        tripleBytes += arrayBytes(energyI.length, REFERENCE_BYTES);
+        for (double[][][] energyRI : energyI) {
+          if (energyRI == null) {
+            continue;
+          }
+          tripleBytes += arrayBytes(energyRI.length, REFERENCE_BYTES);
+          for (double[][] energyJ : energyRI) {
+            tripleBytes += arrayBytes(energyJ.length, REFERENCE_BYTES);
+            for (double[] row : energyJ) {
+              if (row != null) {
+                tripleBytes += arrayBytes(row.length, Double.BYTES);
+              }
+            }
+          }
+        }
+      }
+    }
+    StringBuilder sb = new StringBuilder(" Many-body energy storage:\n");
+    sb.append(formatStorage("Self", selfTerms, selfBytes));
+    sb.append(formatStorage("2-Body", pairTerms, pairBytes));
+    if (threeBodyTerm) {
+      sb.append(formatStorage("3-Body", tripleTerms, tripleBytes));
+      sb.append(formatStorage("Nested", tripleTerms, nestedThreeBodyBytes));
+    }
+    logger.info(sb.toString());
+  }
+
+  /**
+   * Estimate the heap size of an array, including its header and padding to 8 bytes.
+   *
+   * @param length Number of elements.
+   * @param elementBytes Bytes per element.
+   * @return The size in bytes.
+   */
+  private static long arrayBytes(int length, int elementBytes) {
+    return (ARRAY_HEADER_BYTES + (long) length * elementBytes + 7) & ~7L;
+  }
+
+  private static String formatStorage(String label, long terms, long bytes) {
+    double perTerm = terms > 0 ? (double) bytes / terms : 0.0;
+    return format(
+        "  %-7s %12d terms %12.3f MB %8.2f bytes/term\n",
+        label, terms, bytes / (1024.0 * 1024.0), perTerm);
+  }
+
+  /**
+   * Number the rotamers of the residues under optimization consecutively so that a rotamer can be
+   * addressed by a single global index.
+   *
+   * @param residues Residues under optimization.
+   * @param nResidues Number of residues under optimization.
+   */
+  private void computeRotamerOffsets(Residue[] residues, int nResidues) {
+    rotamerOffsets = new int[nResidues + 1];
+    for (int i = 0; i < nResidues; i++) {
+      rotamerOffsets[i + 1] = rotamerOffsets[i] + residues[i].getRotamers(library).length;
+    }
+    if (rotamerOffsets[nResidues] > MAX_KEYED_ROTAMERS) {
+      throw new IllegalArgumentException(
+          format(
+              " %d rotamers exceeds the %d that can be stored in the many-body energy tables.",
+              rotamerOffsets[nResidues], MAX_KEYED_ROTAMERS));
+    }
+  }
+
+  /**
+   * Check that residue i and rotamer ri are part of the current rotamer numbering.
+   *
+   * @param i Residue i.
+   * @param ri Rotamer ri of residue i.
+   * @return True if a packed key can be formed for the rotamer.
+   */
+  private boolean isKeyedRotamer(int i, int ri) {
+    return i >= 0
+        && i < rotamerOffsets.length - 1
+        && ri >= 0
+        && rotamerOffsets[i] + ri < rotamerOffsets[i + 1];
+  }
+
+  /**
+   * Return the global index of rotamer ri of residue i.
+   *
+   * @param i Residue i.
+   * @param ri Rotamer ri of residue i.
+   * @return The global rotamer index.
+   * @throws ArrayIndexOutOfBoundsException If the rotamer is not part of the current numbering.
+   */
+  private int globalRotamer(int i, int ri) {
+    if (!isKeyedRotamer(i, ri)) {
+      throw new ArrayIndexOutOfBoundsException(
+          format(" Rotamer %d of residue %d is outside the rotamer numbering.", ri, i));
+    }
+    return rotamerOffsets[i] + ri;
+  }
+
+  /**
+   * Find where residue j is in the neighbor list of residue i.
+   *
+   * @param i Residue i.
+   * @param j Residue j.
+   * @return The index of j in the neighbors of i, or -1 if j is not a neighbor.
+   */
+  private int neighborIndex(int i, int j) {
+    int[] nI = resNeighbors[i];
+    for (int l = 0; l < nI.length; l++) {
+      if (nI[l] == j) {
+        return l;
+      }
+    }
+    return -1;
+  }
+
+  private long rotamerKey(int i, int ri) {
+    return globalRotamer(i, ri);
+  }
+
+  private long rotamerKey(int i, int ri, int j, int rj) {
+    return ((long) globalRotamer(i, ri) << ROTAMER_KEY_BITS) | globalRotamer(j, rj);
+  }
+
+  private long rotamerKey(int i, int ri, int j, int rj, int k, int rk) {
+    return ((long) globalRotamer(i, ri) << (2 * ROTAMER_KEY_BITS))
+        | ((long) globalRotamer(j, rj) << ROTAMER_KEY_BITS)
+        | globalRotamer(k, rk);
   }
 
-  private void condenseEnergyMap(Map<Integer, Integer[]> energyMap) {
+  private void condenseEnergyMap(Map<Integer, int[]> energyMap) {
     Set<Integer> keys = energyMap.keySet();
-    HashMap<Integer, Integer[]> tempMap = new HashMap<>();
+    HashMap<Integer, int[]> tempMap = new HashMap<>();
     int count = 0;
     for (int key : keys) {
       tempMap.put(count, energyMap.get(key));
@@ -0,0 +1,258 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.algorithms.optimize.manybody;
+
+import static java.lang.String.format;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+/**
+ * Appends self, 2-body and 3-body energies to an energy restart file as they are computed.
+ *
+ * <p>Energies are written either as lines of text or as records of the {@link BinaryEnergyRestart}
+ * format. Each energy is flushed to the file before the next one is written.
+ */
+public class EnergyRestartWriter implements Closeable {
+
+  private static final Logger logger = Logger.getLogger(EnergyRestartWriter.class.getName());
+
+  /** Writer for the text format; null when writing the binary format. */
+  private final BufferedWriter textWriter;
+  /** Channel for the binary format; null when writing text. */
+  private final FileChannel channel;
+  /** Reusable buffer that holds one binary record. */
+  private final ByteBuffer record;
+
+  private EnergyRestartWriter(BufferedWriter textWriter, FileChannel channel) {
+    this.textWriter = textWriter;
+    this.channel = channel;
+    record = channel != null ? ByteBuffer.allocate(BinaryEnergyRestart.MAX_RECORD_BYTES) : null;
+  }
+
+  /**
+   * Open an energy restart file for appending.
+   *
+   * <p>An existing, non-empty file keeps its format. A binary file is first truncated to its last
+   * complete record, so that a record torn by an earlier crash does not hide new records.
+   *
+   * @param file The energy restart file.
+   * @param binary Write the binary format if the file does not exist or is empty.
+   * @return The writer.
+   * @throws IOException If the file could not be opened.
+   */
+  public static EnergyRestartWriter open(File file, boolean binary) throws IOException {
+    if (file.isFile() && file.length() > 0) {
+      binary = BinaryEnergyRestart.isBinary(file);
+    }
+    if (!binary) {
+      return new EnergyRestartWriter(new BufferedWriter(new FileWriter(file, true)), null);
+    }
+
+    FileChannel channel =
+        FileChannel.open(
+            file.toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    try {
+      if (channel.size() == 0) {
+        ByteBuffer header = ByteBuffer.allocate(BinaryEnergyRestart.HEADER_BYTES);
+        header.putInt(BinaryEnergyRestart.MAGIC);
+        header.putInt(BinaryEnergyRestart.VERSION);
+        header.flip();
+        while (header.hasRemaining()) {
+          channel.write(header);
+        }
+      } else {
+        long end = BinaryEnergyRestart.validLength(channel);
+        if (end < channel.size()) {
+          logger.warning(
+              format(
+                  " Removing %d bytes of an incomplete record from the end of %s.",
+                  channel.size() - end, file.getName()));
+          channel.truncate(end);
+        }
+      }
+      channel.position(channel.size());
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    return new EnergyRestartWriter(null, channel);
+  }
+
+  /**
+   * Check if energies are written in the binary format.
+   *
+   * @return True for the binary format.
+   */
+  public boolean isBinary() {
+    return channel != null;
+  }
+
+  /**
+   * Write the header of a box optimization cell.
+   *
+   * @param iteration The box iteration.
+   * @param cellIndices The x, y and z indices of the cell.
+   * @throws IOException If the header could not be written.
+   */
+  public synchronized void writeBox(int iteration, int[] cellIndices) throws IOException {
+    if (textWriter != null) {
+      writeLine(
+          format(" Box %d: %d,%d,%d", iteration, cellIndices[0], cellIndices[1], cellIndices[2]));
+    } else {
+      record.clear();
+      record.put(BinaryEnergyRestart.BOX);
+      record.putInt(iteration);
+      record.putInt(cellIndices[0]);
+      record.putInt(cellIndices[1]);
+      record.putInt(cellIndices[2]);
+      writeRecord();
+    }
+  }
+
+  /**
+   * Write a self energy.
+   *
+   * @param i Residue i.
+   * @param ri Rotamer ri of residue i.
+   * @param energy The self energy.
+   * @throws IOException If the energy could not be written.
+   */
+  public synchronized void writeSelf(int i, int ri, double energy) throws IOException {
+    if (textWriter != null) {
+      writeLine(format("Self %d %d: %16.8f", i, ri, energy));
+    } else {
+      record.clear();
+      record.put(BinaryEnergyRestart.SELF);
+      record.putInt(i);
+      record.putInt(ri);
+      record.putDouble(energy);
+      writeRecord();
+    }
+  }
+
+  /**
+   * Write a 2-body energy.
+   *
+   * @param i Residue i.
+   * @param ri Rotamer ri of residue i.
+   * @param j Residue j.
+   * @param rj Rotamer rj of residue j.
+   * @param energy The 2-body energy.
+   * @throws IOException If the energy could not be written.
+   */
+  public synchronized void writePair(int i, int ri, int j, int rj, double energy)
+      throws IOException {
+    if (textWriter != null) {
+      writeLine(format("Pair %d %d, %d %d: %16.8f", i, ri, j, rj, energy));
+    } else {
+      record.clear();
+      record.put(BinaryEnergyRestart.PAIR);
+      record.putInt(i);
+      record.putInt(ri);
+      record.putInt(j);
+      record.putInt(rj);
+      record.putDouble(energy);
+      writeRecord();
+    }
+  }
+
+  /**
+   * Write a 3-body energy.
+   *
+   * @param i Residue i.
+   * @param ri Rotamer ri of residue i.
+   * @param j Residue j.
+   * @param rj Rotamer rj of residue j.
+   * @param k Residue k.
+   * @param rk Rotamer rk of residue k.
+   * @param energy The 3-body energy.
+   * @throws IOException If the energy could not be written.
+   */
+  public synchronized void writeTriple(int i, int ri, int j, int rj, int k, int rk, double energy)
+      throws IOException {
+    if (textWriter != null) {
+      writeLine(format("Triple %d %d, %d %d, %d %d: %16.8f", i, ri, j, rj, k, rk, energy));
+    } else {
+      record.clear();
+      record.put(BinaryEnergyRestart.TRIPLE);
+      record.putInt(i);
+      record.putInt(ri);
+      record.putInt(j);
+      record.putInt(rj);
+      record.putInt(k);
+      record.putInt(rk);
+      record.putDouble(energy);
+      writeRecord();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public synchronized void close() throws IOException {
+    if (textWriter != null) {
+      textWriter.close();
+    } else {
+      channel.force(false);
+      channel.close();
+    }
+  }
+
+  private void writeLine(String line) throws IOException {
+    textWriter.append(line);
+    textWriter.newLine();
+    textWriter.flush();
+  }
+
+  private void writeRecord() throws IOException {
+    record.flip();
+    while (record.hasRemaining()) {
+      channel.write(record);
+    }
+  }
+}
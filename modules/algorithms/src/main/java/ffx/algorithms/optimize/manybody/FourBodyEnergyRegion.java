@@ -66,7 +66,7 @@ public class FourBodyEnergyRegion extends WorkerRegion {
    */
   private final List<Residue> allResiduesList;
   /** Map of 3-body energy values to compute. */
-  private final Map<Integer, Integer[]> fourBodyEnergyMap;
+  private final Map<Integer, int[]> fourBodyEnergyMap;
   /**
    * If a pair of residues have two atoms closer together than the superposition threshold, the
    * energy is set to NaN.
@@ -117,7 +117,7 @@ public class FourBodyEnergyRegion extends WorkerRegion {
           continue;
         }
 
-        Integer[] job = fourBodyEnergyMap.get(key);
+        int[] job = fourBodyEnergyMap.get(key);
         int i = job[0];
         int ri = job[1];
         int j = job[2];
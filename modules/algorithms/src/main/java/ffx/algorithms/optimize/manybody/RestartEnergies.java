@@ -0,0 +1,310 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.algorithms.optimize.manybody;
+
+import static java.lang.String.format;
+
+import ffx.potential.bonded.Residue;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Self, 2-body and 3-body energies read from an energy restart file.
+ *
+ * <p>Residue and rotamer indices are held in primitive lists with 2, 4 or 6 entries per energy, so
+ * that large restart files can be loaded without creating an object per term.
+ */
+public class RestartEnergies {
+
+  private static final Logger logger = Logger.getLogger(RestartEnergies.class.getName());
+
+  /** Residue and rotamer indices for each body order. [order - 1] */
+  private final IntArrayList[] indices = new IntArrayList[3];
+  /** Energies for each body order. [order - 1] */
+  private final DoubleArrayList[] energies = new DoubleArrayList[3];
+
+  /** Constructor for an empty set of restart energies. */
+  public RestartEnergies() {
+    for (int i = 0; i < 3; i++) {
+      indices[i] = new IntArrayList();
+      energies[i] = new DoubleArrayList();
+    }
+  }
+
+  /**
+   * Read the energies of a text restart file.
+   *
+   * @param restartFile The text restart file.
+   * @param residues Residues used to resolve residue names; may be null if all residues are
+   *     given by index.
+   * @param boxIteration Box to load, or a negative value to load every energy.
+   * @param cellIndices Cell indices of the box to load.
+   * @return The energies, or null if the requested box was not found.
+   * @throws IOException If the file could not be read.
+   */
+  public static RestartEnergies readText(
+      File restartFile, Residue[] residues, int boxIteration, int[] cellIndices)
+      throws IOException {
+    List<String> lines = Files.readAllLines(restartFile.toPath(), StandardCharsets.UTF_8);
+    RestartEnergies restartEnergies = new RestartEnergies();
+    // When loading a single box, only the energies that follow its header are used.
+    boolean inBox = boxIteration < 0;
+    boolean foundBox = inBox;
+    for (String line : lines) {
+      String trimmed = line.trim();
+      if (trimmed.startsWith("Box")) {
+        if (boxIteration < 0) {
+          continue;
+        }
+        if (foundBox) {
+          break;
+        }
+        int[] box = parseBox(trimmed);
+        inBox =
+            box[0] == boxIteration
+                && box[1] == cellIndices[0]
+                && box[2] == cellIndices[1]
+                && box[3] == cellIndices[2];
+        foundBox = inBox;
+        continue;
+      }
+      if (inBox) {
+        restartEnergies.addText(line, residues);
+      }
+    }
+    return foundBox ? restartEnergies : null;
+  }
+
+  /**
+   * Parse a text box header of the form "Box iteration: x,y,z".
+   *
+   * @param line The box header.
+   * @return The box iteration followed by the x, y and z cell indices.
+   * @throws NumberFormatException If the header could not be parsed.
+   */
+  static int[] parseBox(String line) {
+    String[] tok =
+        line.replaceAll("Box", "").replaceAll(":", ",").replaceAll(" ", "").split(",");
+    return new int[] {
+      Integer.parseInt(tok[0]),
+      Integer.parseInt(tok[1]),
+      Integer.parseInt(tok[2]),
+      Integer.parseInt(tok[3])
+    };
+  }
+
+  /**
+   * Parse a residue token, which is either an index or the name of a residue.
+   *
+   * @param token The residue token.
+   * @param residues Residues used to resolve names; may be null.
+   * @return The residue index.
+   * @throws NumberFormatException If the token could not be resolved.
+   */
+  static int parseResidue(String token, Residue[] residues) throws NumberFormatException {
+    if (!token.contains("-")) {
+      return Integer.parseInt(token);
+    }
+    if (residues != null) {
+      for (int x = 0; x < residues.length; x++) {
+        if (token.equals(residues[x].toString())) {
+          return x;
+        }
+      }
+    }
+    throw new NumberFormatException(format(" Residue %s could not be resolved.", token));
+  }
+
+  /**
+   * Add the energy held by one line of a text restart file; unrecognized lines are ignored.
+   *
+   * @param line A line of a text restart file.
+   * @param residues Residues used to resolve names; may be null.
+   * @return The body order of the energy that was added, or 0.
+   */
+  int addText(String line, Residue[] residues) {
+    String[] tok = line.trim().replace(",", "").replace(":", "").split("\\s+");
+    int order;
+    if (tok[0].startsWith("Self")) {
+      order = 1;
+    } else if (tok[0].startsWith("Pair")) {
+      order = 2;
+    } else if (tok[0].startsWith("Triple")) {
+      order = 3;
+    } else {
+      return 0;
+    }
+    try {
+      IntArrayList list = indices[order - 1];
+      int start = list.size();
+      try {
+        for (int n = 0; n < order; n++) {
+          list.add(parseResidue(tok[1 + 2 * n], residues));
+          list.add(Integer.parseInt(tok[2 + 2 * n]));
+        }
+        energies[order - 1].add(Double.parseDouble(tok[1 + 2 * order]));
+      } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+        list.size(start);
+        throw ex;
+      }
+    } catch (NumberFormatException ex) {
+      logger.log(Level.WARNING, format(" Unparsable line in energy restart file: \n%s", line), ex);
+      return 0;
+    } catch (ArrayIndexOutOfBoundsException ex) {
+      logger.warning(format(" Incomplete line in energy restart file: \n%s", line));
+      return 0;
+    }
+    return order;
+  }
+
+  /**
+   * Add a self energy.
+   *
+   * @param i Residue i.
+   * @param ri Rotamer ri of residue i.
+   * @param energy The self energy.
+   */
+  public void addSelf(int i, int ri, double energy) {
+    IntArrayList list = indices[0];
+    list.add(i);
+    list.add(ri);
+    energies[0].add(energy);
+  }
+
+  /**
+   * Add a 2-body energy.
+   *
+   * @param i Residue i.
+   * @param ri Rotamer ri of residue i.
+   * @param j Residue j.
+   * @param rj Rotamer rj of residue j.
+   * @param energy The 2-body energy.
+   */
+  public void addPair(int i, int ri, int j, int rj, double energy) {
+    IntArrayList list = indices[1];
+    list.add(i);
+    list.add(ri);
+    list.add(j);
+    list.add(rj);
+    energies[1].add(energy);
+  }
+
+  /**
+   * Add a 3-body energy.
+   *
+   * @param i Residue i.
+   * @param ri Rotamer ri of residue i.
+   * @param j Residue j.
+   * @param rj Rotamer rj of residue j.
+   * @param k Residue k.
+   * @param rk Rotamer rk of residue k.
+   * @param energy The 3-body energy.
+   */
+  public void addTriple(int i, int ri, int j, int rj, int k, int rk, double energy) {
+    IntArrayList list = indices[2];
+    list.add(i);
+    list.add(ri);
+    list.add(j);
+    list.add(rj);
+    list.add(k);
+    list.add(rk);
+    energies[2].add(energy);
+  }
+
+  /** Remove all energies. */
+  public void clear() {
+    for (int i = 0; i < 3; i++) {
+      indices[i].clear();
+      energies[i].clear();
+    }
+  }
+
+  /**
+   * Number of energies of a given body order.
+   *
+   * @param order The body order (1, 2 or 3).
+   * @return The number of energies.
+   */
+  public int size(int order) {
+    return energies[order - 1].size();
+  }
+
+  /**
+   * Return a residue or rotamer index of an energy.
+   *
+   * @param order The body order (1, 2 or 3).
+   * @param n The energy.
+   * @param position Position within the (residue, rotamer) tuple, from 0 to 2 * order - 1.
+   * @return The index.
+   */
+  public int getIndex(int order, int n, int position) {
+    return indices[order - 1].getInt(2 * order * n + position);
+  }
+
+  /**
+   * Return an energy.
+   *
+   * @param order The body order (1, 2 or 3).
+   * @param n The energy.
+   * @return The energy.
+   */
+  public double getEnergy(int order, int n) {
+    return energies[order - 1].getDouble(n);
+  }
+
+  /**
+   * The highest body order that has at least one energy.
+   *
+   * @return 3, 2, 1, or 0 if there are no energies.
+   */
+  public int getLoadedOrder() {
+    for (int order = 3; order > 0; order--) {
+      if (size(order) > 0) {
+        return order;
+      }
+    }
+    return 0;
+  }
+}
@@ -50,7 +50,6 @@ import ffx.potential.Utilities;
 import ffx.potential.bonded.Residue;
 import ffx.potential.bonded.Rotamer;
 import ffx.potential.bonded.RotamerLibrary;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Map;
@@ -69,9 +68,9 @@ public class SelfEnergyRegion extends WorkerRegion {
   /** RotamerLibrary instance. */
   private final RotamerLibrary library;
   /** Map of self-energy values to compute. */
-  private final Map<Integer, Integer[]> selfEnergyMap;
+  private final Map<Integer, int[]> selfEnergyMap;
   /** Writes energies to restart file. */
-  private final BufferedWriter energyWriter;
+  private final EnergyRestartWriter energyWriter;
   /** World Parallel Java communicator. */
   private final Comm world;
   /** Number of Parallel Java processes. */
@@ -100,7 +99,7 @@ public class SelfEnergyRegion extends WorkerRegion {
       EliminatedRotamers eR,
       Residue[] residues,
       RotamerLibrary library,
-      BufferedWriter energyWriter,
+      EnergyRestartWriter energyWriter,
       Comm world,
       int numProc,
       boolean pruneClashes,
@@ -192,7 +191,7 @@ public class SelfEnergyRegion extends WorkerRegion {
     int numSelf = selfEnergyMap.size();
     int remainder = numSelf % numProc;
     // Set padded residue and rotamer to less than zero.
-    Integer[] padding = {-1, -1};
+    int[] padding = {-1, -1};
 
     int padKey = numSelf;
     while (remainder != 0) {
@@ -236,7 +235,7 @@ public class SelfEnergyRegion extends WorkerRegion {
     @Override
     public void run(int lb, int ub) {
       for (int key = lb; key <= ub; key++) {
-        Integer[] job = selfEnergyMap.get(key);
+        int[] job = selfEnergyMap.get(key);
         int i = job[0];
         int ri = job[1];
         // Initialize result.
@@ -298,9 +297,7 @@ public class SelfEnergyRegion extends WorkerRegion {
             eE.setSelf(resi, roti, energy);
             if (rank == 0 && writeEnergyRestart && printFiles) {
               try {
-                energyWriter.append(format("Self %d %d: %16.8f", resi, roti, energy));
-                energyWriter.newLine();
-                energyWriter.flush();
+                energyWriter.writeSelf(resi, roti, energy);
               } catch (IOException ex) {
                 logger.log(Level.SEVERE, " Exception writing energy restart file.", ex);
               }
@@ -49,7 +49,6 @@ import ffx.algorithms.optimize.RotamerOptimization;
 import ffx.potential.bonded.Residue;
 import ffx.potential.bonded.Rotamer;
 import ffx.potential.bonded.RotamerLibrary;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
@@ -74,9 +73,9 @@ public class ThreeBodyEnergyRegion extends WorkerRegion {
   /** RotamerLibrary instance. */
   private final RotamerLibrary library;
   /** Map of 3-body energy values to compute. */
-  private final Map<Integer, Integer[]> threeBodyEnergyMap;
+  private final Map<Integer, int[]> threeBodyEnergyMap;
   /** Writes energies to restart file. */
-  private final BufferedWriter energyWriter;
+  private final EnergyRestartWriter energyWriter;
   /** World Parallel Java communicator. */
   private final Comm world;
   /** Number of Parallel Java processes. */
@@ -110,7 +109,7 @@ public class ThreeBodyEnergyRegion extends WorkerRegion {
       Residue[] residues,
       List<Residue> allResiduesList,
       RotamerLibrary library,
-      BufferedWriter energyWriter,
+      EnergyRestartWriter energyWriter,
       Comm world,
       int numProc,
       double superpositionThreshold,
@@ -196,7 +195,7 @@ public class ThreeBodyEnergyRegion extends WorkerRegion {
     int numTriple = threeBodyEnergyMap.size();
     int remainder = numTriple % numProc;
     // Set padded residue and rotamer to less than zero.
-    Integer[] padding = {-1, -1, -1, -1, -1, -1};
+    int[] padding = {-1, -1, -1, -1, -1, -1};
 
     int padKey = numTriple;
     while (remainder != 0) {
@@ -230,7 +229,7 @@ public class ThreeBodyEnergyRegion extends WorkerRegion {
     public void run(int lb, int ub) {
       for (int key = lb; key <= ub; key++) {
         long time = -System.nanoTime();
-        Integer[] job = threeBodyEnergyMap.get(key);
+        int[] job = threeBodyEnergyMap.get(key);
         int i = job[0];
         int ri = job[1];
         int j = job[2];
@@ -379,12 +378,7 @@ public class ThreeBodyEnergyRegion extends WorkerRegion {
             eE.set3Body(residues, resi, roti, resj, rotj, resk, rotk, energy);
             if (rank == 0 && writeEnergyRestart && printFiles) {
               try {
-                energyWriter.append(
-                    format(
-                        "Triple %d %d, %d %d, %d %d: %16.8f",
-                        resi, roti, resj, rotj, resk, rotk, energy));
-                energyWriter.newLine();
-                energyWriter.flush();
+                energyWriter.writeTriple(resi, roti, resj, rotj, resk, rotk, energy);
               } catch (IOException ex) {
                 logger.log(Level.SEVERE, " Exception writing energy restart file.", ex);
               }
@@ -48,7 +48,6 @@ import ffx.algorithms.optimize.RotamerOptimization;
 import ffx.potential.bonded.Residue;
 import ffx.potential.bonded.Rotamer;
 import ffx.potential.bonded.RotamerLibrary;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
@@ -73,9 +72,9 @@ public class TwoBodyEnergyRegion extends WorkerRegion {
   /** RotamerLibrary instance. */
   private final RotamerLibrary library;
   /** Map of self-energy values to compute. */
-  private final Map<Integer, Integer[]> twoBodyEnergyMap;
+  private final Map<Integer, int[]> twoBodyEnergyMap;
   /** Writes energies to restart file. */
-  private final BufferedWriter energyWriter;
+  private final EnergyRestartWriter energyWriter;
   /** World Parallel Java communicator. */
   private final Comm world;
   /** Number of Parallel Java processes. */
@@ -111,7 +110,7 @@ public class TwoBodyEnergyRegion extends WorkerRegion {
       Residue[] residues,
       List<Residue> allResiduesList,
       RotamerLibrary library,
-      BufferedWriter energyWriter,
+      EnergyRestartWriter energyWriter,
       Comm world,
       int numProc,
       boolean prunePairClashes,
@@ -197,7 +196,7 @@ public class TwoBodyEnergyRegion extends WorkerRegion {
     int remainder = numPair % numProc;
 
     // Set padded residue and rotamer to less than zero.
-    Integer[] padding = {-1, -1, -1, -1};
+    int[] padding = {-1, -1, -1, -1};
 
     int padKey = numPair;
     while (remainder != 0) {
@@ -231,7 +230,7 @@ public class TwoBodyEnergyRegion extends WorkerRegion {
     public void run(int lb, int ub) {
       for (int key = lb; key <= ub; key++) {
         long time = -System.nanoTime();
-        Integer[] job = twoBodyEnergyMap.get(key);
+        int[] job = twoBodyEnergyMap.get(key);
         int i = job[0];
         int ri = job[1];
         int j = job[2];
@@ -352,10 +351,7 @@ public class TwoBodyEnergyRegion extends WorkerRegion {
             eE.set2Body(resi, roti, resj, rotj, energy);
             if (rank == 0 && writeEnergyRestart && printFiles) {
               try {
-                energyWriter.append(
-                    format("Pair %d %d, %d %d: %16.8f", resi, roti, resj, rotj, energy));
-                energyWriter.newLine();
-                energyWriter.flush();
+                energyWriter.writePair(resi, roti, resj, rotj, energy);
               } catch (IOException ex) {
                 logger.log(Level.SEVERE, " Exception writing energy restart file.", ex);
               }
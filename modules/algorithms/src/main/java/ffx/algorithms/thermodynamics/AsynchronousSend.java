@@ -38,11 +38,12 @@
 package ffx.algorithms.thermodynamics;
 
 import static java.lang.String.format;
-import static java.util.Arrays.stream;
-import static org.apache.commons.math3.util.FastMath.round;
 
-import edu.rit.mp.DoubleBuf;
+import edu.rit.mp.ByteBuf;
 import edu.rit.pj.Comm;
+import edu.rit.util.Range;
+import edu.rit.util.Timer;
+import edu.rit.util.TimerThread;
 import ffx.algorithms.thermodynamics.OrthogonalSpaceTempering.Histogram;
 import java.io.IOException;
 import java.io.InterruptedIOException;
@@ -52,20 +53,36 @@ import java.util.logging.Logger;
 /**
  * The CountReceiveThread accumulates OST statistics from multiple asynchronous walkers.
  *
+ * <p>Each count is sent to this walker immediately. Counts for other walkers are either sent
+ * immediately (a batch size of 1), or buffered and sent as one compact CountBatch when the batch
+ * is full or a timer signals that the batch interval has elapsed since the first buffered count.
+ *
  * @author Michael J. Schnieders
  * @since 1.0
  */
 class AsynchronousSend extends Thread {
 
   private static final Logger logger = Logger.getLogger(AsynchronousSend.class.getName());
-  /** Storage to send a recursion count. */
-  private final double[] myRecursionWeight;
-  /** DoubleBuf to wrap the recursion count for sending. */
-  private final DoubleBuf myRecursionWeightBuf;
-  /** Storage to receive a recursion count. */
-  private final double[] recursionCount;
-  /** DoubleBuf to wrap the recursion count. */
-  private final DoubleBuf recursionCountBuf;
+  /** Storage to send a single recursion count. */
+  private final CountBatch myRecursionCount;
+  /** Encoded single recursion count. */
+  private final byte[] myRecursionCountBytes;
+  /** Recursion counts buffered for other walkers. */
+  private final CountBatch myRecursionBatch;
+  /** Encoded recursion counts for other walkers. */
+  private final byte[] myRecursionBatchBytes;
+  /** Storage to receive recursion counts. */
+  private final CountBatch recursionCounts;
+  /** Encoded recursion counts that were received. */
+  private final byte[] recursionCountBytes;
+  /** ByteBuf to wrap the received recursion counts. */
+  private final ByteBuf recursionCountBuf;
+  /** Maximum number of counts sent to other walkers in one message. */
+  private final int batchSize;
+  /** Maximum time (milliseconds) a count is buffered before it is sent to other walkers. */
+  private final long batchInterval;
+  /** Flushes buffered counts once the batch interval has elapsed (null without batching). */
+  private final Timer batchTimer;
   /** World communicator. */
   private final Comm world = Comm.world();
   /** Rank. */
@@ -79,15 +96,28 @@ class AsynchronousSend extends Thread {
    * Constructor for a thread to asynchronously receive recursion counts.
    *
    * @param histogram Histogram instance.
+   * @param batchSize Maximum number of counts sent to other walkers in one message.
+   * @param batchInterval Maximum time (seconds) a count is buffered.
    */
-  AsynchronousSend(Histogram histogram) {
+  AsynchronousSend(Histogram histogram, int batchSize, double batchInterval) {
     this.histogram = histogram;
+    this.batchSize = batchSize;
+    this.batchInterval = (long) (batchInterval * 1.0e3);
     // Send.
-    myRecursionWeight = new double[4];
-    myRecursionWeightBuf = DoubleBuf.buffer(myRecursionWeight);
+    myRecursionCount = new CountBatch(1);
+    myRecursionCountBytes = new byte[CountBatch.maxEncodedSize(1)];
+    myRecursionBatch = new CountBatch(batchSize);
+    myRecursionBatchBytes = new byte[CountBatch.maxEncodedSize(batchSize)];
     // Receive.
-    recursionCount = new double[4];
-    recursionCountBuf = DoubleBuf.buffer(recursionCount);
+    recursionCounts = new CountBatch(batchSize);
+    recursionCountBytes = new byte[CountBatch.maxEncodedSize(batchSize)];
+    recursionCountBuf = ByteBuf.buffer(recursionCountBytes);
+    // The timer flushes counts that are buffered while this walker is not producing new counts.
+    if (batchSize > 1 && numProc > 1) {
+      batchTimer = TimerThread.getDefault().createTimer(timer -> flush());
+    } else {
+      batchTimer = null;
+    }
   }
 
   /** Run the AsynchronousSend receive thread. */
@@ -107,41 +137,23 @@ class AsynchronousSend extends Thread {
         logger.log(Level.WARNING, message, e);
       }
 
-      // 4x NaN is a message (usually sent by the same process) indicating that it is time to shut
+      // A TERMINATE message (usually sent by the same process) indicates that it is time to shut
       // down.
-      boolean terminateSignal = stream(recursionCount).allMatch(Double::isNaN);
-      if (terminateSignal) {
+      if (recursionCountBytes[0] == CountBatch.TERMINATE) {
         logger.fine(" Termination signal received; CountReceiveThread shutting down.");
         break;
       }
 
-      int rank = (int) round(recursionCount[0]);
-      double lambda = recursionCount[1];
-      double fLambda = recursionCount[2];
+      recursionCounts.decode(recursionCountBytes);
 
       // If independent, only add bias values from this walker
-      if (histogram.getIndependentWalkers() && histogram.getRank() != rank) {
+      if (histogram.getIndependentWalkers() && histogram.getRank() != recursionCounts.getRank()) {
         continue;
       }
 
-      // Check that the FLambda range of the Recursion kernel includes both the minimum and maximum
-      // FLambda value.
-      histogram.checkRecursionKernelSize(fLambda);
-
-      // Increment the Recursion Kernel based on the input of current walker.
-      int walkerLambda = histogram.indexForLambda(lambda);
-      int walkerFLambda = histogram.binForFLambda(fLambda);
-      double weight = recursionCount[3];
-
-      if (histogram.getResetStatistics() && lambda > histogram.getLambdaResetValue()) {
-        histogram.allocateRecursionKernel();
-        histogram.disableResetStatistics();
-        logger.info(format(" Cleared OST histogram (Lambda = %6.4f).", lambda));
-      }
-
-      // Increase the Recursion Kernel based on the input of current walker.
-      // Guaranteed to be from a different process.
-      histogram.addToRecursionKernelValue(walkerLambda, walkerFLambda, weight, true);
+      // Increase the Recursion Kernel based on the input of the walker, checking that the FLambda
+      // range of the Recursion kernel includes all counts.
+      histogram.addToRecursionKernel(recursionCounts, true);
       if (isInterrupted()) {
         logger.log(Level.FINE, " CountReceiveThread was interrupted; ceasing execution.");
         // No pending message receipt, so no warning.
@@ -157,21 +169,76 @@ class AsynchronousSend extends Thread {
    * @param dUdL Current value of dU/dL.
    */
   public void send(double lambda, double dUdL, double temperingWeight) {
-    myRecursionWeight[0] = rank;
-    myRecursionWeight[1] = lambda;
-    myRecursionWeight[2] = dUdL;
-    myRecursionWeight[3] = temperingWeight;
+    int lambdaBin = histogram.indexForLambda(lambda);
+    int fLambdaBin = histogram.absoluteBinForFLambda(dUdL);
+    boolean pastReset = lambda > histogram.getLambdaResetValue();
 
     histogram.setLastReceivedLambda(lambda);
     histogram.setLastReceiveddUdL(dUdL);
 
+    // This walker receives its own count immediately.
+    myRecursionCount.clear();
+    myRecursionCount.add(lambdaBin, fLambdaBin, temperingWeight, pastReset);
+    int length = myRecursionCount.encode(rank, myRecursionCountBytes);
+    ByteBuf countBuf = ByteBuf.sliceBuffer(myRecursionCountBytes, new Range(0, length - 1));
+    send(rank, countBuf);
+
+    if (numProc == 1) {
+      return;
+    }
+
+    if (batchSize == 1) {
+      // Without batching, the count is sent to other walkers immediately.
+      for (int i = 0; i < numProc; i++) {
+        if (i != rank) {
+          send(i, countBuf);
+        }
+      }
+      return;
+    }
+
+    synchronized (this) {
+      if (myRecursionBatch.size() == 0) {
+        batchTimer.start(batchInterval);
+      }
+      myRecursionBatch.add(lambdaBin, fLambdaBin, temperingWeight, pastReset);
+      if (myRecursionBatch.isFull()) {
+        flush();
+      }
+    }
+  }
+
+  /** Send buffered OST counts to all other processes. */
+  public synchronized void flush() {
+    if (batchTimer != null) {
+      batchTimer.stop();
+    }
+    if (myRecursionBatch.size() == 0) {
+      return;
+    }
+    int length = myRecursionBatch.encode(rank, myRecursionBatchBytes);
+    ByteBuf batchBuf = ByteBuf.sliceBuffer(myRecursionBatchBytes, new Range(0, length - 1));
     for (int i = 0; i < numProc; i++) {
-      try {
-        world.send(i, myRecursionWeightBuf);
-      } catch (Exception ex) {
-        String message = " Asynchronous Multiwalker OST send failed.";
-        logger.log(Level.SEVERE, message, ex);
+      if (i != rank) {
+        send(i, batchBuf);
       }
     }
+    logger.fine(format(" Sent %d OST counts in %d bytes.", myRecursionBatch.size(), length));
+    myRecursionBatch.clear();
+  }
+
+  /**
+   * Send a message to a process.
+   *
+   * @param i The rank of the process.
+   * @param buf The message.
+   */
+  private void send(int i, ByteBuf buf) {
+    try {
+      world.send(i, buf);
+    } catch (Exception ex) {
+      String message = " Asynchronous Multiwalker OST send failed.";
+      logger.log(Level.SEVERE, message, ex);
+    }
   }
 }
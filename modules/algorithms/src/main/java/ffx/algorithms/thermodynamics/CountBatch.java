@@ -0,0 +1,240 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.algorithms.thermodynamics;
+
+/**
+ * A CountBatch buffers OST counts from one walker so they can be sent to other walkers as a single
+ * compact message.
+ *
+ * <p>Each count is stored as its lambda bin, its absolute dU/dL bin and its weight. Successive
+ * counts from a walker are close in (lambda, dU/dL), so bins are encoded as zig-zag variable length
+ * differences from the previous count, and the weight is only encoded when it changes. A typical
+ * count then needs 3 bytes instead of the 32 bytes of the unbatched message.
+ *
+ * @author Michael J. Schnieders
+ * @since 1.0
+ */
+class CountBatch {
+
+  /** Message type of a batch of counts. */
+  static final byte COUNTS = 1;
+  /** Message type that signals the receive thread to shut down. */
+  static final byte TERMINATE = 0;
+  /** Flag set when the weight differs from the previous count. */
+  private static final int WEIGHT_FLAG = 1;
+  /** Flag set when lambda is above the lambda value that resets statistics. */
+  private static final int RESET_FLAG = 2;
+  /** The bytes of an int in variable length encoding. */
+  private static final int MAX_VAR_INT = 5;
+
+  private final int[] lambdaBins;
+  private final int[] fLambdaBins;
+  private final double[] weights;
+  private final boolean[] pastReset;
+  /** Number of buffered counts. */
+  private int size = 0;
+  /** Rank of the walker that produced the counts. */
+  private int rank;
+
+  /**
+   * Constructor.
+   *
+   * @param capacity The maximum number of counts.
+   */
+  CountBatch(int capacity) {
+    lambdaBins = new int[capacity];
+    fLambdaBins = new int[capacity];
+    weights = new double[capacity];
+    pastReset = new boolean[capacity];
+  }
+
+  /**
+   * The largest encoded size of a batch.
+   *
+   * @param capacity The maximum number of counts.
+   * @return The number of bytes.
+   */
+  static int maxEncodedSize(int capacity) {
+    return 1 + 2 * MAX_VAR_INT + capacity * (1 + 2 * MAX_VAR_INT + Double.BYTES);
+  }
+
+  /**
+   * Buffer a count.
+   *
+   * @param lambdaBin The lambda bin.
+   * @param fLambdaBin The absolute dU/dL bin.
+   * @param weight The weight of the count.
+   * @param pastReset True if lambda is above the lambda value that resets statistics.
+   */
+  void add(int lambdaBin, int fLambdaBin, double weight, boolean pastReset) {
+    lambdaBins[size] = lambdaBin;
+    fLambdaBins[size] = fLambdaBin;
+    weights[size] = weight;
+    this.pastReset[size] = pastReset;
+    size++;
+  }
+
+  /** Remove all counts. */
+  void clear() {
+    size = 0;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isFull() {
+    return size == lambdaBins.length;
+  }
+
+  int getRank() {
+    return rank;
+  }
+
+  int getLambdaBin(int i) {
+    return lambdaBins[i];
+  }
+
+  int getFLambdaBin(int i) {
+    return fLambdaBins[i];
+  }
+
+  double getWeight(int i) {
+    return weights[i];
+  }
+
+  boolean isPastReset(int i) {
+    return pastReset[i];
+  }
+
+  /**
+   * Encode the counts.
+   *
+   * @param rank The rank of the walker that produced the counts.
+   * @param bytes Destination of at least maxEncodedSize(size) bytes.
+   * @return The number of bytes written.
+   */
+  int encode(int rank, byte[] bytes) {
+    int pos = 0;
+    bytes[pos++] = COUNTS;
+    pos = putVarInt(bytes, pos, rank);
+    pos = putVarInt(bytes, pos, size);
+    int lambdaBin = 0;
+    int fLambdaBin = 0;
+    double weight = 1.0;
+    for (int i = 0; i < size; i++) {
+      int flags = 0;
+      if (weights[i] != weight) {
+        flags |= WEIGHT_FLAG;
+      }
+      if (pastReset[i]) {
+        flags |= RESET_FLAG;
+      }
+      bytes[pos++] = (byte) flags;
+      pos = putVarInt(bytes, pos, zigZag(lambdaBins[i] - lambdaBin));
+      pos = putVarInt(bytes, pos, zigZag(fLambdaBins[i] - fLambdaBin));
+      if ((flags & WEIGHT_FLAG) != 0) {
+        long bits = Double.doubleToRawLongBits(weights[i]);
+        for (int b = 0; b < Double.BYTES; b++) {
+          bytes[pos++] = (byte) (bits >>> (8 * b));
+        }
+      }
+      lambdaBin = lambdaBins[i];
+      fLambdaBin = fLambdaBins[i];
+      weight = weights[i];
+    }
+    return pos;
+  }
+
+  /**
+   * Replace the counts with those of an encoded batch.
+   *
+   * @param bytes The encoded batch.
+   */
+  void decode(byte[] bytes) {
+    int[] pos = {1};
+    rank = getVarInt(bytes, pos);
+    int n = getVarInt(bytes, pos);
+    int lambdaBin = 0;
+    int fLambdaBin = 0;
+    double weight = 1.0;
+    size = 0;
+    for (int i = 0; i < n; i++) {
+      int flags = bytes[pos[0]++];
+      lambdaBin += unZigZag(getVarInt(bytes, pos));
+      fLambdaBin += unZigZag(getVarInt(bytes, pos));
+      if ((flags & WEIGHT_FLAG) != 0) {
+        long bits = 0;
+        for (int b = 0; b < Double.BYTES; b++) {
+          bits |= (bytes[pos[0]++] & 0xFFL) << (8 * b);
+        }
+        weight = Double.longBitsToDouble(bits);
+      }
+      add(lambdaBin, fLambdaBin, weight, (flags & RESET_FLAG) != 0);
+    }
+  }
+
+  private static int zigZag(int value) {
+    return (value << 1) ^ (value >> 31);
+  }
+
+  private static int unZigZag(int value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static int putVarInt(byte[] bytes, int pos, int value) {
+    while ((value & ~0x7F) != 0) {
+      bytes[pos++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    bytes[pos++] = (byte) value;
+    return pos;
+  }
+
+  private static int getVarInt(byte[] bytes, int[] pos) {
+    int value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = bytes[pos[0]++];
+      value |= (b & 0x7F) << shift;
+      shift += 7;
+    } while (b < 0);
+    return value;
+  }
+}
@@ -40,18 +40,19 @@ package ffx.algorithms.thermodynamics;
 import static ffx.numerics.integrate.Integrate1DNumeric.IntegrationType.SIMPSONS;
 import static ffx.utilities.Constants.R;
 import static java.lang.String.format;
-import static java.lang.System.arraycopy;
 import static java.util.Arrays.fill;
 import static org.apache.commons.math3.util.FastMath.PI;
 import static org.apache.commons.math3.util.FastMath.abs;
 import static org.apache.commons.math3.util.FastMath.asin;
 import static org.apache.commons.math3.util.FastMath.exp;
 import static org.apache.commons.math3.util.FastMath.floor;
+import static org.apache.commons.math3.util.FastMath.max;
+import static org.apache.commons.math3.util.FastMath.min;
 import static org.apache.commons.math3.util.FastMath.round;
 import static org.apache.commons.math3.util.FastMath.sin;
 import static org.apache.commons.math3.util.FastMath.sqrt;
 
-import edu.rit.mp.DoubleBuf;
+import edu.rit.mp.ByteBuf;
 import edu.rit.pj.Comm;
 import ffx.algorithms.AlgorithmListener;
 import ffx.algorithms.dynamics.Barostat;
@@ -1292,6 +1293,18 @@ public class OrthogonalSpaceTempering implements CrystalPotential, LambdaInterfa
     private final boolean asynchronous;
     /** The CountReceiveThread accumulates OST statistics from multiple asynchronous walkers. */
     private final AsynchronousSend asynchronousSend;
+    /**
+     * Maximum number of counts sent to other asynchronous walkers in one message.
+     *
+     * <p>The default countBatchSize = 1 (each count is sent immediately).
+     */
+    private final int countBatchSize;
+    /**
+     * Maximum time (seconds) a count is buffered before it is sent to other asynchronous walkers.
+     *
+     * <p>The default countBatchInterval = 1.0 (seconds).
+     */
+    private final double countBatchInterval;
 
     private final SynchronousSend synchronousSend;
     /**
@@ -1322,8 +1335,16 @@ public class OrthogonalSpaceTempering implements CrystalPotential, LambdaInterfa
     int FLambdaBins;
 
     double halfThetaVelocity = 0.0;
-    /** The recursion kernel stores the weight of each [lambda][Flambda] bin. */
-    private double[][] recursionKernel;
+    /**
+     * The recursion kernel stores the weight of each [lambda][Flambda] bin, and the bias those
+     * weights induce at each bin center.
+     */
+    private RecursionKernel recursionKernel;
+    /**
+     * The absolute dU/dL bin of the recursion kernel that corresponds to FLambda bin 0. It is only
+     * changed under the Histogram lock (by checkRecursionKernelSize and allocateRecursionKernel).
+     */
+    private volatile int fLambdaOrigin;
     /**
      * The maximum value of the last F_lambda bin.
      *
@@ -1420,10 +1441,8 @@ public class OrthogonalSpaceTempering implements CrystalPotential, LambdaInterfa
       thetaMass = settings.thetaMass;
       fLambdaPrintInterval = settings.fLambdaPrintInterval;
 
-      // Allocate space for the recursion kernel that stores weights.
-      recursionKernel = new double[lambdaBins][FLambdaBins];
-      // Allocate space to regularize kernel values.
-      kernelValues = new double[FLambdaBins];
+      // Allocate the recursion kernel that stores weights.
+      allocateRecursionKernel();
 
       // Random numbers for MD-OST.
       stochasticRandom = new Random();
@@ -1440,6 +1459,9 @@ public class OrthogonalSpaceTempering implements CrystalPotential, LambdaInterfa
       }
       integrationType = testType;
 
+      countBatchSize = max(1, properties.getInt("ost-batch-size", 1));
+      countBatchInterval = properties.getDouble("ost-batch-interval", 1.0);
+
       /*
        Set up the multi-walker communication variables for Parallel Java
        communication between nodes.
@@ -1449,7 +1471,7 @@ public class OrthogonalSpaceTempering implements CrystalPotential, LambdaInterfa
       rank = world.rank();
       if (asynchronous) {
         // Use asynchronous communication.
-        asynchronousSend = new AsynchronousSend(this);
+        asynchronousSend = new AsynchronousSend(this, countBatchSize, countBatchInterval);
         asynchronousSend.start();
         synchronousSend = null;
       } else {
@@ -1600,6 +1622,10 @@ public class OrthogonalSpaceTempering implements CrystalPotential, LambdaInterfa
       sb.append(format("\n  Lambda bin width:        %6.3f", dL));
       sb.append(format("\n  Number of dU/dL bins:    %6d", FLambdaBins));
       sb.append(format("\n  dU/dL bin width:         %6.3f (kcal/mol)", dFL));
+      if (asynchronous && countBatchSize > 1) {
+        sb.append(format("\n  Count batch size:        %6d", countBatchSize));
+        sb.append(format("\n  Count batch interval:    %6.3f (sec)", countBatchInterval));
+      }
       sb.append(format("\n  Histogram restart:       %s",
           FileUtils.relativePathTo(histogramFile).toString()));
       return sb.toString();
@@ -1633,22 +1659,13 @@ public class OrthogonalSpaceTempering implements CrystalPotential, LambdaInterfa
         int ulFL = -1;
         int llFL = -1;
 
-        // Find the smallest FL bin that has counts.
-        for (int jFL = 0; jFL < FLambdaBins; jFL++) {
-          double count = recursionKernel[iL][jFL];
-          if (count > 0) {
-            llFL = jFL;
-            break;
-          }
-        }
-
-        // Find the largest FL bin that has counts.
-        for (int jFL = FLambdaBins - 1; jFL >= 0; jFL--) {
-          double count = recursionKernel[iL][jFL];
-          if (count > 0) {
-            ulFL = jFL;
-            break;
-          }
+        // Find the smallest and largest FL bins that have counts (only populated tiles are read).
+        int from = fLambdaOrigin;
+        int to = from + FLambdaBins - 1;
+        int first = recursionKernel.firstPopulated(iL, from, to);
+        if (first <= to) {
+          llFL = first - from;
+          ulFL = recursionKernel.lastPopulated(iL, from, to) - from;
         }
 
         double lambdaCount = 0;
@@ -1685,7 +1702,7 @@ public class OrthogonalSpaceTempering implements CrystalPotential, LambdaInterfa
 
             double currentFLambda = minFLambda + jFL * dFL + dFL_2;
             ensembleAverageFLambda += currentFLambda * weight;
-            lambdaCount += recursionKernel[iL][jFL];
+            lambdaCount += recursionKernel.getCount(iL, from + jFL);
           }
           if (minFL > maxBias) {
             minFL = maxBias;
@@ -1881,6 +1898,16 @@ public class OrthogonalSpaceTempering implements CrystalPotential, LambdaInterfa
       return FLambdaBin;
     }
 
+    /**
+     * The absolute dU/dL bin of the recursion kernel, which does not change as the histogram grows.
+     *
+     * @param dEdLambda a double.
+     * @return a int.
+     */
+    int absoluteBinForFLambda(double dEdLambda) {
+      return fLambdaOrigin + (int) floor((dEdLambda - minFLambda) / dFL);
+    }
+
     /**
      * Return the value of a recursion kernel bin.
      *
@@ -1889,7 +1916,7 @@ public class OrthogonalSpaceTempering implements CrystalPotential, LambdaInterfa
      * @return The value of the bin.
      */
     double getRecursionKernelValue(int lambdaBin, int fLambdaBin) {
-      return recursionKernel[lambdaBin][fLambdaBin];
+      return recursionKernel.getCount(lambdaBin, fLambdaOrigin + fLambdaBin);
     }
 
     /**
@@ -1900,7 +1927,9 @@ public class OrthogonalSpaceTempering implements CrystalPotential, LambdaInterfa
      * @param value The value of the bin.
      */
     void setRecursionKernelValue(int lambdaBin, int fLambdaBin, double value) {
-      recursionKernel[lambdaBin][fLambdaBin] = value;
+      // The cached bias is updated incrementally, so set the bin by adding the difference.
+      int bin = fLambdaOrigin + fLambdaBin;
+      recursionKernel.add(lambdaBin, bin, value - recursionKernel.getCount(lambdaBin, bin));
     }
 
     /**
@@ -1912,18 +1941,80 @@ public class OrthogonalSpaceTempering implements CrystalPotential, LambdaInterfa
      * @param updateFLambda Whether to update the 1D bias (typically true for biases received
      *     from other processes)
      */
-    synchronized void addToRecursionKernelValue(
+    void addToRecursionKernelValue(
         int lambdaBin, int fLambdaBin, double value, boolean updateFLambda) {
-      recursionKernel[lambdaBin][fLambdaBin] += value;
-      if (updateFLambda) {
-        updateFLambda(false, false);
+      // Read the origin under the lock used to grow the histogram; the deposit is then a lock-free
+      // atomic add.
+      int origin;
+      synchronized (this) {
+        origin = fLambdaOrigin;
+      }
+      recursionKernel.add(lambdaBin, origin + fLambdaBin, value);
+      synchronized (this) {
+        if (updateFLambda) {
+          updateFLambda(false, false);
+        }
+        ++biasCount;
+      }
+    }
+
+    /**
+     * Add a batch of counts to the recursion kernel in one pass.
+     *
+     * @param batch The counts, with absolute dU/dL bins.
+     * @param updateFLambda Whether to update the 1D bias once all counts are added.
+     */
+    void addToRecursionKernel(CountBatch batch, boolean updateFLambda) {
+      int n = batch.size();
+      if (n == 0) {
+        return;
+      }
+
+      // Check that the FLambda range of the Recursion kernel includes both the minimum and maximum
+      // FLambda bin of the batch.
+      int minBin = Integer.MAX_VALUE;
+      int maxBin = Integer.MIN_VALUE;
+      for (int i = 0; i < n; i++) {
+        minBin = min(minBin, batch.getFLambdaBin(i));
+        maxBin = max(maxBin, batch.getFLambdaBin(i));
+      }
+      // The origin and minFLambda shift together as the histogram grows, so both are read under the
+      // lock used to grow it.
+      synchronized (this) {
+        checkRecursionKernelSize(minFLambda + (minBin - fLambdaOrigin) * dFL + dFL_2);
+        checkRecursionKernelSize(minFLambda + (maxBin - fLambdaOrigin) * dFL + dFL_2);
+      }
+
+      for (int i = 0; i < n; i++) {
+        int lambdaBin = batch.getLambdaBin(i);
+        if (resetStatistics && batch.isPastReset(i)) {
+          allocateRecursionKernel();
+          disableResetStatistics();
+          logger.info(format(" Cleared OST histogram (Lambda = %6.4f).", lambdaBin * dL));
+        }
+        // The deposit is a lock-free atomic add.
+        recursionKernel.add(lambdaBin, batch.getFLambdaBin(i), batch.getWeight(i));
+      }
+
+      synchronized (this) {
+        if (updateFLambda) {
+          updateFLambda(false, false);
+        }
+        biasCount += n;
       }
-      ++biasCount;
     }
 
-    /** Allocate memory for the recursion kernel. */
-    void allocateRecursionKernel() {
-      recursionKernel = new double[lambdaBins][FLambdaBins];
+    /**
+     * Allocate an empty recursion kernel for the current minFLambda and FLambdaBins.
+     *
+     * <p>Absolute dU/dL bin 0 of the recursion kernel is centered on dU/dL = 0.
+     */
+    synchronized void allocateRecursionKernel() {
+      recursionKernel =
+          new RecursionKernel(lambdaBins, dL, dFL, lambdaBiasCutoff, biasCutoff, discreteLambda);
+      fLambdaOrigin = (int) round((minFLambda + dFL_2) / dFL);
+      maxFLambda = minFLambda + FLambdaBins * dFL;
+      // Allocate space to regularize kernel values.
       kernelValues = new double[FLambdaBins];
     }
 
@@ -2044,67 +2135,13 @@ public class OrthogonalSpaceTempering implements CrystalPotential, LambdaInterfa
       return offset;
     }
 
-    /** Evaluate the bias at [cLambda, cF_lambda] */
+    /**
+     * Evaluate the bias at [cLambda, cF_lambda].
+     *
+     * <p>The bias at each bin center is accumulated by the recursion kernel as counts are added.
+     */
     private double evaluateKernel(int cLambda, int cF_Lambda, double gaussianBiasMagnitude) {
-      // Compute the value of L and FL for the center of the current bin.
-      double vL = cLambda * dL;
-      double vFL = minFLambda + cF_Lambda * dFL + dFL_2;
-
-      // Set the variances for the Gaussian bias.
-      double Ls2 = 2.0 * dL * 2.0 * dL;
-      double FLs2 = 2.0 * dFL * 2.0 * dFL;
-
-      // Variances are only used when dividing by twice their value.
-      double invLs2 = 0.5 / Ls2;
-      double invFLs2 = 0.5 / FLs2;
-
-      double sum = 0.0;
-      for (int iL = -lambdaBiasCutoff; iL <= lambdaBiasCutoff; iL++) {
-        int Lcenter = cLambda + iL;
-        double deltaL = vL - Lcenter * dL;
-        double deltaL2 = deltaL * deltaL;
-
-        // Pre-compute the lambda-width exponent.
-        double L2exp = exp(-deltaL2 * invLs2);
-
-        // Mirror condition for Lambda counts.
-        int lcount = Lcenter;
-        double mirrorFactor = 1.0;
-        if (lcount == 0 || lcount == lambdaBins - 1) {
-          // For continuous lambda, the width of the first and last bins is dLambda_2,
-          // so the mirror condition is to double their counts.
-          if (!discreteLambda) {
-            mirrorFactor = 2.0;
-          }
-        } else if (lcount < 0) {
-          lcount = -lcount;
-        } else if (lcount > lambdaBins - 1) {
-          // number of bins past the last bin.
-          lcount -= (lambdaBins - 1);
-          // mirror bin
-          lcount = lambdaBins - 1 - lcount;
-        }
-
-        for (int jFL = -biasCutoff; jFL <= biasCutoff; jFL++) {
-          int FLcenter = cF_Lambda + jFL;
-          // For FLambda outside the count matrix the weight is 0 so we continue.
-          if (FLcenter < 0 || FLcenter >= FLambdaBins) {
-            continue;
-          }
-          double rc = recursionKernel[lcount][FLcenter];
-          if (rc <= 0.0) {
-            continue;
-          }
-          double deltaFL = vFL - (minFLambda + FLcenter * dFL + dFL_2);
-          double deltaFL2 = deltaFL * deltaFL;
-          double weight = mirrorFactor * rc;
-          if (weight > 0) {
-            double e = weight * gaussianBiasMagnitude * L2exp * exp(-deltaFL2 * invFLs2);
-            sum += e;
-          }
-        }
-      }
-      return sum;
+      return gaussianBiasMagnitude * recursionKernel.getKernel(cLambda, fLambdaOrigin + cF_Lambda);
     }
 
     /**
@@ -2115,58 +2152,8 @@ public class OrthogonalSpaceTempering implements CrystalPotential, LambdaInterfa
      * @return The bias energy.
      */
     double computeBiasEnergy(double currentLambda, double currentdUdL) {
-
-      int lambdaBin = indexForLambda(currentLambda);
-      int FLambdaBin = binForFLambda(currentdUdL);
-
-      double bias2D = 0.0;
-      if (biasMag > 0.0) {
-        double ls2 = (2.0 * dL) * (2.0 * dL);
-        double FLs2 = (2.0 * dFL) * (2.0 * dFL);
-        for (int iL = -lambdaBiasCutoff; iL <= lambdaBiasCutoff; iL++) {
-          int lcenter = lambdaBin + iL;
-          double deltaL = currentLambda - (lcenter * dL);
-          double deltaL2 = deltaL * deltaL;
-          // Mirror conditions for recursion kernel counts.
-          int lcount = lcenter;
-          double mirrorFactor = 1.0;
-          if (lcount == 0 || lcount == lambdaBins - 1) {
-            // For continuous lambda, the width of the first and last bins is dLambda_2,
-            // so the mirror condition is to double their counts.
-            if (!discreteLambda) {
-              mirrorFactor = 2.0;
-            }
-          } else if (lcount < 0) {
-            lcount = -lcount;
-          } else if (lcount > lambdaBins - 1) {
-            // Number of bins past the last bin
-            lcount -= (lambdaBins - 1);
-            // Mirror bin
-            lcount = lambdaBins - 1 - lcount;
-          }
-          for (int iFL = -biasCutoff; iFL <= biasCutoff; iFL++) {
-            int FLcenter = FLambdaBin + iFL;
-
-            // If either of the following FL edge conditions are true,
-            // then there are no counts and we continue.
-            if (FLcenter < 0 || FLcenter >= FLambdaBins) {
-              continue;
-            }
-            double rc = recursionKernel[lcount][FLcenter];
-            if (rc <= 0.0) {
-              continue;
-            }
-            double currentFL = minFLambda + FLcenter * dFL + dFL_2;
-            double deltaFL = currentdUdL - currentFL;
-            double deltaFL2 = deltaFL * deltaFL;
-            double weight = mirrorFactor * rc;
-            double bias =
-                weight * biasMag * exp(-deltaL2 / (2.0 * ls2)) * exp(
-                    -deltaFL2 / (2.0 * FLs2));
-            bias2D += bias;
-          }
-        }
-      }
+      double[] chainRule = new double[2];
+      double bias2D = energyAndGradient2D(currentLambda, currentdUdL, chainRule, biasMag);
 
       // Compute the energy for the recursion slave at F(L) using interpolation.
       double bias1D = energyAndGradient1D(currentLambda, false);
@@ -2175,6 +2162,18 @@ public class OrthogonalSpaceTempering implements CrystalPotential, LambdaInterfa
       return bias1D + bias2D;
     }
 
+    /**
+     * Compute the 2D bias and its derivatives at (currentLambda, currentdUdLambda).
+     *
+     * <p>Each Gaussian is the product of a lambda term and a dU/dL term, so the dU/dL terms are
+     * computed once and the counts of each lambda row are summed before applying its lambda term.
+     *
+     * @param currentLambda The value of lambda.
+     * @param currentdUdLambda The value of dU/dL.
+     * @param chainRule The derivatives of the bias with respect to lambda and dU/dL.
+     * @param gaussianBiasMagnitude The magnitude of each Gaussian.
+     * @return The 2D bias energy.
+     */
     double energyAndGradient2D(
         double currentLambda, double currentdUdLambda, double[] chainRule,
         double gaussianBiasMagnitude) {
@@ -2191,12 +2190,24 @@ public class OrthogonalSpaceTempering implements CrystalPotential, LambdaInterfa
       double dGdFLambda = 0.0;
       int lambdaBin = indexForLambda(currentLambda);
       int FLambdaBin = binForFLambda(currentdUdLambda);
+      int origin = fLambdaOrigin;
 
       double ls2 = (2.0 * dL) * (2.0 * dL);
       double FLs2 = (2.0 * dFL) * (2.0 * dFL);
+
+      // Pre-compute the dU/dL offsets and Gaussian terms.
+      int nFL = 2 * biasCutoff + 1;
+      double[] deltaFLs = new double[nFL];
+      double[] expFLs = new double[nFL];
+      for (int iFL = -biasCutoff; iFL <= biasCutoff; iFL++) {
+        int FLcenter = FLambdaBin + iFL;
+        double deltaFL = currentdUdLambda - (minFLambda + FLcenter * dFL + dFL_2);
+        deltaFLs[iFL + biasCutoff] = deltaFL;
+        expFLs[iFL + biasCutoff] = exp(-deltaFL * deltaFL / (2.0 * FLs2));
+      }
+
       for (int iL = -lambdaBiasCutoff; iL <= lambdaBiasCutoff; iL++) {
         int lcenter = lambdaBin + iL;
-        // double deltaL = lambda - (lcenter * dL);
         double deltaL = currentLambda - (lcenter * dL);
         double deltaL2 = deltaL * deltaL;
         // Mirror conditions for recursion kernel counts.
@@ -2216,6 +2227,10 @@ public class OrthogonalSpaceTempering implements CrystalPotential, LambdaInterfa
           // Mirror bin
           lcount = lambdaBins - 1 - lcount;
         }
+
+        // Sum the dU/dL Gaussians of this lambda row.
+        double rowBias = 0.0;
+        double rowGradient = 0.0;
         for (int iFL = -biasCutoff; iFL <= biasCutoff; iFL++) {
           int FLcenter = FLambdaBin + iFL;
 
@@ -2224,21 +2239,23 @@ public class OrthogonalSpaceTempering implements CrystalPotential, LambdaInterfa
           if (FLcenter < 0 || FLcenter >= FLambdaBins) {
             continue;
           }
-          double rc = recursionKernel[lcount][FLcenter];
+          double rc = recursionKernel.getCount(lcount, origin + FLcenter);
           if (rc <= 0.0) {
             continue;
           }
-          // double deltaFL = dUdLambda - (minFLambda + FLcenter * dFL + dFL_2);
-          double deltaFL = currentdUdLambda - (minFLambda + FLcenter * dFL + dFL_2);
-          double deltaFL2 = deltaFL * deltaFL;
-          double weight = mirrorFactor * rc;
-          double bias =
-              weight * gaussianBiasMagnitude * exp(-deltaL2 / (2.0 * ls2)) * exp(
-                  -deltaFL2 / (2.0 * FLs2));
-          gLdEdL += bias;
-          dGdLambda -= deltaL / ls2 * bias;
-          dGdFLambda -= deltaFL / FLs2 * bias;
+          double bias = rc * expFLs[iFL + biasCutoff];
+          rowBias += bias;
+          rowGradient += deltaFLs[iFL + biasCutoff] * bias;
         }
+        if (rowBias == 0.0) {
+          continue;
+        }
+
+        double lambdaFactor = mirrorFactor * gaussianBiasMagnitude * exp(-deltaL2 / (2.0 * ls2));
+        double bias = lambdaFactor * rowBias;
+        gLdEdL += bias;
+        dGdLambda -= deltaL / ls2 * bias;
+        dGdFLambda -= lambdaFactor * rowGradient / FLs2;
       }
 
       chainRule[0] = dGdLambda;
@@ -2299,16 +2316,15 @@ public class OrthogonalSpaceTempering implements CrystalPotential, LambdaInterfa
     double evaluateHistogram(double lambda, double dUdL) {
       int lambdaBin = indexForLambda(lambda);
       int dUdLBin = binForFLambda(dUdL);
-      try {
-        return recursionKernel[lambdaBin][dUdLBin];
-      } catch (Exception e) {
-        // Catch an index out of bounds exception.
-        return 0.0;
-      }
+      // Bins outside the histogram have no counts.
+      return recursionKernel.getCount(lambdaBin, fLambdaOrigin + dUdLBin);
     }
 
-    /** If necessary, allocate more space. */
-    void checkRecursionKernelSize(double dEdLambda) {
+    /**
+     * If necessary, widen the dU/dL range of the histogram. The recursion kernel is sparse and
+     * indexed by absolute dU/dL bin, so no counts are moved.
+     */
+    synchronized void checkRecursionKernelSize(double dEdLambda) {
       if (dEdLambda > maxFLambda) {
         logger.info(
             format(
@@ -2320,14 +2336,7 @@ public class OrthogonalSpaceTempering implements CrystalPotential, LambdaInterfa
         while (minFLambda + newFLambdaBins * dFL < dEdLambda) {
           newFLambdaBins += 100;
         }
-        double[][] newRecursionKernel = new double[lambdaBins][newFLambdaBins];
-
-        // We have added bins above the indeces of the current counts just copy them into the new
-        // array.
-        for (int i = 0; i < lambdaBins; i++) {
-          arraycopy(recursionKernel[i], 0, newRecursionKernel[i], 0, FLambdaBins);
-        }
-        recursionKernel = newRecursionKernel;
+        // We have added bins above the indeces of the current counts.
         FLambdaBins = newFLambdaBins;
         kernelValues = new double[FLambdaBins];
         maxFLambda = minFLambda + dFL * FLambdaBins;
@@ -2351,14 +2360,10 @@ public class OrthogonalSpaceTempering implements CrystalPotential, LambdaInterfa
           offset += 100;
         }
         int newFLambdaBins = FLambdaBins + offset;
-        double[][] newRecursionKernel = new double[lambdaBins][newFLambdaBins];
 
         // We have added bins below the current counts,
         // so their indeces must be increased by: offset = newFLBins - FLBins
-        for (int i = 0; i < lambdaBins; i++) {
-          arraycopy(recursionKernel[i], 0, newRecursionKernel[i], offset, FLambdaBins);
-        }
-        recursionKernel = newRecursionKernel;
+        fLambdaOrigin -= offset;
         minFLambda = minFLambda - offset * dFL;
         FLambdaBins = newFLambdaBins;
         kernelValues = new double[FLambdaBins];
@@ -2457,8 +2462,9 @@ public class OrthogonalSpaceTempering implements CrystalPotential, LambdaInterfa
 
     void destroy() {
       if (asynchronousSend != null && asynchronousSend.isAlive()) {
-        double[] killMessage = new double[] {Double.NaN, Double.NaN, Double.NaN, Double.NaN};
-        DoubleBuf killBuf = DoubleBuf.buffer(killMessage);
+        // Send any buffered counts before shutting down.
+        asynchronousSend.flush();
+        ByteBuf killBuf = ByteBuf.buffer(new byte[] {CountBatch.TERMINATE});
         try {
           logger.fine(" Sending the termination message.");
           world.send(rank, killBuf);
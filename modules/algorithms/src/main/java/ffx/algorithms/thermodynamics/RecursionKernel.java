@@ -0,0 +1,357 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.algorithms.thermodynamics;
+
+import static org.apache.commons.math3.util.FastMath.exp;
+import static org.apache.commons.math3.util.FastMath.max;
+import static org.apache.commons.math3.util.FastMath.min;
+
+import edu.rit.pj.reduction.SharedDoubleArray;
+
+/**
+ * The RecursionKernel stores the OST counts for each [lambda][dU/dL] bin in sparse tiles, together
+ * with the Gaussian bias of those counts evaluated at each bin center.
+ *
+ * <p>The dU/dL axis is indexed by absolute bin (bin 0 is centered on dU/dL = 0), so widening the
+ * histogram does not move any stored values. Tiles are only allocated where counts (or the bias
+ * they induce) are non-zero. Deposits are lock-free atomic adds; only the allocation of a new tile
+ * takes a lock on its lambda row.
+ *
+ * <p>Each deposit also adds its unit magnitude Gaussian to the cached bias of every bin center
+ * within the bias cutoff, using the same lambda mirror conditions as the Histogram. Evaluating the
+ * bias at a bin center is then a single lookup. Counts are assumed to be non-negative.
+ *
+ * @author Michael J. Schnieders
+ * @since 1.0
+ */
+class RecursionKernel {
+
+  /** Number of dU/dL bins per tile (must be a power of 2). */
+  private static final int TILE_BITS = 6;
+
+  private static final int TILE_SIZE = 1 << TILE_BITS;
+
+  private static final int TILE_MASK = TILE_SIZE - 1;
+  /** Number of lambda bins. */
+  private final int lambdaBins;
+  /** Gaussian cutoff along the lambda axis (bins). */
+  private final int lambdaBiasCutoff;
+  /** Gaussian cutoff along the dU/dL axis (bins). */
+  private final int biasCutoff;
+  /** For continuous lambda, counts in the first and last lambda bins are doubled by mirroring. */
+  private final boolean discreteLambda;
+  /** Unit magnitude Gaussian weights along lambda, indexed by offset + lambdaBiasCutoff. */
+  private final double[] lambdaGaussian;
+  /** Unit magnitude Gaussian weights along dU/dL, indexed by offset + biasCutoff. */
+  private final double[] fLambdaGaussian;
+  /** Counts for each [lambda][dU/dL] bin. */
+  private final Grid counts;
+  /** Unit magnitude bias at the center of each [lambda][dU/dL] bin. */
+  private final Grid kernel;
+
+  /**
+   * Constructor.
+   *
+   * @param lambdaBins Number of lambda bins.
+   * @param dL Width of a lambda bin.
+   * @param dFL Width of a dU/dL bin.
+   * @param lambdaBiasCutoff Gaussian cutoff along the lambda axis (bins).
+   * @param biasCutoff Gaussian cutoff along the dU/dL axis (bins).
+   * @param discreteLambda True for discrete lambda.
+   */
+  RecursionKernel(
+      int lambdaBins,
+      double dL,
+      double dFL,
+      int lambdaBiasCutoff,
+      int biasCutoff,
+      boolean discreteLambda) {
+    this.lambdaBins = lambdaBins;
+    this.lambdaBiasCutoff = lambdaBiasCutoff;
+    this.biasCutoff = biasCutoff;
+    this.discreteLambda = discreteLambda;
+
+    // The Gaussian variances are (2 * dL)^2 and (2 * dFL)^2.
+    double invLs2 = 0.5 / (2.0 * dL * 2.0 * dL);
+    double invFLs2 = 0.5 / (2.0 * dFL * 2.0 * dFL);
+    lambdaGaussian = new double[2 * lambdaBiasCutoff + 1];
+    for (int iL = -lambdaBiasCutoff; iL <= lambdaBiasCutoff; iL++) {
+      double deltaL = iL * dL;
+      lambdaGaussian[iL + lambdaBiasCutoff] = exp(-deltaL * deltaL * invLs2);
+    }
+    fLambdaGaussian = new double[2 * biasCutoff + 1];
+    for (int iFL = -biasCutoff; iFL <= biasCutoff; iFL++) {
+      double deltaFL = iFL * dFL;
+      fLambdaGaussian[iFL + biasCutoff] = exp(-deltaFL * deltaFL * invFLs2);
+    }
+
+    counts = new Grid(lambdaBins);
+    kernel = new Grid(lambdaBins);
+  }
+
+  /**
+   * Return the count in a bin.
+   *
+   * @param lambdaBin The lambda bin.
+   * @param fLambdaBin The absolute dU/dL bin.
+   * @return The count.
+   */
+  double getCount(int lambdaBin, int fLambdaBin) {
+    return counts.get(lambdaBin, fLambdaBin);
+  }
+
+  /**
+   * Return the unit magnitude bias at the center of a bin.
+   *
+   * @param lambdaBin The lambda bin.
+   * @param fLambdaBin The absolute dU/dL bin.
+   * @return The bias divided by the Gaussian magnitude.
+   */
+  double getKernel(int lambdaBin, int fLambdaBin) {
+    return kernel.get(lambdaBin, fLambdaBin);
+  }
+
+  /**
+   * Atomically add a weight to a bin and to the cached bias of all bin centers it reaches.
+   *
+   * @param lambdaBin The lambda bin.
+   * @param fLambdaBin The absolute dU/dL bin.
+   * @param weight The weight to add.
+   */
+  void add(int lambdaBin, int fLambdaBin, double weight) {
+    if (weight == 0.0) {
+      return;
+    }
+    counts.add(lambdaBin, fLambdaBin, weight);
+
+    // The count is seen directly from lambdaBin, and through the mirror conditions
+    // from the lambda centers -lambdaBin and 2 * (lambdaBins - 1) - lambdaBin.
+    int last = lambdaBins - 1;
+    addToKernel(lambdaBin, lambdaBin, fLambdaBin, weight);
+    if (lambdaBin > 0) {
+      addToKernel(-lambdaBin, lambdaBin, fLambdaBin, weight);
+    }
+    if (lambdaBin < last) {
+      addToKernel(2 * last - lambdaBin, lambdaBin, fLambdaBin, weight);
+    }
+  }
+
+  /**
+   * Find the first bin with a positive count.
+   *
+   * @param lambdaBin The lambda bin.
+   * @param from The first absolute dU/dL bin to consider.
+   * @param to The last absolute dU/dL bin to consider.
+   * @return The first populated bin, or to + 1 if there is none.
+   */
+  int firstPopulated(int lambdaBin, int from, int to) {
+    Directory directory = counts.rows[lambdaBin].directory;
+    SharedDoubleArray[] tiles = directory.tiles;
+    int firstTile = max(from >> TILE_BITS, directory.firstTile);
+    int lastTile = min(to >> TILE_BITS, directory.firstTile + tiles.length - 1);
+    for (int t = firstTile; t <= lastTile; t++) {
+      SharedDoubleArray tile = tiles[t - directory.firstTile];
+      if (tile == null) {
+        continue;
+      }
+      int start = max(from, t << TILE_BITS);
+      int end = min(to, (t << TILE_BITS) + TILE_MASK);
+      for (int bin = start; bin <= end; bin++) {
+        if (tile.get(bin & TILE_MASK) > 0.0) {
+          return bin;
+        }
+      }
+    }
+    return to + 1;
+  }
+
+  /**
+   * Find the last bin with a positive count.
+   *
+   * @param lambdaBin The lambda bin.
+   * @param from The first absolute dU/dL bin to consider.
+   * @param to The last absolute dU/dL bin to consider.
+   * @return The last populated bin, or from - 1 if there is none.
+   */
+  int lastPopulated(int lambdaBin, int from, int to) {
+    Directory directory = counts.rows[lambdaBin].directory;
+    SharedDoubleArray[] tiles = directory.tiles;
+    int firstTile = max(from >> TILE_BITS, directory.firstTile);
+    int lastTile = min(to >> TILE_BITS, directory.firstTile + tiles.length - 1);
+    for (int t = lastTile; t >= firstTile; t--) {
+      SharedDoubleArray tile = tiles[t - directory.firstTile];
+      if (tile == null) {
+        continue;
+      }
+      int start = max(from, t << TILE_BITS);
+      int end = min(to, (t << TILE_BITS) + TILE_MASK);
+      for (int bin = end; bin >= start; bin--) {
+        if (tile.get(bin & TILE_MASK) > 0.0) {
+          return bin;
+        }
+      }
+    }
+    return from - 1;
+  }
+
+  /**
+   * Add the Gaussian of a deposit, seen from lambda center lCenter, to the cached bias.
+   *
+   * @param lCenter The (possibly mirrored) lambda center of the deposit.
+   * @param lambdaBin The lambda bin of the deposit.
+   * @param fLambdaBin The absolute dU/dL bin of the deposit.
+   * @param weight The weight of the deposit.
+   */
+  private void addToKernel(int lCenter, int lambdaBin, int fLambdaBin, double weight) {
+    if (mirror(lCenter) != lambdaBin) {
+      return;
+    }
+    double mirrorFactor = 1.0;
+    if (!discreteLambda && (lCenter == 0 || lCenter == lambdaBins - 1)) {
+      // For continuous lambda, the width of the first and last bins is dLambda_2,
+      // so the mirror condition is to double their counts.
+      mirrorFactor = 2.0;
+    }
+    for (int iL = -lambdaBiasCutoff; iL <= lambdaBiasCutoff; iL++) {
+      int cLambda = lCenter - iL;
+      if (cLambda < 0 || cLambda >= lambdaBins) {
+        continue;
+      }
+      double lambdaWeight = weight * mirrorFactor * lambdaGaussian[iL + lambdaBiasCutoff];
+      for (int iFL = -biasCutoff; iFL <= biasCutoff; iFL++) {
+        double value = lambdaWeight * fLambdaGaussian[iFL + biasCutoff];
+        kernel.add(cLambda, fLambdaBin - iFL, value);
+      }
+    }
+  }
+
+  /**
+   * Apply the lambda mirror conditions to a lambda center.
+   *
+   * @param lCenter A lambda center, possibly outside [0, lambdaBins).
+   * @return The lambda bin whose counts are used for the center.
+   */
+  private int mirror(int lCenter) {
+    if (lCenter < 0) {
+      return -lCenter;
+    } else if (lCenter > lambdaBins - 1) {
+      return 2 * (lambdaBins - 1) - lCenter;
+    }
+    return lCenter;
+  }
+
+  /** A sparse [lambda][dU/dL] grid of atomic tiles. */
+  private static class Grid {
+
+    private final Row[] rows;
+
+    Grid(int lambdaBins) {
+      rows = new Row[lambdaBins];
+      for (int i = 0; i < lambdaBins; i++) {
+        rows[i] = new Row();
+      }
+    }
+
+    double get(int lambdaBin, int fLambdaBin) {
+      SharedDoubleArray tile = rows[lambdaBin].directory.getTile(fLambdaBin >> TILE_BITS);
+      if (tile == null) {
+        return 0.0;
+      }
+      return tile.get(fLambdaBin & TILE_MASK);
+    }
+
+    void add(int lambdaBin, int fLambdaBin, double value) {
+      Row row = rows[lambdaBin];
+      int t = fLambdaBin >> TILE_BITS;
+      SharedDoubleArray tile = row.directory.getTile(t);
+      if (tile == null) {
+        tile = row.allocateTile(t);
+      }
+      tile.getAndAdd(fLambdaBin & TILE_MASK, value);
+    }
+  }
+
+  /** The tiles of one lambda row; the directory is replaced (never modified) when it grows. */
+  private static class Row {
+
+    private volatile Directory directory = new Directory(0, new SharedDoubleArray[0]);
+
+    synchronized SharedDoubleArray allocateTile(int t) {
+      Directory current = directory;
+      SharedDoubleArray tile = current.getTile(t);
+      if (tile != null) {
+        return tile;
+      }
+      SharedDoubleArray[] tiles = current.tiles;
+      int firstTile = t;
+      int lastTile = t;
+      if (tiles.length > 0) {
+        firstTile = min(t, current.firstTile);
+        lastTile = max(t, current.firstTile + tiles.length - 1);
+      }
+      SharedDoubleArray[] newTiles = new SharedDoubleArray[lastTile - firstTile + 1];
+      if (tiles.length > 0) {
+        System.arraycopy(tiles, 0, newTiles, current.firstTile - firstTile, tiles.length);
+      }
+      tile = new SharedDoubleArray(TILE_SIZE);
+      newTiles[t - firstTile] = tile;
+      directory = new Directory(firstTile, newTiles);
+      return tile;
+    }
+  }
+
+  /** An immutable map from tile index to tile. */
+  private static class Directory {
+
+    private final int firstTile;
+    private final SharedDoubleArray[] tiles;
+
+    Directory(int firstTile, SharedDoubleArray[] tiles) {
+      this.firstTile = firstTile;
+      this.tiles = tiles;
+    }
+
+    SharedDoubleArray getTile(int t) {
+      int index = t - firstTile;
+      if (index < 0 || index >= tiles.length) {
+        return null;
+      }
+      return tiles[index];
+    }
+  }
+}
@@ -107,6 +107,7 @@ public class SynchronousSend {
     }
 
     // Increment the Recursion Kernel(s) based on the input of each walker.
+    boolean[] updateFLambda = new boolean[histograms.length];
     for (int i = 0; i < numProc; i++) {
 
       // Only include this walkers bias.
@@ -132,7 +133,17 @@ public class SynchronousSend {
       }
 
       // For i == rank, the addBias method will handle updating FLambda (and optionally printing).
-      currentHistogram.addToRecursionKernelValue(walkerLambda, walkerFLambda, weight, i != rank);
+      currentHistogram.addToRecursionKernelValue(walkerLambda, walkerFLambda, weight, false);
+      if (i != rank) {
+        updateFLambda[his] = true;
+      }
+    }
+
+    // Update FLambda once for each Histogram that received counts from other walkers.
+    for (int his = 0; his < histograms.length; his++) {
+      if (updateFLambda[his]) {
+        histograms[his].updateFLambda(false, false);
+      }
     }
   }
 
@@ -0,0 +1,132 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.algorithms.dynamics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import ffx.algorithms.dynamics.integrators.IntegratorEnum;
+import ffx.algorithms.dynamics.thermostats.ThermostatEnum;
+import ffx.algorithms.misc.AlgorithmsTest;
+import ffx.potential.ForceFieldEnergy;
+import ffx.potential.MolecularAssembly;
+import ffx.potential.bonded.Atom;
+import ffx.potential.parsers.SystemFilter;
+import ffx.potential.parsers.TRJFilter;
+import ffx.potential.utils.PotentialsUtils;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Test;
+
+/**
+ * Test that molecular dynamics with the TRJ file type writes a binary trajectory that can be read
+ * back frame by frame.
+ *
+ * @author Michael J. Schnieders
+ */
+public class TRJDynamicsTest extends AlgorithmsTest {
+
+  /** Number of time steps. */
+  private static final int STEPS = 10;
+  /** Time step in femtoseconds. */
+  private static final double TIME_STEP = 1.0;
+  /** Interval between trajectory frames in picoseconds (every 2 steps). */
+  private static final double TRAJECTORY_INTERVAL = 0.002;
+
+  /** Acetamide in vacuum, saving a frame every other step. */
+  @Test
+  public void testTRJ() throws Exception {
+    Path tmpDir = registerTemporaryDirectory();
+    ClassLoader cl = this.getClass().getClassLoader();
+    for (String name : new String[] {"acetamide.vac.xyz", "acetamide.vac.key"}) {
+      File source = new File(cl.getResource("ffx/algorithms/structures/" + name).getPath());
+      Files.copy(source.toPath(), tmpDir.resolve(name));
+    }
+    PotentialsUtils potentialsUtils = new PotentialsUtils();
+    MolecularAssembly molecularAssembly =
+        potentialsUtils.openQuietly(tmpDir.resolve("acetamide.vac.xyz").toString());
+    ForceFieldEnergy forceFieldEnergy = molecularAssembly.getPotentialEnergy();
+
+    MolecularDynamics molecularDynamics =
+        MolecularDynamics.dynamicsFactory(
+            molecularAssembly,
+            forceFieldEnergy,
+            molecularAssembly.getProperties(),
+            null,
+            ThermostatEnum.ADIABATIC,
+            IntegratorEnum.VERLET);
+    File dyn = tmpDir.resolve("acetamide.vac.dyn").toFile();
+    molecularDynamics.dynamic(
+        STEPS, TIME_STEP, TRAJECTORY_INTERVAL, TRAJECTORY_INTERVAL, 298.15, true, "TRJ", 1.0, dyn);
+
+    // The writer is closed at the end of the run, so every frame is on disk.
+    File trjFile = tmpDir.resolve("acetamide.vac.trj").toFile();
+    assertTrue(" No trajectory was written", trjFile.exists());
+    Atom[] atoms = molecularAssembly.getAtomArray();
+    double[] expected = getCoordinates(atoms);
+
+    MolecularAssembly trj = potentialsUtils.open(trjFile.getAbsolutePath());
+    SystemFilter filter = potentialsUtils.getFilter();
+    assertTrue(filter instanceof TRJFilter);
+    int nFrames = STEPS / 2;
+    assertEquals(" Number of frames", nFrames, filter.countNumModels());
+    for (int f = 2; f <= nFrames; f++) {
+      assertTrue(filter.readNext(false, false));
+      assertEquals(f, filter.getSnapshot());
+    }
+    assertFalse(filter.readNext(false, false));
+    // Frames are stored in double precision, so the last frame is the final structure.
+    assertArrayEquals(expected, getCoordinates(trj.getAtomArray()), 0.0);
+    filter.closeReader();
+    potentialsUtils.close(trj);
+    forceFieldEnergy.destroy();
+  }
+
+  private static double[] getCoordinates(Atom[] atoms) {
+    double[] xyz = new double[atoms.length * 3];
+    for (int i = 0; i < atoms.length; i++) {
+      xyz[i * 3] = atoms[i].getX();
+      xyz[i * 3 + 1] = atoms[i].getY();
+      xyz[i * 3 + 2] = atoms[i].getZ();
+    }
+    return xyz;
+  }
+}
@@ -0,0 +1,215 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.algorithms.dynamics.integrators;
+
+import static ffx.utilities.Constants.KCAL_TO_GRAM_ANG2_PER_PS2;
+import static ffx.utilities.Constants.kB;
+import static java.lang.String.format;
+import static org.apache.commons.math3.util.FastMath.sqrt;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import ffx.algorithms.misc.AlgorithmsTest;
+import ffx.numerics.Constraint;
+import ffx.numerics.Potential;
+import ffx.potential.ForceFieldEnergy;
+import ffx.potential.MolecularAssembly;
+import ffx.potential.bonded.Angle;
+import ffx.potential.bonded.Atom;
+import ffx.potential.bonded.Bond;
+import ffx.potential.constraint.BatchSettleConstraint;
+import ffx.potential.utils.PotentialsUtils;
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Test that the Stochastic and Respa integrators keep rigid waters rigid.
+ *
+ * @author Michael J. Schnieders
+ */
+public class ConstrainedIntegratorTest extends AlgorithmsTest {
+
+  /** Relative tolerance for constrained O-H and H-H distances. */
+  private static final double TOLERANCE = 1.0e-6;
+  /** Tolerance for relative velocities along the constrained distances (A^2/psec). */
+  private static final double VELOCITY_TOLERANCE = 1.0e-6;
+  /** Number of time steps. */
+  private static final int STEPS = 20;
+  /** Temperature of the initial velocities (K). */
+  private static final double TEMPERATURE = 298.15;
+
+  /** Langevin dynamics with SETTLE. */
+  @Test
+  public void testStochastic() {
+    Water water = new Water();
+    Stochastic stochastic = new Stochastic(91.0, water.n, water.x, water.v, water.a, water.mass);
+    stochastic.setRandomSeed(1);
+    stochastic.setTemperature(TEMPERATURE);
+    stochastic.setTimeStep(0.002);
+    water.run(stochastic, false);
+  }
+
+  /** Multiple time step dynamics with SETTLE applied at every inner step. */
+  @Test
+  public void testRespa() {
+    Water water = new Water();
+    double[] aPrevious = new double[water.n];
+    Respa respa = new Respa(water.n, water.x, water.v, water.a, aPrevious, water.mass);
+    respa.setInnerTimeSteps(4);
+    respa.setTimeStep(0.002);
+    water.run(respa, true);
+  }
+
+  /** A box of rigid waters with random, constrained initial velocities. */
+  private class Water {
+
+    private final ForceFieldEnergy forceFieldEnergy;
+    private final List<Angle> angles;
+    private final List<Constraint> constraints;
+    private final int n;
+    private final double[] x;
+    private final double[] v;
+    private final double[] a;
+    private final double[] mass;
+
+    Water() {
+      System.setProperty("constrain", "water");
+      System.setProperty("polarization", "NONE");
+      ClassLoader cl = this.getClass().getClassLoader();
+      File structure =
+          new File(cl.getResource("ffx/algorithms/structures/watertiny.xyz").getPath());
+      MolecularAssembly molecularAssembly =
+          new PotentialsUtils().openQuietly(structure.getAbsolutePath());
+      forceFieldEnergy = molecularAssembly.getPotentialEnergy();
+      angles = molecularAssembly.getAngleList();
+      constraints = forceFieldEnergy.getConstraints();
+      assertTrue(
+          " Waters are constrained by SETTLE",
+          constraints.stream().anyMatch((Constraint c) -> c instanceof BatchSettleConstraint));
+
+      n = forceFieldEnergy.getNumberOfVariables();
+      x = forceFieldEnergy.getCoordinates(new double[n]);
+      mass = forceFieldEnergy.getMass();
+      v = new double[n];
+      a = new double[n];
+
+      // Start from rigid waters with constrained thermal velocities.
+      double[] xPrior = x.clone();
+      double tol = ForceFieldEnergy.DEFAULT_CONSTRAINT_TOLERANCE;
+      constraints.forEach((Constraint c) -> c.applyConstraintToStep(xPrior, x, mass, tol));
+      Random random = new Random(1);
+      for (int i = 0; i < n; i++) {
+        v[i] = random.nextGaussian() * sqrt(kB * TEMPERATURE / mass[i]);
+      }
+      constraints.forEach((Constraint c) -> c.applyConstraintToVelocities(x, v, mass, tol));
+      check(0);
+    }
+
+    /**
+     * Take a few steps with the integrator, checking the waters after each one.
+     *
+     * @param integrator The integrator, built over the arrays of this system.
+     * @param respa Whether the initial accelerations are from the slowly varying forces.
+     */
+    void run(Integrator integrator, boolean respa) {
+      integrator.addConstraints(constraints);
+      double[] gradient = new double[n];
+      if (respa) {
+        forceFieldEnergy.setEnergyTermState(Potential.STATE.SLOW);
+      }
+      forceFieldEnergy.energyAndGradient(x, gradient);
+      for (int i = 0; i < n; i++) {
+        a[i] = -KCAL_TO_GRAM_ANG2_PER_PS2 * gradient[i] / mass[i];
+      }
+      integrator.copyAccelerationToPrevious();
+      for (int step = 1; step <= STEPS; step++) {
+        integrator.preForce(forceFieldEnergy);
+        forceFieldEnergy.energyAndGradient(x, gradient);
+        integrator.postForce(gradient);
+        check(step);
+      }
+      forceFieldEnergy.setEnergyTermState(Potential.STATE.BOTH);
+    }
+
+    /**
+     * Check that every water keeps its O-H and H-H distances and has no relative velocity along
+     * them.
+     *
+     * @param step The current step.
+     */
+    private void check(int step) {
+      for (Angle angle : angles) {
+        Atom center = angle.getCentralAtom();
+        Bond b1 = angle.getBond(0);
+        Bond b2 = angle.getBond(1);
+        int o = center.getXyzIndex() - 1;
+        int h1 = b1.get1_2(center).getXyzIndex() - 1;
+        int h2 = b2.get1_2(center).getXyzIndex() - 1;
+        double dOH = b1.bondType.distance;
+        double theta = Math.toRadians(angle.angleType.angle[angle.nh]);
+        double dHH = 2.0 * dOH * Math.sin(0.5 * theta);
+        String info = format(" Step %d, water %d", step, o / 3 + 1);
+        checkPair(info + " O-H1", o, h1, dOH);
+        checkPair(info + " O-H2", o, h2, b2.bondType.distance);
+        checkPair(info + " H-H", h1, h2, dHH);
+      }
+    }
+
+    /**
+     * Check the distance and relative velocity of a constrained pair of atoms.
+     *
+     * @param info Description of the pair.
+     * @param i First atom index.
+     * @param j Second atom index.
+     * @param distance The constrained distance.
+     */
+    private void checkPair(String info, int i, int j, double distance) {
+      double r2 = 0.0;
+      double rv = 0.0;
+      for (int k = 0; k < 3; k++) {
+        double dx = x[3 * i + k] - x[3 * j + k];
+        r2 += dx * dx;
+        rv += dx * (v[3 * i + k] - v[3 * j + k]);
+      }
+      assertEquals(info + " distance", 0.0, sqrt(r2) / distance - 1.0, TOLERANCE);
+      assertEquals(info + " velocity", 0.0, rv, VELOCITY_TOLERANCE);
+    }
+  }
+}
@@ -0,0 +1,325 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.algorithms.optimize;
+
+import static java.lang.String.format;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import edu.rit.pj.ParallelTeam;
+import ffx.algorithms.misc.AlgorithmsTest;
+import ffx.algorithms.optimize.manybody.AStarSearch;
+import ffx.algorithms.optimize.manybody.EliminatedRotamers;
+import ffx.algorithms.optimize.manybody.EnergyExpansion;
+import ffx.potential.ForceFieldEnergy;
+import ffx.potential.MolecularAssembly;
+import ffx.potential.bonded.Polymer;
+import ffx.potential.bonded.Residue;
+import ffx.potential.bonded.Rotamer;
+import ffx.potential.bonded.RotamerLibrary;
+import ffx.potential.utils.PotentialsUtils;
+import ffx.utilities.ObjectPair;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+/**
+ * Test that the A* search finds the same optimum as enumeration, and the same lowest energy
+ * conformations as an exhaustive enumeration of the rotamers that survive elimination.
+ *
+ * @author Michael J. Schnieders
+ */
+@RunWith(Parameterized.class)
+public class AStarSearchTest extends AlgorithmsTest {
+
+  private static final double TOLERANCE = 1.0e-6;
+  /** Number of lowest energy conformations compared. */
+  private static final int N_CONFORMATIONS = 10;
+  /** Energy window (kcal/mol) above the global minimum. */
+  private static final double ENERGY_WINDOW = 2.0;
+
+  private final String info;
+  private final String filename;
+  private final String restartName;
+  private final int pruningLevel;
+  private final boolean useGoldstein;
+  private final boolean useThreeBody;
+  private final double expectedEnergy;
+  private RotamerLibrary library;
+
+  public AStarSearchTest(
+      String info,
+      String filename,
+      String restartName,
+      int pruningLevel,
+      boolean useGoldstein,
+      boolean useThreeBody,
+      double expectedEnergy) {
+    this.info = info;
+    this.filename = filename;
+    this.restartName = restartName;
+    this.pruningLevel = pruningLevel;
+    this.useGoldstein = useGoldstein;
+    this.useThreeBody = useThreeBody;
+    this.expectedEnergy = expectedEnergy;
+  }
+
+  @Parameterized.Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(
+        new Object[][] {
+            {
+                "Chignolin Direct with Orig Rot - No Pruning (DEE)",
+                "ffx/algorithms/structures/5awl.pdb",
+                "ffx/algorithms/structures/5awl.direct.orig.prun0.residues1-4.restart",
+                0, // Pruning Level.
+                false, // Goldstein Elimination.
+                false, // Use 3-body Energies.
+                -211.88384480357658 // Expected Energy.
+            },
+            {
+                "Chignolin Direct with Orig Rot - Singles Pruning (Goldstein)",
+                "ffx/algorithms/structures/5awl.pdb",
+                "ffx/algorithms/structures/5awl.direct.orig.prun1.residues1-4.restart",
+                1, // Pruning Level.
+                true, // Goldstein Elimination.
+                false, // Use 3-body Energies.
+                -211.88384480357658 // Expected Energy.
+            },
+            {
+                "Chignolin Direct with Orig Rot - 3-body (DEE)",
+                "ffx/algorithms/structures/5awl.pdb",
+                "ffx/algorithms/structures/5awl.direct.orig.prun1.3body.residues1-4.restart",
+                1, // Pruning Level.
+                false, // Goldstein Elimination.
+                true, // Use 3-body Energies.
+                -211.88384480357658 // Expected Energy.
+            }
+        });
+  }
+
+  @Test
+  public void testAStarSearch() {
+    // Optimize by enumeration, and then by A* search.
+    RotamerOptimization enumeration = createRotamerOptimization(false);
+    double enumerationEnergy = enumeration.optimize(RotamerOptimization.Algorithm.ALL);
+    int[] enumerationOptimum = enumeration.getOptimumRotamers().clone();
+    RotamerOptimization aStar = createRotamerOptimization(true);
+    double aStarEnergy = aStar.optimize(RotamerOptimization.Algorithm.ALL);
+    assertEquals(info + " Enumeration Energy", expectedEnergy, enumerationEnergy, 1.0e-3);
+    assertEquals(info + " A* Energy", enumerationEnergy, aStarEnergy, TOLERANCE);
+    assertArrayEquals(info + " A* Optimum", enumerationOptimum, aStar.getOptimumRotamers());
+
+    // Enumerate every conformation that survives elimination.
+    EnergyExpansion eE = aStar.getEnergyExpansion();
+    EliminatedRotamers eR = aStar.getEliminatedRotamers();
+    Residue[] residues = aStar.getResidues().toArray(new Residue[0]);
+    List<Double> energies = new ArrayList<>();
+    enumerate(eE, eR, residues, library, new int[0], energies);
+    energies.sort(Double::compare);
+    // The optimization reports the energy of the optimum from the potential, so compare the
+    // many-body energy of its rotamers.
+    assertEquals(info + " Lowest Energy", energies.get(0),
+        totalEnergy(eE, residues, aStar.getOptimumRotamers()), TOLERANCE);
+
+    // The K lowest conformations and an energy window, with best-first and depth-first search.
+    ParallelTeam parallelTeam = new ParallelTeam(2);
+    for (int maxNodes : new int[] {1000000, 1}) {
+      AStarSearch search =
+          new AStarSearch(eE, eR, residues, library, useThreeBody, maxNodes);
+      List<ObjectPair<int[], Double>> lowest =
+          search.search(parallelTeam, N_CONFORMATIONS, 0.0);
+      int expected = Math.min(N_CONFORMATIONS, energies.size());
+      assertEquals(format("%s Number of conformations (max nodes %d)", info, maxNodes),
+          expected, lowest.size());
+      compare(eE, residues, energies, lowest, maxNodes);
+
+      List<ObjectPair<int[], Double>> window =
+          search.search(parallelTeam, Integer.MAX_VALUE, ENERGY_WINDOW);
+      int inWindow = 0;
+      while (inWindow < energies.size()
+          && energies.get(inWindow) <= energies.get(0) + ENERGY_WINDOW - TOLERANCE) {
+        inWindow++;
+      }
+      assertTrue(info + " No conformations above the window", window.size() >= inWindow);
+      for (ObjectPair<int[], Double> conformation : window) {
+        assertTrue(info + " Conformation above the window",
+            conformation.getKey() <= energies.get(0) + ENERGY_WINDOW + TOLERANCE);
+      }
+      compare(eE, residues, energies, window, maxNodes);
+    }
+    try {
+      parallelTeam.shutdown();
+    } catch (Exception e) {
+      // Ignore.
+    }
+  }
+
+  /**
+   * Compare conformations from the A* search with the sorted enumerated energies.
+   *
+   * @param eE The energy expansion.
+   * @param residues The residues.
+   * @param energies The sorted enumerated energies.
+   * @param conformations The conformations found by the A* search.
+   * @param maxNodes The maximum number of frontier nodes of the search.
+   */
+  private void compare(EnergyExpansion eE, Residue[] residues, List<Double> energies,
+      List<ObjectPair<int[], Double>> conformations, int maxNodes) {
+    for (int n = 0; n < conformations.size(); n++) {
+      double energy = conformations.get(n).getKey();
+      String message = format("%s Conformation %d (max nodes %d)", info, n, maxNodes);
+      assertEquals(message, energies.get(n), energy, TOLERANCE);
+      assertEquals(message, totalEnergy(eE, residues, conformations.get(n).getVal()), energy,
+          TOLERANCE);
+    }
+  }
+
+  /**
+   * Recursively enumerate the conformations that survive elimination.
+   *
+   * @param eE The energy expansion.
+   * @param eR The eliminated rotamers and rotamer pairs.
+   * @param residues The residues.
+   * @param library The rotamer library.
+   * @param rotamers Rotamers of the residues assigned so far.
+   * @param energies Receives the energy of each complete conformation.
+   */
+  private void enumerate(EnergyExpansion eE, EliminatedRotamers eR, Residue[] residues,
+      RotamerLibrary library, int[] rotamers, List<Double> energies) {
+    int d = rotamers.length;
+    if (d == residues.length) {
+      energies.add(totalEnergy(eE, residues, rotamers));
+      return;
+    }
+    int nRot = residues[d].getRotamers(library).length;
+    int[] next = Arrays.copyOf(rotamers, d + 1);
+    for (int rd = 0; rd < nRot; rd++) {
+      if (eR.check(d, rd)) {
+        continue;
+      }
+      boolean allowed = true;
+      for (int i = 0; i < d; i++) {
+        if (eR.check(i, rotamers[i], d, rd)) {
+          allowed = false;
+          break;
+        }
+      }
+      if (allowed) {
+        next[d] = rd;
+        enumerate(eE, eR, residues, library, next, energies);
+      }
+    }
+  }
+
+  /**
+   * The many-body energy of a conformation.
+   *
+   * @param eE The energy expansion.
+   * @param residues The residues.
+   * @param rotamers The rotamer of each residue.
+   * @return The energy.
+   */
+  private double totalEnergy(EnergyExpansion eE, Residue[] residues, int[] rotamers) {
+    double energy = eE.getBackboneEnergy();
+    int nRes = rotamers.length;
+    for (int i = 0; i < nRes; i++) {
+      energy += eE.getSelf(i, rotamers[i]);
+      for (int j = i + 1; j < nRes; j++) {
+        energy += eE.get2Body(i, rotamers[i], j, rotamers[j]);
+        if (useThreeBody) {
+          for (int k = j + 1; k < nRes; k++) {
+            energy += eE.get3Body(residues, i, rotamers[i], j, rotamers[j], k, rotamers[k]);
+          }
+        }
+      }
+    }
+    return energy;
+  }
+
+  /**
+   * Load chignolin and set up the optimization of residues 1-4 from the energy restart file.
+   *
+   * @param useAStar If true, finish elimination with the A* search.
+   * @return The RotamerOptimization.
+   */
+  private RotamerOptimization createRotamerOptimization(boolean useAStar) {
+    ClassLoader cl = this.getClass().getClassLoader();
+    File structure = new File(cl.getResource(filename).getPath());
+    File restartFile = new File(cl.getResource(restartName).getPath());
+    PotentialsUtils potentialUtils = new PotentialsUtils();
+    MolecularAssembly molecularAssembly = potentialUtils.openQuietly(structure.getAbsolutePath());
+    ForceFieldEnergy forceFieldEnergy = molecularAssembly.getPotentialEnergy();
+
+    library = new RotamerLibrary(true);
+    List<Residue> residueList = new ArrayList<>();
+    for (Polymer polymer : molecularAssembly.getChains()) {
+      List<Residue> residues = polymer.getResidues();
+      for (int i = 0; i < 4; i++) {
+        Residue residue = residues.get(i);
+        Rotamer[] rotamers = residue.getRotamers(library);
+        if (rotamers != null) {
+          if (rotamers.length == 1) {
+            RotamerLibrary.applyRotamer(residue, rotamers[0]);
+          }
+          residueList.add(residue);
+        }
+      }
+    }
+
+    RotamerOptimization rotamerOptimization =
+        new RotamerOptimization(molecularAssembly, forceFieldEnergy, null);
+    rotamerOptimization.setRotamerLibrary(library);
+    rotamerOptimization.setThreeBodyEnergy(useThreeBody);
+    rotamerOptimization.setUseGoldstein(useGoldstein);
+    rotamerOptimization.setPruning(pruningLevel);
+    rotamerOptimization.setEnergyRestartFile(restartFile);
+    rotamerOptimization.setResidues(residueList);
+    rotamerOptimization.setSingletonClashThreshold(20.0);
+    rotamerOptimization.setPairClashThreshold(20.0);
+    rotamerOptimization.turnRotamerSingleEliminationOff();
+    rotamerOptimization.setAStar(useAStar, 1000000);
+    return rotamerOptimization;
+  }
+}
@@ -0,0 +1,187 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.algorithms.optimize;
+
+import static java.lang.String.format;
+import static org.junit.Assert.assertEquals;
+
+import ffx.algorithms.misc.AlgorithmsTest;
+import ffx.algorithms.optimize.manybody.EnergyExpansion;
+import ffx.potential.ForceFieldEnergy;
+import ffx.potential.MolecularAssembly;
+import ffx.potential.bonded.Polymer;
+import ffx.potential.bonded.Residue;
+import ffx.potential.bonded.Rotamer;
+import ffx.potential.bonded.RotamerLibrary;
+import ffx.potential.utils.PotentialsUtils;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Test that many-body energies computed with the environment turned off (ro-subsetEnergy) match
+ * those computed with the full environment.
+ *
+ * @author Michael J. Schnieders
+ */
+public class SubsetEnergyTest extends AlgorithmsTest {
+
+  private static final double TOLERANCE = 1.0e-6;
+
+  /** Chignolin residues 1-4 with 3-body energies and an unpolarized force field. */
+  @Test
+  public void testSubsetEnergies() throws Exception {
+    System.setProperty("polarization", "NONE");
+    Path tmpDir = registerTemporaryDirectory();
+
+    System.setProperty("ro-subsetEnergy", "false");
+    Expansion full = computeExpansion(tmpDir.resolve("full"));
+    System.setProperty("ro-subsetEnergy", "true");
+    Expansion subset = computeExpansion(tmpDir.resolve("subset"));
+    logger.info(
+        format(
+            " Many-body energy time: %8.3f sec (full environment) %8.3f sec (subset)",
+            full.time * 1.0e-9, subset.time * 1.0e-9));
+
+    assertEquals(" Optimum energy", full.energy, subset.energy, TOLERANCE);
+    EnergyExpansion eFull = full.rotamerOptimization.getEnergyExpansion();
+    EnergyExpansion eSubset = subset.rotamerOptimization.getEnergyExpansion();
+    Residue[] residues = full.residues;
+    int nRes = residues.length;
+    int[] nRot = new int[nRes];
+    for (int i = 0; i < nRes; i++) {
+      nRot[i] = residues[i].getRotamers(full.library).length;
+    }
+    for (int i = 0; i < nRes; i++) {
+      for (int ri = 0; ri < nRot[i]; ri++) {
+        assertEquals(format(" Self %d-%d", i, ri),
+            eFull.getSelf(i, ri), eSubset.getSelf(i, ri), TOLERANCE);
+        for (int j = i + 1; j < nRes; j++) {
+          for (int rj = 0; rj < nRot[j]; rj++) {
+            assertEquals(format(" 2-body %d-%d %d-%d", i, ri, j, rj),
+                eFull.get2Body(i, ri, j, rj), eSubset.get2Body(i, ri, j, rj), TOLERANCE);
+            for (int k = j + 1; k < nRes; k++) {
+              for (int rk = 0; rk < nRot[k]; rk++) {
+                assertEquals(format(" 3-body %d-%d %d-%d %d-%d", i, ri, j, rj, k, rk),
+                    eFull.get3Body(full.residues, i, ri, j, rj, k, rk),
+                    eSubset.get3Body(subset.residues, i, ri, j, rj, k, rk), TOLERANCE);
+              }
+            }
+          }
+        }
+      }
+    }
+    full.forceFieldEnergy.destroy();
+    subset.forceFieldEnergy.destroy();
+  }
+
+  /** With polarization, subset energies are disabled and the reason is kept for the summary. */
+  @Test
+  public void testSubsetEnergyFallback() throws Exception {
+    System.setProperty("ro-subsetEnergy", "true");
+    Expansion direct = computeExpansion(registerTemporaryDirectory());
+    assertEquals(" Fallback reason", "polarization",
+        direct.rotamerOptimization.getEnergyExpansion().getSubsetEnergyFallback());
+    direct.forceFieldEnergy.destroy();
+  }
+
+  /**
+   * Compute the many-body expansion for chignolin residues 1-4 without pruning.
+   *
+   * @param directory Directory for the structure and its energy restart file.
+   * @return The expansion.
+   */
+  private Expansion computeExpansion(Path directory) throws Exception {
+    Files.createDirectories(directory);
+    ClassLoader cl = this.getClass().getClassLoader();
+    // Copy the structure so its energy restart file is written to the test directory.
+    File structure = directory.resolve("5awl.pdb").toFile();
+    for (String name : new String[] {"5awl.pdb", "5awl.properties"}) {
+      File source = new File(cl.getResource("ffx/algorithms/structures/" + name).getPath());
+      Files.copy(source.toPath(), directory.resolve(name));
+    }
+    PotentialsUtils potentialUtils = new PotentialsUtils();
+    MolecularAssembly molecularAssembly = potentialUtils.openQuietly(structure.getAbsolutePath());
+
+    Expansion expansion = new Expansion();
+    expansion.forceFieldEnergy = molecularAssembly.getPotentialEnergy();
+    expansion.library = new RotamerLibrary(true);
+    List<Residue> residueList = new ArrayList<>();
+    for (Polymer polymer : molecularAssembly.getChains()) {
+      List<Residue> residues = polymer.getResidues();
+      for (int i = 0; i < 4; i++) {
+        Residue residue = residues.get(i);
+        Rotamer[] rotamers = residue.getRotamers(expansion.library);
+        if (rotamers != null) {
+          if (rotamers.length == 1) {
+            RotamerLibrary.applyRotamer(residue, rotamers[0]);
+          }
+          residueList.add(residue);
+        }
+      }
+    }
+    expansion.residues = residueList.toArray(new Residue[0]);
+
+    RotamerOptimization rotamerOptimization =
+        new RotamerOptimization(molecularAssembly, expansion.forceFieldEnergy, null);
+    rotamerOptimization.setRotamerLibrary(expansion.library);
+    rotamerOptimization.setThreeBodyEnergy(true);
+    rotamerOptimization.setPruning(0);
+    rotamerOptimization.setResidues(residueList);
+    rotamerOptimization.turnRotamerSingleEliminationOff();
+    long time = -System.nanoTime();
+    expansion.energy = rotamerOptimization.optimize(RotamerOptimization.Algorithm.ALL);
+    expansion.time = time + System.nanoTime();
+    expansion.rotamerOptimization = rotamerOptimization;
+    return expansion;
+  }
+
+  /** The result of a many-body expansion. */
+  private static class Expansion {
+
+    ForceFieldEnergy forceFieldEnergy;
+    RotamerLibrary library;
+    Residue[] residues;
+    RotamerOptimization rotamerOptimization;
+    double energy;
+    long time;
+  }
+}
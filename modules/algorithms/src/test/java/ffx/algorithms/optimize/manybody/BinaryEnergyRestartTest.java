@@ -0,0 +1,184 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.algorithms.optimize.manybody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import ffx.utilities.FFXTest;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import org.junit.Test;
+
+/** Test reading, writing and converting binary energy restart files. */
+public class BinaryEnergyRestartTest extends FFXTest {
+
+  private static final String[] TEXT_RESTART = {
+    "Self 0 0:      -1.25000000",
+    "Self 0 1:       2.50000000",
+    "Self 1 0:      -3.12500000",
+    "Pair 0 0, 1 0:      -0.75000000",
+    "Pair 0 1, 1 0:              NaN",
+    "Triple 0 0, 1 0, 2 3:       0.06250000",
+  };
+
+  private static final String[] BOX_RESTART = {
+    " Box 1: 0,0,0",
+    "Self 0 0:      -1.00000000",
+    " Box 2: 1,0,0",
+    "Self 0 0:      -2.00000000",
+    "Pair 0 0, 1 1:      -0.50000000",
+  };
+
+  /**
+   * Converting a text restart file must preserve every energy.
+   *
+   * @throws IOException If a restart file could not be accessed.
+   */
+  @Test
+  public void testConvertText() throws IOException {
+    Path dir = registerTemporaryDirectory();
+    File text = write(dir.resolve("test.restart"), TEXT_RESTART);
+    File binary = dir.resolve("test.restart.bin").toFile();
+
+    assertFalse(BinaryEnergyRestart.isBinary(text));
+    assertEquals(TEXT_RESTART.length, BinaryEnergyRestart.convert(text, binary));
+    assertTrue(BinaryEnergyRestart.isBinary(binary));
+
+    RestartEnergies expected = RestartEnergies.readText(text, null, -1, null);
+    RestartEnergies actual = BinaryEnergyRestart.read(binary, -1, null);
+    assertSameEnergies(expected, actual);
+    assertEquals(3, actual.getLoadedOrder());
+    assertEquals(3, actual.size(1));
+    assertEquals(2, actual.size(2));
+    assertEquals(1, actual.size(3));
+    assertTrue(Double.isNaN(actual.getEnergy(2, 1)));
+    assertEquals(3, actual.getIndex(3, 0, 5));
+  }
+
+  /**
+   * Only the energies that follow the requested box header are loaded.
+   *
+   * @throws IOException If a restart file could not be accessed.
+   */
+  @Test
+  public void testBoxes() throws IOException {
+    Path dir = registerTemporaryDirectory();
+    File text = write(dir.resolve("box.restart"), BOX_RESTART);
+    File binary = dir.resolve("box.restart.bin").toFile();
+    BinaryEnergyRestart.convert(text, binary);
+
+    int[] cell = {1, 0, 0};
+    RestartEnergies expected = RestartEnergies.readText(text, null, 2, cell);
+    RestartEnergies actual = BinaryEnergyRestart.read(binary, 2, cell);
+    assertNotNull(actual);
+    assertSameEnergies(expected, actual);
+    assertEquals(1, actual.size(1));
+    assertEquals(-2.0, actual.getEnergy(1, 0), 0.0);
+    assertEquals(1, actual.size(2));
+
+    assertNull(BinaryEnergyRestart.read(binary, 3, new int[] {0, 0, 1}));
+    assertNull(RestartEnergies.readText(text, null, 3, new int[] {0, 0, 1}));
+  }
+
+  /**
+   * A record torn by a crash is ignored when reading and replaced by the next append.
+   *
+   * @throws IOException If a restart file could not be accessed.
+   */
+  @Test
+  public void testTornRecord() throws IOException {
+    Path dir = registerTemporaryDirectory();
+    File binary = dir.resolve("torn.restart.bin").toFile();
+    try (EnergyRestartWriter writer = EnergyRestartWriter.open(binary, true)) {
+      assertTrue(writer.isBinary());
+      writer.writeSelf(0, 0, -1.0);
+      writer.writePair(0, 0, 1, 2, 0.5);
+    }
+
+    // Simulate a run that died partway through writing a 3-body record.
+    try (FileChannel channel = FileChannel.open(binary.toPath(), StandardOpenOption.APPEND)) {
+      ByteBuffer partial = ByteBuffer.allocate(7);
+      partial.put(BinaryEnergyRestart.TRIPLE);
+      partial.putInt(4);
+      partial.flip();
+      channel.write(partial);
+    }
+    RestartEnergies energies = BinaryEnergyRestart.read(binary, -1, null);
+    assertEquals(1, energies.size(1));
+    assertEquals(1, energies.size(2));
+    assertEquals(0, energies.size(3));
+
+    // Appending removes the torn record first.
+    try (EnergyRestartWriter writer = EnergyRestartWriter.open(binary, false)) {
+      assertTrue(writer.isBinary());
+      writer.writeTriple(0, 0, 1, 2, 3, 4, -0.25);
+    }
+    energies = BinaryEnergyRestart.read(binary, -1, null);
+    assertEquals(1, energies.size(3));
+    assertEquals(-0.25, energies.getEnergy(3, 0), 0.0);
+    assertEquals(4, energies.getIndex(3, 0, 5));
+  }
+
+  private static File write(Path path, String[] lines) throws IOException {
+    Files.write(path, Arrays.asList(lines), StandardCharsets.UTF_8);
+    return path.toFile();
+  }
+
+  private static void assertSameEnergies(RestartEnergies expected, RestartEnergies actual) {
+    for (int order = 1; order <= 3; order++) {
+      assertEquals(expected.size(order), actual.size(order));
+      for (int n = 0; n < expected.size(order); n++) {
+        for (int position = 0; position < 2 * order; position++) {
+          assertEquals(expected.getIndex(order, n, position), actual.getIndex(order, n, position));
+        }
+        assertEquals(expected.getEnergy(order, n), actual.getEnergy(order, n), 0.0);
+      }
+    }
+  }
+}
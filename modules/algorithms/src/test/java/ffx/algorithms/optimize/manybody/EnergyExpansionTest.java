@@ -0,0 +1,222 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.algorithms.optimize.manybody;
+
+import static java.lang.String.format;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import ffx.algorithms.misc.AlgorithmsTest;
+import ffx.algorithms.optimize.RotamerOptimization;
+import ffx.potential.ForceFieldEnergy;
+import ffx.potential.MolecularAssembly;
+import ffx.potential.bonded.Polymer;
+import ffx.potential.bonded.Residue;
+import ffx.potential.bonded.Rotamer;
+import ffx.potential.bonded.RotamerLibrary;
+import ffx.potential.utils.PotentialsUtils;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Test that the packed self, 2-body and 3-body storage of the EnergyExpansion returns the energies
+ * that were computed and still leads to the known optimum.
+ *
+ * @author Michael J. Schnieders
+ */
+public class EnergyExpansionTest extends AlgorithmsTest {
+
+  /** The optimum of the "Chignolin Direct with Orig Rot - 3-body (Goldstein)" rotamer test. */
+  private static final double EXPECTED_ENERGY = -211.88384480357658;
+
+  private static final double ENERGY_TOLERANCE = 1.0e-3;
+
+  private static final double STORAGE_TOLERANCE = 1.0e-8;
+
+  /** Chignolin residues 1-4 with 3-body energies, pruning level 1 and Goldstein elimination. */
+  @Test
+  public void testStoredEnergies() throws Exception {
+    Path tmpDir = registerTemporaryDirectory();
+    ClassLoader cl = this.getClass().getClassLoader();
+    // Copy the structure so its energy restart file is written to the test directory.
+    for (String name : new String[] {"5awl.pdb", "5awl.properties"}) {
+      File source = new File(cl.getResource("ffx/algorithms/structures/" + name).getPath());
+      Files.copy(source.toPath(), tmpDir.resolve(name));
+    }
+    File structure = tmpDir.resolve("5awl.pdb").toFile();
+    PotentialsUtils potentialUtils = new PotentialsUtils();
+    MolecularAssembly molecularAssembly = potentialUtils.openQuietly(structure.getAbsolutePath());
+    ForceFieldEnergy forceFieldEnergy = molecularAssembly.getPotentialEnergy();
+
+    RotamerLibrary library = new RotamerLibrary(true);
+    List<Residue> residueList = new ArrayList<>();
+    for (Polymer polymer : molecularAssembly.getChains()) {
+      List<Residue> residues = polymer.getResidues();
+      for (int i = 0; i < 4; i++) {
+        Residue residue = residues.get(i);
+        Rotamer[] rotamers = residue.getRotamers(library);
+        if (rotamers != null) {
+          if (rotamers.length == 1) {
+            RotamerLibrary.applyRotamer(residue, rotamers[0]);
+          }
+          residueList.add(residue);
+        }
+      }
+    }
+    Residue[] residues = residueList.toArray(new Residue[0]);
+
+    RotamerOptimization rotamerOptimization =
+        new RotamerOptimization(molecularAssembly, forceFieldEnergy, null);
+    rotamerOptimization.setRotamerLibrary(library);
+    rotamerOptimization.setThreeBodyEnergy(true);
+    rotamerOptimization.setUseGoldstein(true);
+    rotamerOptimization.setPruning(1);
+    rotamerOptimization.setResidues(residueList);
+    rotamerOptimization.setSingletonClashThreshold(20.0);
+    rotamerOptimization.setPairClashThreshold(20.0);
+    rotamerOptimization.turnRotamerSingleEliminationOff();
+    double energy = rotamerOptimization.optimize(RotamerOptimization.Algorithm.ALL);
+    assertEquals(" Optimum energy", EXPECTED_ENERGY, energy, ENERGY_TOLERANCE);
+
+    EnergyExpansion eE = rotamerOptimization.getEnergyExpansion();
+    EliminatedRotamers eR = rotamerOptimization.getEliminatedRotamers();
+    int nRes = residues.length;
+    int[] nRot = new int[nRes];
+    for (int i = 0; i < nRes; i++) {
+      nRot[i] = residues[i].getRotamers(library).length;
+    }
+
+    // Every stored energy must equal the energy recomputed for the same rotamers.
+    int nTerms = 0;
+    for (int i = 0; i < nRes; i++) {
+      for (int ri = 0; ri < nRot[i]; ri++) {
+        if (eR.check(i, ri)) {
+          continue;
+        }
+        assertEquals(format(" Self %d-%d", i, ri),
+            eE.computeSelfEnergy(residues, i, ri), eE.getSelf(i, ri), STORAGE_TOLERANCE);
+        nTerms++;
+        for (int j = i + 1; j < nRes; j++) {
+          for (int rj = 0; rj < nRot[j]; rj++) {
+            if (eR.check(j, rj) || eR.check(i, ri, j, rj)) {
+              continue;
+            }
+            double pair = eE.get2Body(i, ri, j, rj);
+            if (pair != 0.0) {
+              assertEquals(format(" 2-body %d-%d %d-%d", i, ri, j, rj),
+                  eE.compute2BodyEnergy(residues, i, ri, j, rj), pair, STORAGE_TOLERANCE);
+              nTerms++;
+            }
+            for (int k = j + 1; k < nRes; k++) {
+              for (int rk = 0; rk < nRot[k]; rk++) {
+                if (eR.check(k, rk) || eR.check(i, ri, k, rk) || eR.check(j, rj, k, rk)) {
+                  continue;
+                }
+                double triple = eE.get3Body(residues, i, ri, j, rj, k, rk);
+                if (triple != 0.0) {
+                  assertEquals(format(" 3-body %d-%d %d-%d %d-%d", i, ri, j, rj, k, rk),
+                      eE.compute3BodyEnergy(residues, i, ri, j, rj, k, rk), triple,
+                      STORAGE_TOLERANCE);
+                  nTerms++;
+                }
+              }
+            }
+          }
+        }
+      }
+    }
+    assertTrue(" No stored energies were compared.", nTerms > 0);
+
+    // Enumerating the stored expansion must recover the optimum energy.
+    int[] rotamers = new int[nRes];
+    double minimum = eE.getBackboneEnergy() + enumerate(eE, eR, residues, nRot, rotamers, 0);
+    assertEquals(" Enumerated optimum", EXPECTED_ENERGY, minimum, ENERGY_TOLERANCE);
+    forceFieldEnergy.destroy();
+  }
+
+  /**
+   * Find the lowest expansion energy over all surviving rotamers of residues i and above.
+   *
+   * @param eE The energy expansion.
+   * @param eR The eliminated rotamers.
+   * @param residues Residues under optimization.
+   * @param nRot Number of rotamers for each residue.
+   * @param rotamers Current rotamer of each residue.
+   * @param i Residue to assign.
+   * @return The lowest self, 2-body and 3-body sum, or infinity if every choice was eliminated.
+   */
+  private static double enumerate(EnergyExpansion eE, EliminatedRotamers eR, Residue[] residues,
+      int[] nRot, int[] rotamers, int i) {
+    int nRes = residues.length;
+    if (i == nRes) {
+      double sum = 0.0;
+      for (int a = 0; a < nRes; a++) {
+        sum += eE.getSelf(a, rotamers[a]);
+        for (int b = a + 1; b < nRes; b++) {
+          sum += eE.get2Body(a, rotamers[a], b, rotamers[b]);
+          for (int c = b + 1; c < nRes; c++) {
+            sum += eE.get3Body(residues, a, rotamers[a], b, rotamers[b], c, rotamers[c]);
+          }
+        }
+      }
+      return sum;
+    }
+    double minimum = Double.POSITIVE_INFINITY;
+    for (int ri = 0; ri < nRot[i]; ri++) {
+      if (eR.check(i, ri)) {
+        continue;
+      }
+      boolean eliminated = false;
+      for (int j = 0; j < i; j++) {
+        if (eR.check(j, rotamers[j], i, ri)) {
+          eliminated = true;
+          break;
+        }
+      }
+      if (!eliminated) {
+        rotamers[i] = ri;
+        minimum = Math.min(minimum, enumerate(eE, eR, residues, nRot, rotamers, i + 1));
+      }
+    }
+    return minimum;
+  }
+}
@@ -0,0 +1,213 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.algorithms.thermodynamics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import ffx.algorithms.misc.AlgorithmsTest;
+import ffx.algorithms.thermodynamics.OrthogonalSpaceTempering.Histogram;
+import ffx.potential.ForceFieldEnergy;
+import ffx.potential.MolecularAssembly;
+import ffx.potential.utils.PotentialsUtils;
+import java.io.File;
+import java.util.Random;
+import org.apache.commons.configuration2.CompositeConfiguration;
+import org.junit.Test;
+
+/**
+ * Test the CountBatch encoding of OST counts, and that adding a batch to a Histogram matches adding
+ * its counts one at a time.
+ *
+ * @author Michael J. Schnieders
+ */
+public class CountBatchTest extends AlgorithmsTest {
+
+  /** Encode and decode a full batch with negative bin deltas, weight changes and reset flags. */
+  @Test
+  public void testRoundTrip() {
+    int capacity = 500;
+    CountBatch batch = new CountBatch(capacity);
+    Random random = new Random(20);
+    int lambdaBin = 100;
+    int fLambdaBin = 0;
+    double weight = 1.0;
+    while (!batch.isFull()) {
+      // Steps in both directions, with an occasional large jump that needs a multi-byte delta.
+      lambdaBin = Math.max(0, lambdaBin + random.nextInt(7) - 3);
+      if (random.nextInt(10) == 0) {
+        fLambdaBin += random.nextInt(20001) - 10000;
+      } else {
+        fLambdaBin += random.nextInt(5) - 2;
+      }
+      if (random.nextInt(4) == 0) {
+        weight = random.nextDouble();
+      }
+      batch.add(lambdaBin, fLambdaBin, weight, random.nextBoolean());
+    }
+    assertEquals(capacity, batch.size());
+
+    byte[] bytes = new byte[CountBatch.maxEncodedSize(capacity)];
+    int length = batch.encode(3, bytes);
+    assertTrue(" Encoded size exceeds the maximum.", length <= bytes.length);
+    assertEquals(CountBatch.COUNTS, bytes[0]);
+
+    CountBatch decoded = new CountBatch(capacity);
+    decoded.add(1, 1, 1.0, false);
+    decoded.decode(bytes);
+    assertEquals(3, decoded.getRank());
+    assertEquals(capacity, decoded.size());
+    assertTrue(decoded.isFull());
+    for (int i = 0; i < capacity; i++) {
+      assertEquals(batch.getLambdaBin(i), decoded.getLambdaBin(i));
+      assertEquals(batch.getFLambdaBin(i), decoded.getFLambdaBin(i));
+      assertEquals(batch.getWeight(i), decoded.getWeight(i), 0.0);
+      assertEquals(batch.isPastReset(i), decoded.isPastReset(i));
+    }
+
+    // A single negative count round trips from the zero initial state.
+    CountBatch single = new CountBatch(1);
+    single.add(0, -123456, -0.5, true);
+    length = single.encode(0, bytes);
+    assertTrue(length <= CountBatch.maxEncodedSize(1));
+    decoded.decode(bytes);
+    assertEquals(1, decoded.size());
+    assertEquals(0, decoded.getLambdaBin(0));
+    assertEquals(-123456, decoded.getFLambdaBin(0));
+    assertEquals(-0.5, decoded.getWeight(0), 0.0);
+    assertTrue(decoded.isPastReset(0));
+  }
+
+  /** Adding a batch of counts must match adding each count with addToRecursionKernelValue. */
+  @Test
+  public void testBatchMatchesSingleCounts() throws Exception {
+    System.setProperty("lambdaterm", "true");
+    ClassLoader cl = this.getClass().getClassLoader();
+    String filename = "ffx/algorithms/structures/acetamide.vac.xyz";
+    File structure = new File(cl.getResource(filename).getPath());
+    PotentialsUtils potentialsUtils = new PotentialsUtils();
+    MolecularAssembly molecularAssembly = potentialsUtils.openQuietly(structure.getAbsolutePath());
+    ForceFieldEnergy forceFieldEnergy = molecularAssembly.getPotentialEnergy();
+    CompositeConfiguration properties = molecularAssembly.getProperties();
+    File tmpDir = registerTemporaryDirectory().toFile();
+    Histogram batchHistogram = createHistogram(forceFieldEnergy, properties, tmpDir, "batch");
+    Histogram singleHistogram = createHistogram(forceFieldEnergy, properties, tmpDir, "single");
+
+    // The counts include dU/dL values on both sides of the initial histogram range.
+    int nCounts = 300;
+    double[] lambdas = new double[nCounts];
+    double[] dUdLs = new double[nCounts];
+    double[] weights = new double[nCounts];
+    Random random = new Random(2020);
+    for (int i = 0; i < nCounts; i++) {
+      lambdas[i] = random.nextDouble();
+      dUdLs[i] = -150.0 + 300.0 * random.nextDouble();
+      weights[i] = 0.5 + random.nextDouble();
+    }
+
+    CountBatch batch = new CountBatch(nCounts);
+    for (int i = 0; i < nCounts; i++) {
+      batch.add(
+          batchHistogram.indexForLambda(lambdas[i]),
+          batchHistogram.absoluteBinForFLambda(dUdLs[i]),
+          weights[i],
+          false);
+    }
+    // Send the batch through its encoding, as the receive thread does.
+    byte[] bytes = new byte[CountBatch.maxEncodedSize(nCounts)];
+    batch.encode(0, bytes);
+    CountBatch received = new CountBatch(nCounts);
+    received.decode(bytes);
+    batchHistogram.addToRecursionKernel(received, true);
+
+    for (int i = 0; i < nCounts; i++) {
+      singleHistogram.checkRecursionKernelSize(dUdLs[i]);
+      int lambdaBin = singleHistogram.indexForLambda(lambdas[i]);
+      int fLambdaBin = singleHistogram.binForFLambda(dUdLs[i]);
+      singleHistogram.addToRecursionKernelValue(lambdaBin, fLambdaBin, weights[i], true);
+    }
+
+    assertEquals(singleHistogram.minFLambda, batchHistogram.minFLambda, 0.0);
+    assertEquals(singleHistogram.FLambdaBins, batchHistogram.FLambdaBins);
+    for (int iL = 0; iL < singleHistogram.lambdaBins; iL++) {
+      for (int iFL = 0; iFL < singleHistogram.FLambdaBins; iFL++) {
+        assertEquals(
+            singleHistogram.getRecursionKernelValue(iL, iFL),
+            batchHistogram.getRecursionKernelValue(iL, iFL),
+            1.0e-12);
+      }
+    }
+    double[] chainRule = new double[2];
+    double[] expected = new double[2];
+    for (int i = 0; i < nCounts; i++) {
+      double bias =
+          singleHistogram.energyAndGradient2D(lambdas[i], dUdLs[i], expected, 0.05);
+      assertEquals(bias, batchHistogram.energyAndGradient2D(lambdas[i], dUdLs[i], chainRule, 0.05),
+          1.0e-10);
+      assertEquals(expected[0], chainRule[0], 1.0e-8);
+      assertEquals(expected[1], chainRule[1], 1.0e-8);
+    }
+    assertEquals(
+        singleHistogram.updateFLambda(false, false),
+        batchHistogram.updateFLambda(false, false),
+        1.0e-8);
+    forceFieldEnergy.destroy();
+  }
+
+  /**
+   * Create an OST Histogram without a restart file.
+   *
+   * @param forceFieldEnergy The potential.
+   * @param properties The properties.
+   * @param tmpDir Directory for the (nonexistent) restart files.
+   * @param name Base name of the restart files.
+   * @return The Histogram.
+   */
+  private static Histogram createHistogram(ForceFieldEnergy forceFieldEnergy,
+      CompositeConfiguration properties, File tmpDir, String name) throws Exception {
+    File histogramFile = new File(tmpDir, name + ".his");
+    File lambdaFile = new File(tmpDir, name + ".lam");
+    HistogramSettings settings =
+        new HistogramSettings(histogramFile, lambdaFile.toString(), properties);
+    OrthogonalSpaceTempering ost =
+        new OrthogonalSpaceTempering(
+            forceFieldEnergy, forceFieldEnergy, lambdaFile, settings, properties,
+            298.15, 1.0, 1.0, 100.0, false, false, null);
+    return ost.getHistogram();
+  }
+}
@@ -0,0 +1,270 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.algorithms.thermodynamics;
+
+import static java.lang.String.format;
+import static org.apache.commons.math3.util.FastMath.abs;
+import static org.apache.commons.math3.util.FastMath.exp;
+import static org.apache.commons.math3.util.FastMath.max;
+import static org.junit.Assert.assertEquals;
+
+import ffx.algorithms.misc.AlgorithmsTest;
+import ffx.algorithms.thermodynamics.OrthogonalSpaceTempering.Histogram;
+import ffx.potential.ForceFieldEnergy;
+import ffx.potential.MolecularAssembly;
+import ffx.potential.utils.PotentialsUtils;
+import java.io.File;
+import java.util.Random;
+import org.apache.commons.configuration2.CompositeConfiguration;
+import org.junit.Test;
+
+/**
+ * Test the cached bias of the RecursionKernel, and the OST 2D bias evaluated from it, against a
+ * dense sum over all counts.
+ *
+ * @author Michael J. Schnieders
+ */
+public class RecursionKernelTest extends AlgorithmsTest {
+
+  private static final double TOLERANCE = 1.0e-12;
+
+  /** Test the cached kernel for continuous lambda (first and last bins are mirrored). */
+  @Test
+  public void testContinuousKernel() {
+    testKernel(51, 0.02, 2.0, 5, 5, false);
+  }
+
+  /** Test the cached kernel for discrete lambda. */
+  @Test
+  public void testDiscreteKernel() {
+    testKernel(11, 0.1, 2.0, 0, 5, true);
+  }
+
+  /** Test energyAndGradient2D against the dense sum it replaced. */
+  @Test
+  public void testEnergyAndGradient2D() throws Exception {
+    System.setProperty("lambdaterm", "true");
+    ClassLoader cl = this.getClass().getClassLoader();
+    String filename = "ffx/algorithms/structures/acetamide.vac.xyz";
+    File structure = new File(cl.getResource(filename).getPath());
+    PotentialsUtils potentialsUtils = new PotentialsUtils();
+    MolecularAssembly molecularAssembly = potentialsUtils.openQuietly(structure.getAbsolutePath());
+    ForceFieldEnergy forceFieldEnergy = molecularAssembly.getPotentialEnergy();
+    CompositeConfiguration properties = molecularAssembly.getProperties();
+
+    File tmpDir = registerTemporaryDirectory().toFile();
+    File histogramFile = new File(tmpDir, "acetamide.his");
+    File lambdaFile = new File(tmpDir, "acetamide.lam");
+    HistogramSettings settings =
+        new HistogramSettings(histogramFile, lambdaFile.toString(), properties);
+    OrthogonalSpaceTempering ost =
+        new OrthogonalSpaceTempering(
+            forceFieldEnergy, forceFieldEnergy, lambdaFile, settings, properties,
+            298.15, 1.0, 1.0, 100.0, false, false, null);
+    Histogram histogram = ost.getHistogram();
+
+    // Deposit counts in every lambda bin, including the mirrored first and last bins.
+    Random random = new Random(19);
+    for (int i = 0; i < 2000; i++) {
+      int lambdaBin = random.nextInt(histogram.lambdaBins);
+      int fLambdaBin = 40 + random.nextInt(21);
+      histogram.addToRecursionKernelValue(lambdaBin, fLambdaBin, random.nextDouble(), false);
+    }
+    compareEnergyAndGradient2D(histogram, random);
+
+    // Widening the histogram below its minimum shifts the dU/dL origin, but not the bias.
+    histogram.checkRecursionKernelSize(histogram.minFLambda - 10.0 * histogram.dFL);
+    compareEnergyAndGradient2D(histogram, random);
+    forceFieldEnergy.destroy();
+  }
+
+  /**
+   * Compare energyAndGradient2D with the dense sum at random off-grid points.
+   *
+   * @param histogram The Histogram to test.
+   * @param random Source of the test points.
+   */
+  private void compareEnergyAndGradient2D(Histogram histogram, Random random) {
+    double magnitude = 0.05;
+    double[] chainRule = new double[2];
+    double[] expected = new double[2];
+    // The populated dU/dL range, plus the bias cutoff on either side.
+    double low = histogram.minFLambda + (histogram.FLambdaBins / 2 - 16) * histogram.dFL;
+    double high = histogram.minFLambda + (histogram.FLambdaBins / 2 + 16) * histogram.dFL;
+    for (int i = 0; i < 200; i++) {
+      double lambda = random.nextDouble();
+      if (i < 10) {
+        lambda = (i < 5) ? 0.001 * i : 1.0 - 0.001 * i;
+      }
+      double dUdL = low + (high - low) * random.nextDouble();
+      double energy = histogram.energyAndGradient2D(lambda, dUdL, chainRule, magnitude);
+      double expectedEnergy =
+          denseEnergyAndGradient2D(histogram, lambda, dUdL, expected, magnitude);
+      assertRelative(" 2D bias", expectedEnergy, energy);
+      assertRelative(" dG/dL", expected[0], chainRule[0]);
+      assertRelative(" dG/dFL", expected[1], chainRule[1]);
+    }
+  }
+
+  /**
+   * The 2D bias and its gradient as a dense sum over the counts within the bias cutoff.
+   *
+   * @param h The Histogram.
+   * @param currentLambda The value of lambda.
+   * @param currentdUdLambda The value of dU/dL.
+   * @param chainRule The derivatives of the bias with respect to lambda and dU/dL.
+   * @param gaussianBiasMagnitude The magnitude of each Gaussian.
+   * @return The 2D bias energy.
+   */
+  private static double denseEnergyAndGradient2D(
+      Histogram h, double currentLambda, double currentdUdLambda, double[] chainRule,
+      double gaussianBiasMagnitude) {
+    double gLdEdL = 0.0;
+    double dGdLambda = 0.0;
+    double dGdFLambda = 0.0;
+    int lambdaBin = h.indexForLambda(currentLambda);
+    int FLambdaBin = h.binForFLambda(currentdUdLambda);
+    double ls2 = (2.0 * h.dL) * (2.0 * h.dL);
+    double FLs2 = (2.0 * h.dFL) * (2.0 * h.dFL);
+    for (int iL = -h.lambdaBiasCutoff; iL <= h.lambdaBiasCutoff; iL++) {
+      int lcenter = lambdaBin + iL;
+      double deltaL = currentLambda - (lcenter * h.dL);
+      double deltaL2 = deltaL * deltaL;
+      int lcount = lcenter;
+      double mirrorFactor = 1.0;
+      if (lcount == 0 || lcount == h.lambdaBins - 1) {
+        if (!h.discreteLambda) {
+          mirrorFactor = 2.0;
+        }
+      } else if (lcount < 0) {
+        lcount = -lcount;
+      } else if (lcount > h.lambdaBins - 1) {
+        lcount -= (h.lambdaBins - 1);
+        lcount = h.lambdaBins - 1 - lcount;
+      }
+      for (int iFL = -h.biasCutoff; iFL <= h.biasCutoff; iFL++) {
+        int FLcenter = FLambdaBin + iFL;
+        if (FLcenter < 0 || FLcenter >= h.FLambdaBins) {
+          continue;
+        }
+        double deltaFL = currentdUdLambda - (h.minFLambda + FLcenter * h.dFL + h.dFL_2);
+        double deltaFL2 = deltaFL * deltaFL;
+        double weight = mirrorFactor * h.getRecursionKernelValue(lcount, FLcenter);
+        if (weight > 0) {
+          double bias = weight * gaussianBiasMagnitude
+              * exp(-deltaL2 / (2.0 * ls2)) * exp(-deltaFL2 / (2.0 * FLs2));
+          gLdEdL += bias;
+          dGdLambda -= deltaL / ls2 * bias;
+          dGdFLambda -= deltaFL / FLs2 * bias;
+        }
+      }
+    }
+    chainRule[0] = dGdLambda;
+    chainRule[1] = dGdFLambda;
+    return gLdEdL;
+  }
+
+  /**
+   * Deposit random counts and compare the cached kernel at every bin center to a dense sum.
+   *
+   * @param lambdaBins Number of lambda bins.
+   * @param dL Width of a lambda bin.
+   * @param dFL Width of a dU/dL bin.
+   * @param lambdaBiasCutoff Gaussian cutoff along the lambda axis (bins).
+   * @param biasCutoff Gaussian cutoff along the dU/dL axis (bins).
+   * @param discreteLambda True for discrete lambda.
+   */
+  private static void testKernel(int lambdaBins, double dL, double dFL, int lambdaBiasCutoff,
+      int biasCutoff, boolean discreteLambda) {
+    RecursionKernel recursionKernel =
+        new RecursionKernel(lambdaBins, dL, dFL, lambdaBiasCutoff, biasCutoff, discreteLambda);
+
+    // Absolute dU/dL bins span negative and positive tiles.
+    int minBin = -100;
+    int maxBin = 100;
+    Random random = new Random(7);
+    for (int i = 0; i < 5000; i++) {
+      int lambdaBin = random.nextInt(lambdaBins);
+      // Load the first and last lambda bins, whose counts are mirrored.
+      if (i % 5 == 0) {
+        lambdaBin = (i % 10 == 0) ? 0 : lambdaBins - 1;
+      }
+      int fLambdaBin = minBin + random.nextInt(maxBin - minBin + 1);
+      recursionKernel.add(lambdaBin, fLambdaBin, random.nextDouble());
+    }
+
+    double invLs2 = 0.5 / (2.0 * dL * 2.0 * dL);
+    double invFLs2 = 0.5 / (2.0 * dFL * 2.0 * dFL);
+    for (int cLambda = 0; cLambda < lambdaBins; cLambda++) {
+      for (int cFLambda = minBin - biasCutoff; cFLambda <= maxBin + biasCutoff; cFLambda++) {
+        double sum = 0.0;
+        for (int iL = -lambdaBiasCutoff; iL <= lambdaBiasCutoff; iL++) {
+          int lCenter = cLambda + iL;
+          double deltaL = iL * dL;
+          // Mirror condition for lambda counts.
+          int lCount = lCenter;
+          double mirrorFactor = 1.0;
+          if (lCount == 0 || lCount == lambdaBins - 1) {
+            if (!discreteLambda) {
+              mirrorFactor = 2.0;
+            }
+          } else if (lCount < 0) {
+            lCount = -lCount;
+          } else if (lCount > lambdaBins - 1) {
+            lCount = 2 * (lambdaBins - 1) - lCount;
+          }
+          for (int jFL = -biasCutoff; jFL <= biasCutoff; jFL++) {
+            double count = recursionKernel.getCount(lCount, cFLambda + jFL);
+            if (count <= 0.0) {
+              continue;
+            }
+            double deltaFL = jFL * dFL;
+            sum += mirrorFactor * count
+                * exp(-deltaL * deltaL * invLs2) * exp(-deltaFL * deltaFL * invFLs2);
+          }
+        }
+        assertRelative(format(" Kernel [%d][%d]", cLambda, cFLambda), sum,
+            recursionKernel.getKernel(cLambda, cFLambda));
+      }
+    }
+  }
+
+  private static void assertRelative(String message, double expected, double actual) {
+    assertEquals(message, expected, actual, TOLERANCE * max(1.0, abs(expected)));
+  }
+}
@@ -0,0 +1,113 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+package ffx.benchmarks;
+
+import static java.lang.String.format;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * The test structures bundled with the Potential module that are used as benchmark systems.
+ *
+ * @author Michael J. Schnieders
+ * @since 1.0
+ */
+public enum BenchmarkStructure {
+
+  /** 27 AMOEBA waters in a periodic cubic box (fixed multipoles only). */
+  WATERTINY("watertiny", "key", 81),
+  /** Crambin using AMOEBA and generalized Kirkwood implicit solvent. */
+  CRAMBIN("crambin", "key", 642),
+  /** Ubiquitin in a periodic water box using AMOEBA and PME. */
+  UBIQUITIN("ubiquitin", "key", 9737),
+  /** The joint AMBER-CHARMM DHFR benchmark using AMOEBA and PME. */
+  DHFR("dhfr", "key", 23558);
+
+  /** The location of the bundled structures on the class path. */
+  private static final String PREFIX = "ffx/potential/structures/";
+
+  /** The base name of the structure. */
+  private final String name;
+  /** The extension of the keyword / properties file. */
+  private final String keyExtension;
+  /** The number of atoms in the structure. */
+  private final int nAtoms;
+
+  BenchmarkStructure(String name, String keyExtension, int nAtoms) {
+    this.name = name;
+    this.keyExtension = keyExtension;
+    this.nAtoms = nAtoms;
+  }
+
+  /**
+   * The number of atoms in the structure, which is used to normalize timings to ns/atom.
+   *
+   * @return the number of atoms.
+   */
+  public int getNumberOfAtoms() {
+    return nAtoms;
+  }
+
+  /**
+   * Copy the coordinate and keyword files of the structure from the class path into a directory.
+   *
+   * @param directory The directory to copy into.
+   * @return The coordinate file.
+   * @throws IOException If the structure could not be copied.
+   */
+  public File extract(Path directory) throws IOException {
+    String xyz = name + ".xyz";
+    copyResource(xyz, directory);
+    copyResource(name + "." + keyExtension, directory);
+    return directory.resolve(xyz).toFile();
+  }
+
+  private static void copyResource(String resource, Path directory) throws IOException {
+    ClassLoader classLoader = BenchmarkStructure.class.getClassLoader();
+    try (InputStream inputStream = classLoader.getResourceAsStream(PREFIX + resource)) {
+      if (inputStream == null) {
+        throw new IOException(format(" Benchmark structure %s was not found.", PREFIX + resource));
+      }
+      Files.copy(inputStream, directory.resolve(resource), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+}
@@ -0,0 +1,106 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+package ffx.benchmarks;
+
+import static java.lang.String.format;
+
+import java.util.Collection;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+
+/**
+ * Run the Force Field X JMH benchmarks and summarize timings per atom.
+ *
+ * <p>Usage:
+ *
+ * <p>java -jar ffx-benchmarks.jar [JMH options] [benchmark regex]
+ *
+ * <p>For example, "java -jar ffx-benchmarks.jar VanDerWaals -p structure=DHFR -p threads=8" times
+ * only the van der Waals term on DHFR using 8 threads. All standard JMH options are supported
+ * (e.g. "-rf json -rff results.json" to save results for regression tracking).
+ *
+ * @author Michael J. Schnieders
+ * @since 1.0
+ */
+public class Benchmarks {
+
+  /**
+   * Run the benchmarks.
+   *
+   * @param args JMH command line options.
+   * @throws RunnerException If a benchmark fails.
+   * @throws CommandLineOptionException If the options could not be parsed.
+   */
+  public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+    CommandLineOptions options = new CommandLineOptions(args);
+    Collection<RunResult> results = new Runner(options).run();
+    System.out.println(summary(results));
+  }
+
+  /**
+   * Summarize results that are parameterized by a structure as ns/atom.
+   *
+   * @param results The JMH results.
+   * @return A table of timings per atom.
+   */
+  static String summary(Collection<RunResult> results) {
+    StringBuilder sb = new StringBuilder("\n Timings per Atom\n");
+    sb.append(format(" %-60s %-10s %7s %14s\n", "Benchmark", "Structure", "Threads", "ns/atom"));
+    for (RunResult runResult : results) {
+      BenchmarkParams params = runResult.getParams();
+      String structure = params.getParam("structure");
+      if (structure == null) {
+        continue;
+      }
+      int nAtoms = BenchmarkStructure.valueOf(structure).getNumberOfAtoms();
+      Result<?> result = runResult.getPrimaryResult();
+      sb.append(
+          format(
+              " %-60s %-10s %7s %14.3f\n",
+              params.getBenchmark(),
+              structure,
+              params.getParam("threads"),
+              result.getScore() / nAtoms));
+    }
+    return sb.toString();
+  }
+}
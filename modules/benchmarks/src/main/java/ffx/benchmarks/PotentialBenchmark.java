@@ -0,0 +1,106 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+package ffx.benchmarks;
+
+import ffx.potential.ForceFieldEnergy;
+import ffx.potential.MolecularAssembly;
+import ffx.potential.utils.PotentialsUtils;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Common setup and tear down for benchmarks that evaluate a ForceFieldEnergy, or one of its terms,
+ * on one of the bundled structures.
+ *
+ * <p>Each JMH trial runs in a forked JVM, so System properties set by a benchmark (e.g. to turn off
+ * reciprocal space) only apply to that trial.
+ *
+ * @author Michael J. Schnieders
+ * @since 1.0
+ */
+public abstract class PotentialBenchmark {
+
+  /** The assembly under test. */
+  protected MolecularAssembly molecularAssembly;
+  /** The force field energy of the assembly under test. */
+  protected ForceFieldEnergy forceFieldEnergy;
+  /** Temporary directory the structure is extracted into. */
+  private Path directory;
+
+  /**
+   * Extract and open a structure using the requested number of threads.
+   *
+   * @param structure The structure to open.
+   * @param threads The number of threads for the Parallel Java ParallelTeam.
+   * @throws IOException If the structure could not be extracted.
+   */
+  protected void open(BenchmarkStructure structure, int threads) throws IOException {
+    // The ParallelTeam thread count must be set before the ForceFieldEnergy is created.
+    System.setProperty("pj.nt", Integer.toString(threads));
+    // Logging would otherwise be included in the timings.
+    Logger.getLogger("ffx").setLevel(Level.WARNING);
+
+    directory = Files.createTempDirectory("FFXBenchmark");
+    File file = structure.extract(directory);
+    molecularAssembly = new PotentialsUtils().open(file);
+    forceFieldEnergy = molecularAssembly.getPotentialEnergy();
+  }
+
+  /**
+   * Destroy the ForceFieldEnergy and delete the extracted structure.
+   *
+   * @throws IOException If the temporary directory could not be deleted.
+   */
+  protected void close() throws IOException {
+    if (forceFieldEnergy != null) {
+      forceFieldEnergy.destroy();
+      forceFieldEnergy = null;
+    }
+    if (directory != null) {
+      try (Stream<Path> paths = Files.walk(directory)) {
+        paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+      }
+      directory = null;
+    }
+  }
+}
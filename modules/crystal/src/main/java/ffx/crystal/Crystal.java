@@ -1158,6 +1158,51 @@ public class Crystal {
     return dx * dx + dy * dy + dz * dz;
   }
 
+  /**
+   * Apply the minimum image convention to n separation vectors stored in separate x, y and z
+   * arrays. The loop body is straight-line code over contiguous arrays and uses the java.lang.Math
+   * intrinsics; the result for each vector is identical to {@link #image(double[])}.
+   *
+   * @param n the number of separation vectors.
+   * @param dx x-distances that are over-written.
+   * @param dy y-distances that are over-written.
+   * @param dz z-distances that are over-written.
+   * @param r2 the output distances squared.
+   */
+  public void image(
+      final int n, final double[] dx, final double[] dy, final double[] dz, final double[] r2) {
+    if (aperiodic) {
+      for (int i = 0; i < n; i++) {
+        r2[i] = dx[i] * dx[i] + dy[i] * dy[i] + dz[i] * dz[i];
+      }
+      return;
+    }
+    final double a00 = A00, a01 = A01, a02 = A02;
+    final double a10 = A10, a11 = A11, a12 = A12;
+    final double a20 = A20, a21 = A21, a22 = A22;
+    final double ai00 = Ai00, ai01 = Ai01, ai02 = Ai02;
+    final double ai10 = Ai10, ai11 = Ai11, ai12 = Ai12;
+    final double ai20 = Ai20, ai21 = Ai21, ai22 = Ai22;
+    for (int i = 0; i < n; i++) {
+      final double x = dx[i];
+      final double y = dy[i];
+      final double z = dz[i];
+      double xf = x * a00 + y * a10 + z * a20;
+      double yf = x * a01 + y * a11 + z * a21;
+      double zf = x * a02 + y * a12 + z * a22;
+      xf = Math.floor(Math.abs(xf) + 0.5) * Math.signum(-xf) + xf;
+      yf = Math.floor(Math.abs(yf) + 0.5) * Math.signum(-yf) + yf;
+      zf = Math.floor(Math.abs(zf) + 0.5) * Math.signum(-zf) + zf;
+      final double xi = xf * ai00 + yf * ai10 + zf * ai20;
+      final double yi = xf * ai01 + yf * ai11 + zf * ai21;
+      final double zi = xf * ai02 + yf * ai12 + zf * ai22;
+      dx[i] = xi;
+      dy[i] = yi;
+      dz[i] = zi;
+      r2[i] = xi * xi + yi * yi + zi * zi;
+    }
+  }
+
   public boolean isSpecialPosition(double[] cartesianCoords) {
     double[] newCoords = new double[3];
     double[] ret = new double[3];
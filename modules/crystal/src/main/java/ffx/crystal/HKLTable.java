@@ -0,0 +1,164 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.crystal;
+
+import static java.lang.String.format;
+
+import java.util.Arrays;
+
+/**
+ * The HKLTable class maps Miller indices to reflections with an open-addressing hash table.
+ *
+ * <p>Each index is offset into 21 bits and packed into a long key, so a look-up hashes three ints
+ * rather than building and hashing a String. Collisions are resolved by linear probing in a
+ * power-of-two table that is kept at most half full.
+ *
+ * @author Michael J. Schnieders
+ * @see ReflectionList
+ * @since 1.0
+ */
+final class HKLTable {
+
+  /** Offset that maps each Miller index into 21 unsigned bits. */
+  private static final int OFFSET = 1 << 20;
+  /** Marks an empty slot; packed keys are never negative. */
+  private static final long EMPTY = -1L;
+
+  private final long[] keys;
+  private final HKL[] values;
+  private final int mask;
+  private final int shift;
+  private int size = 0;
+
+  /**
+   * Constructor for HKLTable.
+   *
+   * @param capacity The number of reflections that will be stored.
+   */
+  HKLTable(int capacity) {
+    int n = Integer.highestOneBit(Math.max(2, 2 * capacity - 1)) << 1;
+    keys = new long[n];
+    values = new HKL[n];
+    Arrays.fill(keys, EMPTY);
+    mask = n - 1;
+    shift = Long.numberOfLeadingZeros(n - 1);
+  }
+
+  /**
+   * Pack a Miller index into a long key.
+   *
+   * @param h The h index.
+   * @param k The k index.
+   * @param l The l index.
+   * @return The key.
+   */
+  static long key(int h, int k, int l) {
+    if (!inRange(h, k, l)) {
+      throw new IllegalArgumentException(
+          format(" Miller index (%d %d %d) is out of range.", h, k, l));
+    }
+    return ((long) (h + OFFSET) << 42) | ((long) (k + OFFSET) << 21) | (l + OFFSET);
+  }
+
+  /**
+   * Get the reflection for a Miller index.
+   *
+   * @param h The h index.
+   * @param k The k index.
+   * @param l The l index.
+   * @return The reflection, or null if it is not in the table.
+   */
+  HKL get(int h, int k, int l) {
+    if (!inRange(h, k, l)) {
+      return null;
+    }
+    long key = key(h, k, l);
+    for (int i = slot(key); ; i = (i + 1) & mask) {
+      long current = keys[i];
+      if (current == key) {
+        return values[i];
+      }
+      if (current == EMPTY) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Add a reflection, replacing any reflection with the same Miller index.
+   *
+   * @param hkl The reflection.
+   */
+  void put(HKL hkl) {
+    long key = key(hkl.h(), hkl.k(), hkl.l());
+    for (int i = slot(key); ; i = (i + 1) & mask) {
+      long current = keys[i];
+      if (current == key) {
+        values[i] = hkl;
+        return;
+      }
+      if (current == EMPTY) {
+        if (2 * (size + 1) > keys.length) {
+          throw new IllegalStateException(" The reflection table is full.");
+        }
+        keys[i] = key;
+        values[i] = hkl;
+        size++;
+        return;
+      }
+    }
+  }
+
+  /**
+   * The number of reflections in the table.
+   *
+   * @return The number of reflections.
+   */
+  int size() {
+    return size;
+  }
+
+  private static boolean inRange(int h, int k, int l) {
+    return h > -OFFSET && h < OFFSET && k > -OFFSET && k < OFFSET && l > -OFFSET && l < OFFSET;
+  }
+
+  private int slot(long key) {
+    // Fibonacci hashing spreads the packed indices over the table.
+    return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift) & mask;
+  }
+}
@@ -45,8 +45,6 @@ import static org.apache.commons.math3.util.FastMath.min;
 import static org.apache.commons.math3.util.FastMath.rint;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
 import org.apache.commons.configuration2.CompositeConfiguration;
 
 /**
@@ -68,8 +66,8 @@ public class ReflectionList {
   public final SpaceGroup spaceGroup;
   /** Resolution instance. */
   public final Resolution resolution;
-  /** String to HKL look-up. */
-  final HashMap<String, HKL> hklmap = new HashMap<>();
+  /** Miller index to HKL look-up. */
+  final HKLTable hklmap;
   /** The Laue System. */
   private final SpaceGroup.LaueSystem laueSystem;
   /** For binning reflections based on resolution */
@@ -121,26 +119,26 @@ public class ReflectionList {
           hkl.l(l);
 
           double res = Crystal.invressq(this.crystal, hkl);
+          if (!SpaceGroup.checkLaueRestrictions(laueSystem, h, k, l)
+              || !resolution.inInverseResSqRange(res)) {
+            continue;
+          }
           getepsilon(hkl);
-          if (SpaceGroup.checkLaueRestrictions(laueSystem, h, k, l)
-              && resolution.inInverseResSqRange(res)
-              && !HKL.sys_abs(hkl)) {
+          if (!HKL.sys_abs(hkl)) {
             minResolution = min(res, minResolution);
             maxResolution = max(res, maxResolution);
-            String s = ("" + h + "_" + k + "_" + l).intern();
-            hklmap.put(s, new HKL(hkl.h(), hkl.k(), hkl.l(), hkl.epsilon(), hkl.allowed));
+            HKL ih = new HKL(hkl.h(), hkl.k(), hkl.l(), hkl.epsilon(), hkl.allowed);
+            ih.index(n);
+            hkllist.add(ih);
             n++;
           }
         }
       }
     }
 
-    n = 0;
-    for (Map.Entry ei : hklmap.entrySet()) {
-      HKL ih = (HKL) ei.getValue();
-      ih.index(n);
-      hkllist.add(ih);
-      n++;
+    hklmap = new HKLTable(n);
+    for (HKL ih : hkllist) {
+      hklmap.put(ih);
     }
 
     // Set up the resolution bins first build a histogram.
@@ -234,8 +232,7 @@ public class ReflectionList {
    * @return a {@link ffx.crystal.HKL} object.
    */
   public HKL getHKL(int h, int k, int l) {
-    String s = ("" + h + "_" + k + "_" + l);
-    return hklmap.get(s);
+    return hklmap.get(h, k, l);
   }
 
   /**
@@ -344,8 +341,7 @@ public class ReflectionList {
    * @return a boolean.
    */
   private boolean hasHKL(int h, int k, int l) {
-    String s = ("" + h + "_" + k + "_" + l);
-    return hklmap.containsKey(s);
+    return hklmap.get(h, k, l) != null;
   }
 
   private void getepsilon(HKL hkl) {
@@ -353,8 +349,8 @@ public class ReflectionList {
     int allowed = 255;
 
     int nsym = spaceGroup.symOps.size();
+    HKL mate = new HKL();
     for (int i = 1; i < nsym; i++) {
-      HKL mate = new HKL();
       crystal.applySymRot(hkl, mate, spaceGroup.symOps.get(i));
       double shift = Crystal.sym_phase_shift(hkl, spaceGroup.symOps.get(i));
 
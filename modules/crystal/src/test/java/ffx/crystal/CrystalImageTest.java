@@ -0,0 +1,112 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.crystal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Test that the batched minimum image convention matches the scalar version.
+ *
+ * @author Michael J. Schnieders
+ */
+@RunWith(Parameterized.class)
+public class CrystalImageTest {
+
+  private final String info;
+  private final Crystal crystal;
+
+  public CrystalImageTest(
+      String info,
+      double a,
+      double b,
+      double c,
+      double alpha,
+      double beta,
+      double gamma,
+      String sg) {
+    this.info = info;
+    this.crystal = new Crystal(a, b, c, alpha, beta, gamma, sg);
+  }
+
+  @Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(
+        new Object[][] {
+          {"Triclinic (3TRW)", 28.38, 31.73, 36.75, 90.12, 99.61, 96.52, "P-1"},
+          {"Orthorhombic (2WLD)", 79.09, 94.81, 100.85, 90.0, 90.0, 90.0, "P222"},
+          {"Monoclinic (3V0E)", 50.85, 38.60, 89.83, 90.0, 103.99, 90.0, "P2"},
+          {"Hexagonal (4DAC)", 63.67, 63.67, 40.40, 90.0, 90.0, 120.0, "P6"}
+        });
+  }
+
+  @Test
+  public void batchImageTest() {
+    int n = 1000;
+    Random random = new Random(1);
+    double[] dx = new double[n];
+    double[] dy = new double[n];
+    double[] dz = new double[n];
+    double[] r2 = new double[n];
+    for (int i = 0; i < n; i++) {
+      dx[i] = (random.nextDouble() - 0.5) * 4.0 * crystal.a;
+      dy[i] = (random.nextDouble() - 0.5) * 4.0 * crystal.b;
+      dz[i] = (random.nextDouble() - 0.5) * 4.0 * crystal.c;
+    }
+    double[][] expected = new double[n][];
+    double[] expectedR2 = new double[n];
+    for (int i = 0; i < n; i++) {
+      expected[i] = new double[] {dx[i], dy[i], dz[i]};
+      expectedR2[i] = crystal.image(expected[i]);
+    }
+    crystal.image(n, dx, dy, dz, r2);
+    for (int i = 0; i < n; i++) {
+      assertEquals(info + " dx " + i, expected[i][0], dx[i], 0.0);
+      assertEquals(info + " dy " + i, expected[i][1], dy[i], 0.0);
+      assertEquals(info + " dz " + i, expected[i][2], dz[i], 0.0);
+      assertEquals(info + " r2 " + i, expectedR2[i], r2[i], 0.0);
+    }
+  }
+}
@@ -40,6 +40,7 @@ package ffx.crystal;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 import ffx.utilities.FFXTest;
 import java.util.Arrays;
@@ -174,6 +175,23 @@ public class ReflectionListTest extends FFXTest {
         info + " list 0 0 0 reflection should have correct allowance", allowed, hkl.allowed);
   }
 
+  @Test
+  public void testlookup() {
+    if (!ffxCI && ciOnly) {
+      return;
+    }
+
+    for (int i = 0; i < reflectionlist.hkllist.size(); i++) {
+      HKL hkl = reflectionlist.hkllist.get(i);
+      assertEquals(info + " reflection should have its list index", i, hkl.index());
+      assertSame(
+          info + " look-up should return the listed reflection",
+          hkl,
+          reflectionlist.getHKL(hkl.h(), hkl.k(), hkl.l()));
+    }
+    assertNull(info + " out of range index", reflectionlist.getHKL(1 << 21, 0, 0));
+  }
+
   @Test
   public void testsize() {
     if (!ffxCI && ciOnly) {
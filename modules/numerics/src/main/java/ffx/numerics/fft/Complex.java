@@ -42,7 +42,9 @@ import static org.apache.commons.math3.util.FastMath.cos;
 import static org.apache.commons.math3.util.FastMath.sin;
 import static org.apache.commons.math3.util.FastMath.sqrt;
 
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -91,6 +93,13 @@ public class Complex {
   private static final double cos2PI_7 = cos(2.0 * PI / 7.0);
   private static final double cos4PI_7 = cos(4.0 * PI / 7.0);
   private static final double cos6PI_7 = cos(6.0 * PI / 7.0);
+  /**
+   * Plan cache keyed on the transform length. Factors and twiddles only depend on n and are never
+   * modified after construction, so instances of the same length (e.g. one per thread for each
+   * axis of a 3D FFT) share them.
+   */
+  private static final Map<Integer, int[]> factorCache = new ConcurrentHashMap<>();
+  private static final Map<Integer, double[][][]> twiddleCache = new ConcurrentHashMap<>();
   private final int n;
   private final int[] factors;
   private final double[][][] twiddle;
@@ -99,7 +108,8 @@ public class Complex {
   /**
    * Construct a Complex instance for data of length n. Factorization of n is designed to use
    * special methods for small factors, and a general routine for large odd prime factors. Scratch
-   * memory is created of length 2*n, which is reused each time a tranform is computed.
+   * memory is created of length 2*n, which is reused each time a tranform is computed. The
+   * factorization and twiddle factors are cached, and shared between instances of the same length.
    *
    * @param n Number of complex numbers (n .GT. 1).
    */
@@ -107,8 +117,8 @@ public class Complex {
     assert (n > 1);
 
     this.n = n;
-    factors = factor();
-    twiddle = wavetable();
+    factors = factorCache.computeIfAbsent(n, k -> factor());
+    twiddle = twiddleCache.computeIfAbsent(n, k -> wavetable());
     scratch = new double[2 * n];
   }
 
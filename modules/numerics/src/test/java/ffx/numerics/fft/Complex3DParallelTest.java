@@ -37,9 +37,12 @@
 // ******************************************************************************
 package ffx.numerics.fft;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import edu.rit.pj.IntegerSchedule;
 import edu.rit.pj.ParallelTeam;
+import ffx.numerics.fft.Complex3DParallel.Decomposition;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Random;
@@ -83,7 +86,8 @@ public class Complex3DParallelTest {
           {"Test nx=32, ny=32, nz=32, nCPUs=1}", 32, 32, 32, 1},
           {"Test nx=32, ny=32, nz=32, nCPUs=2}", 32, 32, 32, 2},
           {"Test nx=32, ny=45, nz=21, nCPUs=1}", 32, 45, 21, 1},
-          {"Test nx=32, ny=45, nz=21, nCPUs=2}", 32, 45, 21, 2}
+          {"Test nx=32, ny=45, nz=21, nCPUs=2}", 32, 45, 21, 2},
+          {"Test nx=21, ny=45, nz=30, nCPUs=3}", 21, 45, 30, 3}
         });
   }
 
@@ -126,4 +130,33 @@ public class Complex3DParallelTest {
       assertEquals(info, orig, actual, tolerance);
     }
   }
+
+  /** The pencil and plane decompositions apply identical 1D transforms, so must agree exactly. */
+  @Test
+  public void testDecomposition() {
+    Random random = new Random(1);
+    for (int i = 0; i < tot; i++) {
+      recip[i] = random.nextDouble();
+      data[2 * i + 1] = random.nextDouble();
+    }
+    double[] plane = Arrays.copyOf(data, data.length);
+    Complex3DParallel planeFFT = new Complex3DParallel(nx, ny, nz, parallelTeam);
+    assertEquals(info, Decomposition.PLANE, planeFFT.getDecomposition());
+    Complex3DParallel pencilFFT =
+        new Complex3DParallel(
+            nx, ny, nz, parallelTeam, IntegerSchedule.fixed(), Decomposition.PENCIL);
+
+    planeFFT.fft(plane);
+    pencilFFT.fft(data);
+    assertArrayEquals(info, plane, data, 0.0);
+    planeFFT.ifft(plane);
+    pencilFFT.ifft(data);
+    assertArrayEquals(info, plane, data, 0.0);
+
+    planeFFT.setRecip(recip);
+    pencilFFT.setRecip(recip);
+    planeFFT.convolution(plane);
+    pencilFFT.convolution(data);
+    assertArrayEquals(info, plane, data, 0.0);
+  }
 }
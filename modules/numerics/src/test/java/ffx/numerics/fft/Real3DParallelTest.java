@@ -37,6 +37,7 @@
 // ******************************************************************************
 package ffx.numerics.fft;
 
+import static org.apache.commons.math3.util.FastMath.exp;
 import static org.junit.Assert.assertEquals;
 
 import edu.rit.pj.ParallelTeam;
@@ -126,6 +127,54 @@ public class Real3DParallelTest {
     }
   }
 
+  /**
+   * Test that a convolution on the half spectrum matches a complex convolution of the same real
+   * data, as used for the permanent multipole grid of PME.
+   */
+  @Test
+  public void testConvolutionMatchesComplex() {
+    int nX1 = nx / 2 + 1;
+    double[] complexData = new double[tot * 2];
+    double[] complexRecip = new double[tot];
+    double[] halfRecip = new double[nX1 * ny * nz];
+    int paddedIndex = 0;
+    int index = 0;
+    for (int z = 0; z < nz; z++) {
+      int l = z < (nz + 1) / 2 ? z : z - nz;
+      for (int y = 0; y < ny; y++) {
+        int k = y < (ny + 1) / 2 ? y : y - ny;
+        for (int x = 0; x < nx; x++, index++) {
+          int h = x < (nx + 1) / 2 ? x : x - nx;
+          double g = exp(-0.01 * (h * h + k * k + l * l));
+          complexData[2 * index] = data[paddedIndex++];
+          complexRecip[index] = g;
+          if (x < nX1) {
+            halfRecip[x + nX1 * (y + ny * z)] = g;
+          }
+        }
+        paddedIndex += 2;
+      }
+    }
+    Complex3DParallel complex3D = new Complex3DParallel(nx, ny, nz, parallelTeam);
+    complex3D.setRecip(complexRecip);
+    complex3D.convolution(complexData);
+    Real3DParallel real3D = new Real3DParallel(nx, ny, nz, parallelTeam);
+    real3D.setRecip(halfRecip);
+    real3D.convolution(data);
+    paddedIndex = 0;
+    index = 0;
+    for (int z = 0; z < nz; z++) {
+      for (int y = 0; y < ny; y++) {
+        for (int x = 0; x < nx; x++, index++) {
+          double actual = data[paddedIndex++] / tot;
+          double orig = complexData[2 * index] / tot;
+          assertEquals(info, orig, actual, 1.0e-12);
+        }
+        paddedIndex += 2;
+      }
+    }
+  }
+
   /** Test of the fft and ifft methods, of class Real3DParallel. */
   @Test
   public void testFft() {
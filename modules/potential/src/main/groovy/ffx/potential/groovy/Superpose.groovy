@@ -44,6 +44,7 @@ import ffx.potential.bonded.Atom
 import ffx.potential.cli.PotentialScript
 import ffx.potential.parsers.PDBFilter
 import ffx.potential.parsers.SystemFilter
+import ffx.potential.parsers.TRJFilter
 import ffx.potential.parsers.XYZFilter
 import picocli.CommandLine.Command
 import picocli.CommandLine.Option
@@ -184,7 +185,8 @@ class Superpose extends PotentialScript {
     int distMatrixSize = systemFilter.countNumModels()
     distMatrix = new double[distMatrixSize][distMatrixSize]
 
-    if (systemFilter instanceof PDBFilter || systemFilter instanceof XYZFilter) {
+    if (systemFilter instanceof PDBFilter || systemFilter instanceof XYZFilter
+        || systemFilter instanceof TRJFilter) {
       double[] x2 = new double[nVars]
       double[] mass = new double[nVars / 3]
 
@@ -293,6 +295,9 @@ class Superpose extends PotentialScript {
         } else if (systemFilter instanceof XYZFilter) {
           systemFilter1 = new XYZFilter(activeAssembly.getFile(), activeAssembly,
               activeAssembly.getForceField(), activeAssembly.getProperties())
+        } else if (systemFilter instanceof TRJFilter) {
+          systemFilter1 = new TRJFilter(activeAssembly.getFile(), activeAssembly,
+              activeAssembly.getForceField(), activeAssembly.getProperties())
         }
         while (systemFilter1.readNext(false, false)) {
           int snapshot1 = systemFilter1.getSnapshot()
@@ -305,6 +310,9 @@ class Superpose extends PotentialScript {
           } else if (systemFilter instanceof XYZFilter) {
             systemFilter2 = new XYZFilter(activeAssembly.getFile(), activeAssembly,
                 activeAssembly.getForceField(), activeAssembly.getProperties())
+          } else if (systemFilter instanceof TRJFilter) {
+            systemFilter2 = new TRJFilter(activeAssembly.getFile(), activeAssembly,
+                activeAssembly.getForceField(), activeAssembly.getProperties())
           }
           rmsd(systemFilter2, nUsed, usedIndices, x, x2, xUsed, x2Used, massUsed, snapshot1)
         }
@@ -206,8 +206,8 @@ class Volume extends PotentialScript {
 
       if (verbose) {
         logger.info(format("\n Maximum depth of overlaps in tree: %d", gaussVol.getMaximumDepth()))
-        logger.info(
-            format(" Total number of overlaps in tree: %d", gaussVol.getTotalNumberOfOverlaps()))
+        logger.info(format(" Total number of overlaps in all trees (excluding atoms): %d",
+            gaussVol.getTotalNumberOfOverlaps()))
 
         //gaussVol.printTree()
 
@@ -85,8 +85,8 @@ import ffx.potential.bonded.StretchTorsion;
 import ffx.potential.bonded.Torsion;
 import ffx.potential.bonded.TorsionTorsion;
 import ffx.potential.bonded.UreyBradley;
+import ffx.potential.constraint.BatchSettleConstraint;
 import ffx.potential.constraint.CcmaConstraint;
-import ffx.potential.constraint.SettleConstraint;
 import ffx.potential.extended.ExtendedSystem;
 import ffx.potential.nonbonded.COMRestraint;
 import ffx.potential.nonbonded.CoordRestraint;
@@ -1164,13 +1164,12 @@ public class ForceFieldEnergy implements CrystalPotential, LambdaInterface {
                         });
             // Now concatenate the stream with the properly labeled waters.
             settleStream = Stream.concat(settleStream, molecularAssembly.getWaters().stream());
-            // Map them into new Settle constraints and collect.
-            List<SettleConstraint> settleConstraints =
+            // Map them into a single batch of SETTLE constraints.
+            List<Angle> settleAngles =
                 settleStream
                     .map((MSNode m) -> m.getAngleList().get(0))
-                    .map(SettleConstraint::settleFactory)
                     .collect(Collectors.toList());
-            constraints.addAll(settleConstraints);
+            constraints.add(BatchSettleConstraint.batchSettleFactory(settleAngles, parallelTeam));
 
           } else if (tok.equalsIgnoreCase("DIATOMIC")) {
             logger.severe(" Diatomic distance constraints not yet implemented properly.");
@@ -1292,6 +1292,7 @@ public final class Utilities {
     XYZ,
     INT,
     ARC,
+    TRJ,
     PDB,
     ANY,
     SIM,
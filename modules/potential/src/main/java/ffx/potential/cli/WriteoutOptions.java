@@ -51,12 +51,12 @@ import picocli.CommandLine.Option;
  */
 public class WriteoutOptions {
 
-  /** -F or --fileFormat Choose the file type to write [PDB/XYZ]. */
+  /** -F or --fileFormat Choose the file type to write [PDB/XYZ/TRJ]. */
   @Option(
       names = {"-F", "--fileFormat"},
       paramLabel = "XYZ",
       defaultValue = "XYZ",
-      description = "Choose file type to write [PDB/XYZ].")
+      description = "Choose file type to write [PDB/XYZ/TRJ]; TRJ writes a binary trajectory.")
   public String fileType = "XYZ";
 
   public static String toArchiveExtension(String fileType) {
@@ -73,7 +73,8 @@ public class WriteoutOptions {
   }
 
   /**
-   * Saves a single-snapshot file to either .xyz or .pdb, depending on the value of fileType.
+   * Saves a single-snapshot file to either .xyz or .pdb, depending on the value of fileType (a
+   * binary trajectory saves single snapshots as .xyz).
    *
    * @param baseFileName Basic file name without extension.
    * @param potentialsFunctions A PotentialFunctions object.
@@ -86,7 +87,7 @@ public class WriteoutOptions {
       MolecularAssembly molecularAssembly) {
     String outFileName = baseFileName;
     File outFile;
-    if (fileType.equalsIgnoreCase("XYZ")) {
+    if (fileType.equalsIgnoreCase("XYZ") || fileType.equalsIgnoreCase("TRJ")) {
       outFileName = outFileName + ".xyz";
       outFile = potentialsFunctions.versionFile(new File(outFileName));
       potentialsFunctions.saveAsXYZ(molecularAssembly, outFile);
@@ -100,7 +101,8 @@ public class WriteoutOptions {
 
   private enum Extensions {
     XYZ("xyz", "arc"),
-    PDB("pdb", "pdb");
+    PDB("pdb", "pdb"),
+    TRJ("xyz", "trj");
 
     private final String single;
     private final String archive;
@@ -114,6 +116,8 @@ public class WriteoutOptions {
       switch (name.toUpperCase()) {
         case "PDB":
           return PDB;
+        case "TRJ":
+          return TRJ;
         case "XYZ":
         case "ARC":
         default:
@@ -0,0 +1,262 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.potential.constraint;
+
+import edu.rit.pj.IntegerForLoop;
+import edu.rit.pj.IntegerSchedule;
+import edu.rit.pj.ParallelRegion;
+import edu.rit.pj.ParallelTeam;
+import ffx.numerics.Constraint;
+import ffx.potential.bonded.Angle;
+import ffx.potential.bonded.Atom;
+import ffx.potential.bonded.Bond;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * SETTLE constraints for every rigid triatomic molecule (typically water) in the system, applied as
+ * a single Constraint.
+ *
+ * <p>Atom indices and constraint distances are held in flat arrays, and molecules are processed in
+ * parallel chunks on the supplied ParallelTeam. Positions and velocities are read from and written
+ * back to the coordinate arrays in one pass, using the same kernels as {@link SettleConstraint}.
+ *
+ * @author Michael J. Schnieders
+ * @since 1.0
+ */
+public class BatchSettleConstraint implements Constraint {
+
+  private static final Logger logger = Logger.getLogger(BatchSettleConstraint.class.getName());
+
+  /** Number of rigid molecules. */
+  private final int nMolecules;
+  /** Atom indices of each molecule: the central atom followed by the two outer atoms. */
+  private final int[] indices;
+  /** Distance from the central atom to each outer atom (typically the O-H bond length). */
+  private final double[] distance1;
+  /** Distance between the outer atoms (typically a fictitious H-H bond length). */
+  private final double[] distance2;
+  /** The ParallelTeam used to apply the constraints. */
+  private final ParallelTeam parallelTeam;
+  /** Parallel application of SETTLE to all molecules. */
+  private final SettleRegion settleRegion;
+
+  /**
+   * Constructs batched SETTLE constraints from one angle per rigid molecule. Does not inform the
+   * angles that they are now constrained, which is why there is a factory method wrapping the
+   * private constructor.
+   *
+   * @param angles One angle (with its two bonds) per rigid molecule.
+   * @param parallelTeam The ParallelTeam used to apply the constraints.
+   */
+  private BatchSettleConstraint(List<Angle> angles, ParallelTeam parallelTeam) {
+    this.parallelTeam = parallelTeam;
+    nMolecules = angles.size();
+    indices = new int[3 * nMolecules];
+    distance1 = new double[nMolecules];
+    distance2 = new double[nMolecules];
+    for (int i = 0; i < nMolecules; i++) {
+      Angle a012 = angles.get(i);
+      Atom center = a012.getCentralAtom();
+      Bond b01 = a012.getBond(0);
+      Bond b02 = a012.getBond(1);
+      assert b01.bondType.distance == b02.bondType.distance;
+      int i3 = 3 * i;
+      indices[i3] = center.getXyzIndex() - 1;
+      indices[i3 + 1] = b01.get1_2(center).getXyzIndex() - 1;
+      indices[i3 + 2] = b02.get1_2(center).getXyzIndex() - 1;
+      distance1[i] = b01.bondType.distance;
+      double angVal = a012.angleType.angle[a012.nh];
+      distance2[i] = SettleConstraint.lawOfCosines(distance1[i], distance1[i], angVal);
+    }
+    settleRegion = new SettleRegion(parallelTeam.getThreadCount());
+  }
+
+  /**
+   * Constructs batched SETTLE constraints from one angle per rigid molecule. Factory used mostly to
+   * avoid a leaking-this scenario, as this method also passes the new constraint to each angle.
+   *
+   * @param angles One angle (with its two bonds) per rigid molecule.
+   * @param parallelTeam The ParallelTeam used to apply the constraints.
+   * @return New BatchSettleConstraint.
+   */
+  public static BatchSettleConstraint batchSettleFactory(
+      List<Angle> angles, ParallelTeam parallelTeam) {
+    BatchSettleConstraint newC = new BatchSettleConstraint(angles, parallelTeam);
+    angles.forEach((Angle a) -> a.setConstraint(newC));
+    return newC;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void applyConstraintToStep(
+      final double[] xPrior, double[] xNew, final double[] masses, double tol) {
+    apply(false, xPrior, xNew, masses);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void applyConstraintToVelocities(
+      final double[] x, double[] v, final double[] masses, double tol) {
+    apply(true, x, v, masses);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int[] constrainedAtomIndices() {
+    return Arrays.stream(indices).sorted().toArray();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean constraintSatisfied(double[] x, double tol) {
+    return constraintSatisfied(x, null, tol, 0.0);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean constraintSatisfied(double[] x, double[] v, double xTol, double vTol) {
+    for (int i = 0; i < nMolecules; i++) {
+      int i3 = 3 * i;
+      if (!SettleConstraint.settleSatisfied(
+          x,
+          v,
+          xTol,
+          vTol,
+          indices[i3],
+          indices[i3 + 1],
+          indices[i3 + 2],
+          distance1[i],
+          distance2[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int getNumDegreesFrozen() {
+    // 2 bonds and an angle are frozen per molecule.
+    return 3 * nMolecules;
+  }
+
+  /**
+   * Apply SETTLE to all molecules.
+   *
+   * @param velocities If true, constrain velocities; otherwise constrain new positions.
+   * @param x Prior coordinates (positions) or current coordinates (velocities).
+   * @param output New coordinates or velocities, updated in place.
+   * @param masses Masses (XYZ-indexed).
+   */
+  private void apply(boolean velocities, double[] x, double[] output, double[] masses) {
+    if (nMolecules == 0) {
+      return;
+    }
+    settleRegion.init(velocities, x, output, masses);
+    try {
+      parallelTeam.execute(settleRegion);
+    } catch (Exception e) {
+      String message = " Exception applying SETTLE constraints.";
+      logger.log(Level.SEVERE, message, e);
+    }
+  }
+
+  private class SettleRegion extends ParallelRegion {
+
+    private final SettleLoop[] settleLoops;
+    private boolean velocities;
+    private double[] x;
+    private double[] output;
+    private double[] masses;
+
+    SettleRegion(int nThreads) {
+      settleLoops = new SettleLoop[nThreads];
+    }
+
+    void init(boolean velocities, double[] x, double[] output, double[] masses) {
+      this.velocities = velocities;
+      this.x = x;
+      this.output = output;
+      this.masses = masses;
+    }
+
+    @Override
+    public void run() throws Exception {
+      int threadID = getThreadIndex();
+      if (settleLoops[threadID] == null) {
+        settleLoops[threadID] = new SettleLoop();
+      }
+      execute(0, nMolecules - 1, settleLoops[threadID]);
+    }
+
+    private class SettleLoop extends IntegerForLoop {
+
+      @Override
+      public void run(int lb, int ub) {
+        if (velocities) {
+          for (int i = lb; i <= ub; i++) {
+            int i3 = 3 * i;
+            SettleConstraint.settleVelocities(
+                x, output, masses, indices[i3], indices[i3 + 1], indices[i3 + 2]);
+          }
+        } else {
+          for (int i = lb; i <= ub; i++) {
+            int i3 = 3 * i;
+            SettleConstraint.settlePositions(
+                x,
+                output,
+                masses,
+                indices[i3],
+                indices[i3 + 1],
+                indices[i3 + 2],
+                distance1[i],
+                distance2[i]);
+          }
+        }
+      }
+
+      @Override
+      public IntegerSchedule schedule() {
+        return IntegerSchedule.fixed();
+      }
+    }
+  }
+}
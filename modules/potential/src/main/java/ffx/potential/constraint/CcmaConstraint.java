@@ -4,17 +4,13 @@ import ffx.numerics.Constraint;
 import ffx.potential.bonded.Angle;
 import ffx.potential.bonded.Atom;
 import ffx.potential.bonded.Bond;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 import java.util.logging.Logger;
 import java.util.stream.IntStream;
-import org.apache.commons.math3.linear.OpenMapRealMatrix;
-import org.apache.commons.math3.linear.QRDecomposition;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.LUDecomposition;
 import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.linear.RealVectorPreservingVisitor;
 import org.apache.commons.math3.util.FastMath;
 
 public class CcmaConstraint implements Constraint {
@@ -29,9 +25,21 @@ public class CcmaConstraint implements Constraint {
   private final int nConstraints;
   private final int[] uniqueIndices;
   private final int maxIters = DEFAULT_MAX_ITERS;
-  private final double elementCutoff = DEFAULT_CCMA_NONZERO_CUTOFF;
+  private final double elementCutoff;
   private final double[] reducedMasses;
-  private final RealMatrix kInvSparse;
+  // Constraints involving each atom, in compressed-sparse-row form.
+  private final int[] atomOffsets;
+  private final int[] atomConstraints;
+  // Truncated inverse of K in compressed-sparse-row form. K is block diagonal over connected
+  // groups of constraints, so only couplings within a molecule or rigid group are stored.
+  private final int[] rowOffsets;
+  private final int[] columns;
+  private final double[] kInvValues;
+  // Work arrays reused by every application of the constraints.
+  private final double[] rij;
+  private final double[] dij2;
+  private double[] constraintDelta;
+  private double[] tempDelta;
 
   /**
    * Constructs a set of bond length Constraints to be satisfied using the Constaint Constraint
@@ -60,6 +68,7 @@ public class CcmaConstraint implements Constraint {
       final double[] masses,
       double nonzeroCutoff) {
     long time = -System.nanoTime();
+    elementCutoff = nonzeroCutoff;
     int nBonds = constrainedBonds.size();
     int nAngles = constrainedAngles.size();
     assert constrainedAngles.stream()
@@ -120,88 +129,232 @@ public class CcmaConstraint implements Constraint {
             .distinct()
             .toArray();
 
-    OpenMapRealMatrix kSparse = new OpenMapRealMatrix(nConstraints, nConstraints);
-
     int nAtoms = allAtoms.length;
 
-    // Points from an Atom index to the Set of all Constraint indices it's involved in.
-    List<Set<Integer>> atomsToConstraints = new ArrayList<>(nAtoms);
+    // Compressed-sparse-row map from an Atom index to all Constraint indices it's involved in.
+    atomOffsets = new int[nAtoms + 1];
+    for (int i = 0; i < nConstraints; i++) {
+      atomOffsets[atoms1[i] + 1]++;
+      atomOffsets[atoms2[i] + 1]++;
+    }
     for (int i = 0; i < nAtoms; i++) {
-      // Can assume 4 constraints max, since CHONPS is rarely bonded to 5+ atoms.
-      atomsToConstraints.add(new HashSet<>(4));
+      atomOffsets[i + 1] += atomOffsets[i];
+    }
+    atomConstraints = new int[2 * nConstraints];
+    int[] fill = Arrays.copyOf(atomOffsets, nAtoms);
+    for (int i = 0; i < nConstraints; i++) {
+      atomConstraints[fill[atoms1[i]]++] = i;
+      atomConstraints[fill[atoms2[i]]++] = i;
     }
 
+    // Split the constraints into connected components (molecules or rigid groups); constraints in
+    // different components are not coupled, so K and its inverse are block diagonal.
+    int[] parent = IntStream.range(0, nConstraints).toArray();
+    for (int atom = 0; atom < nAtoms; atom++) {
+      for (int k = atomOffsets[atom] + 1; k < atomOffsets[atom + 1]; k++) {
+        union(parent, atomConstraints[atomOffsets[atom]], atomConstraints[k]);
+      }
+    }
+    int[] blockOf = new int[nConstraints];
+    int[] blockSizes = new int[nConstraints];
+    int nBlocks = 0;
+    for (int i = 0; i < nConstraints; i++) {
+      int root = find(parent, i);
+      if (root == i) {
+        blockOf[i] = nBlocks++;
+      }
+    }
+    // Position of each constraint within its block.
+    int[] localIndex = new int[nConstraints];
     for (int i = 0; i < nConstraints; i++) {
-      atomsToConstraints.get(atoms1[i]).add(i);
-      atomsToConstraints.get(atoms2[i]).add(i);
+      int block = blockOf[find(parent, i)];
+      blockOf[i] = block;
+      localIndex[i] = blockSizes[block]++;
+    }
+    int[][] blocks = new int[nBlocks][];
+    for (int b = 0; b < nBlocks; b++) {
+      blocks[b] = new int[blockSizes[b]];
     }
+    for (int i = 0; i < nConstraints; i++) {
+      blocks[blockOf[i]][localIndex[i]] = i;
+    }
+    int largestBlock = Arrays.stream(blockSizes, 0, nBlocks).max().orElse(0);
 
     logger.info(
-        String.format(" Initial CCMA setup: %10.6g sec", 1.0E-9 * (time + System.nanoTime())));
+        String.format(
+            " Initial CCMA setup: %10.6g sec (%d blocks, largest %d constraints)",
+            1.0E-9 * (time + System.nanoTime()), nBlocks, largestBlock));
     long subTime = -System.nanoTime();
 
+    // Construct and invert each block of K separately; blocks are independent.
+    double[][][] blockInverses = new double[nBlocks][][];
+    IntStream.range(0, nBlocks)
+        .parallel()
+        .forEach(
+            (int b) -> {
+              int[] members = blocks[b];
+              int m = members.length;
+              if (m == 1) {
+                blockInverses[b] = new double[][] {{1.0}};
+                return;
+              }
+              double[][] k = new double[m][m];
+              for (int r = 0; r < m; r++) {
+                fillCouplings(members[r], r, k[r], localIndex, allAtoms, masses);
+              }
+              RealMatrix kInv =
+                  new LUDecomposition(new Array2DRowRealMatrix(k, false)).getSolver().getInverse();
+              blockInverses[b] = kInv.getData();
+            });
+
+    subTime += System.nanoTime();
+    logger.info(String.format(" Time to construct and invert K: %10.6g sec", 1.0E-9 * subTime));
+
+    // Keep elements of K-1 larger than the cutoff (and the diagonal) in compressed-sparse-row form.
+    rowOffsets = new int[nConstraints + 1];
+    for (int b = 0; b < nBlocks; b++) {
+      int[] members = blocks[b];
+      double[][] kInv = blockInverses[b];
+      for (int r = 0; r < members.length; r++) {
+        int count = 0;
+        for (int c = 0; c < members.length; c++) {
+          if (r == c || Math.abs(kInv[r][c]) > elementCutoff) {
+            count++;
+          }
+        }
+        rowOffsets[members[r] + 1] = count;
+      }
+    }
     for (int i = 0; i < nConstraints; i++) {
-      int atomi0 = atoms1[i];
-      int atomi1 = atoms2[i];
-      // DO YOU HAVE ANY IDEA HOW LONG IT TOOK FOR ME TO REALIZE MASSES WERE XYZ-INDEXED?
-      double invMassI0 = 1.0 / masses[atomi0 * 3];
-      double invMassI1 = 1.0 / masses[atomi1 * 3];
-      double sumInv = invMassI0 + invMassI1;
-
-      // Indices of all Constraints that involve either atomi0 or atomi1.
-      Set<Integer> coupledConstraints = new HashSet<>(atomsToConstraints.get(atomi0));
-      coupledConstraints.addAll(atomsToConstraints.get(atomi1));
-
-      // Iterate over all coupled Constraints, sharing at least one common Atom with constraint i.
-      for (int j : coupledConstraints) {
-        // Diagonal element, coupling is obviously 1.0.
+      rowOffsets[i + 1] += rowOffsets[i];
+    }
+    columns = new int[rowOffsets[nConstraints]];
+    kInvValues = new double[rowOffsets[nConstraints]];
+    for (int b = 0; b < nBlocks; b++) {
+      int[] members = blocks[b];
+      double[][] kInv = blockInverses[b];
+      for (int r = 0; r < members.length; r++) {
+        int index = rowOffsets[members[r]];
+        for (int c = 0; c < members.length; c++) {
+          if (r == c || Math.abs(kInv[r][c]) > elementCutoff) {
+            columns[index] = members[c];
+            kInvValues[index++] = kInv[r][c];
+          }
+        }
+      }
+      blockInverses[b] = null;
+    }
+    logger.fine(
+        String.format(
+            " Kept %d of %d block elements of K-1.",
+            kInvValues.length,
+            Arrays.stream(blockSizes, 0, nBlocks).mapToLong((int m) -> (long) m * m).sum()));
+
+    reducedMasses = new double[nConstraints];
+    for (int i = 0; i < nConstraints; i++) {
+      int atI = atoms1[i];
+      atI *= 3; // The mass array is XYZ-indexed, not atom-indexed.
+      int atJ = atoms2[i];
+      atJ *= 3;
+      double invMassI = 1.0 / masses[atI];
+      double invMassJ = 1.0 / masses[atJ];
+      reducedMasses[i] = 0.5 / (invMassI + invMassJ);
+    }
+
+    rij = new double[3 * nConstraints];
+    dij2 = new double[nConstraints];
+    constraintDelta = new double[nConstraints];
+    tempDelta = new double[nConstraints];
+  }
+
+  /**
+   * Find the root of a constraint in a union-find forest, compressing the path.
+   *
+   * @param parent Parent of each constraint.
+   * @param i A constraint index.
+   * @return The root of its component.
+   */
+  private static int find(int[] parent, int i) {
+    while (parent[i] != i) {
+      parent[i] = parent[parent[i]];
+      i = parent[i];
+    }
+    return i;
+  }
+
+  /**
+   * Merge the components containing two constraints.
+   *
+   * @param parent Parent of each constraint.
+   * @param i A constraint index.
+   * @param j Another constraint index.
+   */
+  private static void union(int[] parent, int i, int j) {
+    int rootI = find(parent, i);
+    int rootJ = find(parent, j);
+    if (rootI != rootJ) {
+      parent[Math.max(rootI, rootJ)] = Math.min(rootI, rootJ);
+    }
+  }
+
+  /**
+   * Fill in row i of K: the coupling of constraint i to every constraint sharing an atom with it.
+   *
+   * @param i Constraint index.
+   * @param r Position of constraint i within its block.
+   * @param row Row of the block of K to fill.
+   * @param localIndex Position of each constraint within its block.
+   * @param allAtoms All Atoms of the system.
+   * @param masses All masses of the system (XYZ-indexed).
+   */
+  private void fillCouplings(
+      int i, int r, double[] row, int[] localIndex, Atom[] allAtoms, double[] masses) {
+    int atomi0 = atoms1[i];
+    int atomi1 = atoms2[i];
+    // DO YOU HAVE ANY IDEA HOW LONG IT TOOK FOR ME TO REALIZE MASSES WERE XYZ-INDEXED?
+    double invMassI0 = 1.0 / masses[atomi0 * 3];
+    double invMassI1 = 1.0 / masses[atomi1 * 3];
+    double sumInv = invMassI0 + invMassI1;
+
+    // Diagonal element, coupling is obviously 1.0.
+    row[r] = 1.0;
+
+    // Iterate over all coupled Constraints, sharing at least one common Atom with constraint i.
+    for (int shared = 0; shared < 2; shared++) {
+      int atom = (shared == 0) ? atomi0 : atomi1;
+      for (int n = atomOffsets[atom]; n < atomOffsets[atom + 1]; n++) {
+        int j = atomConstraints[n];
         if (i == j) {
-          kSparse.setEntry(i, j, 1.0);
           continue;
         }
 
-        double scale;
         int atomj0 = atoms1[j];
         int atomj1 = atoms2[j];
         int atoma; // Atom unique to constraint i.
         int atomb; // Atom shared between both constraints.
         int atomc; // Atom unique to constraint j.
-
-        if (atomi0 == atomj0) {
-          assert atomi1 != atomj1;
-          atoma = atomi1;
-          atomb = atomi0;
-          atomc = atomj1;
-          scale = invMassI0 / sumInv;
-        } else if (atomi0 == atomj1) {
-          assert atomi1 != atomj0;
+        double scale;
+        if (atom == atomi0) {
           atoma = atomi1;
           atomb = atomi0;
-          atomc = atomj0;
           scale = invMassI0 / sumInv;
-        } else if (atomi1 == atomj0) {
-          // Yes IntelliJ, it should always be true. That's why I'm asserting it.
-          assert atomi0 != atomj1;
+        } else {
           atoma = atomi0;
           atomb = atomi1;
-          atomc = atomj1;
-          scale = invMassI1 / sumInv;
-        } else if (atomi1 == atomj1) {
-          assert atomi0 != atomj0;
-          atoma = atomi1;
-          atomb = atomi0;
-          atomc = atomj1;
           scale = invMassI1 / sumInv;
-        } else {
-          throw new IllegalArgumentException(
-              " Despite by necessity sharing an atom, these constraints don't share an atom.");
+        }
+        atomc = (atomj0 == atomb) ? atomj1 : atomj0;
+        if (atomc == atoma) {
+          // Duplicate constraints on the same pair of atoms; they are coupled through both.
+          continue;
         }
 
         // We now have a pair of constraints a-b b-c. Find the a-b-c angle.
 
         // Search for a constraint a-c that closes the triangle.
         boolean foundAngle = false;
-        for (int constraintK : atomsToConstraints.get(atoma)) {
+        for (int m = atomOffsets[atoma]; m < atomOffsets[atoma + 1]; m++) {
+          int constraintK = atomConstraints[m];
           if (atoms1[constraintK] == atomc || atoms2[constraintK] == atomc) {
             double dab = lengths[i];
             double dbc = lengths[j];
@@ -212,8 +365,7 @@ public class CcmaConstraint implements Constraint {
             angle /= (2 * dab * dbc);
             // The angle is formally the cosine of its current value, but all we need is that
             // cosine.
-            double coupling = scale * angle;
-            kSparse.setEntry(i, j, coupling);
+            row[localIndex[j]] = scale * angle;
             foundAngle = true;
             break;
           }
@@ -226,70 +378,17 @@ public class CcmaConstraint implements Constraint {
           Atom atB = allAtoms[atomb];
           Atom atC = allAtoms[atomc];
           Angle angleB = atA.getAngle(atB, atC);
+          if (angleB == null) {
+            logger.severe(
+                String.format(
+                    " Could not find the angle between coupled constraints %d, %d", i, j));
+            continue;
+          }
           double angVal = angleB.angleType.angle[angleB.nh];
-          double coupling = scale * FastMath.cos(FastMath.toRadians(angVal));
-          kSparse.setEntry(i, j, coupling);
-          foundAngle = true;
-        }
-
-        if (!foundAngle) {
-          logger.severe(
-              String.format(" Could not find the angle between coupled constraints %d, %d", i, j));
+          row[localIndex[j]] = scale * FastMath.cos(FastMath.toRadians(angVal));
         }
       }
     }
-
-    subTime += System.nanoTime();
-    logger.info(
-        String.format(" Time to construct K as a sparse matrix: %10.6g sec", 1.0E-9 * subTime));
-
-    // K is constructed. Invert it.
-    // TODO: Find a fast way to invert sparse matrices, since this is at least O(n^2).
-    subTime = -System.nanoTime();
-    QRDecomposition qrd = new QRDecomposition(kSparse);
-    RealMatrix kInvDense = qrd.getSolver().getInverse();
-    subTime += System.nanoTime();
-    logger.info(String.format(" Time to invert K: %10.6g sec", 1.0E-9 * subTime));
-    subTime = -System.nanoTime();
-
-    kInvSparse = new OpenMapRealMatrix(nConstraints, nConstraints);
-    IntStream.range(0, nConstraints)
-        .
-        // parallel(). // I have no idea if OpenMapRealMatrix is thread-safe.
-        forEach(
-            (int i) -> {
-              double[] rowI = kInvDense.getRow(i);
-              for (int j = 0; j < nConstraints; j++) {
-                double val = rowI[j];
-                if (Math.abs(val) > elementCutoff) {
-                  kInvSparse.setEntry(i, j, val);
-                }
-              }
-            });
-
-    // TODO: Delete this block.
-    double[][] dataDense = kInvDense.getData();
-    double[][] dataSparse = kInvSparse.getData();
-    logger.fine(" Dense array:");
-    for (int i = 0; i < nConstraints; i++) {
-      logger.fine(Arrays.toString(dataDense[i]));
-    }
-    logger.fine(" Sparse array:");
-    for (int i = 0; i < nConstraints; i++) {
-      logger.fine(Arrays.toString(dataSparse[i]));
-    }
-
-    // TODO: Actually do this.
-    reducedMasses = new double[nConstraints];
-    for (int i = 0; i < nConstraints; i++) {
-      int atI = atoms1[i];
-      atI *= 3; // The mass array is XYZ-indexed, not atom-indexed.
-      int atJ = atoms2[i];
-      atJ *= 3;
-      double invMassI = 1.0 / masses[atI];
-      double invMassJ = 1.0 / masses[atJ];
-      reducedMasses[i] = 0.5 / (invMassI + invMassJ);
-    }
   }
 
   /**
@@ -360,6 +459,22 @@ public class CcmaConstraint implements Constraint {
     return nConstraints;
   }
 
+  /**
+   * Expand the truncated inverse of K into a dense matrix. Constraints are ordered as the
+   * constrained bonds followed by three constraints per constrained angle.
+   *
+   * @return The truncated inverse of K, with zeros for elements that were not kept.
+   */
+  double[][] getKInverse() {
+    double[][] kInv = new double[nConstraints][nConstraints];
+    for (int i = 0; i < nConstraints; i++) {
+      for (int k = rowOffsets[i]; k < rowOffsets[i + 1]; k++) {
+        kInv[i][columns[k]] = kInvValues[k];
+      }
+    }
+    return kInv;
+  }
+
   /**
    * Much of the math for applying to coordinates/velocities is the same. As such, OpenMM just uses
    * a single driver method with a flag to indicate velocities or positions.
@@ -375,122 +490,85 @@ public class CcmaConstraint implements Constraint {
     if (xPrior == output) {
       throw new IllegalArgumentException(" xPrior and output must be different arrays!");
     }
-    long time = -System.nanoTime();
-
-    /*// Distance vector for all constraints. TODO: Flatten to 1D array.
-    double[][] r_ij = new double[nConstraints][3];
-    // Distance magnitude for all constraints.
-    double[] d_ij = new double[nConstraints];
-    // Squared distance magnitude for all constraints.
-    double[] d_ij2 = new double[nConstraints];
 
     for (int i = 0; i < nConstraints; i++) {
-        int atom1 = 3 * atoms1[i];
-        int atom2 = 3 * atoms2[i];
-        for (int j = 0; j < 3; j++) {
-            r_ij[i][j] = xPrior[atom1 + j] - xPrior[atom2 + j];
-        }
-        d_ij2[i] = VectorMath.dot(r_ij[i], r_ij[i]);
+      int atom1 = 3 * atoms1[i];
+      int atom2 = 3 * atoms2[i];
+      int i3 = 3 * i;
+      double d2 = 0.0;
+      for (int j = 0; j < 3; j++) {
+        double r = xPrior[atom1 + j] - xPrior[atom2 + j];
+        rij[i3 + j] = r;
+        d2 += r * r;
+      }
+      dij2[i] = d2;
     }
 
-    double lowerTol = 1 - 2*tol + tol*tol;
-    // TODO: Determine if adding tol+tol to upperTol is a typo in OpenMM. Also why they do it in the first place.
-    double upperTol = 1 + 2*tol + tol*tol;
-
-    int nConverged = 0;
-    double[] constraintDelta = new double[nConstraints];
-    double[] tempDelta = new double[nConstraints];
+    double lowerTol = 1 - 2 * tol + tol * tol;
+    double upperTol = 1 + 2 * tol + tol * tol;
 
     // Main CCMA loop.
     for (int constraintIter = 0; constraintIter <= maxIters; constraintIter++) {
-        if (constraintIter >= maxIters) {
-            throw new IllegalArgumentException(String.format(" CCMA constraint failed to converge in %d iterations!", maxIters));
-        }
-        nConverged = 0;
-        double rmsd = 0;
-        for (int i = 0; i < nConstraints; i++) {
-            int atom1 = atoms1[i] * 3;
-            int atom2 = atoms2[i] * 3;
-
-            // Separation vector I-J at this iteration.
-            double[] rp_ij = new double[3];
-            for (int j = 0; j < 3; j++) {
-                rp_ij[j] = output[atom1 + j] - output[atom2 + j];
-            }
-            if (constrainV) {
-                double rrpr = VectorMath.dot(rp_ij, r_ij[i]);
-                constraintDelta[i] = -2 * reducedMasses[i] * rrpr / d_ij2[i];
-                if (Math.abs(constraintDelta[i]) <= tol) {
-                    ++nConverged;
-                }
-            } else {
-                double rp2 = VectorMath.dot(rp_ij, rp_ij);
-                double dist2 = lengths[i] * lengths[i];
-                double diff = dist2 - rp2;
-                double rrpr = VectorMath.dot(rp_ij, r_ij[i]);
-                constraintDelta[i] = reducedMasses[i] * diff / rrpr;
-                if (rp2 >= lowerTol * dist2 && rp2 <= upperTol * dist2) {
-                    ++nConverged;
-                }
-            }
+      if (constraintIter >= maxIters) {
+        throw new IllegalArgumentException(
+            String.format(" CCMA constraint failed to converge in %d iterations!", maxIters));
+      }
+      int nConverged = 0;
+      for (int i = 0; i < nConstraints; i++) {
+        int atom1 = 3 * atoms1[i];
+        int atom2 = 3 * atoms2[i];
+        int i3 = 3 * i;
+
+        // Separation vector I-J at this iteration.
+        double rp0 = output[atom1] - output[atom2];
+        double rp1 = output[atom1 + 1] - output[atom2 + 1];
+        double rp2 = output[atom1 + 2] - output[atom2 + 2];
+        double rrpr = rp0 * rij[i3] + rp1 * rij[i3 + 1] + rp2 * rij[i3 + 2];
+        if (constrainV) {
+          constraintDelta[i] = -2 * reducedMasses[i] * rrpr / dij2[i];
+          if (Math.abs(constraintDelta[i]) <= tol) {
+            ++nConverged;
+          }
+        } else {
+          double rpSquared = rp0 * rp0 + rp1 * rp1 + rp2 * rp2;
+          double dist2 = lengths[i] * lengths[i];
+          double diff = dist2 - rpSquared;
+          constraintDelta[i] = reducedMasses[i] * diff / rrpr;
+          if (rpSquared >= lowerTol * dist2 && rpSquared <= upperTol * dist2) {
+            ++nConverged;
+          }
         }
+      }
 
-        // Test if the last iteration satisfied all constraints.
-        if (nConverged == nConstraints) {
-            break;
-        }
+      // Test if the last iteration satisfied all constraints.
+      if (nConverged == nConstraints) {
+        break;
+      }
 
-        if (kInvSparse != null) {
-            for (int i = 0; i < nConstraints; i++) {
-                RealVector row = kInvSparse.getRowVector(i);
-                RealVectorPreservingVisitor neo = new MatrixWalker(constraintDelta);
-                double sum = row.walkInOptimizedOrder(neo);
-                tempDelta[i] = sum;
-            }
-            System.arraycopy(tempDelta, 0, constraintDelta, 0, nConstraints);
-        }
-        for (int i = 0; i < nConstraints; i++) {
-            int atom1 = atoms1[i];
-            int atom2 = atoms2[i];
-            int at13 = 3 * atom1;
-            int at23 = 3 * atom2;
-
-            double[] dr = new double[3];
-            VectorMath.scalar(r_ij[i], constraintDelta[i], dr);
-            for (int j = 0; j < 3; j++) {
-                output[at13 + j] = dr[j] / masses[at13];
-                output[at23 + j] = dr[j] / masses[at23];
-            }
+      // Couple the constraints through the truncated inverse of K.
+      for (int i = 0; i < nConstraints; i++) {
+        double sum = 0.0;
+        for (int k = rowOffsets[i]; k < rowOffsets[i + 1]; k++) {
+          sum += kInvValues[k] * constraintDelta[columns[k]];
         }
-        logger.info(String.format(" %d converged at iteration %d", nConverged, constraintIter));
-    }
-    time += System.nanoTime();
-    logger.info(String.format(" Application of CCMA constraint: %10.4g sec", (time * 1.0E-9)));*/
-  }
-
-  private static class MatrixWalker implements RealVectorPreservingVisitor {
-
-    private final double[] constraintDelta; // DO NOT MODIFY.
-    private double sum = 0.0;
-
-    MatrixWalker(final double[] cDelta) {
-      constraintDelta = cDelta;
-    }
-
-    /** {@inheritDoc} */
-    @Override
-    public double end() {
-      return sum;
-    }
-
-    /** {@inheritDoc} */
-    @Override
-    public void start(int dimension, int start, int end) {}
+        tempDelta[i] = sum;
+      }
+      double[] swap = constraintDelta;
+      constraintDelta = tempDelta;
+      tempDelta = swap;
 
-    /** {@inheritDoc} */
-    @Override
-    public void visit(int index, double value) {
-      sum += (value * constraintDelta[index]);
+      for (int i = 0; i < nConstraints; i++) {
+        int atom1 = 3 * atoms1[i];
+        int atom2 = 3 * atoms2[i];
+        int i3 = 3 * i;
+        double invMass1 = 1.0 / masses[atom1];
+        double invMass2 = 1.0 / masses[atom2];
+        for (int j = 0; j < 3; j++) {
+          double dr = rij[i3 + j] * constraintDelta[i];
+          output[atom1 + j] += dr * invMass1;
+          output[atom2 + j] -= dr * invMass2;
+        }
+      }
     }
   }
 }
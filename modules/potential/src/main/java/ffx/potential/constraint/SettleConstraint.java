@@ -161,6 +161,30 @@ public class SettleConstraint implements Constraint {
   @Override
   public void applyConstraintToStep(
       final double[] xPrior, double[] xNew, final double[] masses, double tol) {
+    settlePositions(xPrior, xNew, masses, index0, index1, index2, distance1, distance2);
+  }
+
+  /**
+   * Apply SETTLE to the new positions of one rigid triatomic molecule.
+   *
+   * @param xPrior Coordinates before the step.
+   * @param xNew Unconstrained coordinates after the step (updated in place).
+   * @param masses Masses (XYZ-indexed).
+   * @param index0 Index of the central atom.
+   * @param index1 Index of the first outer atom.
+   * @param index2 Index of the second outer atom.
+   * @param distance1 Distance from the central atom to each outer atom.
+   * @param distance2 Distance between the outer atoms.
+   */
+  static void settlePositions(
+      final double[] xPrior,
+      double[] xNew,
+      final double[] masses,
+      int index0,
+      int index1,
+      int index2,
+      double distance1,
+      double distance2) {
     // Ported from OpenMM's ReferenceSETTLEAlgorithm.cpp
     // Pulled from OpenMM commit a783b996fc42d023ebfd17c5591508da01dde03a
 
@@ -170,23 +194,26 @@ public class SettleConstraint implements Constraint {
     int xi2 = 3 * index2;
 
     // Initial positions of the constrained atoms.
-    double[] apos0 = new double[3];
-    double[] apos1 = new double[3];
-    double[] apos2 = new double[3];
+    double apos0x = xPrior[xi0];
+    double apos0y = xPrior[xi0 + 1];
+    double apos0z = xPrior[xi0 + 2];
+    double apos1x = xPrior[xi1];
+    double apos1y = xPrior[xi1 + 1];
+    double apos1z = xPrior[xi1 + 2];
+    double apos2x = xPrior[xi2];
+    double apos2y = xPrior[xi2 + 1];
+    double apos2z = xPrior[xi2 + 2];
 
     // Deltas from the original state (xPrior) to the partially calculated new state (xNew).
-    double[] xp0 = new double[3];
-    double[] xp1 = new double[3];
-    double[] xp2 = new double[3];
-
-    for (int i = 0; i < 3; i++) {
-      apos0[i] = xPrior[xi0 + i];
-      xp0[i] = xNew[xi0 + i] - apos0[i];
-      apos1[i] = xPrior[xi1 + i];
-      xp1[i] = xNew[xi1 + i] - apos1[i];
-      apos2[i] = xPrior[xi2 + i];
-      xp2[i] = xNew[xi2 + i] - apos2[i];
-    }
+    double xp0x = xNew[xi0] - apos0x;
+    double xp0y = xNew[xi0 + 1] - apos0y;
+    double xp0z = xNew[xi0 + 2] - apos0z;
+    double xp1x = xNew[xi1] - apos1x;
+    double xp1y = xNew[xi1 + 1] - apos1y;
+    double xp1z = xNew[xi1 + 2] - apos1z;
+    double xp2x = xNew[xi2] - apos2x;
+    double xp2y = xNew[xi2 + 1] - apos2y;
+    double xp2z = xNew[xi2 + 2] - apos2z;
 
     double m0 = masses[xi0];
     double m1 = masses[xi1];
@@ -194,27 +221,27 @@ public class SettleConstraint implements Constraint {
 
     // Apply the SETTLE algorithm.
 
-    double xb0 = apos1[0] - apos0[0];
-    double yb0 = apos1[1] - apos0[1];
-    double zb0 = apos1[2] - apos0[2];
-    double xc0 = apos2[0] - apos0[0];
-    double yc0 = apos2[1] - apos0[1];
-    double zc0 = apos2[2] - apos0[2];
+    double xb0 = apos1x - apos0x;
+    double yb0 = apos1y - apos0y;
+    double zb0 = apos1z - apos0z;
+    double xc0 = apos2x - apos0x;
+    double yc0 = apos2y - apos0y;
+    double zc0 = apos2z - apos0z;
 
     double invTotalMass = 1 / (m0 + m1 + m2);
-    double xcom = (xp0[0] * m0 + (xb0 + xp1[0]) * m1 + (xc0 + xp2[0]) * m2) * invTotalMass;
-    double ycom = (xp0[1] * m0 + (yb0 + xp1[1]) * m1 + (yc0 + xp2[1]) * m2) * invTotalMass;
-    double zcom = (xp0[2] * m0 + (zb0 + xp1[2]) * m1 + (zc0 + xp2[2]) * m2) * invTotalMass;
-
-    double xa1 = xp0[0] - xcom;
-    double ya1 = xp0[1] - ycom;
-    double za1 = xp0[2] - zcom;
-    double xb1 = xb0 + xp1[0] - xcom;
-    double yb1 = yb0 + xp1[1] - ycom;
-    double zb1 = zb0 + xp1[2] - zcom;
-    double xc1 = xc0 + xp2[0] - xcom;
-    double yc1 = yc0 + xp2[1] - ycom;
-    double zc1 = zc0 + xp2[2] - zcom;
+    double xcom = (xp0x * m0 + (xb0 + xp1x) * m1 + (xc0 + xp2x) * m2) * invTotalMass;
+    double ycom = (xp0y * m0 + (yb0 + xp1y) * m1 + (yc0 + xp2y) * m2) * invTotalMass;
+    double zcom = (xp0z * m0 + (zb0 + xp1z) * m1 + (zc0 + xp2z) * m2) * invTotalMass;
+
+    double xa1 = xp0x - xcom;
+    double ya1 = xp0y - ycom;
+    double za1 = xp0z - zcom;
+    double xb1 = xb0 + xp1x - xcom;
+    double yb1 = yb0 + xp1y - ycom;
+    double zb1 = zb0 + xp1z - zcom;
+    double xc1 = xc0 + xp2x - xcom;
+    double yc1 = yc0 + xp2y - ycom;
+    double zc1 = zc0 + xp2z - zcom;
 
     double xaksZd = yb0 * zc0 - zb0 * yc0;
     double yaksZd = zb0 * xc0 - xb0 * zc0;
@@ -305,26 +332,36 @@ public class SettleConstraint implements Constraint {
     double yc3 = trns21 * xc3d + trns22 * yc3d + trns23 * zc3d;
     double zc3 = trns31 * xc3d + trns32 * yc3d + trns33 * zc3d;
 
-    xp0[0] = xcom + xa3;
-    xp0[1] = ycom + ya3;
-    xp0[2] = zcom + za3;
-    xp1[0] = xcom + xb3 - xb0;
-    xp1[1] = ycom + yb3 - yb0;
-    xp1[2] = zcom + zb3 - zb0;
-    xp2[0] = xcom + xc3 - xc0;
-    xp2[1] = ycom + yc3 - yc0;
-    xp2[2] = zcom + zc3 - zc0;
-
-    for (int i = 0; i < 3; i++) {
-      xNew[xi0 + i] = xp0[i] + apos0[i];
-      xNew[xi1 + i] = xp1[i] + apos1[i];
-      xNew[xi2 + i] = xp2[i] + apos2[i];
-    }
+    xNew[xi0] = xcom + xa3 + apos0x;
+    xNew[xi0 + 1] = ycom + ya3 + apos0y;
+    xNew[xi0 + 2] = zcom + za3 + apos0z;
+    xNew[xi1] = xcom + xb3 - xb0 + apos1x;
+    xNew[xi1 + 1] = ycom + yb3 - yb0 + apos1y;
+    xNew[xi1 + 2] = zcom + zb3 - zb0 + apos1z;
+    xNew[xi2] = xcom + xc3 - xc0 + apos2x;
+    xNew[xi2 + 1] = ycom + yc3 - yc0 + apos2y;
+    xNew[xi2 + 2] = zcom + zc3 - zc0 + apos2z;
   }
 
   @Override
   public void applyConstraintToVelocities(
       final double[] x, double[] v, final double[] masses, double tol) {
+    settleVelocities(x, v, masses, index0, index1, index2);
+  }
+
+  /**
+   * Remove the components of the velocities of one rigid triatomic molecule that would change its
+   * internal geometry.
+   *
+   * @param x Atomic coordinates (unchanged).
+   * @param v Velocities (updated in place).
+   * @param masses Masses (XYZ-indexed).
+   * @param index0 Index of the central atom.
+   * @param index1 Index of the first outer atom.
+   * @param index2 Index of the second outer atom.
+   */
+  static void settleVelocities(
+      final double[] x, double[] v, final double[] masses, int index0, int index1, int index2) {
     // Ported from OpenMM's ReferenceSETTLEAlgorithm.cpp
     // Pulled from OpenMM commit a783b996fc42d023ebfd17c5591508da01dde03a
 
@@ -333,52 +370,49 @@ public class SettleConstraint implements Constraint {
     int xi1 = 3 * index1;
     int xi2 = 3 * index2;
 
-    // Positions of the constrained atoms.
-    double[] apos0 = new double[3];
-    double[] apos1 = new double[3];
-    double[] apos2 = new double[3];
-
     // Pre-constraint velocities.
-    double[] v0 = new double[3];
-    double[] v1 = new double[3];
-    double[] v2 = new double[3];
-
-    for (int i = 0; i < 3; i++) {
-      apos0[i] = x[xi0 + i];
-      apos1[i] = x[xi1 + i];
-      apos2[i] = x[xi2 + i];
-    }
-
-    for (int i = 0; i < 3; i++) {
-      v0[i] = v[xi0 + i];
-      v1[i] = v[xi1 + i];
-      v2[i] = v[xi2 + i];
-    }
+    double v0x = v[xi0];
+    double v0y = v[xi0 + 1];
+    double v0z = v[xi0 + 2];
+    double v1x = v[xi1];
+    double v1y = v[xi1 + 1];
+    double v1z = v[xi1 + 2];
+    double v2x = v[xi2];
+    double v2y = v[xi2 + 1];
+    double v2z = v[xi2 + 2];
 
     double mA = masses[xi0];
     double mB = masses[xi1];
     double mC = masses[xi2];
 
-    double[] eAB = new double[3];
-    double[] eBC = new double[3];
-    double[] eCA = new double[3];
-    for (int i = 0; i < 3; i++) {
-      eAB[i] = apos1[i] - apos0[i];
-      eBC[i] = apos2[i] - apos1[i];
-      eCA[i] = apos0[i] - apos2[i];
-    }
-    DoubleMath.normalize(eAB, eAB);
-    DoubleMath.normalize(eBC, eBC);
-    DoubleMath.normalize(eCA, eCA);
-    /*eAB /= sqrt(eAB[0]*eAB[0] + eAB[1]*eAB[1] + eAB[2]*eAB[2]);
-    eBC /= sqrt(eBC[0]*eBC[0] + eBC[1]*eBC[1] + eBC[2]*eBC[2]);
-    eCA /= sqrt(eCA[0]*eCA[0] + eCA[1]*eCA[1] + eCA[2]*eCA[2]);*/
-    double vAB = (v1[0] - v0[0]) * eAB[0] + (v1[1] - v0[1]) * eAB[1] + (v1[2] - v0[2]) * eAB[2];
-    double vBC = (v2[0] - v1[0]) * eBC[0] + (v2[1] - v1[1]) * eBC[1] + (v2[2] - v1[2]) * eBC[2];
-    double vCA = (v0[0] - v2[0]) * eCA[0] + (v0[1] - v2[1]) * eCA[1] + (v0[2] - v2[2]) * eCA[2];
-    double cA = -(eAB[0] * eCA[0] + eAB[1] * eCA[1] + eAB[2] * eCA[2]);
-    double cB = -(eAB[0] * eBC[0] + eAB[1] * eBC[1] + eAB[2] * eBC[2]);
-    double cC = -(eBC[0] * eCA[0] + eBC[1] * eCA[1] + eBC[2] * eCA[2]);
+    // Unit vectors along each side of the triangle.
+    double eABx = x[xi1] - x[xi0];
+    double eABy = x[xi1 + 1] - x[xi0 + 1];
+    double eABz = x[xi1 + 2] - x[xi0 + 2];
+    double eBCx = x[xi2] - x[xi1];
+    double eBCy = x[xi2 + 1] - x[xi1 + 1];
+    double eBCz = x[xi2 + 2] - x[xi1 + 2];
+    double eCAx = x[xi0] - x[xi2];
+    double eCAy = x[xi0 + 1] - x[xi2 + 1];
+    double eCAz = x[xi0 + 2] - x[xi2 + 2];
+    double norm = 1.0 / sqrt(eABx * eABx + eABy * eABy + eABz * eABz);
+    eABx *= norm;
+    eABy *= norm;
+    eABz *= norm;
+    norm = 1.0 / sqrt(eBCx * eBCx + eBCy * eBCy + eBCz * eBCz);
+    eBCx *= norm;
+    eBCy *= norm;
+    eBCz *= norm;
+    norm = 1.0 / sqrt(eCAx * eCAx + eCAy * eCAy + eCAz * eCAz);
+    eCAx *= norm;
+    eCAy *= norm;
+    eCAz *= norm;
+    double vAB = (v1x - v0x) * eABx + (v1y - v0y) * eABy + (v1z - v0z) * eABz;
+    double vBC = (v2x - v1x) * eBCx + (v2y - v1y) * eBCy + (v2z - v1z) * eBCz;
+    double vCA = (v0x - v2x) * eCAx + (v0y - v2y) * eCAy + (v0z - v2z) * eCAz;
+    double cA = -(eABx * eCAx + eABy * eCAy + eABz * eCAz);
+    double cB = -(eABx * eBCx + eABy * eBCy + eABz * eBCz);
+    double cC = -(eBCx * eCAx + eBCy * eCAy + eBCz * eCAz);
     double s2A = 1 - cA * cA;
     double s2B = 1 - cB * cB;
     double s2C = 1 - cC * cC;
@@ -415,21 +449,15 @@ public class SettleConstraint implements Constraint {
     double invMA = 1.0 / mA;
     double invMB = 1.0 / mB;
     double invMC = 1.0 / mC;
-    for (int i = 0; i < 3; i++) {
-      v0[i] += (eAB[i] * tab - eCA[i] * tca) * invMA;
-      v1[i] += (eBC[i] * tbc - eAB[i] * tab) * invMB;
-      v2[i] += (eCA[i] * tca - eBC[i] * tbc) * invMC;
-    }
-    /*v0 += (eAB*tab - eCA*tca)*inverseMasses[atom1[index]];
-    v1 += (eBC*tbc - eAB*tab)*inverseMasses[atom2[index]];
-    v2 += (eCA*tca - eBC*tbc)*inverseMasses[atom3[index]];*/
-
-    System.arraycopy(v0, 0, v, xi0, 3);
-    System.arraycopy(v1, 0, v, xi1, 3);
-    System.arraycopy(v2, 0, v, xi2, 3);
-    /* velocities[atom1[index]] = v0;
-    velocities[atom2[index]] = v1;
-    velocities[atom3[index]] = v2; */
+    v[xi0] = v0x + (eABx * tab - eCAx * tca) * invMA;
+    v[xi0 + 1] = v0y + (eABy * tab - eCAy * tca) * invMA;
+    v[xi0 + 2] = v0z + (eABz * tab - eCAz * tca) * invMA;
+    v[xi1] = v1x + (eBCx * tbc - eABx * tab) * invMB;
+    v[xi1 + 1] = v1y + (eBCy * tbc - eABy * tab) * invMB;
+    v[xi1 + 2] = v1z + (eBCz * tbc - eABz * tab) * invMB;
+    v[xi2] = v2x + (eCAx * tca - eBCx * tbc) * invMC;
+    v[xi2 + 1] = v2y + (eCAy * tca - eBCy * tbc) * invMC;
+    v[xi2 + 2] = v2z + (eCAz * tca - eBCz * tbc) * invMC;
   }
 
   @Override
@@ -444,6 +472,33 @@ public class SettleConstraint implements Constraint {
 
   @Override
   public boolean constraintSatisfied(double[] x, double[] v, double xTol, double vTol) {
+    return settleSatisfied(x, v, xTol, vTol, index0, index1, index2, distance1, distance2);
+  }
+
+  /**
+   * Check whether one rigid triatomic molecule satisfies its constraints.
+   *
+   * @param x Input coordinates to check.
+   * @param v Input velocities to check. If null, velocity check disabled.
+   * @param xTol Numerical tolerance for bond lengths.
+   * @param vTol Numerical tolerance for velocity checks. If zero, velocity check disabled.
+   * @param index0 Index of the central atom.
+   * @param index1 Index of the first outer atom.
+   * @param index2 Index of the second outer atom.
+   * @param distance1 Distance from the central atom to each outer atom.
+   * @param distance2 Distance between the outer atoms.
+   * @return Whether the constraints are satisfied.
+   */
+  static boolean settleSatisfied(
+      final double[] x,
+      final double[] v,
+      double xTol,
+      double vTol,
+      int index0,
+      int index1,
+      int index2,
+      double distance1,
+      double distance2) {
     int xi0 = 3 * index0;
     int xi1 = 3 * index1;
     int xi2 = 3 * index2;
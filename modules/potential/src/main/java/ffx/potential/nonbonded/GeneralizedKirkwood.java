@@ -452,6 +452,9 @@ public class GeneralizedKirkwood implements LambdaInterface {
           index++;
         }
         GaussVol gaussVol = new GaussVol(nAtoms, radii, volume, gamma, isHydrogen, parallelTeam);
+        gaussVol.setIncremental(
+            forceField.getBoolean("GAUSSVOL_INCREMENTAL", true),
+            forceField.getDouble("GAUSSVOL_BUFFER", GaussVol.DEFAULT_INCREMENTAL_BUFFER));
         chandlerCavitation = new ChandlerCavitation(atoms, gaussVol, forceField);
         break;
       case BORN_CAV_DISP:
@@ -83,6 +83,10 @@ import java.util.logging.Logger;
  *       distances must be calculated by a factor of approximately: <br>
  *       <code>(4/3*Pi*Rcut^3)/(neighborCells*Vcell)</code> About 1/3 as many interactions are
  *       contained in the Verlet lists as in the neighboring cells.
+ *   <li>In the optional incremental mode (see {@link #setIncremental(boolean)}), per-cell atom
+ *       lists are kept between rebuilds and only the lists of atoms in cells near an atom that
+ *       moved are rebuilt. This suits moves that displace a handful of atoms (e.g. rotamer Monte
+ *       Carlo).
  * </ol>
  *
  * @author Michael J. Schnieders
@@ -216,6 +220,31 @@ public class NeighborList extends ParallelRegion {
   private boolean inactiveInteractions = true;
   /** Disable updates to the NeighborList; use with caution. */
   private boolean disableUpdates = false;
+  /**
+   * If true, only the lists of atoms near an atom that moved more than a quarter of the buffer are
+   * rebuilt. Pairs in the asymmetric unit are then owned by the atom with the lower index, which
+   * does not depend on the cell an atom is assigned to.
+   */
+  private boolean incremental = false;
+  /** The squared displacement that triggers a partial rebuild in incremental mode. */
+  private final double incrementalMotion2;
+  /** If true, the next call to buildList must rebuild all lists. */
+  private boolean stale = true;
+  /** If true, the NeighborListLoop rebuilds only the lists of the rebuildAtoms. */
+  private boolean partialRebuild = false;
+  /** The atoms whose lists are rebuilt during a partial rebuild. */
+  private int[] rebuildAtoms;
+  /** The number of lists to rebuild. */
+  private int nRebuild;
+  /** Atoms that moved far enough to trigger a partial rebuild. */
+  private int[] movedAtoms;
+  /** Flags the cells whose atoms are rebuilt during a partial rebuild. [nCell] */
+  private boolean[] rebuildCell;
+  /**
+   * The number of atoms each cell can hold before the cell list must be sorted again. In
+   * incremental mode each cell is allocated room for a few arriving atoms. [nSymm][nCell]
+   */
+  private int[][] cellCapacity;
 
   /**
    * Constructor for the NeighborList class.
@@ -247,6 +276,7 @@ public class NeighborList extends ParallelRegion {
     cutoffPlusBuffer = cutoff + buffer;
     cutoffPlusBuffer2 = cutoffPlusBuffer * cutoffPlusBuffer;
     motion2 = (buffer / 2.0) * (buffer / 2.0);
+    incrementalMotion2 = (buffer / 4.0) * (buffer / 4.0);
 
     // Initialize parallel constructs.
     threadCount = parallelTeam.getThreadCount();
@@ -315,30 +345,16 @@ public class NeighborList extends ParallelRegion {
     if (disableUpdates) {
       return;
     }
+    if (incremental && lists != this.lists) {
+      stale = true;
+    }
     this.coordinates = coordinates;
     this.lists = lists;
     this.use = use;
-    if (forceRebuild || motion()) {
-
-      // Save the current coordinates.
-      double[] current = coordinates[0];
-      for (int i = 0; i < nAtoms; i++) {
-        int i3 = i * 3;
-        int iX = i3 + XX;
-        int iY = i3 + YY;
-        int iZ = i3 + ZZ;
-        previous[iX] = current[iX];
-        previous[iY] = current[iY];
-        previous[iZ] = current[iZ];
-      }
-
-      assignAtomsToCells();
-      createNeighborList();
-      if (print) {
-        print();
-      }
-
-      pairwiseSchedule.updateRanges(sharedCount.get(), atomsWithIteractions, listCount);
+    if (forceRebuild || stale || (!incremental && motion())) {
+      rebuildAll(print);
+    } else if (incremental) {
+      rebuildMoved(print);
     }
   }
 
@@ -441,7 +457,7 @@ public class NeighborList extends ParallelRegion {
   @Override
   public void run() {
     try {
-      execute(0, nAtoms - 1, verletListLoop[getThreadIndex()]);
+      execute(0, nRebuild - 1, verletListLoop[getThreadIndex()]);
     } catch (Exception e) {
       String message =
           "Fatal exception building neighbor list in thread: " + getThreadIndex() + "\n";
@@ -471,6 +487,34 @@ public class NeighborList extends ParallelRegion {
     initNeighborList(false);
   }
 
+  /**
+   * Getter for the incremental field.
+   *
+   * @return If only the lists near moved atoms are rebuilt.
+   */
+  public boolean getIncremental() {
+    return incremental;
+  }
+
+  /**
+   * If incremental is true, per-cell atom lists are kept between rebuilds and only the lists of
+   * atoms in cells near an atom that moved more than a quarter of the buffer are rebuilt. Each atom
+   * is then within a quarter of the buffer of its reference position, so two positions of an atom
+   * since its last rebuild differ by at most half the buffer; this keeps every pair within the
+   * cutoff in the lists although lists are rebuilt at different times.
+   *
+   * <p>Rebuilds are triggered twice as early as the default mode, so this pays off when motion is
+   * local (e.g. rotamer moves) rather than spread over the whole system.
+   *
+   * @param incremental If true, rebuild only the lists near moved atoms.
+   */
+  public void setIncremental(boolean incremental) {
+    if (this.incremental != incremental) {
+      this.incremental = incremental;
+      stale = true;
+    }
+  }
+
   /**
    * Setter for the field <code>intermolecular</code>.
    *
@@ -557,6 +601,9 @@ public class NeighborList extends ParallelRegion {
     nAB = nA * nB;
     nCells = nAB * nC;
 
+    // The cells may have changed, so the next build cannot be incremental.
+    stale = true;
+
     if (print) {
       StringBuilder sb = new StringBuilder("  Neighbor List Builder\n");
       sb.append(format("   Sub-volumes:                        %8d\n", nCells));
@@ -681,77 +728,282 @@ public class NeighborList extends ParallelRegion {
   private void assignAtomsToCells() {
     for (int iSymm = 0; iSymm < nSymm; iSymm++) {
       final int[] cellIndexs = cellIndex[iSymm];
-      final int[] cellCounts = cellCount[iSymm];
-      final int[] cellStarts = cellStart[iSymm];
-      final int[] cellLists = cellList[iSymm];
-      final int[] cellOffsets = cellOffset[iSymm];
-      // Zero out the cell counts.
-      for (int i = 0; i < nCells; i++) {
-        cellCounts[i] = 0;
-      }
       // Convert to fractional coordinates.
       final double[] xyz = coordinates[iSymm];
       crystal.toFractionalCoordinates(nAtoms, xyz, frac);
       // Assign each atom to a cell using fractional coordinates.
       for (int i = 0; i < nAtoms; i++) {
-        int i3 = i * 3;
-        double xu = frac[i3 + XX];
-        double yu = frac[i3 + YY];
-        double zu = frac[i3 + ZZ];
-        // Move the atom into the range 0.0 <= x < 1.0
-        while (xu < 0.0) {
-          xu += 1.0;
-        }
-        while (xu >= 1.0) {
-          xu -= 1.0;
-        }
-        while (yu < 0.0) {
-          yu += 1.0;
-        }
-        while (yu >= 1.0) {
-          yu -= 1.0;
-        }
-        while (zu < 0.0) {
-          zu += 1.0;
-        }
-        while (zu >= 1.0) {
-          zu -= 1.0;
-        }
-        // The cell indices of this atom.
-        final int a = (int) floor(xu * nA);
-        final int b = (int) floor(yu * nB);
-        final int c = (int) floor(zu * nC);
-        if (iSymm == 0) {
-          cellA[i] = a;
-          cellB[i] = b;
-          cellC[i] = c;
+        cellIndexs[i] = findCell(iSymm, i);
+      }
+      sortCells(iSymm);
+    }
+  }
+
+  /**
+   * Move atoms that changed cells since the last call into their new cells, leaving the other atoms
+   * in place. If a cell runs out of room, the cell list of that symmetry operator is sorted again.
+   */
+  private void updateCells() {
+    for (int iSymm = 0; iSymm < nSymm; iSymm++) {
+      final int[] cellIndexs = cellIndex[iSymm];
+      final int[] cellCounts = cellCount[iSymm];
+      final int[] cellStarts = cellStart[iSymm];
+      final int[] cellLists = cellList[iSymm];
+      final int[] cellOffsets = cellOffset[iSymm];
+      final int[] cellCapacities = cellCapacity[iSymm];
+      crystal.toFractionalCoordinates(nAtoms, coordinates[iSymm], frac);
+      boolean overflow = false;
+      for (int i = 0; i < nAtoms; i++) {
+        final int index = findCell(iSymm, i);
+        final int old = cellIndexs[i];
+        if (index == old) {
+          continue;
         }
-        // The cell index of this atom.
-        final int index = a + b * nA + c * nAB;
+        // Remove the atom from its old cell by moving the last atom of that cell into its slot.
+        final int last = cellLists[cellStarts[old] + --cellCounts[old]];
+        cellLists[cellStarts[old] + cellOffsets[i]] = last;
+        cellOffsets[last] = cellOffsets[i];
         cellIndexs[i] = index;
-        // The offset of this atom from the beginning of the cell.
-        cellOffsets[i] = cellCounts[index]++;
+        // Append the atom to its new cell if there is room.
+        if (cellCounts[index] < cellCapacities[index]) {
+          cellOffsets[i] = cellCounts[index]++;
+          cellLists[cellStarts[index] + cellOffsets[i]] = i;
+        } else {
+          overflow = true;
+        }
       }
-      // Define the starting indices.
-      cellStarts[0] = 0;
-      for (int i = 1; i < nCells; i++) {
-        final int i1 = i - 1;
-        cellStarts[i] = cellStarts[i1] + cellCounts[i1];
+      if (overflow) {
+        sortCells(iSymm);
       }
-      // Move atom locations into a list ordered by cell.
-      for (int i = 0; i < nAtoms; i++) {
-        final int index = cellIndexs[i];
-        cellLists[cellStarts[index]++] = i;
+    }
+  }
+
+  /**
+   * Find the cell of an atom from its fractional coordinates, which must be loaded into the frac
+   * array. The cell indices along each axis are saved for atoms of the asymmetric unit.
+   *
+   * @param iSymm The symmetry operator.
+   * @param i The atom index.
+   * @return The cell index.
+   */
+  private int findCell(int iSymm, int i) {
+    int i3 = i * 3;
+    double xu = frac[i3 + XX];
+    double yu = frac[i3 + YY];
+    double zu = frac[i3 + ZZ];
+    // Move the atom into the range 0.0 <= x < 1.0
+    while (xu < 0.0) {
+      xu += 1.0;
+    }
+    while (xu >= 1.0) {
+      xu -= 1.0;
+    }
+    while (yu < 0.0) {
+      yu += 1.0;
+    }
+    while (yu >= 1.0) {
+      yu -= 1.0;
+    }
+    while (zu < 0.0) {
+      zu += 1.0;
+    }
+    while (zu >= 1.0) {
+      zu -= 1.0;
+    }
+    // The cell indices of this atom.
+    final int a = (int) floor(xu * nA);
+    final int b = (int) floor(yu * nB);
+    final int c = (int) floor(zu * nC);
+    if (iSymm == 0) {
+      cellA[i] = a;
+      cellB[i] = b;
+      cellC[i] = c;
+    }
+    // The cell index of this atom.
+    return a + b * nA + c * nAB;
+  }
+
+  /**
+   * Order the atoms of one symmetry operator by cell using their cell indices.
+   *
+   * @param iSymm The symmetry operator.
+   */
+  private void sortCells(int iSymm) {
+    final int[] cellIndexs = cellIndex[iSymm];
+    final int[] cellCounts = cellCount[iSymm];
+    final int[] cellStarts = cellStart[iSymm];
+    final int[] cellOffsets = cellOffset[iSymm];
+    // Zero out the cell counts.
+    for (int i = 0; i < nCells; i++) {
+      cellCounts[i] = 0;
+    }
+    // The offset of each atom from the beginning of its cell.
+    for (int i = 0; i < nAtoms; i++) {
+      cellOffsets[i] = cellCounts[cellIndexs[i]]++;
+    }
+    // Define the starting indices; in incremental mode each cell has room for arriving atoms.
+    int total = 0;
+    for (int i = 0; i < nCells; i++) {
+      cellStarts[i] = total;
+      int capacity = cellCounts[i];
+      if (incremental) {
+        capacity += cellCounts[i] / 4 + 2;
+        cellCapacity[iSymm][i] = capacity;
+      }
+      total += capacity;
+    }
+    if (cellList[iSymm].length < total) {
+      cellList[iSymm] = new int[total];
+    }
+    // Move atom locations into a list ordered by cell.
+    final int[] cellLists = cellList[iSymm];
+    for (int i = 0; i < nAtoms; i++) {
+      cellLists[cellStarts[cellIndexs[i]] + cellOffsets[i]] = i;
+    }
+  }
+
+  /**
+   * Rebuild the lists of all atoms.
+   *
+   * @param print If true, print a summary of the lists.
+   */
+  private void rebuildAll(boolean print) {
+    // Save the current coordinates.
+    double[] current = coordinates[0];
+    for (int i = 0; i < nAtoms; i++) {
+      int i3 = i * 3;
+      int iX = i3 + XX;
+      int iY = i3 + YY;
+      int iZ = i3 + ZZ;
+      previous[iX] = current[iX];
+      previous[iY] = current[iY];
+      previous[iZ] = current[iZ];
+    }
+
+    if (incremental) {
+      initIncremental();
+    }
+    assignAtomsToCells();
+    partialRebuild = false;
+    nRebuild = nAtoms;
+    createNeighborList();
+    if (print) {
+      print();
+    }
+
+    pairwiseSchedule.updateRanges(sharedCount.get(), atomsWithIteractions, listCount);
+    stale = false;
+  }
+
+  /**
+   * Rebuild the lists of atoms in cells near an atom (or one of its symmetry mates) that moved more
+   * than a quarter of the buffer. Every cell within the search volume of a moved atom is rebuilt,
+   * so all pairs involving a moved atom are found again. If more than half the atoms would be
+   * rebuilt, all lists are rebuilt instead.
+   *
+   * @param print If true, print a summary of the lists.
+   */
+  private void rebuildMoved(boolean print) {
+    double[] current = coordinates[0];
+    int nMoved = 0;
+    for (int i = 0; i < nAtoms; i++) {
+      int i3 = i * 3;
+      double dx = previous[i3 + XX] - current[i3 + XX];
+      double dy = previous[i3 + YY] - current[i3 + YY];
+      double dz = previous[i3 + ZZ] - current[i3 + ZZ];
+      if (crystal.image(dx, dy, dz) > incrementalMotion2) {
+        movedAtoms[nMoved++] = i;
       }
-      // Define the starting indices again.
-      cellStarts[0] = 0;
-      for (int i = 1; i < nCells; i++) {
-        final int i1 = i - 1;
-        cellStarts[i] = cellStarts[i1] + cellCounts[i1];
+    }
+    if (nMoved == 0) {
+      return;
+    }
+
+    updateCells();
+
+    // Flag the cells within the search volume of each moved atom and its symmetry mates.
+    fill(rebuildCell, 0, nCells, false);
+    for (int m = 0; m < nMoved; m++) {
+      int i = movedAtoms[m];
+      for (int iSymm = 0; iSymm < nSymm; iSymm++) {
+        flagNeighborCells(cellIndex[iSymm][i]);
+      }
+    }
+    final int[] asymmetricIndex = cellIndex[0];
+    int n = 0;
+    for (int i = 0; i < nAtoms; i++) {
+      if (rebuildCell[asymmetricIndex[i]]) {
+        rebuildAtoms[n++] = i;
+      }
+    }
+    if (n > nAtoms / 2) {
+      rebuildAll(print);
+      return;
+    }
+
+    // Only the moved atoms are given new reference coordinates.
+    for (int m = 0; m < nMoved; m++) {
+      int i3 = movedAtoms[m] * 3;
+      previous[i3 + XX] = current[i3 + XX];
+      previous[i3 + YY] = current[i3 + YY];
+      previous[i3 + ZZ] = current[i3 + ZZ];
+    }
+
+    partialRebuild = true;
+    nRebuild = n;
+    createNeighborList();
+    if (print) {
+      print();
+    }
+    if (logger.isLoggable(Level.FINE)) {
+      logger.fine(
+          format(
+              "   Incremental neighbor list: %d moved atoms, %d of %d lists rebuilt.",
+              nMoved, nRebuild, nAtoms));
+    }
+
+    pairwiseSchedule.updateRanges(
+        asymmetricUnitCount + symmetryMateCount, atomsWithIteractions, listCount);
+  }
+
+  /**
+   * Flag a cell and all cells within its search volume for rebuilding.
+   *
+   * @param index The cell index.
+   */
+  private void flagNeighborCells(int index) {
+    final int a = index % nA;
+    final int b = (index / nA) % nB;
+    final int c = index / nAB;
+    final int eA = nA == 1 ? 0 : nEdgeA;
+    final int eB = nB == 1 ? 0 : nEdgeB;
+    final int eC = nC == 1 ? 0 : nEdgeC;
+    for (int ai = a - eA; ai <= a + eA; ai++) {
+      final int ia = (ai + nA) % nA;
+      for (int bi = b - eB; bi <= b + eB; bi++) {
+        final int ib = (bi + nB) % nB;
+        for (int ci = c - eC; ci <= c + eC; ci++) {
+          final int ic = (ci + nC) % nC;
+          rebuildCell[ia + ib * nA + ic * nAB] = true;
+        }
       }
     }
   }
 
+  /** Allocate memory for the incremental mode, if necessary. */
+  private void initIncremental() {
+    if (rebuildAtoms == null || rebuildAtoms.length < nAtoms) {
+      rebuildAtoms = new int[nAtoms];
+      movedAtoms = new int[nAtoms];
+    }
+    if (rebuildCell == null || rebuildCell.length < nCells) {
+      rebuildCell = new boolean[nCells];
+    }
+    if (cellCapacity == null || cellCapacity.length < nSymm || cellCapacity[0].length < nCells) {
+      cellCapacity = new int[nSymm][nCells];
+    }
+  }
+
   /**
    * Execute the parallel Verlet list builder.
    *
@@ -851,8 +1103,9 @@ public class NeighborList extends ParallelRegion {
       asymmetricIndex = cellIndex[0];
       for (iSymm = 0; iSymm < nSymm; iSymm++) {
         int[][] list = lists[iSymm];
-        // Loop over all atoms.
-        for (atomIndex = lb; atomIndex <= ub; atomIndex++) {
+        // Loop over all atoms, or only those being rebuilt.
+        for (int k = lb; k <= ub; k++) {
+          atomIndex = partialRebuild ? rebuildAtoms[k] : k;
           n = 0;
 
           if (iSymm == 0) {
@@ -896,7 +1149,7 @@ public class NeighborList extends ParallelRegion {
               cStop = c;
             }
 
-            if (iSymm == 0) {
+            if (iSymm == 0 && !incremental) {
               // Interactions within the "self-volume".
               atomCellPairs(index);
 
@@ -922,7 +1175,11 @@ public class NeighborList extends ParallelRegion {
               }
             } else {
 
-              // Interactions with all adjacent symmetry mate cells.
+              /*
+               Interactions with all adjacent symmetry mate cells. In incremental mode all
+               neighboring asymmetric unit cells are searched too, and double counting is
+               avoided by atom index.
+              */
               for (int ai = aStart; ai <= aStop; ai++) {
                 for (int bi = bStart; bi <= bStop; bi++) {
                   for (int ci = cStart; ci <= cStop; ci++) {
@@ -1007,7 +1264,7 @@ public class NeighborList extends ParallelRegion {
         }
 
         // If the self-volume is being searched for pairs, we must avoid double counting.
-        if (atomCellIndex == pairCellIndex) {
+        if (atomCellIndex == pairCellIndex && !incremental) {
           /*
            The cellOffset is the index of the current atom in the
            cell that is being searched for neighbors.
@@ -1029,7 +1286,7 @@ public class NeighborList extends ParallelRegion {
         if (!intermolecular && (molecules[atomIndex] != molecules[aj])) {
           continue;
         }
-        if (mask[aj] > 0 && (iSymm == 0 || aj >= atomIndex)) {
+        if (mask[aj] > 0 && (iSymm == 0 ? !incremental || aj > atomIndex : aj >= atomIndex)) {
           int aj3 = aj * 3;
           final double xj = pair[aj3 + XX];
           final double yj = pair[aj3 + YY];
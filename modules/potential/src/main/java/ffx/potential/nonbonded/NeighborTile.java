@@ -0,0 +1,158 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.potential.nonbonded;
+
+import ffx.crystal.Crystal;
+
+/**
+ * A NeighborTile gathers the separation vectors between one atom and the atoms of its neighbor list
+ * into contiguous x, y and z arrays (structure-of-arrays). The minimum image convention and squared
+ * distances for the whole list are then computed in one straight-line loop, and the pair loop of a
+ * nonbonded kernel reads the tile sequentially instead of chasing each neighbor's coordinates.
+ *
+ * <p>Each thread owns its own tile. Array lengths are rounded up to a whole number of 64 byte cache
+ * lines.
+ *
+ * @author Michael J. Schnieders
+ * @since 1.0
+ */
+public class NeighborTile {
+
+  /** The number of doubles in a 64 byte cache line. */
+  private static final int CACHE_LINE = 8;
+
+  /** The x-component of each separation vector (neighbor minus center). */
+  public double[] dx;
+  /** The y-component of each separation vector (neighbor minus center). */
+  public double[] dy;
+  /** The z-component of each separation vector (neighbor minus center). */
+  public double[] dz;
+  /** The squared length of each separation vector after applying the minimum image convention. */
+  public double[] r2;
+
+  /** Constructor for an empty NeighborTile. */
+  public NeighborTile() {
+    allocate(CACHE_LINE * 32);
+  }
+
+  /**
+   * Gather separation vectors from coordinates stored as packed xyz triples.
+   *
+   * @param xi The x-coordinate of the center atom.
+   * @param yi The y-coordinate of the center atom.
+   * @param zi The z-coordinate of the center atom.
+   * @param list The neighbor list of the center atom.
+   * @param n The number of neighbors to gather.
+   * @param xyz Coordinates of the neighbors [3 * nAtoms].
+   * @param crystal The crystal used to apply the minimum image convention.
+   */
+  public void gather(
+      double xi, double yi, double zi, int[] list, int n, double[] xyz, Crystal crystal) {
+    ensureCapacity(n);
+    final double[] x = dx;
+    final double[] y = dy;
+    final double[] z = dz;
+    for (int j = 0; j < n; j++) {
+      final int k3 = list[j] * 3;
+      x[j] = xyz[k3] - xi;
+      y[j] = xyz[k3 + 1] - yi;
+      z[j] = xyz[k3 + 2] - zi;
+    }
+    crystal.image(n, x, y, z, r2);
+  }
+
+  /**
+   * Gather separation vectors from coordinates stored in separate x, y and z arrays.
+   *
+   * @param xi The x-coordinate of the center atom.
+   * @param yi The y-coordinate of the center atom.
+   * @param zi The z-coordinate of the center atom.
+   * @param list The neighbor list of the center atom.
+   * @param n The number of neighbors to gather.
+   * @param xk The x-coordinates of the neighbors.
+   * @param yk The y-coordinates of the neighbors.
+   * @param zk The z-coordinates of the neighbors.
+   * @param crystal The crystal used to apply the minimum image convention.
+   */
+  public void gather(
+      double xi,
+      double yi,
+      double zi,
+      int[] list,
+      int n,
+      double[] xk,
+      double[] yk,
+      double[] zk,
+      Crystal crystal) {
+    ensureCapacity(n);
+    final double[] x = dx;
+    final double[] y = dy;
+    final double[] z = dz;
+    for (int j = 0; j < n; j++) {
+      final int k = list[j];
+      x[j] = xk[k] - xi;
+      y[j] = yk[k] - yi;
+      z[j] = zk[k] - zi;
+    }
+    crystal.image(n, x, y, z, r2);
+  }
+
+  /**
+   * Grow the tile, if necessary, to hold n separation vectors.
+   *
+   * @param n The number of separation vectors.
+   */
+  private void ensureCapacity(int n) {
+    if (dx.length < n) {
+      allocate(n);
+    }
+  }
+
+  /**
+   * Allocate the tile arrays, rounding their length up to a whole number of cache lines.
+   *
+   * @param n The minimum number of separation vectors.
+   */
+  private void allocate(int n) {
+    int length = ((n + CACHE_LINE - 1) / CACHE_LINE) * CACHE_LINE;
+    dx = new double[length];
+    dy = new double[length];
+    dz = new double[length];
+    r2 = new double[length];
+  }
+}
@@ -39,6 +39,7 @@ package ffx.potential.nonbonded;
 
 import static ffx.crystal.Crystal.mod;
 import static ffx.numerics.fft.Complex3D.iComplex3D;
+import static ffx.numerics.fft.Real3D.iReal3D;
 import static ffx.numerics.spline.UniformBSpline.bSpline;
 import static ffx.numerics.spline.UniformBSpline.bSplineDerivatives;
 import static ffx.potential.parameters.MultipoleType.t000;
@@ -82,6 +83,7 @@ import ffx.crystal.Crystal;
 import ffx.numerics.fft.Complex;
 import ffx.numerics.fft.Complex3DCuda;
 import ffx.numerics.fft.Complex3DParallel;
+import ffx.numerics.fft.Real3DParallel;
 import ffx.numerics.multipole.MultipoleTensor;
 import ffx.potential.bonded.Atom;
 import ffx.potential.extended.ExtUtils;
@@ -172,6 +174,8 @@ public class ReciprocalSpace {
   private final long[] inducedPhiTime;
   /** Convolution variables. */
   private final FFTMethod fftMethod;
+  /** If true, permanent multipoles are convolved with a real to complex FFT when possible. */
+  private final boolean useRealFFT;
 
   private final double[][] transformFieldMatrix = new double[10][10];
   private final double[][] transformMultipoleMatrix = new double[10][10];
@@ -221,6 +225,12 @@ public class ReciprocalSpace {
   private long permanentPhiTotal, inducedPhiTotal, convTotal;
   private Complex3DCuda cudaFFT3D;
   private Complex3DParallel pjFFT3D;
+  /**
+   * Real to complex convolution of the permanent multipole grid, which uses the Hermitian symmetry
+   * of the transform of real data to work on half of the spectrum. Induced dipoles continue to use
+   * pjFFT3D, since they pack the direct and chain-rule grids into the real and imaginary parts.
+   */
+  private Real3DParallel realFFT3D;
   private GridMethod gridMethod;
 
   /**
@@ -281,6 +291,7 @@ public class ReciprocalSpace {
       method = FFTMethod.PJ;
     }
     fftMethod = method;
+    useRealFFT = forceField.getBoolean("PME_REAL_FFT", false);
 
     CompositeConfiguration properties = forceField.getProperties();
     String gridString = properties.getString("grid-method", "SPATIAL").toUpperCase();
@@ -302,6 +313,9 @@ public class ReciprocalSpace {
       sb.append(format("    Mesh Density:                      %8.3f\n", density));
       sb.append(format("    Mesh Dimensions:              (%3d,%3d,%3d)\n", fftX, fftY, fftZ));
       sb.append(format("    Grid Method:                       %8s\n", gridMethod.toString()));
+      if (realFFT3D != null) {
+        sb.append(format("    Permanent FFT:                     %8s\n", "REAL"));
+      }
       logger.info(sb.toString());
     }
 
@@ -758,7 +772,11 @@ public class ReciprocalSpace {
           cudaFFT3D.convolution(splineGrid);
           break;
         case PJ:
-          pjFFT3D.convolution(splineGrid);
+          if (realFFT3D != null) {
+            realFFT3D.convolution(splineGrid);
+          } else {
+            pjFFT3D.convolution(splineGrid);
+          }
           break;
       }
     } catch (Exception e) {
@@ -1150,6 +1168,15 @@ public class ReciprocalSpace {
           splineBuffer = DoubleBuffer.wrap(splineGrid);
         }
         pjFFT3D.setRecip(generalizedInfluenceFunction());
+        // The real to complex transform requires an even X-dimension.
+        if (useRealFFT && fftX % 2 == 0) {
+          if (realFFT3D == null || dimChanged) {
+            realFFT3D = new Real3DParallel(fftX, fftY, fftZ, fftTeam, recipSchedule);
+          }
+          realFFT3D.setRecip(halfInfluenceFunction());
+        } else {
+          realFFT3D = null;
+        }
         cudaFFT3D = null;
         break;
       case CUDA:
@@ -1165,6 +1192,7 @@ public class ReciprocalSpace {
         }
         cudaFFT3D.setRecip(generalizedInfluenceFunction());
         pjFFT3D = null;
+        realFFT3D = null;
         break;
     }
 
@@ -1267,18 +1295,7 @@ public class ReciprocalSpace {
     discreteFTMod(bsModY, bsArray, fftY, bSplineOrder);
     discreteFTMod(bsModZ, bsArray, fftZ, bSplineOrder);
 
-    double r00 = crystal.A[0][0];
-    double r01 = crystal.A[0][1];
-    double r02 = crystal.A[0][2];
-    double r10 = crystal.A[1][0];
-    double r11 = crystal.A[1][1];
-    double r12 = crystal.A[1][2];
-    double r20 = crystal.A[2][0];
-    double r21 = crystal.A[2][1];
-    double r22 = crystal.A[2][2];
     int ntot = fftX * fftY * fftZ;
-    double piTerm = (PI / aEwald) * (PI / aEwald);
-    double volTerm = PI * crystal.volume;
     int nfXY = fftX * fftY;
     int nX_2 = (fftX + 1) / 2;
     int nY_2 = (fftY + 1) / 2;
@@ -1301,19 +1318,7 @@ public class ReciprocalSpace {
       if (kZ >= nZ_2) {
         l -= fftZ;
       }
-      double sX = r00 * h + r01 * k + r02 * l;
-      double sY = r10 * h + r11 * k + r12 * l;
-      double sZ = r20 * h + r21 * k + r22 * l;
-      double sSquared = sX * sX + sY * sY + sZ * sZ;
-      double term = -piTerm * sSquared;
-      double expterm = 0.0;
-      if (term > -50.0) {
-        double denom = sSquared * volTerm * bsModX[kX] * bsModY[kY] * bsModZ[kZ];
-        expterm = exp(term) / denom;
-        if (crystal.aperiodic()) {
-          expterm *= (1.0 - cos(PI * crystal.a * sqrt(sSquared)));
-        }
-      }
+      double expterm = influence(h, k, l, bsModX[kX], bsModY[kY], bsModZ[kZ]);
       int ii = iComplex3D(kX, kY, kZ, fftX, fftY) / 2;
       influenceFunction[ii] = expterm;
     }
@@ -1327,6 +1332,119 @@ public class ReciprocalSpace {
     return influenceFunction;
   }
 
+  /**
+   * Compute the influence function on the half of the spectrum (kX = 0 .. fftX / 2) that is
+   * stored by a real to complex transform, in the order expected by Real3DParallel.
+   *
+   * <p>A complex convolution of real data keeps only the real part of the result, which applies
+   * the average of the influence function at q and -q. The two differ only on Nyquist planes of
+   * a non-orthogonal cell, where the average is stored explicitly so that both paths agree.
+   *
+   * @return the influence function of size (fftX / 2 + 1) * fftY * fftZ.
+   */
+  private double[] halfInfluenceFunction() {
+    int nX1 = fftX / 2 + 1;
+    double[] influenceFunction = new double[nX1 * fftY * fftZ];
+
+    double[] bsModX = new double[fftX];
+    double[] bsModY = new double[fftY];
+    double[] bsModZ = new double[fftZ];
+    int maxfft = max(max(max(fftX, fftY), fftZ), bSplineOrder + 1);
+    double[] bsArray = new double[maxfft];
+    double[] c = new double[bSplineOrder];
+
+    bSpline(0.0, bSplineOrder, c);
+    arraycopy(c, 0, bsArray, 1, bSplineOrder);
+
+    discreteFTMod(bsModX, bsArray, fftX, bSplineOrder);
+    discreteFTMod(bsModY, bsArray, fftY, bSplineOrder);
+    discreteFTMod(bsModZ, bsArray, fftZ, bSplineOrder);
+
+    int nX_2 = (fftX + 1) / 2;
+    int nY_2 = (fftY + 1) / 2;
+    int nZ_2 = (fftZ + 1) / 2;
+    boolean nyquistY = fftY % 2 == 0;
+    boolean nyquistZ = fftZ % 2 == 0;
+
+    int index = 0;
+    for (int kZ = 0; kZ < fftZ; kZ++) {
+      int l = kZ >= nZ_2 ? kZ - fftZ : kZ;
+      for (int kY = 0; kY < fftY; kY++) {
+        int k = kY >= nY_2 ? kY - fftY : kY;
+        for (int kX = 0; kX < nX1; kX++, index++) {
+          int h = kX >= nX_2 ? kX - fftX : kX;
+          double expterm = influence(h, k, l, bsModX[kX], bsModY[kY], bsModZ[kZ]);
+          // On a Nyquist plane, -q maps back onto the plane rather than to its mirror image.
+          boolean planeX = kX == fftX / 2;
+          boolean planeY = nyquistY && kY == fftY / 2;
+          boolean planeZ = nyquistZ && kZ == fftZ / 2;
+          if (planeX || planeY || planeZ) {
+            int hm = planeX ? h : -h;
+            int km = planeY ? k : -k;
+            int lm = planeZ ? l : -l;
+            expterm = 0.5 * (expterm + influence(hm, km, lm, bsModX[kX], bsModY[kY], bsModZ[kZ]));
+          }
+          influenceFunction[index] = expterm;
+        }
+      }
+    }
+
+    // Account for the zeroth grid point for a periodic system.
+    influenceFunction[0] = 0.0;
+    if (crystal.aperiodic()) {
+      influenceFunction[0] = 0.5 * PI / crystal.a;
+    }
+
+    return influenceFunction;
+  }
+
+  /**
+   * Compute the influence function for one reciprocal lattice vector.
+   *
+   * @param h The X-index of the reciprocal lattice vector.
+   * @param k The Y-index of the reciprocal lattice vector.
+   * @param l The Z-index of the reciprocal lattice vector.
+   * @param bsModX The b-Spline modulus along X.
+   * @param bsModY The b-Spline modulus along Y.
+   * @param bsModZ The b-Spline modulus along Z.
+   * @return the influence function.
+   */
+  private double influence(int h, int k, int l, double bsModX, double bsModY, double bsModZ) {
+    double[][] r = crystal.A;
+    double sX = r[0][0] * h + r[0][1] * k + r[0][2] * l;
+    double sY = r[1][0] * h + r[1][1] * k + r[1][2] * l;
+    double sZ = r[2][0] * h + r[2][1] * k + r[2][2] * l;
+    double sSquared = sX * sX + sY * sY + sZ * sZ;
+    double piTerm = (PI / aEwald) * (PI / aEwald);
+    double term = -piTerm * sSquared;
+    double expterm = 0.0;
+    if (term > -50.0) {
+      double volTerm = PI * crystal.volume;
+      double denom = sSquared * volTerm * bsModX * bsModY * bsModZ;
+      expterm = exp(term) / denom;
+      if (crystal.aperiodic()) {
+        expterm *= (1.0 - cos(PI * crystal.a * sqrt(sSquared)));
+      }
+    }
+    return expterm;
+  }
+
+  /**
+   * The grid index of the permanent multipole density, which uses the padded real layout when
+   * the permanent convolution is a real to complex transform.
+   *
+   * @param i The X-index.
+   * @param j The Y-index.
+   * @param k The Z-index.
+   * @return the index into the spline grid.
+   */
+  private int permanentGridIndex(int i, int j, int k) {
+    if (realFFT3D != null) {
+      return iReal3D(i, j, k, fftX, fftY);
+    }
+    return iComplex3D(i, j, k, fftX, fftY);
+  }
+
   private void transformMultipoleMatrix() {
     double[][] a = new double[3][3];
     for (int i = 0; i < 3; i++) {
@@ -1682,7 +1800,7 @@ public class ReciprocalSpace {
           int i0 = igrd0;
           for (int ith1 = 0; ith1 < bSplineOrder; ith1++) {
             final int i = mod(++i0, fftX);
-            final int ii = iComplex3D(i, j, k, fftX, fftY);
+            final int ii = permanentGridIndex(i, j, k);
             final double[] splxi = splx[ith1];
             final double add = splxi[0] * term0 + splxi[1] * term1 + splxi[2] * term2;
             final double current = splineBuffer.get(ii);
@@ -1969,7 +2087,7 @@ public class ReciprocalSpace {
           int i0 = igrd0;
           for (int ith1 = 0; ith1 < bSplineOrder; ith1++) {
             final int i = mod(++i0, fftX);
-            final int ii = iComplex3D(i, j, k, fftX, fftY);
+            final int ii = permanentGridIndex(i, j, k);
             final double[] splxi = splx[ith1];
             final double add = splxi[0] * term0 + splxi[1] * term1 + splxi[2] * term2;
             final double current = splineBuffer.get(ii);
@@ -2274,7 +2392,7 @@ public class ReciprocalSpace {
           int i0 = igrd0;
           for (int ith1 = 0; ith1 < bSplineOrder; ith1++) {
             final int i = mod(++i0, fftX);
-            final int ii = iComplex3D(i, j, k, fftX, fftY);
+            final int ii = permanentGridIndex(i, j, k);
             final double splxi[] = splx[ith1];
             final double add = splxi[0] * term0 + splxi[1] * term1 + splxi[2] * term2;
             final double current = splineBuffer.get(ii);
@@ -2560,7 +2678,7 @@ public class ReciprocalSpace {
               double t3 = 0.0;
               for (int ith1 = 0; ith1 < bSplineOrder; ith1++) {
                 final int i = mod(++i0, fftX);
-                final int ii = iComplex3D(i, j, k, fftX, fftY);
+                final int ii = permanentGridIndex(i, j, k);
                 final double tq = splineBuffer.get(ii);
                 final double[] splxi = splx[ith1];
                 t0 += tq * splxi[0];
@@ -335,6 +335,9 @@ public class VanDerWaals implements MaskingInterface, LambdaInterface {
     pairwiseSchedule = neighborList.getPairwiseSchedule();
     neighborLists = new int[nSymm][][];
 
+    // Optionally, rebuild only the lists near atoms that moved.
+    neighborList.setIncremental(forceField.getBoolean("INCREMENTAL_NEIGHBOR_LIST", false));
+
     // Reduce and expand the coordinates of the asymmetric unit. Then build the first neighbor-list.
     buildNeighborList(atoms);
 
@@ -816,6 +819,9 @@ public class VanDerWaals implements MaskingInterface, LambdaInterface {
     if (!reducedHydrogens) {
       sb.append(format("   Reduce Hydrogens:                     %b\n", reducedHydrogens));
     }
+    if (neighborList.getIncremental()) {
+      sb.append(format("   Incremental Neighbor List:            %b\n", true));
+    }
     if (lambdaTerm) {
       sb.append("   Alchemical Parameters\n");
       sb.append(format("    Softcore Alpha:                       %5.3f\n", vdwLambdaAlpha));
@@ -1583,6 +1589,8 @@ public class VanDerWaals implements MaskingInterface, LambdaInterface {
 
       private final double[] dx_local;
       private final double[][] transOp;
+      /** Neighbor separations gathered into contiguous arrays. */
+      private final NeighborTile tile;
       private int count;
       private double energy;
       private int threadID;
@@ -1600,6 +1608,7 @@ public class VanDerWaals implements MaskingInterface, LambdaInterface {
         super();
         dx_local = new double[3];
         transOp = new double[3][3];
+        tile = new NeighborTile();
       }
 
       @Override
@@ -1662,9 +1671,17 @@ public class VanDerWaals implements MaskingInterface, LambdaInterface {
           if (isSoft[i]) {
             softCorei = softCore[SOFT];
           }
-          // Loop over the neighbor list.
+          // Gather the neighbor separations and apply the minimum image convention in one pass.
           final int[] neighbors = list[i];
-          for (final int k : neighbors) {
+          final int nNeighbors = neighbors.length;
+          tile.gather(xi, yi, zi, neighbors, nNeighbors, xyzS, crystal);
+          final double[] tileX = tile.dx;
+          final double[] tileY = tile.dy;
+          final double[] tileZ = tile.dz;
+          final double[] tileR2 = tile.r2;
+          // Loop over the neighbor list.
+          for (int j = 0; j < nNeighbors; j++) {
+            final int k = neighbors[j];
             Atom atomk = atoms[k];
             if (!use[k] || !include(atomi, atomk)) {
               continue;
@@ -1674,14 +1691,11 @@ public class VanDerWaals implements MaskingInterface, LambdaInterface {
             // Hide these global variable names for thread safety.
             final double sc1, dsc1dL, d2sc1dL2;
             final double sc2, dsc2dL, d2sc2dL2;
-            int k3 = k * 3;
-            final double xk = xyzS[k3++];
-            final double yk = xyzS[k3++];
-            final double zk = xyzS[k3];
-            dx_local[0] = xi - xk;
-            dx_local[1] = yi - yk;
-            dx_local[2] = zi - zk;
-            final double r2 = crystal.image(dx_local);
+            // The tile holds neighbor minus center; negate to recover center minus neighbor.
+            dx_local[0] = -tileX[j];
+            dx_local[1] = -tileY[j];
+            dx_local[2] = -tileZ[j];
+            final double r2 = tileR2[j];
             int classK = atomClass[k];
             double irv = vdwForm.getCombinedInverseRmin(classI, classK);
             if (vdw14[k]) {
@@ -1915,9 +1929,17 @@ public class VanDerWaals implements MaskingInterface, LambdaInterface {
               softCorei = softCore[SOFT];
             }
 
-            // Loop over the neighbor list.
+            // Gather the neighbor separations and apply the minimum image convention in one pass.
             final int[] neighbors = list[i];
-            for (final int k : neighbors) {
+            final int nNeighbors = neighbors.length;
+            tile.gather(xi, yi, zi, neighbors, nNeighbors, xyzS, crystal);
+            final double[] tileX = tile.dx;
+            final double[] tileY = tile.dy;
+            final double[] tileZ = tile.dz;
+            final double[] tileR2 = tile.r2;
+            // Loop over the neighbor list.
+            for (int j = 0; j < nNeighbors; j++) {
+              final int k = neighbors[j];
               Atom atomk = atoms[k];
               if (!use[k] || !include(atomi, atomk)) {
                 continue;
@@ -1927,14 +1949,11 @@ public class VanDerWaals implements MaskingInterface, LambdaInterface {
               // Hide these global variable names for thread safety.
               final double sc1, dsc1dL, d2sc1dL2;
               final double sc2, dsc2dL, d2sc2dL2;
-              int k3 = k * 3;
-              final double xk = xyzS[k3++];
-              final double yk = xyzS[k3++];
-              final double zk = xyzS[k3];
-              dx_local[0] = xi - xk;
-              dx_local[1] = yi - yk;
-              dx_local[2] = zi - zk;
-              final double r2 = crystal.image(dx_local);
+              // The tile holds neighbor minus center; negate to recover center minus neighbor.
+              dx_local[0] = -tileX[j];
+              dx_local[1] = -tileY[j];
+              dx_local[2] = -tileZ[j];
+              final double r2 = tileR2[j];
               int classK = atomClass[k];
               final double irv = vdwForm.getCombinedInverseRmin(classI, classK);
               if (r2 <= nonbondedCutoff.off2 && irv > 0) {
@@ -337,6 +337,13 @@ public class ChandlerCavitation {
       logger.fine(format(" Surface Area Energy: %8.3f (kcal/mol)", surfaceAreaEnergy));
       logger.fine(format(" Volume + SA Energy:  %8.3f (kcal/mol)", cavitationEnergy));
       logger.fine(format(" Effective Radius:    %8.3f (Ang)", reff));
+      logger.fine(format(" Overlaps:            %8d", gaussVol.getTotalNumberOfOverlaps()));
+      logger.fine(
+          format(
+              " Tree Builds:         %8d (%d updates, %d subtree rebuilds)",
+              gaussVol.getNumberOfTreeBuilds(),
+              gaussVol.getNumberOfTreeUpdates(),
+              gaussVol.getNumberOfSubtreeRebuilds()));
     }
 
     return cavitationEnergy;
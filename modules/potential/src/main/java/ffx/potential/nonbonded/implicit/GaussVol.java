@@ -39,16 +39,24 @@ package ffx.potential.nonbonded.implicit;
 
 import static ffx.numerics.atomic.AtomicDoubleArray.atomicDoubleArrayFactory;
 import static ffx.numerics.math.DoubleMath.add;
+import static ffx.numerics.math.DoubleMath.dist2;
 import static ffx.numerics.math.DoubleMath.length2;
 import static ffx.numerics.math.DoubleMath.scale;
 import static ffx.numerics.math.DoubleMath.sub;
 import static java.lang.Double.compare;
 import static java.lang.String.format;
+import static java.lang.System.arraycopy;
+import static java.util.Arrays.copyOf;
+import static java.util.Arrays.fill;
 import static org.apache.commons.math3.util.FastMath.PI;
 import static org.apache.commons.math3.util.FastMath.exp;
+import static org.apache.commons.math3.util.FastMath.log;
+import static org.apache.commons.math3.util.FastMath.max;
 import static org.apache.commons.math3.util.FastMath.pow;
+import static org.apache.commons.math3.util.FastMath.sqrt;
 
 import edu.rit.pj.IntegerForLoop;
+import edu.rit.pj.IntegerSchedule;
 import edu.rit.pj.ParallelRegion;
 import edu.rit.pj.ParallelTeam;
 import edu.rit.pj.reduction.SharedDouble;
@@ -100,6 +108,8 @@ public class GaussVol {
    * -------------------------------------------------------------------------- */
 
   private static final Logger logger = Logger.getLogger(GaussVol.class.getName());
+  /** Default buffer (Ang) added to the pair overlap cutoffs used by incremental updates. */
+  public static final double DEFAULT_INCREMENTAL_BUFFER = 1.0;
   /** Finite-Difference step size to compute surface area. */
   private static final double offset = 0.005;
   /** Conversion factor from a sphere to a Gaussian. */
@@ -155,8 +165,26 @@ public class GaussVol {
   private GaussianOverlapTree tree;
   /** Maximum depth that the tree reaches */
   private int maximumDepth = 0;
-  /** Total number of overlaps in overlap tree */
-  private int totalNumberOfOverlaps = 0;
+  /**
+   * If true, the overlap tree is kept between calls to computeVolumeAndSA. Overlap volumes are
+   * updated in place and only subtrees whose set of children has changed are rebuilt.
+   */
+  private boolean incremental = false;
+  /** Buffer (Ang) added to the pair overlap cutoffs when building the atomic neighbor lists. */
+  private double incrementalBuffer = DEFAULT_INCREMENTAL_BUFFER;
+  /**
+   * For each atom, the atoms with a larger index within their pair overlap cutoff plus the buffer.
+   * Only used by incremental updates.
+   */
+  private int[][] neighborLists;
+  /** Atomic coordinates at the time the neighbor lists were built. */
+  private double[][] neighborListPositions;
+  /** If true, the next call to computeVolumeAndSA rebuilds the overlap tree from scratch. */
+  private boolean rebuildTree = true;
+  /** Number of times the overlap tree has been built from scratch. */
+  private int treeBuildCount = 0;
+  /** Number of incremental updates of the overlap tree. */
+  private int treeUpdateCount = 0;
   /** Surface area (Ang^2). */
   private double surfaceArea;
   /** Volume (Ang^3). */
@@ -335,22 +363,52 @@ public class GaussVol {
    */
   public double computeVolumeAndSA(double[][] positions) {
 
+    // Incremental updates are valid until an atom moves more than half the neighbor list buffer.
+    boolean update = incremental && !rebuildTree && neighborListsValid(positions);
+    if (incremental && !update && (neighborLists == null || neighborLists.length != nAtoms)) {
+      neighborLists = new int[nAtoms][];
+    }
+
     if (parallelTeam == null || parallelTeam.getThreadCount() == 1) {
       // Update the overlap tree.
-      computeTree(positions);
+      if (update) {
+        updateTree(positions);
+      } else {
+        computeTree(positions);
+      }
 
       // Compute the volume.
       computeVolume(totalVolume, energy, grad, gradV, freeVolume, selfVolume);
     } else {
       // Execute in parallel.
       try {
-        gaussVolRegion.init(0, positions);
+        gaussVolRegion.init(update ? 1 : 0, positions);
         parallelTeam.execute(gaussVolRegion);
       } catch (Exception e) {
         logger.severe(" Exception evaluating GaussVol " + e.toString());
       }
     }
 
+    if (update) {
+      treeUpdateCount++;
+    } else {
+      treeBuildCount++;
+      if (incremental) {
+        if (neighborListPositions == null || neighborListPositions.length != nAtoms) {
+          neighborListPositions = new double[nAtoms][3];
+        }
+        for (int i = 0; i < nAtoms; i++) {
+          arraycopy(positions[i], 0, neighborListPositions[i], 0, 3);
+        }
+        rebuildTree = false;
+      }
+    }
+
+    // Rebuild from scratch once abandoned subtrees outnumber the overlaps still in use.
+    if (incremental && getNumberOfAbandonedOverlaps() > getTotalNumberOfOverlaps()) {
+      rebuildTree = true;
+    }
+
     if (volumeGradient == null || volumeGradient.length != nAtoms * 3) {
       volumeGradient = new double[nAtoms * 3];
       surfaceAreaGradient = new double[nAtoms * 3];
@@ -459,12 +517,78 @@ public class GaussVol {
   }
 
   /**
-   * Return the total number of overlaps in the tree
+   * Return the number of times the overlap tree has been built from scratch.
+   *
+   * @return The number of full tree builds.
+   */
+  public int getNumberOfTreeBuilds() {
+    return treeBuildCount;
+  }
+
+  /**
+   * Return the number of incremental updates of the overlap tree.
+   *
+   * @return The number of incremental tree updates.
+   */
+  public int getNumberOfTreeUpdates() {
+    return treeUpdateCount;
+  }
+
+  /**
+   * Return the number of subtrees rebuilt during incremental updates because their set of children
+   * changed.
    *
-   * @return totalNumberOfOverlaps
+   * @return The number of subtree rebuilds.
+   */
+  public int getNumberOfSubtreeRebuilds() {
+    int count = 0;
+    for (GaussianOverlapTree overlapTree : getTrees()) {
+      count += overlapTree.subtreeRebuildCount;
+    }
+    return count;
+  }
+
+  /**
+   * Return the total number of overlaps (of two or more atoms) summed over all overlap trees; the
+   * atoms themselves are not counted.
+   *
+   * @return The number of overlaps.
    */
   public int getTotalNumberOfOverlaps() {
-    return totalNumberOfOverlaps;
+    int count = 0;
+    for (GaussianOverlapTree overlapTree : getTrees()) {
+      count += overlapTree.overlapCount;
+    }
+    return count;
+  }
+
+  /**
+   * Returns true if the overlap tree is kept between calls and updated incrementally.
+   *
+   * @return True if incremental updates are enabled.
+   */
+  public boolean getIncremental() {
+    return incremental;
+  }
+
+  /**
+   * Enable or disable incremental updates of the overlap tree.
+   *
+   * <p>When enabled, the tree is kept between calls to computeVolumeAndSA. Overlap volumes are
+   * recomputed in place, and only subtrees whose set of children has changed are rebuilt. New pair
+   * overlaps are found using neighbor lists, which are rebuilt (along with the tree) once an atom has
+   * moved more than half the buffer.
+   *
+   * @param incremental True to enable incremental updates.
+   * @param buffer The buffer (Ang) added to the pair overlap cutoffs.
+   */
+  public void setIncremental(boolean incremental, double buffer) {
+    if (buffer < 0.0) {
+      throw new IllegalArgumentException(format(" Invalid GaussVol buffer %8.3f", buffer));
+    }
+    this.incremental = incremental;
+    this.incrementalBuffer = buffer;
+    rebuildTree = true;
   }
 
   /**
@@ -503,6 +627,7 @@ public class GaussVol {
   public void setIsHydrogen(boolean[] isHydrogen) throws Exception {
     if (nAtoms == isHydrogen.length) {
       this.ishydrogen = isHydrogen;
+      rebuildTree = true;
     } else {
       throw new Exception(" setIsHydrogen: number of atoms does not match");
     }
@@ -518,6 +643,7 @@ public class GaussVol {
   public void setRadiiAndVolumes(double[] radii, double[] volumes) throws Exception {
     if (nAtoms == radii.length) {
       this.radii = radii;
+      rebuildTree = true;
       radiiOffset = new double[nAtoms];
       volumeOffset = new double[nAtoms];
       double fourThirdsPI = 4.0 / 3.0 * PI;
@@ -545,6 +671,68 @@ public class GaussVol {
     tree.computeOverlapTreeR(positions, radii, volumes, gammas, ishydrogen);
   }
 
+  /**
+   * Updates the tree in place.
+   *
+   * @param positions Current atomic positions.
+   */
+  private void updateTree(double[][] positions) {
+    tree.updateOverlapTree(positions, radii, volumes, gammas, ishydrogen);
+  }
+
+  /**
+   * Check if the neighbor lists are still valid (no atom has moved more than half the buffer since
+   * they were built).
+   *
+   * @param positions Current atomic positions.
+   * @return True if the neighbor lists can be used.
+   */
+  private boolean neighborListsValid(double[][] positions) {
+    if (neighborLists == null || neighborListPositions == null) {
+      return false;
+    }
+    double halfBuffer = 0.5 * incrementalBuffer;
+    double maxMove2 = halfBuffer * halfBuffer;
+    for (int i = 0; i < nAtoms; i++) {
+      if (dist2(positions[i], neighborListPositions[i]) > maxMove2) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Return the number of tree slots abandoned by subtree rebuilds since the last full build.
+   *
+   * @return The number of abandoned slots.
+   */
+  private int getNumberOfAbandonedOverlaps() {
+    int count = 0;
+    for (GaussianOverlapTree overlapTree : getTrees()) {
+      count += overlapTree.abandonedCount;
+    }
+    return count;
+  }
+
+  /**
+   * Return the overlap tree(s) used by the most recent volume evaluation.
+   *
+   * @return The serial tree, or the per-thread trees.
+   */
+  private GaussianOverlapTree[] getTrees() {
+    if (parallelTeam == null || parallelTeam.getThreadCount() == 1) {
+      return new GaussianOverlapTree[] {tree};
+    }
+    int n = 0;
+    GaussianOverlapTree[] trees = new GaussianOverlapTree[gaussVolRegion.localTree.length];
+    for (GaussianOverlapTree overlapTree : gaussVolRegion.localTree) {
+      if (overlapTree != null) {
+        trees[n++] = overlapTree;
+      }
+    }
+    return copyOf(trees, n);
+  }
+
   /**
    * Returns GaussVol volume energy function and forces. Also returns gradients with respect to
    * atomic volumes and atomic free-volumes and self-volumes.
@@ -725,6 +913,18 @@ public class GaussVol {
     int nAtoms;
     /** The root is at index 0. Atoms are from 1 .. nAtoms. */
     List<GaussianOverlap> overlaps;
+    /** Number of overlaps of two or more atoms in the tree. */
+    int overlapCount;
+    /** Number of slots abandoned by subtree rebuilds since the tree was last initialized. */
+    int abandonedCount;
+    /** Number of subtrees rebuilt during incremental updates. */
+    int subtreeRebuildCount;
+    /** Per-atom marks used to compare the children of an overlap with its younger siblings. */
+    private int[] marks;
+    /** The current mark. */
+    private int mark;
+    /** Switching function derivative work array. */
+    private final double[] sp = new double[1];
 
     /**
      * GaussianOverlapTree constructor.
@@ -734,6 +934,7 @@ public class GaussVol {
     GaussianOverlapTree(int nAtoms) {
       this.nAtoms = nAtoms;
       overlaps = Collections.synchronizedList(new ArrayList<>(nAtoms + 1));
+      marks = new int[nAtoms];
     }
 
     /**
@@ -750,6 +951,8 @@ public class GaussVol {
 
       // Reset tree
       overlaps = Collections.synchronizedList(new ArrayList<>(nAtoms + 1));
+      overlapCount = 0;
+      abandonedCount = 0;
 
       // Slot 0 contains the master tree information, children = all of the atoms.
       GaussianOverlap overlap = new GaussianOverlap();
@@ -838,8 +1041,9 @@ public class GaussVol {
      *
      * @param rootIndex Root index.
      * @param childrenOverlaps Children overlaps.
+     * @param neighbors For an atom, the younger atoms that may overlap it (or null to scan all).
      */
-    void computeChildren(int rootIndex, List<GaussianOverlap> childrenOverlaps) {
+    void computeChildren(int rootIndex, List<GaussianOverlap> childrenOverlaps, int[] neighbors) {
       int parentIndex;
       int siblingStart, siblingCount;
 
@@ -879,43 +1083,60 @@ public class GaussVol {
             format(" Node %s is somehow not the child of its parent %s", root, parent));
       }
 
+      // The younger siblings of an atom are the atoms that follow it.
+      if (neighbors != null && root.level == 1) {
+        for (int atom2 : neighbors) {
+          computeChild(root, atom2, childrenOverlaps);
+        }
+        return;
+      }
+
       // Now loops over "younger" siblings (i<j loop) to compute new overlaps.
       // Loop starts at the first younger sibling, and runs to the end of all siblings.
       for (int slotj = rootIndex + 1; slotj < siblingStart + siblingCount; slotj++) {
-
-        GaussianVca g12 = new GaussianVca();
-
-        GaussianOverlap sibling = overlaps.get(slotj);
-        double gvol;
-        double[] dVdr = new double[1];
-        double[] dVdV = new double[1];
-        double[] sfp = new double[1];
-
         // Atomic gaussian of last atom of sibling.
-        int atom2 = sibling.atom;
-        GaussianVca g1 = root.g;
+        computeChild(root, overlaps.get(slotj).atom, childrenOverlaps);
+      }
+    }
 
-        // Atoms are stored in the tree at indexes 1...N
-        GaussianVca g2 = overlaps.get(atom2 + 1).g;
-        gvol = overlapGaussianAlpha(g1, g2, g12, dVdr, dVdV, sfp);
-
-        /*
-         Create child if overlap volume is above a threshold.
-         Due to Gaussians having infinite support, volume is never zero.
-        */
-        if (gvol > MIN_GVOL) {
-          GaussianOverlap ov = new GaussianOverlap(g12, gvol, 0.0, atom2);
-          // dv1 is the gradient of V(123..)n with respect to the position of 1
-          // ov.dv1 = ( g2.c - g1.c ) * (-dVdr);
-          sub(g2.c, g1.c, ov.dv1);
-          scale(ov.dv1, -dVdr[0], ov.dv1);
-
-          // dvv1 is the derivative of V(123...)n with respect to V(123...)
-          ov.dvv1 = dVdV[0];
-          ov.sfp = sfp[0];
-          ov.gamma1i = root.gamma1i + overlaps.get(atom2 + 1).gamma1i;
-          childrenOverlaps.add(ov);
-        }
+    /**
+     * Compute the overlap between the root and an atom, which is added to the "childrenOverlaps"
+     * buffer if its volume is above threshold.
+     *
+     * @param root Root overlap.
+     * @param atom2 Atom to overlap with the root.
+     * @param childrenOverlaps Children overlaps.
+     */
+    private void computeChild(
+        GaussianOverlap root, int atom2, List<GaussianOverlap> childrenOverlaps) {
+      GaussianVca g12 = new GaussianVca();
+      double gvol;
+      double[] dVdr = new double[1];
+      double[] dVdV = new double[1];
+      double[] sfp = new double[1];
+
+      GaussianVca g1 = root.g;
+
+      // Atoms are stored in the tree at indexes 1...N
+      GaussianVca g2 = overlaps.get(atom2 + 1).g;
+      gvol = overlapGaussianAlpha(g1, g2, g12, dVdr, dVdV, sfp);
+
+      /*
+       Create child if overlap volume is above a threshold.
+       Due to Gaussians having infinite support, volume is never zero.
+      */
+      if (gvol > MIN_GVOL) {
+        GaussianOverlap ov = new GaussianOverlap(g12, gvol, 0.0, atom2);
+        // dv1 is the gradient of V(123..)n with respect to the position of 1
+        // ov.dv1 = ( g2.c - g1.c ) * (-dVdr);
+        sub(g2.c, g1.c, ov.dv1);
+        scale(ov.dv1, -dVdr[0], ov.dv1);
+
+        // dvv1 is the derivative of V(123...)n with respect to V(123...)
+        ov.dvv1 = dVdV[0];
+        ov.sfp = sfp[0];
+        ov.gamma1i = root.gamma1i + overlaps.get(atom2 + 1).gamma1i;
+        childrenOverlaps.add(ov);
       }
     }
 
@@ -923,18 +1144,170 @@ public class GaussVol {
      * Grow the tree with more children starting at the given root slot (recursive).
      *
      * @param root The root index.
+     * @param neighbors For an atom, the younger atoms that may overlap it (or null to scan all).
      */
-    private void computeAndAddChildrenR(int root) {
+    private void computeAndAddChildrenR(int root, int[] neighbors) {
       List<GaussianOverlap> childrenOverlaps = Collections.synchronizedList(new ArrayList<>());
-      computeChildren(root, childrenOverlaps);
+      computeChildren(root, childrenOverlaps, neighbors);
       int nOverlaps = childrenOverlaps.size();
       if (nOverlaps > 0) {
         int startSlot = addChildren(root, childrenOverlaps);
         for (int ichild = startSlot; ichild < startSlot + nOverlaps; ichild++) {
-          computeAndAddChildrenR(ichild);
-          totalNumberOfOverlaps++;
+          computeAndAddChildrenR(ichild, null);
+          overlapCount++;
+        }
+      }
+    }
+
+    /**
+     * Grow the tree starting at the given atom slot. For incremental updates, the neighbor list of
+     * the atom is built first and used to find its pair overlaps.
+     *
+     * @param slot The atom slot.
+     */
+    private void computeAndAddAtomChildren(int slot) {
+      int[] neighbors = null;
+      if (incremental) {
+        neighbors = findNeighbors(slot - 1);
+        neighborLists[slot - 1] = neighbors;
+      }
+      computeAndAddChildrenR(slot, neighbors);
+    }
+
+    /**
+     * Find the atoms with a larger index that are within the pair overlap cutoff of an atom, plus
+     * the incremental buffer. The cutoff is the distance where the pair overlap volume falls to the
+     * lower limit of the switching function.
+     *
+     * @param atom The atom index.
+     * @return The neighbors of the atom.
+     */
+    private int[] findNeighbors(int atom) {
+      GaussianVca g1 = overlaps.get(atom + 1).g;
+      if (g1.v <= 0.0) {
+        return new int[0];
+      }
+      int[] neighbors = new int[nAtoms - atom - 1];
+      int count = 0;
+      for (int atom2 = atom + 1; atom2 < nAtoms; atom2++) {
+        GaussianVca g2 = overlaps.get(atom2 + 1).g;
+        if (g2.v <= 0.0) {
+          continue;
+        }
+        // V12 = V1 V2 (df / PI)^(3/2) exp(-df r^2) is above VOLMINA for r^2 < log(V12(0) / VOLMINA) / df
+        double df = g1.a * g2.a / (g1.a + g2.a);
+        double ratio = g1.v * g2.v * pow(df / PI, 1.5) / VOLMINA;
+        if (ratio <= 1.0) {
+          continue;
+        }
+        double cutoff = sqrt(log(ratio) / df) + incrementalBuffer;
+        if (dist2(g1.c, g2.c) < cutoff * cutoff) {
+          neighbors[count++] = atom2;
+        }
+      }
+      return copyOf(neighbors, count);
+    }
+
+    /**
+     * Update the overlap tree for new atomic positions. The overlaps are recomputed in place, and
+     * the children of an overlap are only rebuilt if its set of children has changed.
+     *
+     * @param pos Atomic positions.
+     * @param radii Atomic radii.
+     * @param volumes Atomic volumes.
+     * @param gammas Atomic surface tensions.
+     * @param ishydrogen True if the atom is a hydrogen.
+     */
+    void updateOverlapTree(
+        double[][] pos, double[] radii, double[] volumes, double[] gammas, boolean[] ishydrogen) {
+      initRescanTreeV(pos, radii, volumes, gammas, ishydrogen);
+      for (int slot = 1; slot <= nAtoms; slot++) {
+        updateR(slot, neighborLists[slot - 1]);
+      }
+    }
+
+    /**
+     * Update the sub-tree under the given slot (recursive). The overlap at the slot must already be
+     * up to date.
+     *
+     * @param slot The slot to begin from.
+     * @param neighbors For an atom, the younger atoms that may overlap it (or null to scan all).
+     */
+    void updateR(int slot, int[] neighbors) {
+      GaussianOverlap ov = overlaps.get(slot);
+      int start = ov.childrenStartIndex;
+      int count = max(ov.childrenCount, 0);
+
+      if (++mark == Integer.MAX_VALUE) {
+        fill(marks, 0);
+        mark = 1;
+      }
+
+      // Recompute the children in place; the topology changed if one no longer overlaps.
+      boolean changed = false;
+      for (int i = start; i < start + count; i++) {
+        GaussianOverlap child = overlaps.get(i);
+        rescanOverlap(child);
+        marks[child.atom] = mark;
+        if (child.volume <= MIN_GVOL) {
+          changed = true;
+        }
+      }
+
+      // The topology also changed if a younger sibling that is not a child now overlaps.
+      if (!changed && ov.level < MAX_ORDER) {
+        if (neighbors != null && ov.level == 1) {
+          for (int atom2 : neighbors) {
+            if (marks[atom2] != mark && overlaps(ov.g, atom2)) {
+              changed = true;
+              break;
+            }
+          }
+        } else {
+          GaussianOverlap parent = overlaps.get(ov.parentIndex);
+          int siblingEnd = parent.childrenStartIndex + parent.childrenCount;
+          for (int slotj = slot + 1; slotj < siblingEnd; slotj++) {
+            int atom2 = overlaps.get(slotj).atom;
+            if (marks[atom2] != mark && overlaps(ov.g, atom2)) {
+              changed = true;
+              break;
+            }
+          }
         }
       }
+
+      if (changed) {
+        // Abandon the old children and append a new subtree.
+        int abandoned = nChildrenUnderSlotR(slot);
+        abandonedCount += abandoned;
+        overlapCount -= abandoned;
+        ov.childrenStartIndex = -1;
+        ov.childrenCount = -1;
+        computeAndAddChildrenR(slot, neighbors);
+        subtreeRebuildCount++;
+        return;
+      }
+
+      for (int i = start; i < start + count; i++) {
+        updateR(i, null);
+      }
+    }
+
+    /**
+     * Check if an overlap Gaussian and an atom overlap (i.e. their switched overlap volume is above
+     * threshold).
+     *
+     * @param g1 The overlap Gaussian.
+     * @param atom2 The atom.
+     * @return True if a child overlap would be created.
+     */
+    private boolean overlaps(GaussianVca g1, int atom2) {
+      GaussianVca g2 = overlaps.get(atom2 + 1).g;
+      // Same arithmetic as overlapGaussianAlpha, so that both agree on the threshold.
+      double deltai = 1.0 / (g1.a + g2.a);
+      double df = (g1.a) * (g2.a) * deltai;
+      double gvol = ((g1.v * g2.v) / pow(PI / df, 1.5)) * exp(-df * dist2(g1.c, g2.c));
+      return switchingFunction(gvol, VOLMINA, VOLMINB, sp) * gvol > MIN_GVOL;
     }
 
     /**
@@ -950,8 +1323,7 @@ public class GaussVol {
         double[][] pos, double[] radii, double[] volumes, double[] gammas, boolean[] ishydrogen) {
       initOverlapTree(pos, radii, volumes, gammas, ishydrogen);
       for (int slot = 1; slot <= nAtoms; slot++) {
-        computeAndAddChildrenR(slot);
-        totalNumberOfOverlaps++;
+        computeAndAddAtomChildren(slot);
       }
     }
 
@@ -1194,30 +1566,7 @@ public class GaussVol {
       // Recompute its own overlap by merging parent and last atom.
       parentIndex = ov.parentIndex;
       if (parentIndex > 0) {
-        GaussianVca g12 = new GaussianVca();
-        double[] dVdr = new double[1];
-        double[] dVdV = new double[1];
-        double[] sfp = new double[1];
-
-        int atom = ov.atom;
-        GaussianOverlap parent = overlaps.get(parentIndex);
-        GaussianVca g1 = parent.g;
-
-        // Atoms are stored in the tree at indexes 1...N
-        GaussianVca g2 = overlaps.get(atom + 1).g;
-        double gvol = overlapGaussianAlpha(g1, g2, g12, dVdr, dVdV, sfp);
-        ov.g = g12;
-        ov.volume = gvol;
-
-        // dv1 is the gradient of V(123..)n with respect to the position of 1
-        // ov.dv1 = ( g2.c - g1.c ) * (-dVdr);
-        sub(g2.c, g1.c, ov.dv1);
-        scale(ov.dv1, -dVdr[0], ov.dv1);
-
-        // dvv1 is the derivative of V(123...)n with respect to V(123...)
-        ov.dvv1 = dVdV[0];
-        ov.sfp = sfp[0];
-        ov.gamma1i = parent.gamma1i + overlaps.get(atom + 1).gamma1i;
+        rescanOverlap(ov);
       }
 
       // Calls itself recursively on the children.
@@ -1228,6 +1577,38 @@ public class GaussVol {
       }
     }
 
+    /**
+     * Recompute an overlap by merging its parent and last atom.
+     *
+     * @param ov The overlap to recompute.
+     */
+    private void rescanOverlap(GaussianOverlap ov) {
+      GaussianVca g12 = new GaussianVca();
+      double[] dVdr = new double[1];
+      double[] dVdV = new double[1];
+      double[] sfp = new double[1];
+
+      int atom = ov.atom;
+      GaussianOverlap parent = overlaps.get(ov.parentIndex);
+      GaussianVca g1 = parent.g;
+
+      // Atoms are stored in the tree at indexes 1...N
+      GaussianVca g2 = overlaps.get(atom + 1).g;
+      double gvol = overlapGaussianAlpha(g1, g2, g12, dVdr, dVdV, sfp);
+      ov.g = g12;
+      ov.volume = gvol;
+
+      // dv1 is the gradient of V(123..)n with respect to the position of 1
+      // ov.dv1 = ( g2.c - g1.c ) * (-dVdr);
+      sub(g2.c, g1.c, ov.dv1);
+      scale(ov.dv1, -dVdr[0], ov.dv1);
+
+      // dvv1 is the derivative of V(123...)n with respect to V(123...)
+      ov.dvv1 = dVdV[0];
+      ov.sfp = sfp[0];
+      ov.gamma1i = parent.gamma1i + overlaps.get(atom + 1).gamma1i;
+    }
+
     /**
      * Init rescan of the tree to recompute the volumes. It does not modify the tree.
      *
@@ -1362,6 +1743,7 @@ public class GaussVol {
     private ComputeTreeLoop[] computeTreeLoops;
     private ComputeVolumeLoop[] computeVolumeLoops;
     private RescanTreeLoop[] rescanTreeLoops;
+    private UpdateTreeLoop[] updateTreeLoops;
     private ReductionLoop[] reductionLoops;
     private int mode = 0;
     private double[][] coordinates = null;
@@ -1376,9 +1758,16 @@ public class GaussVol {
       computeTreeLoops = new ComputeTreeLoop[nThreads];
       computeVolumeLoops = new ComputeVolumeLoop[nThreads];
       rescanTreeLoops = new RescanTreeLoop[nThreads];
+      updateTreeLoops = new UpdateTreeLoop[nThreads];
       reductionLoops = new ReductionLoop[nThreads];
     }
 
+    /**
+     * Initialize the region.
+     *
+     * @param mode 0 to build the tree, 1 to update it incrementally and 2 to rescan it.
+     * @param coordinates Atomic coordinates.
+     */
     public void init(int mode, double[][] coordinates) {
       this.mode = mode;
       this.coordinates = coordinates;
@@ -1400,6 +1789,7 @@ public class GaussVol {
         computeTreeLoops[threadIndex] = new ComputeTreeLoop();
         computeVolumeLoops[threadIndex] = new ComputeVolumeLoop();
         rescanTreeLoops[threadIndex] = new RescanTreeLoop();
+        updateTreeLoops[threadIndex] = new UpdateTreeLoop();
         reductionLoops[threadIndex] = new ReductionLoop();
       }
       try {
@@ -1407,6 +1797,10 @@ public class GaussVol {
           execute(1, nAtoms, computeTreeLoops[threadIndex]);
           execute(1, nAtoms, computeVolumeLoops[threadIndex]);
           execute(0, nAtoms - 1, reductionLoops[threadIndex]);
+        } else if (mode == 1) {
+          execute(1, nAtoms, updateTreeLoops[threadIndex]);
+          execute(1, nAtoms, computeVolumeLoops[threadIndex]);
+          execute(0, nAtoms - 1, reductionLoops[threadIndex]);
         } else {
           execute(1, nAtoms, rescanTreeLoops[threadIndex]);
           execute(1, nAtoms, computeVolumeLoops[threadIndex]);
@@ -1428,10 +1822,16 @@ public class GaussVol {
         // Compute the overlaps for a subset of atoms.
         int threadIndex = getThreadIndex();
         for (int slot = first; slot <= last; slot++) {
-          localTree[threadIndex].computeAndAddChildrenR(slot);
+          localTree[threadIndex].computeAndAddAtomChildren(slot);
         }
       }
 
+      /** Each thread's tree holds the atoms it was assigned, so the schedule must be fixed. */
+      @Override
+      public IntegerSchedule schedule() {
+        return IntegerSchedule.fixed();
+      }
+
       @Override
       public void start() {
         localTree[getThreadIndex()].initOverlapTree(
@@ -1474,6 +1874,11 @@ public class GaussVol {
           energy.addAndGet(energy1i[0]);
         }
       }
+
+      @Override
+      public IntegerSchedule schedule() {
+        return IntegerSchedule.fixed();
+      }
     }
 
     /** Rescan the tree based on updated radii and volumes for a subset of the system. */
@@ -1487,6 +1892,33 @@ public class GaussVol {
         }
       }
 
+      @Override
+      public IntegerSchedule schedule() {
+        return IntegerSchedule.fixed();
+      }
+
+      @Override
+      public void start() {
+        localTree[getThreadIndex()].initRescanTreeV(
+            coordinates, radii, volumes, gammas, ishydrogen);
+      }
+    }
+
+    /** Incrementally update the tree for new coordinates for a subset of the system. */
+    private class UpdateTreeLoop extends IntegerForLoop {
+      @Override
+      public void run(int first, int last) throws Exception {
+        int threadIndex = getThreadIndex();
+        for (int slot = first; slot <= last; slot++) {
+          localTree[threadIndex].updateR(slot, neighborLists[slot - 1]);
+        }
+      }
+
+      @Override
+      public IntegerSchedule schedule() {
+        return IntegerSchedule.fixed();
+      }
+
       @Override
       public void start() {
         localTree[getThreadIndex()].initRescanTreeV(
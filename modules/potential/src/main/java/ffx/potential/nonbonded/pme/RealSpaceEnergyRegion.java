@@ -67,6 +67,7 @@ import ffx.crystal.SymOp;
 import ffx.numerics.atomic.AtomicDoubleArray3D;
 import ffx.potential.bonded.Atom;
 import ffx.potential.nonbonded.MaskingInterface;
+import ffx.potential.nonbonded.NeighborTile;
 import ffx.potential.nonbonded.ParticleMeshEwald;
 import ffx.potential.nonbonded.ParticleMeshEwald.LambdaMode;
 import ffx.potential.nonbonded.ParticleMeshEwald.Polarization;
@@ -528,9 +529,10 @@ public class RealSpaceEnergyRegion extends ParallelRegion implements MaskingInte
    */
   private class RealSpaceEnergyLoop extends IntegerForLoop {
 
-    private final double[] dx_local;
     private final double[][] rot_local;
     private final Torque torques;
+    /** Neighbor separations gathered into contiguous arrays. */
+    private final NeighborTile tile;
     private double ci;
     private double dix, diy, diz;
     private double qixx, qiyy, qizz, qixy, qixz, qiyz;
@@ -570,9 +572,9 @@ public class RealSpaceEnergyRegion extends ParallelRegion implements MaskingInte
 
     RealSpaceEnergyLoop() {
       super();
-      dx_local = new double[3];
       rot_local = new double[3][3];
       torques = new Torque();
+      tile = new NeighborTile();
     }
 
     @Override
@@ -777,6 +779,12 @@ public class RealSpaceEnergyRegion extends ParallelRegion implements MaskingInte
         final double pti = thole[i];
         final int[] list = lists[i];
         final int npair = realSpaceCounts[iSymm][i];
+        // Gather the neighbor separations and apply the minimum image convention in one pass.
+        tile.gather(xi, yi, zi, list, npair, neighborX, neighborY, neighborZ, crystal);
+        final double[] tileX = tile.dx;
+        final double[] tileY = tile.dy;
+        final double[] tileZ = tile.dz;
+        final double[] tileR2 = tile.r2;
         for (int j = 0; j < npair; j++) {
           k = list[j];
           if (!use[k]) {
@@ -800,16 +808,10 @@ public class RealSpaceEnergyRegion extends ParallelRegion implements MaskingInte
             beta = lAlpha;
             l2 = permanentScale;
           }
-          final double xk = neighborX[k];
-          final double yk = neighborY[k];
-          final double zk = neighborZ[k];
-          dx_local[0] = xk - xi;
-          dx_local[1] = yk - yi;
-          dx_local[2] = zk - zi;
-          r2 = crystal.image(dx_local);
-          xr = dx_local[0];
-          yr = dx_local[1];
-          zr = dx_local[2];
+          r2 = tileR2[j];
+          xr = tileX[j];
+          yr = tileY[j];
+          zr = tileZ[j];
           final double[] globalMultipolek = neighborMultipole[k];
           final double[] inducedDipolek = neighborInducedDipole[k];
           final double[] inducedDipolepk = neighborInducedDipolep[k];
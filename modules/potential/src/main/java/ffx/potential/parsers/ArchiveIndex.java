@@ -0,0 +1,593 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.potential.parsers;
+
+import static java.lang.String.format;
+
+import edu.rit.pj.IntegerForLoop;
+import edu.rit.pj.IntegerSchedule;
+import edu.rit.pj.ParallelRegion;
+import edu.rit.pj.ParallelTeam;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The ArchiveIndex class provides random access to the frames of a TINKER archive (*.ARC or
+ * multi-frame *.XYZ).
+ *
+ * <p>The byte offset of each frame is recorded in a sidecar file (the archive name plus ".idx")
+ * that holds a short header followed by one long per frame. The sidecar is append-only, so
+ * molecular dynamics can extend it as frames are written (see {@link #appendOffset}), and an index
+ * that is behind its archive is brought up to date by scanning only the new frames. Frames are read
+ * from memory-mapped regions of the archive, which allows independent frames to be parsed
+ * concurrently (see {@link #forEachFrame}).
+ *
+ * @author Michael J. Schnieders
+ * @since 1.0
+ */
+public class ArchiveIndex implements Closeable {
+
+  private static final Logger logger = Logger.getLogger(ArchiveIndex.class.getName());
+  /** The sidecar magic number ("FFXI"). */
+  private static final int MAGIC = 0x46465849;
+  /** The sidecar version. */
+  private static final int VERSION = 1;
+  /** Size of the sidecar header in bytes (magic, version and number of atoms). */
+  private static final int HEADER_BYTES = 12;
+
+  private final File archive;
+  private final File indexFile;
+  private final int nAtoms;
+  private final FileChannel channel;
+  /** Offset of each indexed frame. */
+  private long[] offsets = new long[64];
+  /** Number of indexed frames. */
+  private int nFrames = 0;
+  /** Offset one past the end of the last indexed frame. */
+  private long end = 0;
+
+  private ArchiveIndex(File archive, int nAtoms) throws IOException {
+    this.archive = archive;
+    this.nAtoms = nAtoms;
+    indexFile = getIndexFile(archive);
+    channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ);
+  }
+
+  /**
+   * Open the index for an archive. A valid sidecar index is loaded and extended to cover any frames
+   * appended since it was written; otherwise the archive is scanned and a new sidecar is saved if
+   * possible.
+   *
+   * @param archive The archive.
+   * @param nAtoms The number of atoms in each frame.
+   * @return The ArchiveIndex.
+   * @throws IOException If the archive could not be read.
+   */
+  public static ArchiveIndex open(File archive, int nAtoms) throws IOException {
+    ArchiveIndex index = new ArchiveIndex(archive, nAtoms);
+    try {
+      int loaded = index.load();
+      if (loaded > 0) {
+        // Re-scan from the last recorded frame to find its end and any later frames.
+        index.nFrames = loaded - 1;
+        index.scan(index.offsets[loaded - 1]);
+        if (index.nFrames < loaded) {
+          // The last recorded frame is no longer complete, so the archive was rewritten.
+          loaded = 0;
+        }
+      }
+      if (loaded == 0) {
+        index.nFrames = 0;
+        index.scan(0);
+        index.save();
+      } else if (index.nFrames > loaded) {
+        index.save();
+      }
+    } catch (IOException e) {
+      index.close();
+      throw e;
+    }
+    return index;
+  }
+
+  /**
+   * Record the offset of a frame that was just appended to an archive. A sidecar is only started
+   * for a new archive (offset 0); otherwise an existing sidecar is extended, and a missing one is
+   * left to be built by the next reader.
+   *
+   * @param archive The archive.
+   * @param nAtoms The number of atoms in each frame.
+   * @param offset The byte offset at which the frame was written.
+   */
+  public static void appendOffset(File archive, int nAtoms, long offset) {
+    File indexFile = getIndexFile(archive);
+    boolean exists = indexFile.exists();
+    if (!exists && offset != 0) {
+      return;
+    }
+    try {
+      if (exists && (indexFile.length() < HEADER_BYTES || readAtoms(indexFile) != nAtoms)) {
+        // Leave an incompatible index to be rebuilt by the next reader.
+        indexFile.delete();
+        if (offset != 0) {
+          return;
+        }
+      }
+      boolean header = !indexFile.exists() || offset == 0;
+      try (DataOutputStream out =
+          new DataOutputStream(new FileOutputStream(indexFile, !header))) {
+        if (header) {
+          writeHeader(out, nAtoms);
+        }
+        out.writeLong(offset);
+      }
+    } catch (IOException e) {
+      String message = format(" Exception updating archive index %s.", indexFile);
+      logger.log(Level.WARNING, message, e);
+    }
+  }
+
+  /**
+   * The sidecar index file for an archive.
+   *
+   * @param archive The archive.
+   * @return The index file.
+   */
+  public static File getIndexFile(File archive) {
+    return new File(archive.getPath() + ".idx");
+  }
+
+  private static int readAtoms(File indexFile) throws IOException {
+    try (DataInputStream in = new DataInputStream(new FileInputStream(indexFile))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        return -1;
+      }
+      return in.readInt();
+    }
+  }
+
+  private static void writeHeader(DataOutputStream out, int nAtoms) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(nAtoms);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void close() {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      logger.log(Level.WARNING, format(" Exception closing archive %s.", archive), e);
+    }
+  }
+
+  /**
+   * Execute a consumer for every frame in parallel. Each thread parses frames into its own Frame
+   * instance, which is passed to the consumer and then reused; the consumer must be thread-safe
+   * and copy anything it keeps.
+   *
+   * @param parallelTeam The ParallelTeam to use.
+   * @param consumer The consumer of each frame.
+   * @return true if every frame was read.
+   */
+  public boolean forEachFrame(ParallelTeam parallelTeam, Consumer<Frame> consumer) {
+    int n = nFrames;
+    if (n == 0) {
+      return true;
+    }
+    try {
+      parallelTeam.execute(
+          new ParallelRegion() {
+            @Override
+            public void run() throws Exception {
+              Frame frame = new Frame(nAtoms);
+              execute(
+                  0,
+                  n - 1,
+                  new IntegerForLoop() {
+                    @Override
+                    public IntegerSchedule schedule() {
+                      return IntegerSchedule.dynamic();
+                    }
+
+                    @Override
+                    public void run(int lb, int ub) throws Exception {
+                      for (int i = lb; i <= ub; i++) {
+                        readFrame(i, frame);
+                        consumer.accept(frame);
+                      }
+                    }
+                  });
+            }
+          });
+      return true;
+    } catch (Exception e) {
+      String message = format(" Exception iterating over archive %s.", archive);
+      logger.log(Level.WARNING, message, e);
+      return false;
+    }
+  }
+
+  /**
+   * Getter for the field <code>archive</code>.
+   *
+   * @return The archive.
+   */
+  public File getArchive() {
+    return archive;
+  }
+
+  /**
+   * Get the number of indexed frames.
+   *
+   * @return The number of frames.
+   */
+  public int getFrameCount() {
+    return nFrames;
+  }
+
+  /**
+   * Get the byte offset of a frame.
+   *
+   * @param frame The frame index (0-based).
+   * @return The byte offset of the frame.
+   */
+  public long getOffset(int frame) {
+    if (frame < 0 || frame >= nFrames) {
+      throw new IndexOutOfBoundsException(format(" Frame %d of %d.", frame, nFrames));
+    }
+    return offsets[frame];
+  }
+
+  /**
+   * Read a frame into a Frame instance. This method is thread-safe.
+   *
+   * @param frame The frame index (0-based).
+   * @param into The Frame to fill.
+   * @throws IOException If the frame could not be read or parsed.
+   */
+  public void readFrame(int frame, Frame into) throws IOException {
+    readFrame(frame, into, null);
+  }
+
+  /**
+   * Read a frame into a Frame instance, splitting the atom lines of a large frame across a
+   * ParallelTeam. This method is thread-safe if each caller uses its own ParallelTeam.
+   *
+   * @param frame The frame index (0-based).
+   * @param into The Frame to fill.
+   * @param parallelTeam The ParallelTeam, or null to parse on the calling thread.
+   * @throws IOException If the frame could not be read or parsed.
+   */
+  public void readFrame(int frame, Frame into, ParallelTeam parallelTeam) throws IOException {
+    long start = getOffset(frame);
+    long stop = (frame + 1 < nFrames) ? offsets[frame + 1] : end;
+    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, stop - start);
+    into.index = frame;
+    into.parse(new XYZParser(buffer), archive, parallelTeam);
+  }
+
+  /**
+   * Extend the index to cover frames appended to the archive since it was opened.
+   *
+   * @return The number of frames.
+   * @throws IOException If the archive could not be read.
+   */
+  public int refresh() throws IOException {
+    int before = nFrames;
+    if (before > 0) {
+      nFrames--;
+      scan(offsets[nFrames]);
+    } else {
+      scan(0);
+    }
+    if (nFrames > before) {
+      save();
+    }
+    return nFrames;
+  }
+
+  /**
+   * Load offsets from the sidecar.
+   *
+   * @return The number of offsets loaded, or 0 if the sidecar is missing or invalid.
+   */
+  private int load() {
+    if (!indexFile.exists() || indexFile.length() < HEADER_BYTES + Long.BYTES) {
+      return 0;
+    }
+    long length = archive.length();
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != nAtoms) {
+        return 0;
+      }
+      int n = (int) ((indexFile.length() - HEADER_BYTES) / Long.BYTES);
+      offsets = new long[Math.max(64, n)];
+      long previous = -1;
+      for (int i = 0; i < n; i++) {
+        long offset = in.readLong();
+        if (offset <= previous || offset >= length) {
+          return 0;
+        }
+        offsets[i] = offset;
+        previous = offset;
+      }
+      // The last recorded frame must still begin with a header line.
+      try (LineScanner scanner = new LineScanner(archive, offsets[n - 1])) {
+        if (!scanner.next() || scanner.firstInteger() != nAtoms) {
+          return 0;
+        }
+      }
+      return n;
+    } catch (EOFException e) {
+      return 0;
+    } catch (IOException e) {
+      logger.fine(format(" Archive index %s could not be loaded: %s", indexFile, e));
+      return 0;
+    }
+  }
+
+  /** Save the offsets to the sidecar, which is skipped if the directory is not writable. */
+  private void save() {
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+      writeHeader(out, nAtoms);
+      for (int i = 0; i < nFrames; i++) {
+        out.writeLong(offsets[i]);
+      }
+    } catch (IOException e) {
+      logger.fine(format(" Archive index %s could not be saved: %s", indexFile, e));
+    }
+  }
+
+  /**
+   * Scan the archive for complete frames, appending their offsets.
+   *
+   * @param start The offset of the first frame to scan.
+   * @throws IOException If the archive could not be read.
+   */
+  private void scan(long start) throws IOException {
+    end = start;
+    try (LineScanner scanner = new LineScanner(archive, start)) {
+      while (scanner.next()) {
+        if (scanner.isBlank()) {
+          end = scanner.position;
+          continue;
+        }
+        long frameStart = scanner.lineStart;
+        int n = scanner.firstInteger();
+        if (n != nAtoms) {
+          if (n >= 0) {
+            logger.warning(
+                format(
+                    " Number of atoms mismatch in %s (Archive: %d, System: %d).",
+                    archive, n, nAtoms));
+          }
+          return;
+        }
+        // Optional unit cell parameters, then one line per atom.
+        int count = 0;
+        boolean complete = false;
+        while (scanner.next()) {
+          if (scanner.isBlank()) {
+            continue;
+          }
+          if (count == 0 && scanner.firstInteger() < 0) {
+            continue;
+          }
+          if (++count == nAtoms) {
+            complete = true;
+            break;
+          }
+        }
+        if (!complete) {
+          // A partial frame, e.g. one still being written.
+          return;
+        }
+        if (nFrames == offsets.length) {
+          offsets = Arrays.copyOf(offsets, 2 * nFrames);
+        }
+        offsets[nFrames++] = frameStart;
+        end = scanner.position;
+      }
+    }
+  }
+
+  /** The coordinates, unit cell and remark of one archive frame. */
+  public static class Frame {
+
+    /** Atomic coordinates (x, y, z for each atom). */
+    public final double[] xyz;
+    /** Unit cell parameters (a, b, c, alpha, beta, gamma), valid if periodic is true. */
+    public final double[] cell = new double[6];
+    /** The frame index (0-based). */
+    public int index;
+    /** True if the frame includes unit cell parameters. */
+    public boolean periodic;
+    /** The header line of the frame. */
+    public String remark;
+    /** Start of each atom line, reused between frames. */
+    private int[] lineStarts = null;
+
+    /**
+     * Constructor for Frame.
+     *
+     * @param nAtoms The number of atoms.
+     */
+    public Frame(int nAtoms) {
+      xyz = new double[3 * nAtoms];
+    }
+
+    /**
+     * Parse the text of one frame.
+     *
+     * @param parser An XYZParser over the frame text.
+     * @param archive The archive, for error messages.
+     * @param parallelTeam A ParallelTeam to split large frames across, or null.
+     * @throws IOException If the text is not a complete frame.
+     */
+    void parse(XYZParser parser, File archive, ParallelTeam parallelTeam) throws IOException {
+      int nAtoms = xyz.length / 3;
+      int limit = parser.limit();
+      int eol = parser.lineEnd(0);
+      remark = parser.line(0, eol).trim();
+      int pos = eol + 1;
+
+      // Check for periodic box dimensions.
+      periodic = false;
+      if (pos < limit) {
+        eol = parser.lineEnd(pos);
+        if (!parser.firstTokenIsInteger(pos, eol)) {
+          periodic = parser.parseCell(pos, eol, cell);
+          pos = eol + 1;
+        }
+      }
+
+      if (lineStarts == null) {
+        lineStarts = new int[nAtoms + 1];
+      }
+      int found = parser.findLines(pos, lineStarts, nAtoms, true);
+      if (found < nAtoms) {
+        throw new IOException(
+            format(" Frame %d in %s has %d of %d atoms.", index + 1, archive, found, nAtoms));
+      }
+      int error = parser.parseCoordinates(lineStarts, nAtoms, xyz, parallelTeam);
+      if (error >= 0) {
+        throw new IOException(
+            format(" Check atom %d of frame %d in %s.", error + 1, index + 1, archive));
+      }
+    }
+  }
+
+  /** Sequential reader of archive lines that tracks byte offsets. */
+  private static class LineScanner implements Closeable {
+
+    private final InputStream in;
+    private final byte[] line = new byte[64];
+    /** Number of leading bytes of the line kept in <code>line</code>. */
+    private int length;
+    private boolean blank;
+    /** Offset of the current line. */
+    long lineStart;
+    /** Offset one past the end of the current line. */
+    long position;
+
+    LineScanner(File file, long start) throws IOException {
+      FileInputStream fileInputStream = new FileInputStream(file);
+      fileInputStream.getChannel().position(start);
+      in = new BufferedInputStream(fileInputStream, 1 << 16);
+      position = start;
+    }
+
+    /**
+     * Advance to the next line.
+     *
+     * @return false at the end of the file, including a final line without a newline.
+     */
+    boolean next() throws IOException {
+      lineStart = position;
+      length = 0;
+      blank = true;
+      int c;
+      while ((c = in.read()) != -1) {
+        position++;
+        if (c == '\n') {
+          return true;
+        }
+        if (c > ' ') {
+          blank = false;
+        }
+        if (length < line.length) {
+          line[length++] = (byte) c;
+        }
+      }
+      return false;
+    }
+
+    boolean isBlank() {
+      return blank;
+    }
+
+    /**
+     * Parse the first token of the line as a non-negative integer.
+     *
+     * @return The integer, or -1 if the first token is not an integer.
+     */
+    int firstInteger() {
+      int i = 0;
+      while (i < length && line[i] <= ' ') {
+        i++;
+      }
+      int start = i;
+      long value = 0;
+      while (i < length && line[i] >= '0' && line[i] <= '9') {
+        value = 10 * value + (line[i++] - '0');
+        if (value > Integer.MAX_VALUE) {
+          return -1;
+        }
+      }
+      if (i == start || (i < length && line[i] > ' ') || i == line.length) {
+        return -1;
+      }
+      return (int) value;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,516 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.potential.parsers;
+
+import static java.lang.String.format;
+
+import ffx.crystal.Crystal;
+import ffx.potential.MolecularAssembly;
+import ffx.potential.Utilities.FileType;
+import ffx.potential.bonded.Atom;
+import ffx.potential.parameters.ForceField;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.OptionalDouble;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.configuration2.CompositeConfiguration;
+import org.apache.commons.io.FilenameUtils;
+import org.jogamp.vecmath.Vector3d;
+
+/**
+ * The TRJFilter class reads and writes Force Field X binary trajectory (*.TRJ) files.
+ *
+ * <p>A binary trajectory holds only coordinates; the topology (atom types and bonds) is read from
+ * the TINKER XYZ file named in the header, which is resolved relative to the trajectory. The
+ * layout and the optional lossy compression are described by {@link TRJStream}. The
+ * "trajectory-precision" property (Angstroms) selects compression for new trajectories.
+ *
+ * <p>As for an ARC file, <code>readFile</code> loads the topology and the first frame, and each call
+ * to <code>readNext</code> loads the following frame.
+ *
+ * @author Michael J. Schnieders
+ * @see TRJWriter
+ * @since 1.0
+ */
+public class TRJFilter extends SystemFilter {
+
+  private static final Logger logger = Logger.getLogger(TRJFilter.class.getName());
+  private TRJStream trjStream = null;
+  /** The stream that frames are appended to, which is kept open so frames are differenced. */
+  private TRJStream trjWriter = null;
+  /** The file that trjWriter appends to. */
+  private File writerFile = null;
+  private int snapShot;
+  private String remarkLine = "";
+  private double[] frameXYZ = null;
+
+  /**
+   * Constructor for TRJFilter.
+   *
+   * @param files a {@link java.util.List} object.
+   * @param system a {@link ffx.potential.MolecularAssembly} object.
+   * @param forceField a {@link ffx.potential.parameters.ForceField} object.
+   * @param properties a {@link org.apache.commons.configuration2.CompositeConfiguration} object.
+   */
+  public TRJFilter(
+      List<File> files,
+      MolecularAssembly system,
+      ForceField forceField,
+      CompositeConfiguration properties) {
+    super(files, system, forceField, properties);
+    this.fileType = FileType.TRJ;
+  }
+
+  /**
+   * Constructor for TRJFilter.
+   *
+   * @param file a {@link java.io.File} object.
+   * @param system a {@link ffx.potential.MolecularAssembly} object.
+   * @param forceField a {@link ffx.potential.parameters.ForceField} object.
+   * @param properties a {@link org.apache.commons.configuration2.CompositeConfiguration} object.
+   */
+  public TRJFilter(
+      File file,
+      MolecularAssembly system,
+      ForceField forceField,
+      CompositeConfiguration properties) {
+    super(file, system, forceField, properties);
+    this.fileType = FileType.TRJ;
+  }
+
+  /**
+   * Return the TINKER XYZ topology file for a binary trajectory.
+   *
+   * @param trjFile The binary trajectory.
+   * @return The topology file, or null if the header could not be read.
+   */
+  public static File getTopologyFile(File trjFile) {
+    TRJStream.Header header = TRJStream.readHeader(trjFile);
+    if (header == null) {
+      return null;
+    }
+    Path dir = trjFile.getAbsoluteFile().toPath().getParent();
+    return dir.resolve(header.topology).toFile();
+  }
+
+  /**
+   * Return a TINKER XYZ topology file for the assembly to be written to the binary trajectory. The
+   * assembly file is used if it is an XYZ file; otherwise an XYZ file with the base name of the
+   * trajectory is written if it does not already exist.
+   *
+   * @param assembly The MolecularAssembly.
+   * @param trjFile The binary trajectory.
+   * @return The topology file.
+   */
+  public static File writeTopology(MolecularAssembly assembly, File trjFile) {
+    File file = assembly.getFile();
+    if (file != null && file.exists() && new XYZFileFilter().accept(file)) {
+      return file;
+    }
+    String base = FilenameUtils.removeExtension(trjFile.getAbsolutePath());
+    File topology = new File(base + ".xyz");
+    if (!topology.exists()) {
+      String name = assembly.getName();
+      XYZFilter xyzFilter =
+          new XYZFilter(topology, assembly, assembly.getForceField(), assembly.getProperties());
+      if (xyzFilter.writeFile(topology, false)) {
+        logger.info(format(" Wrote trajectory topology to %s", topology.getName()));
+      }
+      // XYZFilter changes the assembly file and name.
+      assembly.setFile(file);
+      assembly.setName(name);
+    }
+    return topology;
+  }
+
+  /**
+   * Collect the coordinates, unit cell and remark for a frame of the assembly.
+   *
+   * @param assembly The MolecularAssembly.
+   * @param vdwH Use the van der Waals centers of hydrogen atoms.
+   * @param xyz The coordinates (length 3 * nAtoms).
+   * @param cell The unit cell parameters (length 6).
+   * @return true if the system is periodic.
+   */
+  static boolean getFrame(MolecularAssembly assembly, boolean vdwH, double[] xyz, double[] cell) {
+    Vector3d offset = assembly.getOffset();
+    for (Atom a : assembly.getAtomList()) {
+      int i3 = (a.getIndex() - 1) * 3;
+      if (vdwH) {
+        xyz[i3] = a.getRedX() - offset.x;
+        xyz[i3 + 1] = a.getRedY() - offset.y;
+        xyz[i3 + 2] = a.getRedZ() - offset.z;
+      } else {
+        xyz[i3] = a.getX() - offset.x;
+        xyz[i3 + 1] = a.getY() - offset.y;
+        xyz[i3 + 2] = a.getZ() - offset.z;
+      }
+    }
+    Crystal crystal = assembly.getCrystal();
+    if (crystal == null || crystal.aperiodic()) {
+      return false;
+    }
+    Crystal uc = crystal.getUnitCell();
+    cell[0] = uc.a;
+    cell[1] = uc.b;
+    cell[2] = uc.c;
+    cell[3] = uc.alpha;
+    cell[4] = uc.beta;
+    cell[5] = uc.gamma;
+    return true;
+  }
+
+  /**
+   * Build the remark line for a frame.
+   *
+   * @param assembly The MolecularAssembly.
+   * @param extraLines Additional lines, or null.
+   * @return The remark line.
+   */
+  static String getRemark(MolecularAssembly assembly, String[] extraLines) {
+    StringBuilder sb = new StringBuilder(assembly.toString());
+    if (extraLines != null) {
+      for (String line : extraLines) {
+        sb.append(" ").append(line.replaceAll("\n", " "));
+      }
+    }
+    return sb.toString();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void closeReader() {
+    if (trjStream != null) {
+      try {
+        trjStream.close();
+      } catch (IOException ex) {
+        logger.warning(format(" Exception in closing TRJ filter: %s", ex.toString()));
+      }
+      trjStream = null;
+    }
+    closeWriter();
+  }
+
+  /**
+   * Close the stream that <code>writeFile</code> appends to. The next call to <code>writeFile
+   * </code> reopens the trajectory and begins with a keyframe.
+   */
+  public void closeWriter() {
+    if (trjWriter != null) {
+      try {
+        trjWriter.close();
+      } catch (IOException ex) {
+        logger.warning(format(" Exception in closing TRJ filter: %s", ex.toString()));
+      }
+      trjWriter = null;
+      writerFile = null;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Frames are counted by skipping over them, without reading coordinates.
+   */
+  @Override
+  public int countNumModels() {
+    File trjFile = activeMolecularAssembly.getFile();
+    TRJStream.Header header = TRJStream.readHeader(trjFile);
+    if (header == null) {
+      return 1;
+    }
+    try (RandomAccessFile raf = new RandomAccessFile(trjFile, "r")) {
+      long position = header.size();
+      long length = raf.length();
+      int nSnaps = 0;
+      while (position + 4 <= length) {
+        raf.seek(position);
+        position += 4 + raf.readInt();
+        if (position > length) {
+          break;
+        }
+        nSnaps++;
+      }
+      return nSnaps;
+    } catch (Exception ex) {
+      logger.log(
+          Level.WARNING, format(" Exception reading trajectory file %s: %s", trjFile, ex));
+      return 1;
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public OptionalDouble getLastReadLambda() {
+    String[] toks = remarkLine.split("\\s+");
+    int nToks = toks.length;
+    for (int i = 0; i < (nToks - 1); i++) {
+      if (toks[i].equals("Lambda:")) {
+        return OptionalDouble.of(Double.parseDouble(toks[i + 1]));
+      }
+    }
+    return OptionalDouble.empty();
+  }
+
+  @Override
+  public String[] getRemarkLines() {
+    return new String[] {remarkLine};
+  }
+
+  @Override
+  public int getSnapshot() {
+    return snapShot;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Parse the XYZ topology named in the header, then load the first frame.
+   */
+  @Override
+  public boolean readFile() {
+    File trjFile = activeMolecularAssembly.getFile();
+    TRJStream.Header header = TRJStream.readHeader(trjFile);
+    if (header == null) {
+      logger.warning(format(" %s is not a binary trajectory.", trjFile.getName()));
+      return false;
+    }
+    File topology = getTopologyFile(trjFile);
+    if (topology == null || !topology.exists()) {
+      logger.warning(
+          format(" Topology %s for %s was not found.", header.topology, trjFile.getName()));
+      return false;
+    }
+
+    XYZFilter xyzFilter =
+        new XYZFilter(topology, activeMolecularAssembly, forceField, properties);
+    activeMolecularAssembly.setFile(topology);
+    boolean read = xyzFilter.readFile();
+    activeMolecularAssembly.setFile(trjFile);
+    if (!read) {
+      return false;
+    }
+    atomList = xyzFilter.atomList;
+    bondList = xyzFilter.bondList;
+    int nAtoms = atomList.size();
+    if (nAtoms != header.nAtoms) {
+      logger.warning(
+          format(
+              " Number of atoms mismatch (Trajectory: %d, Topology: %d).", header.nAtoms, nAtoms));
+      return false;
+    }
+
+    try {
+      openReader();
+      snapShot = 1;
+      if (readFrame()) {
+        for (int i = 0; i < nAtoms; i++) {
+          int i3 = 3 * i;
+          atomList.get(i).moveTo(frameXYZ[i3], frameXYZ[i3 + 1], frameXYZ[i3 + 2]);
+        }
+        setUnitCell();
+      } else {
+        logger.info(format(" %s contains no frames.", trjFile.getName()));
+      }
+    } catch (IOException e) {
+      String message = format(" Exception reading from file %s.", trjFile);
+      logger.log(Level.WARNING, message, e);
+      return false;
+    }
+    setFileRead(true);
+    return true;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean readNext() {
+    return readNext(false);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean readNext(boolean resetPosition) {
+    return readNext(resetPosition, true);
+  }
+
+  /**
+   * Reads the next frame of the binary trajectory into the activeMolecularAssembly. After calling
+   * this function, an input stream will remain open until the <code>closeReader</code> method is
+   * called.
+   */
+  @Override
+  public boolean readNext(boolean resetPosition, boolean print) {
+    Atom[] atoms = activeMolecularAssembly.getAtomArray();
+    int nSystem = atoms.length;
+    try {
+      if (trjStream == null || resetPosition) {
+        int nArchive = openReader().getHeader().nAtoms;
+        if (nArchive != nSystem) {
+          String message =
+              format("Number of atoms mismatch (Archive: %d, System: %d).", nArchive, nSystem);
+          if (dieOnMissingAtom) {
+            logger.severe(message);
+          }
+          logger.warning(message);
+          closeReader();
+          return false;
+        }
+        // Read past the first frame, which was loaded by readFile. It is decoded rather than
+        // skipped, since compressed frames that follow are differenced against it.
+        readFrame();
+        snapShot = 1;
+      }
+
+      snapShot++;
+      if (print) {
+        logger.info(format("\n Attempting to read snapshot %d.", snapShot));
+      }
+      if (!readFrame()) {
+        return false;
+      }
+      for (int i = 0; i < nSystem; i++) {
+        int i3 = 3 * i;
+        atoms[i].moveTo(frameXYZ[i3], frameXYZ[i3 + 1], frameXYZ[i3 + 2]);
+      }
+      setUnitCell();
+      return true;
+    } catch (IOException e) {
+      String message = format(" Exception reading from file %s.", currentFile);
+      logger.log(Level.WARNING, message, e);
+    }
+    return false;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Write the current coordinates as one frame of a binary trajectory. When appending to the
+   * same file as the previous call, the trajectory is kept open so that compressed frames are
+   * differenced against the previous frame rather than each beginning with a keyframe. Each frame
+   * is flushed once written; the stream is released by <code>closeWriter</code>.
+   */
+  @Override
+  public boolean writeFile(File saveFile, boolean append, String[] extraLines) {
+    if (saveFile == null) {
+      return false;
+    }
+    File newFile = saveFile;
+    if (!append) {
+      newFile = version(saveFile);
+    }
+    int nAtoms = activeMolecularAssembly.getAtomList().size();
+    double[] xyz = new double[3 * nAtoms];
+    double[] cell = new double[6];
+    boolean periodic = getFrame(activeMolecularAssembly, vdwH, xyz, cell);
+    String remark = getRemark(activeMolecularAssembly, extraLines);
+    try {
+      if (trjWriter == null || !append || !newFile.equals(writerFile)) {
+        closeWriter();
+        File topology = writeTopology(activeMolecularAssembly, newFile);
+        double precision = 0.0;
+        if (properties != null) {
+          precision = properties.getDouble("trajectory-precision", 0.0);
+        }
+        trjWriter = TRJStream.openForAppend(newFile, nAtoms, topology, precision);
+        writerFile = newFile;
+      }
+      trjWriter.writeFrame(xyz, periodic, cell, remark);
+      trjWriter.flush();
+    } catch (IOException e) {
+      String message = format(" There was an unexpected error writing to %s.", newFile);
+      logger.log(Level.WARNING, message, e);
+      closeWriter();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Open the trajectory and position the stream at the first frame.
+   *
+   * @return The stream.
+   */
+  private TRJStream openReader() throws IOException {
+    closeReader();
+    trjStream = TRJStream.openForRead(currentFile);
+    int n = 3 * trjStream.getHeader().nAtoms;
+    if (frameXYZ == null || frameXYZ.length != n) {
+      frameXYZ = new double[n];
+    }
+    return trjStream;
+  }
+
+  /**
+   * Read the next frame into the frame buffer.
+   *
+   * @return false at the end of the file.
+   */
+  private boolean readFrame() throws IOException {
+    if (!trjStream.readFrame(frameXYZ)) {
+      return false;
+    }
+    remarkLine = trjStream.remark;
+    return true;
+  }
+
+  /** Apply the unit cell of the last frame read, as XYZFilter does for an archive. */
+  private void setUnitCell() {
+    if (!trjStream.periodic) {
+      return;
+    }
+    double[] frameCell = trjStream.cell;
+    CompositeConfiguration config = activeMolecularAssembly.getProperties();
+    if (config != null) {
+      config.setProperty("a-axis", frameCell[0]);
+      config.setProperty("b-axis", frameCell[1]);
+      config.setProperty("c-axis", frameCell[2]);
+      config.setProperty("alpha", frameCell[3]);
+      config.setProperty("beta", frameCell[4]);
+      config.setProperty("gamma", frameCell[5]);
+    }
+    Crystal crystal = activeMolecularAssembly.getCrystal();
+    if (crystal != null) {
+      crystal.changeUnitCellParameters(
+          frameCell[0], frameCell[1], frameCell[2], frameCell[3], frameCell[4], frameCell[5]);
+    }
+  }
+}
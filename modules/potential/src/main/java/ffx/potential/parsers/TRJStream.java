@@ -0,0 +1,451 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.potential.parsers;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The TRJStream class encodes and decodes the frames of a Force Field X binary trajectory. All
+ * values are big-endian.
+ *
+ * <PRE>
+ * Header: int magic ("FFXT"), int version, int nAtoms, double precision,
+ *         int nBytes, byte[nBytes] topology (UTF-8)
+ * Frame:  int frameBytes (the number of bytes that follow, which allows frames to be skipped)
+ *         int nBytes, byte[nBytes] remark (UTF-8)
+ *         byte periodic, [6 doubles: a, b, c, alpha, beta, gamma]
+ *         precision == 0: 3 * nAtoms doubles (x, y, z for each atom)
+ *         precision  > 0: byte keyframe, int nBytes, byte[nBytes] compressed coordinates
+ * </PRE>
+ *
+ * <p>A positive precision (Angstroms) selects lossy compression in the spirit of the XTC format:
+ * coordinates are rounded to integer multiples of the precision, differenced, written as zigzag
+ * variable length integers and then entropy coded with Deflate. A keyframe differences each
+ * coordinate against the same coordinate of the previous atom; other frames difference against the
+ * previous frame. A keyframe is written every {@link #KEY_INTERVAL} frames and whenever a writer
+ * is opened, so a reader only needs to keep the previous frame to stream through the file.
+ *
+ * @author Michael J. Schnieders
+ * @see TRJFilter
+ * @see TRJWriter
+ * @since 1.0
+ */
+final class TRJStream implements Closeable {
+
+  /** The magic number "FFXT" that begins a binary trajectory. */
+  static final int MAGIC = 0x46465854;
+  /** The binary trajectory format version. */
+  static final int VERSION = 2;
+  /** Number of frames between compressed keyframes. */
+  static final int KEY_INTERVAL = 100;
+
+  private final Header header;
+  private final int n;
+  private final double precision;
+  private final DataInputStream in;
+  private final DataOutputStream out;
+  /** Quantized coordinates of the previous frame. */
+  private final long[] previous;
+  /** Variable length integer buffer. */
+  private final byte[] varints;
+  private byte[] packed;
+  private Deflater deflater = null;
+  private Inflater inflater = null;
+  private int framesSinceKey = 0;
+  private boolean haveKey = false;
+  /** The remark line of the last frame read. */
+  String remark = "";
+  /** True if the last frame read included unit cell parameters. */
+  boolean periodic = false;
+  /** True if the last frame read was a compressed keyframe. */
+  boolean keyframe = false;
+  /** Unit cell parameters of the last frame read. */
+  final double[] cell = new double[6];
+
+  private TRJStream(Header header, DataInputStream in, DataOutputStream out) {
+    this.header = header;
+    this.in = in;
+    this.out = out;
+    n = 3 * header.nAtoms;
+    precision = header.precision;
+    if (precision > 0.0) {
+      previous = new long[n];
+      varints = new byte[10 * n];
+      packed = new byte[n + 64];
+      if (out != null) {
+        deflater = new Deflater();
+      } else {
+        inflater = new Inflater();
+      }
+    } else {
+      previous = null;
+      varints = null;
+    }
+  }
+
+  /**
+   * Read the header of a binary trajectory.
+   *
+   * @param file The binary trajectory.
+   * @return The header, or null if the file is not a binary trajectory.
+   */
+  static Header readHeader(File file) {
+    try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+      return readHeader(in);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Open a binary trajectory for reading, positioned at the first frame.
+   *
+   * @param file The binary trajectory.
+   * @return a TRJStream.
+   * @throws IOException If the file could not be opened, or is not a binary trajectory.
+   */
+  static TRJStream openForRead(File file) throws IOException {
+    DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+    Header header = readHeader(in);
+    if (header == null) {
+      in.close();
+      throw new IOException(format(" %s is not a binary trajectory.", file));
+    }
+    return new TRJStream(header, in, null);
+  }
+
+  /**
+   * Open a binary trajectory for writing. If the file already exists its header is checked and
+   * frames are appended with the precision it was created with; otherwise the header is written.
+   *
+   * @param file The binary trajectory.
+   * @param nAtoms The number of atoms per frame.
+   * @param topology The TINKER XYZ topology file.
+   * @param precision Coordinate precision in Angstroms for lossy compression, or 0 for none.
+   * @return a TRJStream.
+   * @throws IOException If the file could not be opened, or is not compatible.
+   */
+  static TRJStream openForAppend(File file, int nAtoms, File topology, double precision)
+      throws IOException {
+    Header header;
+    boolean writeHeader = !file.exists() || file.length() == 0;
+    if (writeHeader) {
+      Path dir = file.getAbsoluteFile().toPath().getParent();
+      Path path = topology.getAbsoluteFile().toPath();
+      String name = dir.relativize(path).toString();
+      header = new Header(VERSION, nAtoms, Math.max(0.0, precision), name);
+    } else {
+      header = readHeader(file);
+      if (header == null || header.nAtoms != nAtoms) {
+        throw new IOException(
+            format(" %s is not a binary trajectory with %d atoms.", file.getName(), nAtoms));
+      }
+    }
+    DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16));
+    if (writeHeader) {
+      byte[] name = header.topology.getBytes(UTF_8);
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(nAtoms);
+      out.writeDouble(header.precision);
+      out.writeInt(name.length);
+      out.write(name);
+    }
+    return new TRJStream(header, null, out);
+  }
+
+  private static Header readHeader(DataInputStream in) throws IOException {
+    if (in.readInt() != MAGIC) {
+      return null;
+    }
+    int version = in.readInt();
+    if (version != VERSION) {
+      return null;
+    }
+    int nAtoms = in.readInt();
+    double precision = in.readDouble();
+    byte[] topology = new byte[in.readInt()];
+    in.readFully(topology);
+    return new Header(version, nAtoms, precision, new String(topology, UTF_8));
+  }
+
+  /**
+   * Getter for the field <code>header</code>.
+   *
+   * @return The header.
+   */
+  Header getHeader() {
+    return header;
+  }
+
+  /**
+   * Write one frame.
+   *
+   * @param xyz The coordinates (length 3 * nAtoms).
+   * @param periodic True if the unit cell parameters should be written.
+   * @param cell The unit cell parameters.
+   * @param remark The remark line.
+   * @throws IOException If the frame could not be written.
+   */
+  void writeFrame(double[] xyz, boolean periodic, double[] cell, String remark)
+      throws IOException {
+    byte[] bytes = remark.getBytes(UTF_8);
+    int frameBytes = 4 + bytes.length + 1 + (periodic ? 48 : 0);
+    int nPacked = 0;
+    boolean key = false;
+    if (precision > 0.0) {
+      key = framesSinceKey == 0;
+      nPacked = compress(xyz, key);
+      frameBytes += 5 + nPacked;
+      framesSinceKey = (framesSinceKey + 1) % KEY_INTERVAL;
+    } else {
+      frameBytes += 8 * n;
+    }
+    out.writeInt(frameBytes);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+    out.writeByte(periodic ? 1 : 0);
+    if (periodic) {
+      for (int i = 0; i < 6; i++) {
+        out.writeDouble(cell[i]);
+      }
+    }
+    if (precision > 0.0) {
+      out.writeByte(key ? 1 : 0);
+      out.writeInt(nPacked);
+      out.write(packed, 0, nPacked);
+    } else {
+      for (int i = 0; i < n; i++) {
+        out.writeDouble(xyz[i]);
+      }
+    }
+  }
+
+  /**
+   * Read the next frame. The remark and unit cell are available from the corresponding fields.
+   *
+   * @param xyz The coordinates (length 3 * nAtoms).
+   * @return false at the end of the file.
+   * @throws IOException If the frame could not be read.
+   */
+  boolean readFrame(double[] xyz) throws IOException {
+    try {
+      in.readInt();
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      remark = new String(bytes, UTF_8);
+      periodic = in.readByte() != 0;
+      if (periodic) {
+        for (int i = 0; i < 6; i++) {
+          cell[i] = in.readDouble();
+        }
+      }
+      if (precision > 0.0) {
+        keyframe = in.readByte() != 0;
+        int nPacked = in.readInt();
+        if (packed.length < nPacked) {
+          packed = new byte[nPacked];
+        }
+        in.readFully(packed, 0, nPacked);
+        decompress(nPacked, keyframe, xyz);
+      } else {
+        for (int i = 0; i < n; i++) {
+          xyz[i] = in.readDouble();
+        }
+      }
+      return true;
+    } catch (EOFException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Flush buffered output.
+   *
+   * @throws IOException If the output could not be flushed.
+   */
+  void flush() throws IOException {
+    if (out != null) {
+      out.flush();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void close() throws IOException {
+    if (deflater != null) {
+      deflater.end();
+    }
+    if (inflater != null) {
+      inflater.end();
+    }
+    if (in != null) {
+      in.close();
+    }
+    if (out != null) {
+      out.close();
+    }
+  }
+
+  /**
+   * Quantize, difference and entropy code the coordinates into the packed buffer.
+   *
+   * @return The number of packed bytes.
+   */
+  private int compress(double[] xyz, boolean key) {
+    int length = 0;
+    for (int i = 0; i < n; i++) {
+      long q = Math.round(xyz[i] / precision);
+      long delta;
+      if (key) {
+        delta = (i < 3) ? q : q - previous[i - 3];
+      } else {
+        delta = q - previous[i];
+      }
+      previous[i] = q;
+      // Zigzag encode so that small negative differences are small unsigned values.
+      long z = (delta << 1) ^ (delta >> 63);
+      while ((z & ~0x7FL) != 0) {
+        varints[length++] = (byte) ((z & 0x7F) | 0x80);
+        z >>>= 7;
+      }
+      varints[length++] = (byte) z;
+    }
+    deflater.reset();
+    deflater.setInput(varints, 0, length);
+    deflater.finish();
+    int nPacked = 0;
+    while (!deflater.finished()) {
+      if (nPacked == packed.length) {
+        byte[] grow = new byte[2 * packed.length];
+        System.arraycopy(packed, 0, grow, 0, nPacked);
+        packed = grow;
+      }
+      nPacked += deflater.deflate(packed, nPacked, packed.length - nPacked);
+    }
+    return nPacked;
+  }
+
+  /** Entropy decode, integrate and scale the packed coordinates. */
+  private void decompress(int nPacked, boolean key, double[] xyz) throws IOException {
+    if (!key && !haveKey) {
+      throw new IOException(" A compressed trajectory frame was read without a keyframe.");
+    }
+    int length = 0;
+    try {
+      inflater.reset();
+      inflater.setInput(packed, 0, nPacked);
+      while (!inflater.finished() && length < varints.length) {
+        int inflated = inflater.inflate(varints, length, varints.length - length);
+        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        length += inflated;
+      }
+    } catch (DataFormatException e) {
+      throw new IOException(e);
+    }
+    int index = 0;
+    for (int i = 0; i < n; i++) {
+      long z = 0;
+      int shift = 0;
+      byte b;
+      do {
+        if (index >= length) {
+          throw new IOException(" Truncated compressed trajectory frame.");
+        }
+        b = varints[index++];
+        z |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      long delta = (z >>> 1) ^ -(z & 1);
+      long q;
+      if (key) {
+        q = (i < 3) ? delta : previous[i - 3] + delta;
+      } else {
+        q = previous[i] + delta;
+      }
+      previous[i] = q;
+      xyz[i] = q * precision;
+    }
+    haveKey = true;
+  }
+
+  /** The binary trajectory header. */
+  static final class Header {
+
+    final int version;
+    final int nAtoms;
+    final double precision;
+    final String topology;
+
+    Header(int version, int nAtoms, double precision, String topology) {
+      this.version = version;
+      this.nAtoms = nAtoms;
+      this.precision = precision;
+      this.topology = topology;
+    }
+
+    /**
+     * The number of bytes in the header.
+     *
+     * @return the header size.
+     */
+    int size() {
+      return 24 + topology.getBytes(UTF_8).length;
+    }
+  }
+}
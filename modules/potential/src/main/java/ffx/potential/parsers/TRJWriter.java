@@ -0,0 +1,219 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.potential.parsers;
+
+import static java.lang.String.format;
+
+import ffx.potential.MolecularAssembly;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The TRJWriter class appends frames to a binary trajectory (see {@link TRJFilter}) from a
+ * background thread, so that the caller (e.g. molecular dynamics) does not wait on disk I/O.
+ *
+ * <p>Coordinates are copied into one of a fixed number of frame buffers that cycle between a free
+ * queue and a pending queue. The caller only blocks if every buffer is waiting to be written. The
+ * file is kept open between frames until <code>close</code> is called. Compression, if requested,
+ * also runs on the writer thread.
+ *
+ * @author Michael J. Schnieders
+ * @since 1.0
+ */
+public class TRJWriter {
+
+  private static final Logger logger = Logger.getLogger(TRJWriter.class.getName());
+  /** The default number of frame buffers. */
+  public static final int DEFAULT_BUFFERS = 4;
+
+  private final File file;
+  private final MolecularAssembly assembly;
+  private final boolean vdwH;
+  private final BlockingQueue<Frame> free;
+  private final BlockingQueue<Frame> pending;
+  private final Frame closeFrame = new Frame(0);
+  private final Thread writerThread;
+  private final TRJStream out;
+  private volatile boolean failed = false;
+  private boolean closed = false;
+
+  /**
+   * Constructor for TRJWriter.
+   *
+   * @param file The binary trajectory, which is appended to if it exists.
+   * @param assembly The MolecularAssembly whose coordinates are written.
+   * @param topology The TINKER XYZ topology file recorded in the header.
+   * @param nBuffers The number of frame buffers.
+   * @throws IOException If the trajectory could not be opened.
+   */
+  public TRJWriter(File file, MolecularAssembly assembly, File topology, int nBuffers)
+      throws IOException {
+    this(file, assembly, topology, nBuffers, 0.0);
+  }
+
+  /**
+   * Constructor for TRJWriter.
+   *
+   * @param file The binary trajectory, which is appended to if it exists.
+   * @param assembly The MolecularAssembly whose coordinates are written.
+   * @param topology The TINKER XYZ topology file recorded in the header.
+   * @param nBuffers The number of frame buffers.
+   * @param precision Coordinate precision in Angstroms for lossy compression of a new trajectory,
+   *     or 0 to write full precision. An existing trajectory keeps its own precision.
+   * @throws IOException If the trajectory could not be opened.
+   */
+  public TRJWriter(
+      File file, MolecularAssembly assembly, File topology, int nBuffers, double precision)
+      throws IOException {
+    this.file = file;
+    this.assembly = assembly;
+    int nAtoms = assembly.getAtomList().size();
+    vdwH = assembly.getProperties().getBoolean("vdwHydrogens", false);
+    out = TRJStream.openForAppend(file, nAtoms, topology, precision);
+    nBuffers = Math.max(1, nBuffers);
+    free = new ArrayBlockingQueue<>(nBuffers);
+    pending = new ArrayBlockingQueue<>(nBuffers + 1);
+    for (int i = 0; i < nBuffers; i++) {
+      free.add(new Frame(nAtoms));
+    }
+    writerThread = new Thread(this::writeFrames, "TRJWriter-" + file.getName());
+    writerThread.setDaemon(true);
+    writerThread.start();
+  }
+
+  /**
+   * Queue the current coordinates of the assembly to be appended.
+   *
+   * @param extraLines Additional lines for the frame remark, or null.
+   * @return false if the writer is closed or a previous write failed.
+   */
+  public boolean append(String[] extraLines) {
+    if (closed || failed) {
+      return false;
+    }
+    try {
+      Frame frame = free.take();
+      frame.periodic = TRJFilter.getFrame(assembly, vdwH, frame.xyz, frame.cell);
+      frame.remark = TRJFilter.getRemark(assembly, extraLines);
+      pending.put(frame);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Write all queued frames, then close the trajectory and stop the writer thread.
+   *
+   * @return false if any frame could not be written.
+   */
+  public boolean close() {
+    if (!closed) {
+      closed = true;
+      try {
+        pending.put(closeFrame);
+        writerThread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return !failed;
+  }
+
+  /**
+   * Getter for the field <code>file</code>.
+   *
+   * @return The binary trajectory.
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /** The writer thread loop. */
+  private void writeFrames() {
+    try {
+      while (true) {
+        Frame frame = pending.take();
+        if (frame == closeFrame) {
+          break;
+        }
+        if (!failed) {
+          try {
+            out.writeFrame(frame.xyz, frame.periodic, frame.cell, frame.remark);
+            // Only flush when the writer has caught up.
+            if (pending.isEmpty()) {
+              out.flush();
+            }
+          } catch (IOException e) {
+            failed = true;
+            String message = format(" Exception writing to binary trajectory %s.", file);
+            logger.log(Level.WARNING, message, e);
+          }
+        }
+        free.put(frame);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      try {
+        out.close();
+      } catch (IOException e) {
+        failed = true;
+        logger.warning(format(" Exception closing binary trajectory %s: %s", file, e));
+      }
+    }
+  }
+
+  /** A reusable frame buffer. */
+  private static class Frame {
+
+    final double[] xyz;
+    final double[] cell = new double[6];
+    boolean periodic;
+    String remark;
+
+    Frame(int nAtoms) {
+      xyz = new double[3 * nAtoms];
+    }
+  }
+}
@@ -41,6 +41,7 @@ import static ffx.potential.bonded.Bond.logNoBondType;
 import static java.lang.Double.parseDouble;
 import static java.lang.String.format;
 
+import edu.rit.pj.ParallelTeam;
 import ffx.crystal.Crystal;
 import ffx.crystal.SymOp;
 import ffx.potential.MolecularAssembly;
@@ -78,6 +79,12 @@ public class XYZFilter extends SystemFilter {
 
   private static final Logger logger = Logger.getLogger(XYZFilter.class.getName());
   private BufferedReader bufferedReader = null;
+  private ArchiveIndex archiveIndex = null;
+  private ArchiveIndex.Frame frame = null;
+  /** Splits the atom lines of large frames read through the archive index across threads. */
+  private ParallelTeam parallelTeam = null;
+  /** The next frame (0-based) for readNext to read through the archive index, or -1 to reset. */
+  private int nextFrame = -1;
   private int snapShot;
   private String remarkLine;
 
@@ -213,30 +220,44 @@ public class XYZFilter extends SystemFilter {
 
     String[] tokens = data.trim().split(" +");
     if (tokens.length == 6) {
-      CompositeConfiguration config = activeMolecularAssembly.getProperties();
-      double a = parseDouble(tokens[0]);
-      double b = parseDouble(tokens[1]);
-      double c = parseDouble(tokens[2]);
-      double alpha = parseDouble(tokens[3]);
-      double beta = parseDouble(tokens[4]);
-      double gamma = parseDouble(tokens[5]);
-      config.setProperty("a-axis", a);
-      config.setProperty("b-axis", b);
-      config.setProperty("c-axis", c);
-      config.setProperty("alpha", alpha);
-      config.setProperty("beta", beta);
-      config.setProperty("gamma", gamma);
-
-      Crystal crystal = activeMolecularAssembly.getCrystal();
-      if (crystal != null) {
-        crystal.changeUnitCellParameters(a, b, c, alpha, beta, gamma);
-      }
+      setUnitCell(
+          activeMolecularAssembly,
+          parseDouble(tokens[0]),
+          parseDouble(tokens[1]),
+          parseDouble(tokens[2]),
+          parseDouble(tokens[3]),
+          parseDouble(tokens[4]),
+          parseDouble(tokens[5]));
     }
     return true;
   }
 
+  /** Apply unit cell parameters to the properties and crystal of a MolecularAssembly. */
+  private static void setUnitCell(
+      MolecularAssembly activeMolecularAssembly,
+      double a,
+      double b,
+      double c,
+      double alpha,
+      double beta,
+      double gamma) {
+    CompositeConfiguration config = activeMolecularAssembly.getProperties();
+    config.setProperty("a-axis", a);
+    config.setProperty("b-axis", b);
+    config.setProperty("c-axis", c);
+    config.setProperty("alpha", alpha);
+    config.setProperty("beta", beta);
+    config.setProperty("gamma", gamma);
+
+    Crystal crystal = activeMolecularAssembly.getCrystal();
+    if (crystal != null) {
+      crystal.changeUnitCellParameters(a, b, c, alpha, beta, gamma);
+    }
+  }
+
   /** close */
   public void close() {
+    closeArchiveIndex();
     if (bufferedReader != null) {
       try {
         bufferedReader.close();
@@ -250,6 +271,7 @@ public class XYZFilter extends SystemFilter {
   /** {@inheritDoc} */
   @Override
   public void closeReader() {
+    closeArchiveIndex();
     if (bufferedReader != null) {
       try {
         bufferedReader.close();
@@ -259,10 +281,24 @@ public class XYZFilter extends SystemFilter {
     }
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The count is taken from the archive index (see {@link #getArchiveIndex()}), which is built
+   * on first use; the archive is scanned line by line only if the index is unavailable.
+   */
   @Override
   public int countNumModels() {
     File xyzFile = activeMolecularAssembly.getFile();
     int nAtoms = activeMolecularAssembly.getAtomArray().length;
+    ArchiveIndex index = getArchiveIndex();
+    if (index != null && index.getArchive().equals(xyzFile)) {
+      try {
+        return index.refresh();
+      } catch (IOException e) {
+        logger.fine(format(" Falling back to scanning %s: %s", xyzFile, e));
+      }
+    }
     Pattern crystInfoPattern =
         Pattern.compile(
             "^ *(?:[0-9]+\\.[0-9]+ +){3}(?:-?[0-9]+\\.[0-9]+ +){2}(?:-?[0-9]+\\.[0-9]+) *$");
@@ -296,6 +332,29 @@ public class XYZFilter extends SystemFilter {
     }
   }
 
+  /**
+   * Get the frame index of the current archive, which is loaded from (or saved to) a sidecar file
+   * the first time it is needed. The index supports random access to frames and parallel
+   * iteration over them (see {@link ArchiveIndex#forEachFrame}).
+   *
+   * @return The ArchiveIndex, or null if the archive could not be indexed.
+   */
+  public ArchiveIndex getArchiveIndex() {
+    if (archiveIndex != null && !archiveIndex.getArchive().equals(currentFile)) {
+      closeArchiveIndex();
+    }
+    if (archiveIndex == null && currentFile != null) {
+      try {
+        int nAtoms = activeMolecularAssembly.getAtomArray().length;
+        archiveIndex = ArchiveIndex.open(currentFile, nAtoms);
+      } catch (IOException e) {
+        String message = format(" Exception indexing archive %s.", currentFile);
+        logger.log(Level.WARNING, message, e);
+      }
+    }
+    return archiveIndex;
+  }
+
   /** {@inheritDoc} */
   @Override
   public OptionalDouble getLastReadLambda() {
@@ -319,6 +378,90 @@ public class XYZFilter extends SystemFilter {
     return snapShot;
   }
 
+  /**
+   * Renumber atoms if necessary and create bonds from the connectivity of each atom.
+   *
+   * @param numberOfAtoms The number of atoms.
+   * @param label The atom number read for each atom.
+   * @param bonds The bonded atom numbers of each atom, padded with zeros.
+   * @param renumber True if the atom numbers are not sequential.
+   * @return true if the bonds are valid.
+   */
+  private boolean buildBonds(int numberOfAtoms, int[] label, int[][] bonds, boolean renumber) {
+    HashMap<Integer, Integer> labelHash = new HashMap<>();
+    // Try to renumber
+    if (renumber) {
+      for (int i = 0; i < numberOfAtoms; i++) {
+        if (labelHash.containsKey(label[i])) {
+          logger.warning(format(" Two atoms have the same index: %d.", label[i]));
+          return false;
+        }
+        labelHash.put(label[i], i + 1);
+      }
+      for (int i = 0; i < numberOfAtoms; i++) {
+        int j = -1;
+        while (j < 3 && bonds[i][++j] > 0) {
+          bonds[i][j] = labelHash.get(bonds[i][j]);
+        }
+      }
+    }
+    bondList = new ArrayList<>();
+    int[] c = new int[2];
+    for (int a1 = 1; a1 <= numberOfAtoms; a1++) {
+      int j = -1;
+      while (j < 7 && bonds[a1 - 1][++j] > 0) {
+        int a2 = bonds[a1 - 1][j];
+        if (a1 < a2) {
+          if (a2 > numberOfAtoms || a2 < 1) {
+            logger.warning(
+                format(
+                    " Check the bond between %d and %d in %s.",
+                    a1, a2, activeMolecularAssembly.getFile().getName()));
+            return false;
+          }
+          // Check for bidirectional connection
+          boolean bidirectional = false;
+          int k = -1;
+          while (k < 7 && bonds[a2 - 1][++k] > 0) {
+            int a3 = bonds[a2 - 1][k];
+            if (a3 == a1) {
+              bidirectional = true;
+              break;
+            }
+          }
+          if (!bidirectional) {
+            logger.warning(
+                format(
+                    " Check the bond between %d and %d in %s.",
+                    a1, a2, activeMolecularAssembly.getFile().getName()));
+            return false;
+          }
+          Atom atom1 = atomList.get(a1 - 1);
+          Atom atom2 = atomList.get(a2 - 1);
+          if (atom1 == null || atom2 == null) {
+            logger.warning(
+                format(
+                    " Check the bond between %d and %d in %s.",
+                    a1, a2, activeMolecularAssembly.getFile().getName()));
+            return false;
+          }
+          Bond bond = new Bond(atom1, atom2);
+          c[0] = atom1.getAtomType().atomClass;
+          c[1] = atom2.getAtomType().atomClass;
+          String key = BondType.sortKey(c);
+          BondType bondType = forceField.getBondType(key);
+          if (bondType == null) {
+            logNoBondType(atom1, atom2, key);
+          } else {
+            bond.setBondType(bondType);
+          }
+          bondList.add(bond);
+        }
+      }
+    }
+    return true;
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -332,6 +475,14 @@ public class XYZFilter extends SystemFilter {
       logger.warning(format(" No force field is associated with %s.", xyzFile.toString()));
       return false;
     }
+    try {
+      XYZParser parser = XYZParser.map(xyzFile);
+      if (parser != null) {
+        return readFile(parser);
+      }
+    } catch (IOException e) {
+      logger.fine(format(" Reading %s without memory mapping: %s", xyzFile, e));
+    }
     try {
       FileReader fr = new FileReader(xyzFile);
       BufferedReader br = new BufferedReader(fr);
@@ -362,7 +513,6 @@ public class XYZFilter extends SystemFilter {
       }
 
       // Prepare to parse atom lines.
-      HashMap<Integer, Integer> labelHash = new HashMap<>();
       int[] label = new int[numberOfAtoms];
       int[][] bonds = new int[numberOfAtoms][8];
       double[][] d = new double[numberOfAtoms][3];
@@ -443,81 +593,171 @@ public class XYZFilter extends SystemFilter {
       }
       br.close();
       fr.close();
-      // Try to renumber
-      if (renumber) {
-        for (int i = 0; i < numberOfAtoms; i++) {
-          if (labelHash.containsKey(label[i])) {
-            logger.warning(format(" Two atoms have the same index: %d.", label[i]));
-            return false;
-          }
-          labelHash.put(label[i], i + 1);
-        }
-        for (int i = 0; i < numberOfAtoms; i++) {
-          int j = -1;
-          while (j < 3 && bonds[i][++j] > 0) {
-            bonds[i][j] = labelHash.get(bonds[i][j]);
-          }
-        }
+      return buildBonds(numberOfAtoms, label, bonds, renumber);
+    } catch (IOException e) {
+      logger.severe(e.toString());
+    }
+    return false;
+  }
+
+  /**
+   * Parse the XYZ file from a memory-mapped buffer. Atom lines are parsed in place into primitive
+   * arrays, split across threads for large systems, before Atom instances are created.
+   *
+   * @param parser The XYZParser over the file.
+   * @return true if the file was read.
+   */
+  private boolean readFile(XYZParser parser) {
+    File xyzFile = activeMolecularAssembly.getFile();
+    int limit = parser.limit();
+    // Read blank lines at the top of the file
+    int pos = 0;
+    int eol = parser.lineEnd(pos);
+    while (pos < limit && parser.isBlank(pos, eol)) {
+      pos = eol + 1;
+      eol = parser.lineEnd(pos);
+    }
+    if (pos >= limit) {
+      return false;
+    }
+    String data = parser.line(pos, eol);
+    String[] tokens = data.trim().split(" +", 2);
+    int numberOfAtoms = Integer.parseInt(tokens[0]);
+    if (numberOfAtoms < 1) {
+      return false;
+    }
+    if (tokens.length == 2) {
+      getActiveMolecularSystem().setName(tokens[1]);
+    }
+    logger.info(format(" Opening %s with %d atoms\n", xyzFile.getName(), numberOfAtoms));
+    remarkLine = data.trim();
+    pos = eol + 1;
+
+    // The header line is reasonable. Check for periodic box dimensions.
+    if (pos < limit) {
+      eol = parser.lineEnd(pos);
+      if (readPBC(parser.line(pos, eol), activeMolecularAssembly)) {
+        pos = eol + 1;
       }
-      bondList = new ArrayList<>();
-      int[] c = new int[2];
-      for (int a1 = 1; a1 <= numberOfAtoms; a1++) {
-        int j = -1;
-        while (j < 7 && bonds[a1 - 1][++j] > 0) {
-          int a2 = bonds[a1 - 1][j];
-          if (a1 < a2) {
-            if (a2 > numberOfAtoms || a2 < 1) {
-              logger.warning(
-                  format(
-                      " Check the bond between %d and %d in %s.",
-                      a1, a2, activeMolecularAssembly.getFile().getName()));
-              return false;
-            }
-            // Check for bidirectional connection
-            boolean bidirectional = false;
-            int k = -1;
-            while (k < 7 && bonds[a2 - 1][++k] > 0) {
-              int a3 = bonds[a2 - 1][k];
-              if (a3 == a1) {
-                bidirectional = true;
-                break;
-              }
-            }
-            if (!bidirectional) {
-              logger.warning(
-                  format(
-                      " Check the bond between %d and %d in %s.",
-                      a1, a2, activeMolecularAssembly.getFile().getName()));
-              return false;
-            }
-            Atom atom1 = atomList.get(a1 - 1);
-            Atom atom2 = atomList.get(a2 - 1);
-            if (atom1 == null || atom2 == null) {
-              logger.warning(
-                  format(
-                      " Check the bond between %d and %d in %s.",
-                      a1, a2, activeMolecularAssembly.getFile().getName()));
-              return false;
-            }
-            Bond bond = new Bond(atom1, atom2);
-            c[0] = atom1.getAtomType().atomClass;
-            c[1] = atom2.getAtomType().atomClass;
-            String key = BondType.sortKey(c);
-            BondType bondType = forceField.getBondType(key);
-            if (bondType == null) {
-              logNoBondType(atom1, atom2, key);
-            } else {
-              bond.setBondType(bondType);
-            }
-            bondList.add(bond);
-          }
+    }
+
+    // Parse the atom lines.
+    int[] starts = new int[numberOfAtoms + 1];
+    int found = parser.findLines(pos, starts, numberOfAtoms, false);
+    if (found < numberOfAtoms) {
+      logger.warning(format(" Check atom %d in %s.", (found + 1), xyzFile.getName()));
+      return false;
+    }
+    int[] label = new int[numberOfAtoms];
+    int[] name = new int[2 * numberOfAtoms];
+    double[] xyz = new double[3 * numberOfAtoms];
+    int[] type = new int[numberOfAtoms];
+    int[][] bonds = new int[numberOfAtoms][XYZParser.MAX_BONDS];
+    ParallelTeam parallelTeam = null;
+    if (numberOfAtoms >= XYZParser.PARALLEL_ATOMS) {
+      parallelTeam = new ParallelTeam();
+    }
+    int error;
+    try {
+      error = parser.parseAtoms(starts, numberOfAtoms, label, name, xyz, type, bonds, parallelTeam);
+    } catch (IOException e) {
+      logger.severe(e.toString());
+      return false;
+    } finally {
+      shutdown(parallelTeam);
+    }
+    if (error >= 0) {
+      logger.warning(format(" Check atom %d in %s.", (error + 1), xyzFile.getName()));
+      return false;
+    }
+
+    // Create atoms, looking up each atom type once.
+    boolean renumber = false;
+    HashMap<Integer, AtomType> atomTypes = new HashMap<>();
+    double[] d = new double[3];
+    atomList = new ArrayList<>(numberOfAtoms);
+    for (int i = 0; i < numberOfAtoms; i++) {
+      // Check for valid atom numbering, or flag for re-numbering.
+      if (label[i] != i + 1) {
+        renumber = true;
+      }
+      AtomType atomType =
+          atomTypes.computeIfAbsent(type[i], (Integer t) -> forceField.getAtomType(t.toString()));
+      if (atomType == null) {
+        StringBuilder message = new StringBuilder("Check atom type ");
+        message.append(type[i]).append(" for Atom ").append(i + 1);
+        message.append(" in ").append(xyzFile.getName());
+        logger.warning(message.toString());
+        return false;
+      }
+      String atomName = parser.string(name[2 * i], name[2 * i + 1]);
+      System.arraycopy(xyz, 3 * i, d, 0, 3);
+      atomList.add(new Atom(i + 1, atomName, atomType, d));
+    }
+
+    // Check if this is an archive.
+    pos = starts[numberOfAtoms];
+    eol = parser.lineEnd(pos);
+    while (pos < limit && parser.isBlank(pos, eol)) {
+      pos = eol + 1;
+      eol = parser.lineEnd(pos);
+    }
+    if (pos < limit && parser.firstTokenIsInteger(pos, eol)) {
+      tokens = parser.line(pos, eol).trim().split(" +", 2);
+      try {
+        if (Integer.parseInt(tokens[0]) == numberOfAtoms) {
+          setType(FileType.ARC);
         }
+      } catch (NumberFormatException e) {
+        //
       }
-      return true;
+    }
+    return buildBonds(numberOfAtoms, label, bonds, renumber);
+  }
+
+  /**
+   * Read a snapshot of an archive into the activeMolecularAssembly using the archive index. This
+   * does not change the position used by <code>readNext</code>.
+   *
+   * @param frameIndex The snapshot to read (0-based).
+   * @return true if the snapshot was read.
+   */
+  public boolean readFrame(int frameIndex) {
+    ArchiveIndex index = getArchiveIndex();
+    if (index == null) {
+      return false;
+    }
+    Atom[] atoms = activeMolecularAssembly.getAtomArray();
+    try {
+      if (frameIndex >= index.getFrameCount()) {
+        index.refresh();
+      }
+      if (frameIndex < 0 || frameIndex >= index.getFrameCount()) {
+        return false;
+      }
+      if (frame == null) {
+        frame = new ArchiveIndex.Frame(atoms.length);
+      }
+      if (parallelTeam == null && atoms.length >= XYZParser.PARALLEL_ATOMS) {
+        parallelTeam = new ParallelTeam();
+      }
+      index.readFrame(frameIndex, frame, parallelTeam);
     } catch (IOException e) {
-      logger.severe(e.toString());
+      String message = format(" Exception reading snapshot %d of %s.", frameIndex + 1, currentFile);
+      logger.log(Level.WARNING, message, e);
+      return false;
     }
-    return false;
+    remarkLine = frame.remark;
+    snapShot = frameIndex + 1;
+    if (frame.periodic) {
+      double[] cell = frame.cell;
+      setUnitCell(activeMolecularAssembly, cell[0], cell[1], cell[2], cell[3], cell[4], cell[5]);
+    }
+    double[] xyz = frame.xyz;
+    for (int i = 0; i < atoms.length; i++) {
+      atoms[i].moveTo(xyz[3 * i], xyz[3 * i + 1], xyz[3 * i + 2]);
+    }
+    return true;
   }
 
   /** {@inheritDoc} */
@@ -542,6 +782,9 @@ public class XYZFilter extends SystemFilter {
    * function, a BufferedReader will remain open until the <code>close</code> method is called.
    */
   public boolean readNext(boolean resetPosition, boolean print) {
+    if (getArchiveIndex() != null) {
+      return readNextIndexed(resetPosition, print);
+    }
     try {
       String data;
       Atom[] atoms = activeMolecularAssembly.getAtomArray();
@@ -633,6 +876,56 @@ public class XYZFilter extends SystemFilter {
     return false;
   }
 
+  private void closeArchiveIndex() {
+    if (archiveIndex != null) {
+      archiveIndex.close();
+      archiveIndex = null;
+    }
+    shutdown(parallelTeam);
+    parallelTeam = null;
+    nextFrame = -1;
+  }
+
+  private static void shutdown(ParallelTeam parallelTeam) {
+    if (parallelTeam != null) {
+      try {
+        parallelTeam.shutdown();
+      } catch (Exception e) {
+        logger.log(Level.WARNING, " Exception shutting down a parallel team.", e);
+      }
+    }
+  }
+
+  /**
+   * Reads the next snap-shot of an archive through the archive index.
+   *
+   * @param resetPosition If true, restart from the second snap-shot.
+   * @param print If true, log the snap-shot being read.
+   * @return true if a snap-shot was read.
+   */
+  private boolean readNextIndexed(boolean resetPosition, boolean print) {
+    if (nextFrame < 0 || resetPosition) {
+      nextFrame = 1;
+    }
+    try {
+      if (nextFrame >= archiveIndex.getFrameCount() && archiveIndex.refresh() <= nextFrame) {
+        return false;
+      }
+    } catch (IOException e) {
+      String message = format("Exception reading from file %s.", currentFile);
+      logger.log(Level.WARNING, message, e);
+      return false;
+    }
+    if (print) {
+      logger.info(format("\n Attempting to read snapshot %d.", nextFrame + 1));
+    }
+    if (!readFrame(nextFrame)) {
+      return false;
+    }
+    nextFrame++;
+    return true;
+  }
+
   /** {@inheritDoc} */
   @Override
   public boolean writeFile(File saveFile, boolean append, String[] extraLines) {
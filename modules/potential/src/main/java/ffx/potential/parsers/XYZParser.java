@@ -0,0 +1,501 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.potential.parsers;
+
+import static java.lang.String.format;
+
+import edu.rit.pj.IntegerForLoop;
+import edu.rit.pj.IntegerSchedule;
+import edu.rit.pj.ParallelRegion;
+import edu.rit.pj.ParallelTeam;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The XYZParser class parses the atom records of TINKER XYZ and archive files directly from a
+ * (usually memory-mapped) byte buffer.
+ *
+ * <p>Line boundaries are located in a single pass, after which atom lines are tokenized in place
+ * and converted into primitive arrays without creating Strings, optionally split into chunks
+ * across a ParallelTeam. Decimal coordinates with at most 15 significant digits (e.g. the "%14.8f"
+ * columns written by {@link XYZFilter}) are converted exactly, as a long mantissa divided by an
+ * exactly representable power of ten, which gives the same correctly rounded result as
+ * <code>Double.parseDouble</code>; anything else falls back to <code>Double.parseDouble</code>.
+ *
+ * @author Michael J. Schnieders
+ * @since 1.0
+ */
+final class XYZParser {
+
+  /** The number of atoms in a frame above which parsing is split across threads. */
+  static final int PARALLEL_ATOMS = 20000;
+  /** The maximum number of bonds read for each atom. */
+  static final int MAX_BONDS = 8;
+  /** Powers of ten that are exactly representable as doubles. */
+  private static final double[] POW10 = {
+    1.0e0, 1.0e1, 1.0e2, 1.0e3, 1.0e4, 1.0e5, 1.0e6, 1.0e7, 1.0e8, 1.0e9, 1.0e10, 1.0e11, 1.0e12,
+    1.0e13, 1.0e14, 1.0e15, 1.0e16, 1.0e17, 1.0e18, 1.0e19, 1.0e20, 1.0e21, 1.0e22
+  };
+  /** Mantissas below 2^53 are exactly representable as doubles. */
+  private static final long MAX_EXACT = 1L << 53;
+
+  private final ByteBuffer buffer;
+  private final int limit;
+
+  /**
+   * Constructor for XYZParser. The buffer's position is ignored and it is only read with absolute
+   * gets, so one buffer may be shared by concurrent parsers.
+   *
+   * @param buffer The bytes to parse.
+   */
+  XYZParser(ByteBuffer buffer) {
+    this.buffer = buffer;
+    limit = buffer.limit();
+  }
+
+  /**
+   * Memory-map a file for parsing.
+   *
+   * @param file The file.
+   * @return An XYZParser, or null if the file is too large to map as a single buffer.
+   * @throws IOException If the file could not be mapped.
+   */
+  static XYZParser map(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        return null;
+      }
+      return new XYZParser(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+    }
+  }
+
+  /**
+   * Parse a double from a region of a byte buffer.
+   *
+   * @param b The buffer.
+   * @param start The first byte.
+   * @param end One past the last byte.
+   * @return The value.
+   * @throws NumberFormatException If the region is not a number.
+   */
+  static double parseDouble(ByteBuffer b, int start, int end) {
+    int i = start;
+    boolean negative = false;
+    if (i < end) {
+      byte c = b.get(i);
+      if (c == '-' || c == '+') {
+        negative = c == '-';
+        i++;
+      }
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int fraction = 0;
+    boolean point = false;
+    for (; i < end; i++) {
+      byte c = b.get(i);
+      if (c >= '0' && c <= '9') {
+        mantissa = 10 * mantissa + (c - '0');
+        if (mantissa >= MAX_EXACT) {
+          return slowDouble(b, start, end);
+        }
+        digits++;
+        if (point) {
+          fraction++;
+        }
+      } else if (c == '.' && !point) {
+        point = true;
+      } else {
+        // Exponents, special values and malformed input.
+        return slowDouble(b, start, end);
+      }
+    }
+    if (digits == 0 || fraction >= POW10.length) {
+      return slowDouble(b, start, end);
+    }
+    double value = mantissa / POW10[fraction];
+    return negative ? -value : value;
+  }
+
+  /**
+   * Parse an int from a region of a byte buffer.
+   *
+   * @param b The buffer.
+   * @param start The first byte.
+   * @param end One past the last byte.
+   * @return The value.
+   * @throws NumberFormatException If the region is not an int.
+   */
+  static int parseInt(ByteBuffer b, int start, int end) {
+    int i = start;
+    boolean negative = false;
+    if (i < end && b.get(i) == '-') {
+      negative = true;
+      i++;
+    }
+    if (i == end || end - i > 9) {
+      return Integer.parseInt(string(b, start, end));
+    }
+    int value = 0;
+    for (; i < end; i++) {
+      byte c = b.get(i);
+      if (c < '0' || c > '9') {
+        return Integer.parseInt(string(b, start, end));
+      }
+      value = 10 * value + (c - '0');
+    }
+    return negative ? -value : value;
+  }
+
+  private static double slowDouble(ByteBuffer b, int start, int end) {
+    return Double.parseDouble(string(b, start, end));
+  }
+
+  private static String string(ByteBuffer b, int start, int end) {
+    byte[] bytes = new byte[end - start];
+    for (int i = start; i < end; i++) {
+      bytes[i - start] = b.get(i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Getter for the field <code>limit</code>.
+   *
+   * @return The number of bytes to parse.
+   */
+  int limit() {
+    return limit;
+  }
+
+  /**
+   * Find the end of the line that contains a position.
+   *
+   * @param pos The position.
+   * @return The position of the newline, or the limit.
+   */
+  int lineEnd(int pos) {
+    while (pos < limit && buffer.get(pos) != '\n') {
+      pos++;
+    }
+    return pos;
+  }
+
+  /**
+   * Return a line as a String, without its newline.
+   *
+   * @param start The first byte of the line.
+   * @param end The end of the line.
+   * @return The line.
+   */
+  String line(int start, int end) {
+    if (end > start && buffer.get(end - 1) == '\r') {
+      end--;
+    }
+    return string(buffer, start, end);
+  }
+
+  /**
+   * Check whether a line contains only whitespace.
+   *
+   * @param start The first byte of the line.
+   * @param end The end of the line.
+   * @return true if the line is blank.
+   */
+  boolean isBlank(int start, int end) {
+    return skipSpace(start, end) == end;
+  }
+
+  /**
+   * Check whether the first token of a line is an integer.
+   *
+   * @param start The first byte of the line.
+   * @param end The end of the line.
+   * @return true if the first token is an integer.
+   */
+  boolean firstTokenIsInteger(int start, int end) {
+    int p = skipSpace(start, end);
+    int q = tokenEnd(p, end);
+    if (p < q && (buffer.get(p) == '-' || buffer.get(p) == '+')) {
+      p++;
+    }
+    if (p == q) {
+      return false;
+    }
+    for (int i = p; i < q; i++) {
+      byte c = buffer.get(i);
+      if (c < '0' || c > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Parse a line of exactly six unit cell parameters.
+   *
+   * @param start The first byte of the line.
+   * @param end The end of the line.
+   * @param cell The unit cell parameters (a, b, c, alpha, beta, gamma).
+   * @return true if the line held six parameters.
+   */
+  boolean parseCell(int start, int end, double[] cell) {
+    int p = start;
+    for (int j = 0; j < 6; j++) {
+      p = skipSpace(p, end);
+      int q = tokenEnd(p, end);
+      if (p == q) {
+        return false;
+      }
+      cell[j] = parseDouble(buffer, p, q);
+      p = q;
+    }
+    return skipSpace(p, end) == end;
+  }
+
+  /**
+   * Find the start of each of n lines.
+   *
+   * @param pos The position of the first line.
+   * @param starts Filled with the start of each line, followed by the position after the last.
+   * @param n The number of lines.
+   * @param skipBlank If true, blank lines are skipped rather than counted.
+   * @return The number of lines found.
+   */
+  int findLines(int pos, int[] starts, int n, boolean skipBlank) {
+    int found = 0;
+    while (found < n && pos < limit) {
+      int eol = lineEnd(pos);
+      if (!skipBlank || !isBlank(pos, eol)) {
+        starts[found++] = pos;
+      }
+      pos = eol + 1;
+    }
+    starts[found] = Math.min(pos, limit);
+    return found;
+  }
+
+  /**
+   * Parse the coordinates of n atom lines.
+   *
+   * @param starts The start of each line (see <code>findLines</code>).
+   * @param n The number of atom lines.
+   * @param xyz The coordinates (x, y, z for each atom).
+   * @param parallelTeam A ParallelTeam, or null to parse on the calling thread.
+   * @return -1 on success, or the index of the first malformed line.
+   * @throws IOException If the parallel region failed.
+   */
+  int parseCoordinates(int[] starts, int n, double[] xyz, ParallelTeam parallelTeam)
+      throws IOException {
+    return parseLines(
+        n,
+        parallelTeam,
+        (int i) -> {
+          int end = lineEnd(starts[i]);
+          // Skip the atom number and name.
+          int p = tokenEnd(skipSpace(starts[i], end), end);
+          p = tokenEnd(skipSpace(p, end), end);
+          for (int k = 0; k < 3; k++) {
+            p = skipSpace(p, end);
+            int q = tokenEnd(p, end);
+            if (p == q) {
+              return false;
+            }
+            xyz[3 * i + k] = parseDouble(buffer, p, q);
+            p = q;
+          }
+          // An atom type must follow.
+          return skipSpace(p, end) < end;
+        });
+  }
+
+  /**
+   * Parse n complete atom records: atom number, name, coordinates, atom type and bonds.
+   *
+   * @param starts The start of each line (see <code>findLines</code>).
+   * @param n The number of atom lines.
+   * @param label The atom number of each atom.
+   * @param name The start and end of each atom name.
+   * @param xyz The coordinates (x, y, z for each atom).
+   * @param type The atom type of each atom.
+   * @param bonds The bonded atom numbers of each atom, padded with zeros.
+   * @param parallelTeam A ParallelTeam, or null to parse on the calling thread.
+   * @return -1 on success, or the index of the first malformed line.
+   * @throws IOException If the parallel region failed.
+   */
+  int parseAtoms(
+      int[] starts,
+      int n,
+      int[] label,
+      int[] name,
+      double[] xyz,
+      int[] type,
+      int[][] bonds,
+      ParallelTeam parallelTeam)
+      throws IOException {
+    return parseLines(
+        n,
+        parallelTeam,
+        (int i) -> {
+          int end = lineEnd(starts[i]);
+          int p = skipSpace(starts[i], end);
+          int q = tokenEnd(p, end);
+          if (p == q) {
+            return false;
+          }
+          label[i] = parseInt(buffer, p, q);
+          p = skipSpace(q, end);
+          q = tokenEnd(p, end);
+          name[2 * i] = p;
+          name[2 * i + 1] = q;
+          for (int k = 0; k < 3; k++) {
+            p = skipSpace(q, end);
+            q = tokenEnd(p, end);
+            if (p == q) {
+              return false;
+            }
+            xyz[3 * i + k] = parseDouble(buffer, p, q);
+          }
+          p = skipSpace(q, end);
+          q = tokenEnd(p, end);
+          if (p == q) {
+            return false;
+          }
+          type[i] = parseInt(buffer, p, q);
+          int[] bond = bonds[i];
+          for (int b = 0; b < MAX_BONDS; b++) {
+            p = skipSpace(q, end);
+            q = tokenEnd(p, end);
+            bond[b] = (p == q) ? 0 : parseInt(buffer, p, q);
+          }
+          return true;
+        });
+  }
+
+  /**
+   * Return a region of the buffer (e.g. an atom name) as a String.
+   *
+   * @param start The first byte.
+   * @param end One past the last byte.
+   * @return The String.
+   */
+  String string(int start, int end) {
+    return string(buffer, start, end);
+  }
+
+  private int skipSpace(int p, int end) {
+    while (p < end && buffer.get(p) <= ' ') {
+      p++;
+    }
+    return p;
+  }
+
+  private int tokenEnd(int p, int end) {
+    while (p < end && buffer.get(p) > ' ') {
+      p++;
+    }
+    return p;
+  }
+
+  /**
+   * Apply a line parser to n lines, in parallel chunks if a ParallelTeam is given.
+   *
+   * @return -1 on success, or the index of the first malformed line.
+   */
+  private static int parseLines(int n, ParallelTeam parallelTeam, LineParser lineParser)
+      throws IOException {
+    AtomicInteger firstError = new AtomicInteger(n);
+    if (parallelTeam == null || parallelTeam.getThreadCount() == 1 || n < PARALLEL_ATOMS) {
+      parseRange(0, n - 1, lineParser, firstError);
+    } else {
+      try {
+        parallelTeam.execute(
+            new ParallelRegion() {
+              @Override
+              public void run() throws Exception {
+                execute(
+                    0,
+                    n - 1,
+                    new IntegerForLoop() {
+                      @Override
+                      public IntegerSchedule schedule() {
+                        return IntegerSchedule.fixed();
+                      }
+
+                      @Override
+                      public void run(int lb, int ub) {
+                        parseRange(lb, ub, lineParser, firstError);
+                      }
+                    });
+              }
+            });
+      } catch (Exception e) {
+        throw new IOException(format(" Exception parsing %d atom lines.", n), e);
+      }
+    }
+    int error = firstError.get();
+    return (error < n) ? error : -1;
+  }
+
+  private static void parseRange(int lb, int ub, LineParser lineParser, AtomicInteger firstError) {
+    for (int i = lb; i <= ub; i++) {
+      boolean valid;
+      try {
+        valid = lineParser.parse(i);
+      } catch (NumberFormatException e) {
+        valid = false;
+      }
+      if (!valid) {
+        firstError.accumulateAndGet(i, Math::min);
+        return;
+      }
+    }
+  }
+
+  /** Parse one line, returning false if it is malformed. */
+  private interface LineParser {
+
+    boolean parse(int i);
+  }
+}
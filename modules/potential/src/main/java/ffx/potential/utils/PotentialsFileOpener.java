@@ -53,6 +53,8 @@ import ffx.potential.parsers.PDBFileFilter;
 import ffx.potential.parsers.PDBFilter;
 import ffx.potential.parsers.PDBFilter.Mutation;
 import ffx.potential.parsers.SystemFilter;
+import ffx.potential.parsers.TRJFileFilter;
+import ffx.potential.parsers.TRJFilter;
 import ffx.potential.parsers.XYZFileFilter;
 import ffx.potential.parsers.XYZFilter;
 import ffx.utilities.Keyword;
@@ -293,7 +295,7 @@ public class PotentialsFileOpener implements FileOpener {
   /**
    * {@inheritDoc}
    *
-   * <p>At present, parses the PDB, XYZ, INT, or ARC file from the constructor and creates
+   * <p>At present, parses the PDB, XYZ, INT, ARC or TRJ file from the constructor and creates
    * MolecularAssembly and properties objects.
    */
   @Override
@@ -327,6 +329,8 @@ public class PotentialsFileOpener implements FileOpener {
       assembly.setForceField(forceField);
       if (new PDBFileFilter().acceptDeep(fileI)) {
         filter = new PDBFilter(fileI, assembly, forceField, properties);
+      } else if (new TRJFileFilter().acceptDeep(fileI)) {
+        filter = new TRJFilter(fileI, assembly, forceField, properties);
       } else if (new XYZFileFilter().acceptDeep(fileI)) {
         filter = new XYZFilter(fileI, assembly, forceField, properties);
       } else if (new INTFileFilter().acceptDeep(fileI) || new ARCFileFilter().accept(fileI)) {
@@ -334,7 +338,7 @@ public class PotentialsFileOpener implements FileOpener {
       } else {
         throw new IllegalArgumentException(
             String.format(
-                " File %s could not be recognized as a valid PDB, XYZ, INT, or ARC file.",
+                " File %s could not be recognized as a valid PDB, XYZ, INT, ARC or TRJ file.",
                 pathI.toString()));
       }
 
@@ -0,0 +1,164 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.potential.constraint;
+
+import static java.lang.String.format;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import edu.rit.pj.ParallelTeam;
+import ffx.potential.MolecularAssembly;
+import ffx.potential.bonded.Angle;
+import ffx.potential.bonded.Atom;
+import ffx.potential.utils.PotentialsUtils;
+import ffx.utilities.FFXTest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Test that batched SETTLE constraints reproduce per-molecule SETTLE constraints, serially and on
+ * several threads.
+ *
+ * @author Michael J. Schnieders
+ * @since 1.0
+ */
+public class BatchSettleConstraintTest extends FFXTest {
+
+  /** Tolerance passed to the constraints. */
+  private static final double tolerance = 1.0e-10;
+  /** Relative tolerance for constrained distances. */
+  private static final double xTolerance = 1.0e-8;
+  /** Tolerance for velocity components along the constrained distances. */
+  private static final double vTolerance = 1.0e-8;
+
+  /** Apply both forms of SETTLE on a single thread. */
+  @Test
+  public void testSerial() {
+    compareSettle(1);
+  }
+
+  /** Apply both forms of SETTLE with the molecules split over several threads. */
+  @Test
+  public void testParallel() {
+    compareSettle(4);
+  }
+
+  /**
+   * Constrain a perturbed step and random velocities of a box of water with one SettleConstraint
+   * per molecule and with a BatchSettleConstraint, then compare the results.
+   *
+   * @param nThreads Number of threads for the batched constraints.
+   */
+  private void compareSettle(int nThreads) {
+    MolecularAssembly molecularAssembly =
+        new PotentialsUtils().open("src/main/java/ffx/potential/structures/watertiny.xyz");
+    Atom[] atoms = molecularAssembly.getAtomArray();
+    int nAtoms = atoms.length;
+    int n = 3 * nAtoms;
+    double[] x = new double[n];
+    double[] masses = new double[n];
+    for (int i = 0; i < nAtoms; i++) {
+      System.arraycopy(atoms[i].getXYZ(null), 0, x, 3 * i, 3);
+      masses[3 * i] = masses[3 * i + 1] = masses[3 * i + 2] = atoms[i].getMass();
+    }
+
+    List<Angle> angles = molecularAssembly.getAngleList();
+    assertEquals(" Number of water angles", 27, angles.size());
+    List<SettleConstraint> settles = new ArrayList<>(angles.size());
+    for (Angle angle : angles) {
+      settles.add(SettleConstraint.settleFactory(angle));
+    }
+    ParallelTeam parallelTeam = new ParallelTeam(nThreads);
+    BatchSettleConstraint batch = BatchSettleConstraint.batchSettleFactory(angles, parallelTeam);
+    assertEquals(" Degrees of freedom frozen", 3 * angles.size(), batch.getNumDegreesFrozen());
+
+    // Constrain a perturbed step.
+    Random random = new Random(1);
+    double[] xNew = new double[n];
+    for (int i = 0; i < n; i++) {
+      xNew[i] = x[i] + 0.05 * random.nextGaussian();
+    }
+    assertFalse(" Perturbed step satisfies SETTLE", batch.constraintSatisfied(xNew, xTolerance));
+    double[] xSettle = xNew.clone();
+    for (SettleConstraint settle : settles) {
+      settle.applyConstraintToStep(x, xSettle, masses, tolerance);
+    }
+    double[] xBatch = xNew.clone();
+    batch.applyConstraintToStep(x, xBatch, masses, tolerance);
+    assertArrayEquals(" Constrained positions", xSettle, xBatch, 0.0);
+    for (int i = 0; i < settles.size(); i++) {
+      String message = format(" Positions of molecule %d satisfy SETTLE", i);
+      assertTrue(message, settles.get(i).constraintSatisfied(xBatch, xTolerance));
+    }
+    assertTrue(" Positions satisfy batched SETTLE", batch.constraintSatisfied(xBatch, xTolerance));
+
+    // Constrain random velocities at the new positions.
+    double[] v = new double[n];
+    for (int i = 0; i < n; i++) {
+      v[i] = random.nextGaussian();
+    }
+    assertFalse(
+        " Random velocities satisfy SETTLE",
+        batch.constraintSatisfied(xBatch, v, xTolerance, vTolerance));
+    double[] vSettle = v.clone();
+    for (SettleConstraint settle : settles) {
+      settle.applyConstraintToVelocities(xBatch, vSettle, masses, tolerance);
+    }
+    double[] vBatch = v.clone();
+    batch.applyConstraintToVelocities(xBatch, vBatch, masses, tolerance);
+    assertArrayEquals(" Constrained velocities", vSettle, vBatch, 0.0);
+    for (int i = 0; i < settles.size(); i++) {
+      String message = format(" Velocities of molecule %d satisfy SETTLE", i);
+      assertTrue(
+          message, settles.get(i).constraintSatisfied(xBatch, vBatch, xTolerance, vTolerance));
+    }
+    assertTrue(
+        " Velocities satisfy batched SETTLE",
+        batch.constraintSatisfied(xBatch, vBatch, xTolerance, vTolerance));
+
+    try {
+      parallelTeam.shutdown();
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,315 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.potential.constraint;
+
+import static java.lang.String.format;
+import static org.apache.commons.math3.util.FastMath.abs;
+import static org.apache.commons.math3.util.FastMath.cos;
+import static org.apache.commons.math3.util.FastMath.sqrt;
+import static org.apache.commons.math3.util.FastMath.toRadians;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import ffx.potential.MolecularAssembly;
+import ffx.potential.bonded.Angle;
+import ffx.potential.bonded.Atom;
+import ffx.potential.bonded.Bond;
+import ffx.potential.utils.PotentialsUtils;
+import ffx.utilities.FFXTest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.QRDecomposition;
+import org.junit.Test;
+
+/**
+ * Test that the block diagonal inverse of the CCMA coupling matrix K reproduces a dense QR
+ * inversion of the full matrix, and that the constraints it drives converge.
+ *
+ * @author Michael J. Schnieders
+ * @since 1.0
+ */
+public class CcmaConstraintTest extends FFXTest {
+
+  /** Absolute tolerance for elements of the inverse of K. */
+  private static final double tolerance = 1.0e-10;
+  /** Relative tolerance passed to the constraints. */
+  private static final double constraintTolerance = 1.0e-8;
+
+  /** A box of waters whose rigid triangles form independent blocks of K. */
+  @Test
+  public void testWater() {
+    MolecularAssembly molecularAssembly =
+        new PotentialsUtils().open("src/main/java/ffx/potential/structures/watertiny.xyz");
+    List<Angle> angles = molecularAssembly.getAngleList();
+    assertEquals(" Number of water angles", 27, angles.size());
+    compare(molecularAssembly, Collections.emptyList(), angles);
+  }
+
+  /**
+   * Butane with a rigid H-C-H triangle and every other bond constrained; the remaining bonds share
+   * atoms with the triangle and with each other, so they are coupled through force field angles.
+   */
+  @Test
+  public void testButane() {
+    MolecularAssembly molecularAssembly =
+        new PotentialsUtils().open("src/main/java/ffx/potential/structures/butane.xyz");
+    Atom[] atoms = molecularAssembly.getAtomArray();
+    Angle angle = atoms[1].getAngle(atoms[0], atoms[2]);
+    List<Bond> bonds = new ArrayList<>(molecularAssembly.getBondList());
+    bonds.remove(angle.getBond(0));
+    bonds.remove(angle.getBond(1));
+    assertEquals(" Number of constrained bonds", 11, bonds.size());
+    compare(molecularAssembly, bonds, Collections.singletonList(angle));
+  }
+
+  /**
+   * Build CCMA constraints with and without truncation of K-1, compare them to the dense QR
+   * inverse, and apply them to a perturbed step and to random velocities.
+   *
+   * @param molecularAssembly The system.
+   * @param bonds Constrained bonds.
+   * @param angles Constrained angles.
+   */
+  private void compare(MolecularAssembly molecularAssembly, List<Bond> bonds, List<Angle> angles) {
+    Atom[] atoms = molecularAssembly.getAtomArray();
+    int nAtoms = atoms.length;
+    double[] x = new double[3 * nAtoms];
+    double[] masses = new double[3 * nAtoms];
+    for (int i = 0; i < nAtoms; i++) {
+      System.arraycopy(atoms[i].getXYZ(null), 0, x, 3 * i, 3);
+      masses[3 * i] = masses[3 * i + 1] = masses[3 * i + 2] = atoms[i].getMass();
+    }
+
+    // The constraints in the order CcmaConstraint numbers them.
+    int nConstraints = bonds.size() + 3 * angles.size();
+    int[] atoms1 = new int[nConstraints];
+    int[] atoms2 = new int[nConstraints];
+    double[] lengths = new double[nConstraints];
+    int n = 0;
+    for (Bond bond : bonds) {
+      atoms1[n] = bond.getAtom(0).getXyzIndex() - 1;
+      atoms2[n] = bond.getAtom(1).getXyzIndex() - 1;
+      lengths[n++] = bond.bondType.distance;
+    }
+    for (Angle angle : angles) {
+      Atom center = angle.getCentralAtom();
+      Bond b1 = angle.getBond(0);
+      Bond b2 = angle.getBond(1);
+      int index0 = b1.get1_2(center).getXyzIndex() - 1;
+      int index1 = center.getXyzIndex() - 1;
+      int index2 = b2.get1_2(center).getXyzIndex() - 1;
+      double dist1 = b1.bondType.distance;
+      double dist2 = b2.bondType.distance;
+      atoms1[n] = index0;
+      atoms2[n] = index1;
+      lengths[n++] = dist1;
+      atoms1[n] = index1;
+      atoms2[n] = index2;
+      lengths[n++] = dist2;
+      atoms1[n] = index0;
+      atoms2[n] = index2;
+      lengths[n++] = SettleConstraint.lawOfCosines(dist1, dist2, angle.angleType.angle[angle.nh]);
+    }
+
+    int[] molecules = molecules(atoms);
+    double[][] k = denseK(atoms, masses, atoms1, atoms2, lengths);
+    double[][] kInv =
+        new QRDecomposition(new Array2DRowRealMatrix(k, false)).getSolver().getInverse().getData();
+
+    for (double cutoff : new double[] {0.0, CcmaConstraint.DEFAULT_CCMA_NONZERO_CUTOFF}) {
+      CcmaConstraint ccma = CcmaConstraint.ccmaFactory(bonds, angles, atoms, masses, cutoff);
+      assertEquals(" Number of constraints", nConstraints, ccma.getNumDegreesFrozen());
+
+      // Elements coupling different molecules are zero; the rest match the dense inverse.
+      double[][] blockInv = ccma.getKInverse();
+      for (int i = 0; i < nConstraints; i++) {
+        for (int j = 0; j < nConstraints; j++) {
+          String message = format(" K-1 element (%d, %d) with cutoff %4.2f", i, j, cutoff);
+          if (molecules[atoms1[i]] != molecules[atoms1[j]]) {
+            assertEquals(message, 0.0, blockInv[i][j], 0.0);
+          } else if (i == j || abs(kInv[i][j]) > cutoff) {
+            assertEquals(message, kInv[i][j], blockInv[i][j], tolerance);
+            assertTrue(message, blockInv[i][j] != 0.0);
+          } else {
+            assertEquals(message, 0.0, blockInv[i][j], 0.0);
+          }
+        }
+      }
+
+      // A perturbed step is pulled back onto the constrained lengths.
+      Random random = new Random(1);
+      double[] xNew = new double[3 * nAtoms];
+      for (int i = 0; i < 3 * nAtoms; i++) {
+        xNew[i] = x[i] + 0.05 * random.nextGaussian();
+      }
+      ccma.applyConstraintToStep(x, xNew, masses, constraintTolerance);
+      for (int i = 0; i < nConstraints; i++) {
+        double d = sqrt(dist2(xNew, atoms1[i], atoms2[i]));
+        String message = format(" Length of constraint %d", i);
+        assertEquals(message, 0.0, d / lengths[i] - 1.0, constraintTolerance);
+      }
+
+      // Random velocities lose their components along the constraints.
+      double[] v = new double[3 * nAtoms];
+      for (int i = 0; i < 3 * nAtoms; i++) {
+        v[i] = random.nextGaussian();
+      }
+      ccma.applyConstraintToVelocities(xNew, v, masses, constraintTolerance);
+      for (int i = 0; i < nConstraints; i++) {
+        int a1 = 3 * atoms1[i];
+        int a2 = 3 * atoms2[i];
+        double vr = 0.0;
+        for (int j = 0; j < 3; j++) {
+          vr += (v[a1 + j] - v[a2 + j]) * (xNew[a1 + j] - xNew[a2 + j]);
+        }
+        double sumInvMass = 1.0 / masses[a1] + 1.0 / masses[a2];
+        double delta = vr / (dist2(xNew, atoms1[i], atoms2[i]) * sumInvMass);
+        String message = format(" Velocity along constraint %d", i);
+        assertEquals(message, 0.0, delta, constraintTolerance);
+      }
+    }
+  }
+
+  /**
+   * Build the full coupling matrix K over all constraints, as the dense implementation did.
+   *
+   * @param atoms All atoms.
+   * @param masses XYZ-indexed masses.
+   * @param atoms1 First atom of each constraint.
+   * @param atoms2 Second atom of each constraint.
+   * @param lengths Length of each constraint.
+   * @return The dense matrix K.
+   */
+  private static double[][] denseK(
+      Atom[] atoms, double[] masses, int[] atoms1, int[] atoms2, double[] lengths) {
+    int nConstraints = lengths.length;
+    double[][] k = new double[nConstraints][nConstraints];
+    for (int i = 0; i < nConstraints; i++) {
+      k[i][i] = 1.0;
+      for (int j = 0; j < nConstraints; j++) {
+        int atomb; // Atom shared between both constraints.
+        if (i == j) {
+          continue;
+        } else if (atoms1[i] == atoms1[j] || atoms1[i] == atoms2[j]) {
+          atomb = atoms1[i];
+        } else if (atoms2[i] == atoms1[j] || atoms2[i] == atoms2[j]) {
+          atomb = atoms2[i];
+        } else {
+          continue;
+        }
+        int atoma = (atoms1[i] == atomb) ? atoms2[i] : atoms1[i];
+        int atomc = (atoms1[j] == atomb) ? atoms2[j] : atoms1[j];
+        double invMassA = 1.0 / masses[3 * atoma];
+        double invMassB = 1.0 / masses[3 * atomb];
+        double scale = invMassB / (invMassA + invMassB);
+
+        // Close the a-b-c triangle with a constraint, or fall back to the force field angle.
+        double cosine = Double.NaN;
+        for (int m = 0; m < nConstraints; m++) {
+          if ((atoms1[m] == atoma && atoms2[m] == atomc)
+              || (atoms1[m] == atomc && atoms2[m] == atoma)) {
+            double dab = lengths[i];
+            double dbc = lengths[j];
+            double dac = lengths[m];
+            cosine = (dab * dab + dbc * dbc - dac * dac) / (2 * dab * dbc);
+            break;
+          }
+        }
+        if (Double.isNaN(cosine)) {
+          Angle angle = atoms[atoma].getAngle(atoms[atomb], atoms[atomc]);
+          cosine = cos(toRadians(angle.angleType.angle[angle.nh]));
+        }
+        k[i][j] = scale * cosine;
+      }
+    }
+    return k;
+  }
+
+  /**
+   * Squared distance between two atoms.
+   *
+   * @param x XYZ coordinates.
+   * @param i First atom index.
+   * @param j Second atom index.
+   * @return The squared distance.
+   */
+  private static double dist2(double[] x, int i, int j) {
+    double d2 = 0.0;
+    for (int k = 0; k < 3; k++) {
+      double d = x[3 * i + k] - x[3 * j + k];
+      d2 += d * d;
+    }
+    return d2;
+  }
+
+  /**
+   * Label each atom with the first atom of its covalently bonded molecule.
+   *
+   * @param atoms All atoms.
+   * @return The molecule label of each atom.
+   */
+  private static int[] molecules(Atom[] atoms) {
+    int nAtoms = atoms.length;
+    int[] molecule = new int[nAtoms];
+    Arrays.fill(molecule, -1);
+    for (int i = 0; i < nAtoms; i++) {
+      if (molecule[i] >= 0) {
+        continue;
+      }
+      Deque<Atom> stack = new ArrayDeque<>();
+      molecule[i] = i;
+      stack.push(atoms[i]);
+      while (!stack.isEmpty()) {
+        for (Atom bonded : stack.pop().get12List()) {
+          int index = bonded.getXyzIndex() - 1;
+          if (molecule[index] < 0) {
+            molecule[index] = i;
+            stack.push(bonded);
+          }
+        }
+      }
+    }
+    return molecule;
+  }
+}
@@ -0,0 +1,180 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.potential.nonbonded;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import edu.rit.pj.ParallelTeam;
+import ffx.crystal.Crystal;
+import ffx.crystal.SymOp;
+import ffx.potential.bonded.Atom;
+import ffx.utilities.FFXTest;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+/**
+ * Test that incremental NeighborList rebuilds find the same pairs as a full rebuild.
+ *
+ * @author Michael J. Schnieders
+ * @since 1.0
+ */
+public class NeighborListTest extends FFXTest {
+
+  private static final int nAtoms = 400;
+  private static final double cutoff = 8.0;
+  private static final double buffer = 2.0;
+
+  /** Move a subset of atoms by less than half the buffer (but enough to trigger a rebuild). */
+  @Test
+  public void testIncrementalWithinBuffer() {
+    testIncremental("P1", 0.3 * buffer);
+    testIncremental("P21", 0.3 * buffer);
+  }
+
+  /** Move a subset of atoms by more than the buffer. */
+  @Test
+  public void testIncrementalBeyondBuffer() {
+    testIncremental("P1", 2.0 * buffer);
+    testIncremental("P21", 2.0 * buffer);
+  }
+
+  private void testIncremental(String spaceGroup, double displacement) {
+    Random random = new Random(1);
+    Crystal crystal = new Crystal(30.0, 30.0, 30.0, 90.0, 90.0, 90.0, spaceGroup);
+    int nSymm = crystal.spaceGroup.getNumberOfSymOps();
+    Atom[] atoms = new Atom[nAtoms];
+    double[] xyz = new double[nAtoms * 3];
+    for (int i = 0; i < nAtoms; i++) {
+      for (int k = 0; k < 3; k++) {
+        xyz[i * 3 + k] = 30.0 * random.nextDouble();
+      }
+      atoms[i] = new Atom(i + 1, "C", null, new double[] {xyz[i * 3], xyz[i * 3 + 1], xyz[i * 3 + 2]});
+    }
+
+    ParallelTeam parallelTeam = new ParallelTeam(2);
+    NeighborList incremental = new NeighborList(null, crystal, atoms, cutoff, buffer, parallelTeam);
+    incremental.setIncremental(true);
+    NeighborList full = new NeighborList(null, crystal, atoms, cutoff, buffer, parallelTeam);
+    full.setIncremental(true);
+
+    double[][] coordinates = new double[nSymm][nAtoms * 3];
+    int[][][] lists = new int[nSymm][][];
+    applySymmetry(crystal, xyz, coordinates);
+    incremental.buildList(coordinates, lists, null, true, false);
+
+    // Repeatedly displace 10 atoms in random directions.
+    for (int step = 0; step < 5; step++) {
+      for (int m = 0; m < 10; m++) {
+        int i = random.nextInt(nAtoms);
+        double[] u = {random.nextGaussian(), random.nextGaussian(), random.nextGaussian()};
+        double norm = Math.sqrt(u[0] * u[0] + u[1] * u[1] + u[2] * u[2]);
+        for (int k = 0; k < 3; k++) {
+          xyz[i * 3 + k] += displacement * u[k] / norm;
+        }
+      }
+      applySymmetry(crystal, xyz, coordinates);
+      incremental.buildList(coordinates, lists, null, false, false);
+      Set<String> incrementalPairs = pairsWithinCutoff(crystal, coordinates, lists);
+
+      int[][][] fullLists = new int[nSymm][][];
+      full.buildList(coordinates, fullLists, null, true, false);
+      Set<String> fullPairs = pairsWithinCutoff(crystal, coordinates, fullLists);
+
+      assertEquals(" Neighbor list pairs (" + spaceGroup + ")", fullPairs, incrementalPairs);
+    }
+
+    try {
+      incremental.destroy();
+      full.destroy();
+      parallelTeam.shutdown();
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static void applySymmetry(Crystal crystal, double[] xyz, double[][] coordinates) {
+    double[] in = new double[3];
+    double[] out = new double[3];
+    for (int iSymm = 0; iSymm < coordinates.length; iSymm++) {
+      SymOp symOp = crystal.spaceGroup.getSymOp(iSymm);
+      for (int i = 0; i < nAtoms; i++) {
+        int i3 = i * 3;
+        in[0] = xyz[i3];
+        in[1] = xyz[i3 + 1];
+        in[2] = xyz[i3 + 2];
+        crystal.applySymOp(in, out, symOp);
+        coordinates[iSymm][i3] = out[0];
+        coordinates[iSymm][i3 + 1] = out[1];
+        coordinates[iSymm][i3 + 2] = out[2];
+      }
+    }
+  }
+
+  /**
+   * Collect the listed pairs within the cutoff. Each pair must be listed only once.
+   */
+  private static Set<String> pairsWithinCutoff(
+      Crystal crystal, double[][] coordinates, int[][][] lists) {
+    Set<String> listed = new HashSet<>();
+    Set<String> pairs = new HashSet<>();
+    double cutoff2 = cutoff * cutoff;
+    for (int iSymm = 0; iSymm < lists.length; iSymm++) {
+      double[] mate = coordinates[iSymm];
+      for (int i = 0; i < nAtoms; i++) {
+        int i3 = i * 3;
+        for (int j : lists[iSymm][i]) {
+          int j3 = j * 3;
+          // Pairs in the asymmetric unit are unordered.
+          String key =
+              iSymm == 0 ? iSymm + " " + Math.min(i, j) + " " + Math.max(i, j) : iSymm + " " + i + " " + j;
+          assertTrue(" Pair listed twice: " + key, listed.add(key));
+          double dx = coordinates[0][i3] - mate[j3];
+          double dy = coordinates[0][i3 + 1] - mate[j3 + 1];
+          double dz = coordinates[0][i3 + 2] - mate[j3 + 2];
+          if (crystal.image(dx, dy, dz) <= cutoff2) {
+            pairs.add(key);
+          }
+        }
+      }
+    }
+    return pairs;
+  }
+}
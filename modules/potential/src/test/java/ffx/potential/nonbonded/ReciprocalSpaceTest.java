@@ -0,0 +1,131 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.potential.nonbonded;
+
+import static java.lang.String.format;
+import static org.apache.commons.math3.util.FastMath.abs;
+import static org.apache.commons.math3.util.FastMath.max;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import ffx.potential.ForceFieldEnergy;
+import ffx.potential.MolecularAssembly;
+import ffx.potential.bonded.Atom;
+import ffx.potential.utils.PotentialsUtils;
+import ffx.utilities.FFXTest;
+import org.junit.Test;
+
+/**
+ * Test that the real to complex permanent multipole convolution (PME_REAL_FFT = true) reproduces
+ * the complex convolution.
+ *
+ * @author Michael J. Schnieders
+ * @since 1.0
+ */
+public class ReciprocalSpaceTest extends FFXTest {
+
+  /** Relative tolerance for energies. */
+  private static final double tolerance = 1.0e-10;
+  /** Absolute tolerance for gradient components (kcal/mol/A). */
+  private static final double gradientTolerance = 1.0e-8;
+  /** Absolute tolerance for induced dipole components (e-A). */
+  private static final double dipoleTolerance = 1.0e-10;
+
+  /** The AMOEBA acetanilide crystal with mutual polarization. */
+  @Test
+  public void testRealFFT() {
+    String filename = "src/main/java/ffx/potential/structures/acetanilide.xyz";
+    Result complex = evaluate(filename, false);
+    Result real = evaluate(filename, true);
+
+    assertRelative(" Total energy", complex.energy, real.energy);
+    assertRelative(" Permanent multipole energy", complex.permanent, real.permanent);
+    assertRelative(" Polarization energy", complex.polarization, real.polarization);
+    assertTrue(" No polarization energy", abs(complex.polarization) > 0.0);
+    for (int i = 0; i < complex.gradient.length; i++) {
+      assertEquals(format(" Gradient (atom %d)", i / 3 + 1),
+          complex.gradient[i], real.gradient[i], gradientTolerance);
+      assertEquals(format(" Induced dipole (atom %d)", i / 3 + 1),
+          complex.inducedDipole[i], real.inducedDipole[i], dipoleTolerance);
+    }
+  }
+
+  /**
+   * Evaluate the energy, gradient and induced dipoles of a structure.
+   *
+   * @param filename The structure to evaluate.
+   * @param realFFT Use the real to complex transform for the permanent multipoles.
+   * @return The energy, gradient and induced dipoles.
+   */
+  private Result evaluate(String filename, boolean realFFT) {
+    System.setProperty("pme-real-fft", Boolean.toString(realFFT));
+    MolecularAssembly molecularAssembly = new PotentialsUtils().open(filename);
+    ForceFieldEnergy forceFieldEnergy = molecularAssembly.getPotentialEnergy();
+    ParticleMeshEwald pme = forceFieldEnergy.getPmeNode();
+    // The real to complex transform is only used for an even X-dimension.
+    assertEquals(" Odd PME mesh X-dimension", 0, pme.getReciprocalSpace().getXDim() % 2);
+    Atom[] atoms = molecularAssembly.getAtomArray();
+    int nAtoms = atoms.length;
+
+    Result result = new Result();
+    result.gradient = new double[nAtoms * 3];
+    result.energy = forceFieldEnergy.energyAndGradient(forceFieldEnergy.getCoordinates(null),
+        result.gradient);
+    result.permanent = pme.getPermanentEnergy();
+    result.polarization = pme.getPolarizationEnergy();
+    result.inducedDipole = new double[nAtoms * 3];
+    for (int i = 0; i < nAtoms; i++) {
+      System.arraycopy(pme.inducedDipole[0][i], 0, result.inducedDipole, i * 3, 3);
+    }
+    forceFieldEnergy.destroy();
+    return result;
+  }
+
+  private static void assertRelative(String label, double expected, double actual) {
+    assertEquals(label, expected, actual, tolerance * max(1.0, abs(expected)));
+  }
+
+  /** The energy, gradient and induced dipoles of one evaluation. */
+  private static class Result {
+    double energy;
+    double permanent;
+    double polarization;
+    double[] gradient;
+    double[] inducedDipole;
+  }
+}
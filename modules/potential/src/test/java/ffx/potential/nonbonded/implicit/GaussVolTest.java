@@ -0,0 +1,134 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.potential.nonbonded.implicit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import edu.rit.pj.ParallelTeam;
+import ffx.utilities.FFXTest;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Test incremental updates of the GaussVol overlap tree against rebuilding it from scratch.
+ *
+ * @author Michael J. Schnieders
+ * @since 1.0
+ */
+public class GaussVolTest extends FFXTest {
+
+  private static final int nSide = 3;
+  private static final int nAtoms = nSide * nSide * nSide;
+
+  /** Compare a serial incremental tree with a serial rebuild. */
+  @Test
+  public void testIncrementalVersusRebuild() {
+    compareIncremental(null);
+  }
+
+  /** Compare per-thread incremental trees with a serial rebuild. */
+  @Test
+  public void testParallelIncrementalVersusRebuild() {
+    ParallelTeam parallelTeam = new ParallelTeam(4);
+    compareIncremental(parallelTeam);
+    try {
+      parallelTeam.shutdown();
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Move a lattice of atoms for 50 random steps, comparing the volume, surface area, overlap count
+   * and gradient of an incrementally updated tree with a tree rebuilt serially at every step.
+   *
+   * @param parallelTeam ParallelTeam for the incremental tree, or null to update it serially.
+   */
+  private void compareIncremental(ParallelTeam parallelTeam) {
+    Random random = new Random(1);
+    double[][] positions = new double[nAtoms][3];
+    double[] radii = new double[nAtoms];
+    double[] volumes = new double[nAtoms];
+    double[] gammas = new double[nAtoms];
+    boolean[] isHydrogen = new boolean[nAtoms];
+    Arrays.fill(gammas, 1.0);
+    for (int i = 0; i < nAtoms; i++) {
+      positions[i][0] = 2.4 * (i % nSide) + 0.2 * random.nextGaussian();
+      positions[i][1] = 2.4 * ((i / nSide) % nSide) + 0.2 * random.nextGaussian();
+      positions[i][2] = 2.4 * (i / (nSide * nSide)) + 0.2 * random.nextGaussian();
+      isHydrogen[i] = random.nextDouble() < 0.3;
+      radii[i] = 1.5 + 0.3 * random.nextDouble();
+      volumes[i] = 4.0 / 3.0 * Math.PI * Math.pow(radii[i], 3);
+    }
+
+    GaussVol rebuild = new GaussVol(nAtoms, radii, volumes, gammas, isHydrogen, null);
+    GaussVol incremental =
+        new GaussVol(nAtoms, radii, volumes, gammas, isHydrogen, parallelTeam);
+    incremental.setIncremental(true, GaussVol.DEFAULT_INCREMENTAL_BUFFER);
+
+    int nSteps = 50;
+    for (int step = 0; step < nSteps; step++) {
+      for (double[] xyz : positions) {
+        for (int k = 0; k < 3; k++) {
+          xyz[k] += 0.05 * random.nextGaussian();
+        }
+      }
+      double volume = rebuild.computeVolumeAndSA(positions);
+      assertEquals(" Volume", volume, incremental.computeVolumeAndSA(positions), 1.0e-8);
+      assertEquals(
+          " Surface area", rebuild.getSurfaceArea(), incremental.getSurfaceArea(), 1.0e-6);
+      assertEquals(
+          " Overlaps",
+          rebuild.getTotalNumberOfOverlaps(),
+          incremental.getTotalNumberOfOverlaps());
+      double[] expected = rebuild.getVolumeGradient();
+      double[] actual = incremental.getVolumeGradient();
+      for (int i = 0; i < 3 * nAtoms; i++) {
+        assertEquals(" Volume gradient", expected[i], actual[i], 1.0e-8);
+      }
+    }
+
+    // Most steps should update the tree in place.
+    assertEquals(nSteps, rebuild.getNumberOfTreeBuilds());
+    assertEquals(
+        nSteps, incremental.getNumberOfTreeBuilds() + incremental.getNumberOfTreeUpdates());
+    assertTrue(incremental.getNumberOfTreeUpdates() > incremental.getNumberOfTreeBuilds());
+  }
+}
@@ -0,0 +1,186 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.potential.parsers;
+
+import static java.lang.String.format;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import edu.rit.pj.ParallelTeam;
+import ffx.utilities.FFXTest;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.Test;
+
+/**
+ * Test random and parallel access to archive frames through the sidecar frame index.
+ *
+ * @author Michael J. Schnieders
+ * @since 1.0
+ */
+public class ArchiveIndexTest extends FFXTest {
+
+  private static final int nAtoms = 25;
+  private static final int nFrames = 40;
+
+  @Test
+  public void testRandomAccess() throws IOException {
+    Path dir = registerTemporaryDirectory();
+    File archive = dir.resolve("test.arc").toFile();
+    double[][] frames = trajectory(nFrames + 5);
+    long[] offsets = new long[nFrames + 5];
+    for (int f = 0; f < nFrames; f++) {
+      offsets[f] = append(archive, frames[f], f);
+    }
+
+    ArchiveIndex.Frame frame = new ArchiveIndex.Frame(nAtoms);
+    try (ArchiveIndex index = ArchiveIndex.open(archive, nAtoms)) {
+      assertEquals(nFrames, index.getFrameCount());
+      assertTrue(ArchiveIndex.getIndexFile(archive).exists());
+      for (int f = nFrames - 1; f >= 0; f -= 3) {
+        assertEquals(offsets[f], index.getOffset(f));
+        index.readFrame(f, frame);
+        assertEquals(format("%d  Frame %d", nAtoms, f), frame.remark);
+        assertEquals(f % 2 == 0, frame.periodic);
+        if (frame.periodic) {
+          assertEquals(20.0 + f * 0.01, frame.cell[0], 1.0e-8);
+        }
+        assertArrayEquals(frames[f], frame.xyz, 1.0e-8);
+      }
+
+      // Frames appended after the index was opened, including a partial frame.
+      for (int f = nFrames; f < nFrames + 3; f++) {
+        offsets[f] = append(archive, frames[f], f);
+      }
+      try (FileWriter writer = new FileWriter(archive, true)) {
+        writer.write(format("%7d  Partial\n", nAtoms));
+      }
+      assertEquals(nFrames + 3, index.refresh());
+      index.readFrame(nFrames + 2, frame);
+      assertArrayEquals(frames[nFrames + 2], frame.xyz, 1.0e-8);
+    }
+
+    // A second reader loads and extends the sidecar.
+    try (ArchiveIndex index = ArchiveIndex.open(archive, nAtoms)) {
+      assertEquals(nFrames + 3, index.getFrameCount());
+      assertEquals(offsets[nFrames + 1], index.getOffset(nFrames + 1));
+    }
+  }
+
+  @Test
+  public void testAppendAndParallel() throws Exception {
+    Path dir = registerTemporaryDirectory();
+    File archive = dir.resolve("md.arc").toFile();
+    double[][] frames = trajectory(nFrames);
+    for (int f = 0; f < nFrames; f++) {
+      long offset = append(archive, frames[f], f);
+      ArchiveIndex.appendOffset(archive, nAtoms, offset);
+    }
+    File indexFile = ArchiveIndex.getIndexFile(archive);
+    assertEquals(12 + 8 * nFrames, indexFile.length());
+    long modified = indexFile.lastModified();
+
+    AtomicIntegerArray visits = new AtomicIntegerArray(nFrames);
+    try (ArchiveIndex index = ArchiveIndex.open(archive, nAtoms)) {
+      assertEquals(nFrames, index.getFrameCount());
+      ParallelTeam parallelTeam = new ParallelTeam(2);
+      boolean read =
+          index.forEachFrame(
+              parallelTeam,
+              (ArchiveIndex.Frame frame) -> {
+                assertArrayEquals(frames[frame.index], frame.xyz, 1.0e-8);
+                visits.incrementAndGet(frame.index);
+              });
+      parallelTeam.shutdown();
+      assertTrue(read);
+    }
+    for (int f = 0; f < nFrames; f++) {
+      assertEquals(1, visits.get(f));
+    }
+    // The sidecar was complete, so it is not rewritten.
+    assertEquals(modified, indexFile.lastModified());
+
+    // Rewriting the archive invalidates the sidecar.
+    assertTrue(archive.delete());
+    append(archive, frames[1], 1);
+    try (ArchiveIndex index = ArchiveIndex.open(archive, nAtoms)) {
+      assertEquals(1, index.getFrameCount());
+      ArchiveIndex.Frame frame = new ArchiveIndex.Frame(nAtoms);
+      index.readFrame(0, frame);
+      assertFalse(frame.periodic);
+      assertArrayEquals(frames[1], frame.xyz, 1.0e-8);
+    }
+  }
+
+  /** Append a frame in the format written by XYZFilter, returning its offset. */
+  private static long append(File archive, double[] xyz, int f) throws IOException {
+    long offset = archive.exists() ? archive.length() : 0;
+    StringBuilder sb = new StringBuilder(format("%7d  Frame %d\n", nAtoms, f));
+    if (f % 2 == 0) {
+      double a = 20.0 + f * 0.01;
+      sb.append(format("%14.8f%14.8f%14.8f%14.8f%14.8f%14.8f\n", a, a, a, 90.0, 90.0, 90.0));
+    }
+    for (int i = 0; i < nAtoms; i++) {
+      sb.append(
+          format(
+              "%7d %3s%14.8f%14.8f%14.8f%6d%8d\n",
+              i + 1, "C", xyz[3 * i], xyz[3 * i + 1], xyz[3 * i + 2], 1, i == 0 ? 2 : i));
+    }
+    try (FileWriter writer = new FileWriter(archive, true)) {
+      writer.write(sb.toString());
+    }
+    return offset;
+  }
+
+  private static double[][] trajectory(int n) {
+    Random random = new Random(7);
+    double[][] frames = new double[n][3 * nAtoms];
+    for (int f = 0; f < n; f++) {
+      for (int i = 0; i < 3 * nAtoms; i++) {
+        frames[f][i] = Math.rint(1.0e8 * (random.nextDouble() - 0.5) * 40.0) * 1.0e-8;
+      }
+    }
+    return frames;
+  }
+}
@@ -0,0 +1,170 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.potential.parsers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import ffx.potential.MolecularAssembly;
+import ffx.potential.bonded.Atom;
+import ffx.potential.utils.PotentialsUtils;
+import ffx.utilities.FFXTest;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.Test;
+
+/**
+ * Test writing and reading Force Field X binary trajectories.
+ *
+ * @author Michael J. Schnieders
+ * @since 1.0
+ */
+public class TRJFilterTest extends FFXTest {
+
+  private static final String structures = "src/main/java/ffx/potential/structures/";
+  private final PotentialsUtils utils = new PotentialsUtils();
+
+  /** Frames appended by TRJFilter and TRJWriter are read back exactly by readFile and readNext. */
+  @Test
+  public void testTrajectory() throws IOException {
+    Path dir = registerTemporaryDirectory();
+    String[] names = {"acetanilide.xyz", "acetanilide.properties", "acetanilide.patch"};
+    for (String name : names) {
+      Files.copy(Paths.get(structures + name), dir.resolve(name));
+    }
+    MolecularAssembly assembly = utils.open(dir.resolve("acetanilide.xyz").toString());
+    Atom[] atoms = assembly.getAtomArray();
+    int nAtoms = atoms.length;
+    File trjFile = dir.resolve("acetanilide.trj").toFile();
+
+    // Write three frames: one synchronously, and two from the background writer.
+    double[][] frames = new double[3][3 * nAtoms];
+    TRJFilter trjFilter =
+        new TRJFilter(trjFile, assembly, assembly.getForceField(), assembly.getProperties());
+    getCoordinates(atoms, frames[0]);
+    assertTrue(trjFilter.writeFile(trjFile, true, new String[] {"Lambda: 0.00000000"}));
+    trjFilter.closeWriter();
+    File topology = TRJFilter.writeTopology(assembly, trjFile);
+    TRJWriter trjWriter = new TRJWriter(trjFile, assembly, topology, 1);
+    for (int f = 1; f < 3; f++) {
+      for (Atom atom : atoms) {
+        atom.moveTo(atom.getX() + 0.25 * f, atom.getY() - 0.5, atom.getZ() + 0.125);
+      }
+      getCoordinates(atoms, frames[f]);
+      assertTrue(trjWriter.append(new String[] {"Lambda: 0.50000000"}));
+    }
+    assertTrue(trjWriter.close());
+    utils.close(assembly);
+
+    // Open the trajectory, which loads the first frame onto the XYZ topology.
+    assertTrue(new TRJFileFilter().acceptDeep(trjFile));
+    MolecularAssembly trj = utils.open(trjFile.getAbsolutePath());
+    SystemFilter filter = utils.getFilter();
+    assertTrue(filter instanceof TRJFilter);
+    assertEquals(3, filter.countNumModels());
+    assertEquals(0.0, filter.getLastReadLambda().getAsDouble(), 0.0);
+    double[] xyz = new double[3 * nAtoms];
+    getCoordinates(trj.getAtomArray(), xyz);
+    assertArrayEquals(frames[0], xyz, 0.0);
+
+    for (int f = 1; f < 3; f++) {
+      assertTrue(filter.readNext(false, false));
+      assertEquals(f + 1, filter.getSnapshot());
+      assertEquals(0.5, filter.getLastReadLambda().getAsDouble(), 0.0);
+      getCoordinates(trj.getAtomArray(), xyz);
+      assertArrayEquals(frames[f], xyz, 0.0);
+    }
+    assertFalse(filter.readNext(false, false));
+    filter.closeReader();
+    utils.close(trj);
+  }
+
+  /** Frames appended by successive calls to writeFile are differenced, not all keyframes. */
+  @Test
+  public void testCompressedAppend() throws IOException {
+    Path dir = registerTemporaryDirectory();
+    String[] names = {"acetanilide.xyz", "acetanilide.properties", "acetanilide.patch"};
+    for (String name : names) {
+      Files.copy(Paths.get(structures + name), dir.resolve(name));
+    }
+    double precision = 1.0e-3;
+    System.setProperty("trajectory-precision", Double.toString(precision));
+    MolecularAssembly assembly = utils.open(dir.resolve("acetanilide.xyz").toString());
+    Atom[] atoms = assembly.getAtomArray();
+    int nAtoms = atoms.length;
+    File trjFile = dir.resolve("acetanilide.trj").toFile();
+
+    int nFrames = 5;
+    double[][] frames = new double[nFrames][3 * nAtoms];
+    TRJFilter trjFilter =
+        new TRJFilter(trjFile, assembly, assembly.getForceField(), assembly.getProperties());
+    for (int f = 0; f < nFrames; f++) {
+      for (Atom atom : atoms) {
+        atom.moveTo(atom.getX() + 0.01 * f, atom.getY() - 0.02, atom.getZ() + 0.005);
+      }
+      getCoordinates(atoms, frames[f]);
+      assertTrue(trjFilter.writeFile(trjFile, true, null));
+    }
+    trjFilter.closeWriter();
+    utils.close(assembly);
+
+    double[] xyz = new double[3 * nAtoms];
+    try (TRJStream in = TRJStream.openForRead(trjFile)) {
+      assertEquals(precision, in.getHeader().precision, 0.0);
+      for (int f = 0; f < nFrames; f++) {
+        assertTrue(in.readFrame(xyz));
+        assertEquals("Frame " + f, f == 0, in.keyframe);
+        assertArrayEquals(frames[f], xyz, 0.5 * precision + 1.0e-9);
+      }
+      assertFalse(in.readFrame(xyz));
+    }
+  }
+
+  private static void getCoordinates(Atom[] atoms, double[] xyz) {
+    for (int i = 0; i < atoms.length; i++) {
+      xyz[3 * i] = atoms[i].getX();
+      xyz[3 * i + 1] = atoms[i].getY();
+      xyz[3 * i + 2] = atoms[i].getZ();
+    }
+  }
+}
@@ -0,0 +1,138 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.potential.parsers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import ffx.utilities.FFXTest;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Test encoding and decoding binary trajectory frames, with and without compression.
+ *
+ * @author Michael J. Schnieders
+ * @since 1.0
+ */
+public class TRJStreamTest extends FFXTest {
+
+  private static final int nAtoms = 300;
+  /** Enough frames to span a compressed keyframe. */
+  private static final int nFrames = TRJStream.KEY_INTERVAL + 20;
+
+  @Test
+  public void testFullPrecision() throws IOException {
+    Path dir = registerTemporaryDirectory();
+    File file = dir.resolve("raw.trj").toFile();
+    double[][] frames = trajectory();
+    write(file, frames, 0, nFrames, 0.0);
+    double[] xyz = new double[3 * nAtoms];
+    try (TRJStream in = TRJStream.openForRead(file)) {
+      assertEquals(nAtoms, in.getHeader().nAtoms);
+      assertEquals("topology.xyz", in.getHeader().topology);
+      for (int f = 0; f < nFrames; f++) {
+        assertTrue(in.readFrame(xyz));
+        assertEquals("Frame " + f, in.remark);
+        assertTrue(in.periodic);
+        assertEquals(20.0 + f * 0.01, in.cell[0], 0.0);
+        assertArrayEquals(frames[f], xyz, 0.0);
+      }
+      assertFalse(in.readFrame(xyz));
+    }
+  }
+
+  @Test
+  public void testCompression() throws IOException {
+    Path dir = registerTemporaryDirectory();
+    File raw = dir.resolve("raw.trj").toFile();
+    File compressed = dir.resolve("compressed.trj").toFile();
+    double[][] frames = trajectory();
+    double precision = 1.0e-3;
+    write(raw, frames, 0, nFrames, 0.0);
+    // Write the compressed trajectory in two sessions; appending keeps the file's precision and
+    // restarts with a keyframe.
+    int half = nFrames / 2;
+    write(compressed, frames, 0, half, precision);
+    write(compressed, frames, half, nFrames, 0.0);
+
+    double[] xyz = new double[3 * nAtoms];
+    try (TRJStream in = TRJStream.openForRead(compressed)) {
+      assertEquals(precision, in.getHeader().precision, 0.0);
+      for (int f = 0; f < nFrames; f++) {
+        assertTrue(in.readFrame(xyz));
+        assertEquals("Frame " + f, in.remark);
+        assertArrayEquals(frames[f], xyz, 0.5 * precision + 1.0e-9);
+      }
+      assertFalse(in.readFrame(xyz));
+    }
+    assertTrue(compressed.length() * 3 < raw.length());
+  }
+
+  /** A random walk of atoms about a lattice, similar in character to an MD trajectory. */
+  private static double[][] trajectory() {
+    Random random = new Random(1);
+    double[][] frames = new double[nFrames][3 * nAtoms];
+    for (int i = 0; i < 3 * nAtoms; i++) {
+      frames[0][i] = 1.5 * (i / 3) % 20.0 + random.nextDouble();
+    }
+    for (int f = 1; f < nFrames; f++) {
+      for (int i = 0; i < 3 * nAtoms; i++) {
+        frames[f][i] = frames[f - 1][i] + 0.1 * random.nextGaussian();
+      }
+    }
+    return frames;
+  }
+
+  private static void write(File file, double[][] frames, int from, int to, double precision)
+      throws IOException {
+    File topology = new File(file.getParentFile(), "topology.xyz");
+    double[] cell = {20.0, 20.0, 20.0, 90.0, 90.0, 90.0};
+    try (TRJStream out = TRJStream.openForAppend(file, nAtoms, topology, precision)) {
+      for (int f = from; f < to; f++) {
+        cell[0] = 20.0 + f * 0.01;
+        out.writeFrame(frames[f], true, cell, "Frame " + f);
+      }
+    }
+  }
+}
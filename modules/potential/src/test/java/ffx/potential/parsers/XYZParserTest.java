@@ -0,0 +1,150 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.potential.parsers;
+
+import static java.lang.String.format;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import edu.rit.pj.ParallelTeam;
+import ffx.utilities.FFXTest;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Test that XYZParser reproduces Double.parseDouble and the atom records of the line-by-line
+ * parser.
+ *
+ * @author Michael J. Schnieders
+ * @since 1.0
+ */
+public class XYZParserTest extends FFXTest {
+
+  @Test
+  public void testParseDouble() {
+    Random random = new Random(11);
+    String[] formats = {"%14.8f", "%.3f", "%.12f", "%.15f", "%.0f", "%f"};
+    for (int i = 0; i < 200000; i++) {
+      double x = (random.nextDouble() - 0.5) * Math.pow(10.0, random.nextInt(12) - 3);
+      String token = format(formats[i % formats.length], x).trim();
+      assertParsed(token);
+    }
+    String[] special = {
+      "-0.00000000", "0", "+1.5", "12.", ".25", "1.0e-3", "-2E10", "NaN", "-Infinity",
+      "123456789012345678.5", "0.000000000000000000000000123", "9007199254740993", "1.5d"
+    };
+    for (String token : special) {
+      assertParsed(token);
+    }
+  }
+
+  @Test
+  public void testParseAtoms() throws Exception {
+    int nAtoms = XYZParser.PARALLEL_ATOMS + 1001;
+    Random random = new Random(5);
+    StringBuilder sb = new StringBuilder();
+    String[] lines = new String[nAtoms];
+    for (int i = 0; i < nAtoms; i++) {
+      StringBuilder line =
+          new StringBuilder(
+              format(
+                  "%7d  %-3s%14.8f%14.8f%14.8f%6d",
+                  i + 1,
+                  "H" + (i % 10),
+                  (random.nextDouble() - 0.5) * 200.0,
+                  (random.nextDouble() - 0.5) * 200.0,
+                  (random.nextDouble() - 0.5) * 200.0,
+                  1 + i % 37));
+      for (int b = 0; b < i % 5; b++) {
+        line.append(format("%8d", 1 + random.nextInt(nAtoms)));
+      }
+      lines[i] = line.toString();
+      sb.append(lines[i]).append(i % 7 == 0 ? "\r\n" : "\n");
+    }
+    byte[] bytes = sb.toString().getBytes(StandardCharsets.US_ASCII);
+    XYZParser parser = new XYZParser(ByteBuffer.wrap(bytes));
+    int[] starts = new int[nAtoms + 1];
+    assertEquals(nAtoms, parser.findLines(0, starts, nAtoms, false));
+    assertEquals(bytes.length, starts[nAtoms]);
+
+    int[] label = new int[nAtoms];
+    int[] name = new int[2 * nAtoms];
+    double[] xyz = new double[3 * nAtoms];
+    int[] type = new int[nAtoms];
+    int[][] bonds = new int[nAtoms][XYZParser.MAX_BONDS];
+    ParallelTeam parallelTeam = new ParallelTeam(3);
+    assertEquals(-1, parser.parseAtoms(starts, nAtoms, label, name, xyz, type, bonds, parallelTeam));
+    double[] serial = new double[3 * nAtoms];
+    assertEquals(-1, parser.parseCoordinates(starts, nAtoms, serial, null));
+    assertArrayEquals(xyz, serial, 0.0);
+
+    for (int i = 0; i < nAtoms; i++) {
+      // The reference parse used by XYZFilter.readNext.
+      String[] tokens = lines[i].trim().split(" +");
+      assertEquals(Integer.parseInt(tokens[0]), label[i]);
+      assertEquals(tokens[1], parser.string(name[2 * i], name[2 * i + 1]));
+      for (int k = 0; k < 3; k++) {
+        assertEquals(
+            Double.doubleToRawLongBits(Double.parseDouble(tokens[2 + k])),
+            Double.doubleToRawLongBits(xyz[3 * i + k]));
+      }
+      assertEquals(Integer.parseInt(tokens[5]), type[i]);
+      for (int b = 0; b < XYZParser.MAX_BONDS; b++) {
+        int expected = (6 + b < tokens.length) ? Integer.parseInt(tokens[6 + b]) : 0;
+        assertEquals(expected, bonds[i][b]);
+      }
+    }
+
+    // A malformed line is reported by index.
+    bytes[starts[XYZParser.PARALLEL_ATOMS + 17] + 30] = 'x';
+    assertEquals(
+        XYZParser.PARALLEL_ATOMS + 17, parser.parseCoordinates(starts, nAtoms, xyz, parallelTeam));
+    parallelTeam.shutdown();
+  }
+
+  private static void assertParsed(String token) {
+    byte[] bytes = ("  " + token + " ").getBytes(StandardCharsets.US_ASCII);
+    double parsed = XYZParser.parseDouble(ByteBuffer.wrap(bytes), 2, 2 + token.length());
+    assertEquals(
+        token,
+        Double.doubleToRawLongBits(Double.parseDouble(token)),
+        Double.doubleToRawLongBits(parsed));
+  }
+}
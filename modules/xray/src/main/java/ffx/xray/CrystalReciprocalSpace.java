@@ -41,12 +41,15 @@ import static ffx.numerics.fft.Complex3D.iComplex3D;
 import static java.lang.String.format;
 import static java.lang.System.arraycopy;
 import static java.util.Arrays.fill;
+import static org.apache.commons.math3.util.FastMath.PI;
 import static org.apache.commons.math3.util.FastMath.abs;
+import static org.apache.commons.math3.util.FastMath.cos;
 import static org.apache.commons.math3.util.FastMath.exp;
 import static org.apache.commons.math3.util.FastMath.floor;
 import static org.apache.commons.math3.util.FastMath.max;
 import static org.apache.commons.math3.util.FastMath.min;
 import static org.apache.commons.math3.util.FastMath.pow;
+import static org.apache.commons.math3.util.FastMath.sin;
 import static org.apache.commons.math3.util.FastMath.sqrt;
 
 import edu.rit.pj.IntegerForLoop;
@@ -71,6 +74,7 @@ import ffx.potential.nonbonded.SpatialDensityLoop;
 import ffx.potential.nonbonded.SpatialDensityRegion;
 import ffx.xray.RefinementMinimize.RefinementMode;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -192,12 +196,41 @@ public class CrystalReciprocalSpace {
   double solventB;
   private boolean solvent;
   private boolean useThreeGaussians = true;
+  /** If true, grid densities with tabulated form factors and a fast exponential. */
+  private boolean densityTable = false;
   // not final for purposes of finite differences
   private double[][][] coordinates;
   private double weight = 1.0;
   private int aRadGrid;
   /** If the "Native Environment Approximation" is true, the "use" flag is ignored. */
   private boolean nativeEnvironmentApproximation = false;
+  /**
+   * Maximum number of changed atoms for which structure factors are updated by direct summation
+   * over the reflection list, rather than re-gridding the density and repeating the FFT (0
+   * disables delta updates).
+   */
+  private int deltaAtoms = 0;
+  /**
+   * Maximum number of consecutive delta updates before the structure factors are recomputed from
+   * the density, which removes the drift between direct summation and the FFT.
+   */
+  private int deltaResync = 0;
+  /** Number of delta updates since the last full computation. */
+  private int deltaUpdates = 0;
+  /** The structure factor array that is consistent with the delta reference state. */
+  private double[][] deltaHKL = null;
+  /** Reference Cartesian coordinates of each atom. */
+  private double[][] deltaXYZ = null;
+  /** Reference occupancy and B-factor of each atom. */
+  private double[][] deltaOccB = null;
+  /** Reference anisotropic displacement parameters of each atom (or null if isotropic). */
+  private double[][] deltaAnisou = null;
+  /** True if an atom contributed to the reference structure factors. */
+  private boolean[] deltaContributes = null;
+  /** Indices of the atoms that changed since the reference state. */
+  private int[] deltaChanged = null;
+  /** Direct summation of structure factor changes over the reflection list. */
+  private DeltaRegion deltaRegion = null;
 
   /**
    * Crystal Reciprocal Space constructor, assumes this is not a bulk solvent mask and is not a
@@ -984,6 +1017,36 @@ public class CrystalReciprocalSpace {
         }
         break;
     }
+    applyDensityTable();
+  }
+
+  /**
+   * Grid densities using tabulated form factors and a fast exponential (see {@link DensityTable}).
+   *
+   * @param densityTable If true, use the density table mode.
+   */
+  void setDensityTable(boolean densityTable) {
+    this.densityTable = densityTable;
+    applyDensityTable();
+  }
+
+  /** Apply the density table mode to the current form factors. */
+  private void applyDensityTable() {
+    // Form factors changed, so the next update must regrid the density.
+    deltaHKL = null;
+    if (!solvent && !neutron) {
+      for (int iSymm = 0; iSymm < bulkNSymm; iSymm++) {
+        for (int i = 0; i < nAtoms; i++) {
+          ((XRayFormFactor) atomFormFactors[iSymm][i]).setDensityTable(densityTable);
+        }
+      }
+    } else if (solvent && solventModel == SolventModel.GAUSSIAN) {
+      for (int iSymm = 0; iSymm < bulkNSymm; iSymm++) {
+        for (int i = 0; i < nAtoms; i++) {
+          ((SolventGaussFormFactor) solventFormFactors[iSymm][i]).setFastExp(densityTable);
+        }
+      }
+    }
   }
 
   /**
@@ -1001,6 +1064,132 @@ public class CrystalReciprocalSpace {
         atomFormFactors[iSymm][i] = new XRayFormFactor(atoms[i], useThreeGaussians, bAdd);
       }
     }
+    applyDensityTable();
+  }
+
+  /**
+   * Update structure factors by direct summation over the reflection list when only a few atoms
+   * have moved since the previous computation (see {@link #computeDeltaDensity(double[][])}).
+   *
+   * @param deltaAtoms the maximum number of moved atoms for a delta update (0 disables).
+   * @param deltaResync the maximum number of consecutive delta updates between full computations.
+   */
+  void setDeltaAtoms(int deltaAtoms, int deltaResync) {
+    this.deltaAtoms = solvent ? 0 : max(0, deltaAtoms);
+    this.deltaResync = max(1, deltaResync);
+    deltaHKL = null;
+    if (this.deltaAtoms > 0) {
+      deltaXYZ = new double[nAtoms][3];
+      deltaOccB = new double[nAtoms][2];
+      deltaAnisou = new double[nAtoms][];
+      deltaContributes = new boolean[nAtoms];
+      deltaChanged = new int[this.deltaAtoms];
+      deltaRegion = new DeltaRegion(threadCount);
+    } else {
+      deltaXYZ = null;
+      deltaOccB = null;
+      deltaAnisou = null;
+      deltaContributes = null;
+      deltaChanged = null;
+      deltaRegion = null;
+    }
+  }
+
+  /**
+   * Update atomic structure factors in place by subtracting the contributions of atoms that moved
+   * since the previous computation and adding their contributions at the new positions. The sum
+   * runs directly over the reflection list, so its cost scales with the number of moved atoms
+   * rather than the size of the unit cell.
+   *
+   * <p>A delta update is only possible if hklData was filled by the previous computation, no more
+   * than <code>deltaAtoms</code> atoms moved (or were switched on or off), no occupancy or B-factor
+   * changed, and fewer than <code>deltaResync</code> delta updates were applied since the last full
+   * computation.
+   *
+   * @param hklData structure factors from the previous computation.
+   * @return true if hklData is current, or false if the density must be recomputed.
+   */
+  boolean computeDeltaDensity(double[][] hklData) {
+    if (deltaAtoms <= 0 || hklData != deltaHKL || deltaUpdates >= deltaResync) {
+      return false;
+    }
+
+    int nChanged = 0;
+    for (int i = 0; i < nAtoms; i++) {
+      Atom atom = atoms[i];
+      if (atom.getOccupancy() != deltaOccB[i][0]
+          || atom.getTempFactor() != deltaOccB[i][1]
+          || !Arrays.equals(atom.getAnisou(null), deltaAnisou[i])) {
+        return false;
+      }
+      boolean contributes = contributes(i);
+      if (contributes != deltaContributes[i]
+          || (contributes
+              && (coordinates[0][0][i] != deltaXYZ[i][0]
+                  || coordinates[0][1][i] != deltaXYZ[i][1]
+                  || coordinates[0][2][i] != deltaXYZ[i][2]))) {
+        if (nChanged == deltaAtoms) {
+          return false;
+        }
+        deltaChanged[nChanged++] = i;
+      }
+    }
+
+    if (nChanged == 0) {
+      return true;
+    }
+
+    double[] xyz = new double[3];
+    for (int j = 0; j < nChanged; j++) {
+      int i = deltaChanged[j];
+      xyz[0] = coordinates[0][0][i];
+      xyz[1] = coordinates[0][1][i];
+      xyz[2] = coordinates[0][2][i];
+      atomFormFactors[0][i].update(xyz, bAdd);
+    }
+
+    try {
+      deltaRegion.setChanged(hklData, nChanged);
+      parallelTeam.execute(deltaRegion);
+    } catch (Exception e) {
+      String message = "Fatal exception computing structure factor changes.";
+      logger.log(Level.SEVERE, message, e);
+    }
+
+    for (int j = 0; j < nChanged; j++) {
+      saveDeltaReference(deltaChanged[j]);
+    }
+    deltaUpdates++;
+    return true;
+  }
+
+  /**
+   * True if an atom contributes to the atomic density.
+   *
+   * @param i the atom index.
+   * @return true if the atom is gridded.
+   */
+  private boolean contributes(int i) {
+    if (!atoms[i].getUse() && !nativeEnvironmentApproximation) {
+      return false;
+    }
+    return !(lambdaTerm && atoms[i].applyLambda());
+  }
+
+  /**
+   * Record the current state of an atom as the delta reference.
+   *
+   * @param i the atom index.
+   */
+  private void saveDeltaReference(int i) {
+    Atom atom = atoms[i];
+    deltaXYZ[i][0] = coordinates[0][0][i];
+    deltaXYZ[i][1] = coordinates[0][1][i];
+    deltaXYZ[i][2] = coordinates[0][2][i];
+    deltaOccB[i][0] = atom.getOccupancy();
+    deltaOccB[i][1] = atom.getTempFactor();
+    deltaAnisou[i] = atom.getAnisou(null);
+    deltaContributes[i] = contributes(i);
   }
 
   /**
@@ -1297,6 +1486,14 @@ public class CrystalReciprocalSpace {
     }
     symTime += System.nanoTime();
 
+    if (deltaAtoms > 0) {
+      for (int i = 0; i < nAtoms; i++) {
+        saveDeltaReference(i);
+      }
+      deltaHKL = hklData;
+      deltaUpdates = 0;
+    }
+
     if (logger.isLoggable(Level.INFO) && print) {
       StringBuilder sb = new StringBuilder();
       sb.append(format("\n Fc Initialization:         %8.4f\n", initTime * toSeconds));
@@ -3574,6 +3771,132 @@ public class CrystalReciprocalSpace {
     }
   }
 
+  private class DeltaRegion extends ParallelRegion {
+
+    DeltaLoop[] deltaLoops;
+    int nHKL = reflectionList.hkllist.size();
+    double[][] hklData = null;
+    int nChanged;
+    /** Old and new fractional coordinates of each changed atom. */
+    double[][] oldUVW;
+    double[][] newUVW;
+    /** True if the old or new position of each changed atom contributes. */
+    boolean[] oldContributes;
+    boolean[] newContributes;
+
+    public DeltaRegion(int nThreads) {
+      deltaLoops = new DeltaLoop[nThreads];
+    }
+
+    @Override
+    public void run() throws Exception {
+      int ti = getThreadIndex();
+
+      if (deltaLoops[ti] == null) {
+        deltaLoops[ti] = new DeltaLoop();
+      }
+
+      try {
+        execute(0, nHKL - 1, deltaLoops[ti]);
+      } catch (Exception e) {
+        logger.info(e.toString());
+      }
+    }
+
+    public void setChanged(double[][] hklData, int nChanged) {
+      this.hklData = hklData;
+      this.nChanged = nChanged;
+      if (oldUVW == null || oldUVW.length < nChanged) {
+        oldUVW = new double[nChanged][3];
+        newUVW = new double[nChanged][3];
+        oldContributes = new boolean[nChanged];
+        newContributes = new boolean[nChanged];
+      }
+      double[] xyz = new double[3];
+      for (int j = 0; j < nChanged; j++) {
+        int i = deltaChanged[j];
+        crystal.toFractionalCoordinates(deltaXYZ[i], oldUVW[j]);
+        xyz[0] = coordinates[0][0][i];
+        xyz[1] = coordinates[0][1][i];
+        xyz[2] = coordinates[0][2][i];
+        crystal.toFractionalCoordinates(xyz, newUVW[j]);
+        oldContributes[j] = deltaContributes[i];
+        newContributes[j] = contributes(i);
+      }
+    }
+
+    private class DeltaLoop extends IntegerForLoop {
+
+      final double[] s = new double[3];
+      final int nsym;
+      final List<SymOp> symops;
+      final HKL ij;
+
+      public DeltaLoop() {
+        nsym = crystal.spaceGroup.symOps.size();
+        symops = crystal.spaceGroup.symOps;
+        ij = new HKL();
+      }
+
+      @Override
+      public void run(int lb, int ub) throws Exception {
+        final double[][] A = crystal.A;
+        for (int i = lb; i <= ub; i++) {
+          HKL ih = reflectionList.hkllist.get(i);
+          double[] fc = hklData[ih.index()];
+          double re = 0.0;
+          double im = 0.0;
+          // Apply symmetry
+          for (int j = 0; j < nsym; j++) {
+            SymOp symOp = symops.get(j);
+            crystal.applyTransSymRot(ih, ij, symOp);
+            double shift = Crystal.sym_phase_shift(ih, symOp);
+            int h = ij.h();
+            int k = ij.k();
+            int l = ij.l();
+            // Cartesian scattering vector of the rotated reflection.
+            s[0] = A[0][0] * h + A[0][1] * k + A[0][2] * l;
+            s[1] = A[1][0] * h + A[1][1] * k + A[1][2] * l;
+            s[2] = A[2][0] * h + A[2][1] * k + A[2][2] * l;
+            for (int n = 0; n < nChanged; n++) {
+              double f = formFactor(atomFormFactors[0][deltaChanged[n]], s);
+              if (newContributes[n]) {
+                double[] uvw = newUVW[n];
+                double phase = 2.0 * PI * (h * uvw[0] + k * uvw[1] + l * uvw[2]) - shift;
+                re += f * cos(phase);
+                im += f * sin(phase);
+              }
+              if (oldContributes[n]) {
+                double[] uvw = oldUVW[n];
+                double phase = 2.0 * PI * (h * uvw[0] + k * uvw[1] + l * uvw[2]) - shift;
+                re -= f * cos(phase);
+                im -= f * sin(phase);
+              }
+            }
+          }
+          // Remove Badd
+          double scale = exp(0.25 * bAdd * Crystal.invressq(crystal, ih));
+          fc[0] += scale * re;
+          fc[1] += scale * im;
+        }
+      }
+    }
+  }
+
+  /**
+   * Reciprocal space form factor of an atom, including occupancy and Badd.
+   *
+   * @param formFactor the atomic form factor.
+   * @param s the Cartesian scattering vector.
+   * @return the form factor.
+   */
+  private static double formFactor(FormFactor formFactor, double[] s) {
+    if (formFactor instanceof NeutronFormFactor) {
+      return ((NeutronFormFactor) formFactor).f(s);
+    }
+    return ((XRayFormFactor) formFactor).f(s);
+  }
+
   private class SolventScaleRegion extends ParallelRegion {
 
     SolventScaleLoop[] solventScaleLoops;
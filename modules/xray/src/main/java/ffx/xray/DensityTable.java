@@ -0,0 +1,273 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.xray;
+
+import static org.apache.commons.math3.util.FastMath.sqrt;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The DensityTable class tabulates the isotropic density of a sum of Gaussians as a function of
+ * squared distance, so that gridding an atom costs one interpolation per grid point rather than one
+ * exponential per Gaussian.
+ *
+ * <p>Values and derivatives are stored on a uniform grid in r^2 and interpolated with cubic
+ * Hermite polynomials. The node spacing is chosen from the narrowest Gaussian so that the relative
+ * interpolation error is below about 3e-7 (value) and 2e-5 (derivative). Because the derivative
+ * returned is that of the interpolant, densities and gradients remain consistent.
+ *
+ * <p>Tables are shared between atoms with the same form factor, isotropic B-factor and form factor
+ * width. A fast exponential with a bounded error is also provided for densities that cannot be
+ * tabulated (e.g. anisotropic atoms).
+ *
+ * @author Michael J. Schnieders
+ * @see XRayFormFactor
+ * @since 1.0
+ */
+final class DensityTable {
+
+  /** Node spacing times the largest Gaussian exponent. */
+  private static final double STEP_SCALE = 0.1;
+  /** The largest number of nodes in a table. */
+  private static final int MAX_NODES = 1 << 16;
+  /** The cache is cleared when it holds more tables than this (e.g. during B refinement). */
+  private static final int MAX_TABLES = 1 << 14;
+
+  private static final ConcurrentHashMap<Key, DensityTable> cache = new ConcurrentHashMap<>();
+
+  /** Number of exp table entries per power of 2. */
+  private static final int EXP_BITS = 8;
+
+  private static final int EXP_SIZE = 1 << EXP_BITS;
+  /** 2^(j / EXP_SIZE) for j in [0, EXP_SIZE). */
+  private static final double[] EXP2 = new double[EXP_SIZE];
+  /** EXP_SIZE / ln(2). */
+  private static final double EXP_SCALE = EXP_SIZE / Math.log(2.0);
+  /** High and low parts of ln(2) / EXP_SIZE; the high part has 32 trailing zero bits. */
+  private static final double LN2_HI = 6.93147180369123816490e-01 / EXP_SIZE;
+
+  private static final double LN2_LO = 1.90821492927058770002e-10 / EXP_SIZE;
+
+  static {
+    for (int j = 0; j < EXP_SIZE; j++) {
+      EXP2[j] = Math.pow(2.0, (double) j / EXP_SIZE);
+    }
+  }
+
+  /** The largest squared distance in the table. */
+  final double r2Max;
+  /** Node spacing in r^2. */
+  private final double step;
+
+  private final double invStep;
+  /** The value and the derivative times the spacing, for each node. */
+  private final double[] nodes;
+
+  /**
+   * Tabulate sum_i a[i] * u[i]^(-3/2) * exp(-0.5 * r2 / u[i]).
+   *
+   * @param a The Gaussian weights.
+   * @param u The isotropic Gaussian variances.
+   * @param nGaussians The number of Gaussians.
+   * @param r2Max The largest squared distance to tabulate.
+   * @param nNodes The number of nodes.
+   */
+  private DensityTable(double[] a, double[] u, int nGaussians, double r2Max, int nNodes) {
+    this.r2Max = r2Max;
+    step = r2Max / (nNodes - 2);
+    invStep = 1.0 / step;
+    double[] ainv = new double[nGaussians];
+    double[] c = new double[nGaussians];
+    for (int i = 0; i < nGaussians; i++) {
+      ainv[i] = a[i] / sqrt(u[i] * u[i] * u[i]);
+      c[i] = -0.5 / u[i];
+    }
+    nodes = new double[2 * nNodes];
+    for (int j = 0; j < nNodes; j++) {
+      double r2 = j * step;
+      double value = 0.0;
+      double derivative = 0.0;
+      for (int i = 0; i < nGaussians; i++) {
+        double e = ainv[i] * Math.exp(c[i] * r2);
+        value += e;
+        derivative += c[i] * e;
+      }
+      nodes[2 * j] = value;
+      nodes[2 * j + 1] = derivative * step;
+    }
+  }
+
+  /**
+   * Get a shared density table.
+   *
+   * @param ffIndex The form factor index, which determines a and b.
+   * @param a The Gaussian weights.
+   * @param u The isotropic Gaussian variances (atomic U plus the Gaussian width).
+   * @param nGaussians The number of Gaussians.
+   * @param uIso The atomic isotropic U, which together with ffIndex determines u.
+   * @param r2Max The largest squared distance to tabulate.
+   * @return The table, or null if the Gaussians are too narrow to tabulate.
+   */
+  static DensityTable get(
+      int ffIndex, double[] a, double[] u, int nGaussians, double uIso, double r2Max) {
+    double uMin = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < nGaussians; i++) {
+      uMin = Math.min(uMin, u[i]);
+    }
+    if (!(uMin > 0.0) || !(r2Max > 0.0)) {
+      return null;
+    }
+    double nNodes = Math.ceil(r2Max * 0.5 / (uMin * STEP_SCALE)) + 2;
+    if (nNodes > MAX_NODES) {
+      return null;
+    }
+    Key key = new Key(ffIndex, nGaussians, uIso, r2Max);
+    DensityTable table = cache.get(key);
+    if (table == null) {
+      if (cache.size() >= MAX_TABLES) {
+        cache.clear();
+      }
+      int n = (int) nNodes;
+      table = cache.computeIfAbsent(key, (Key k) -> new DensityTable(a, u, nGaussians, r2Max, n));
+    }
+    return table;
+  }
+
+  /**
+   * A fast exponential for arguments up to zero, with a relative error below 1e-11. Positive
+   * arguments use the library exponential.
+   *
+   * @param x The argument.
+   * @return exp(x).
+   */
+  static double exp(double x) {
+    if (!(x > -708.0) || x > 0.0) {
+      // Underflow, NaN or positive arguments.
+      return (x > 0.0 || x != x) ? Math.exp(x) : 0.0;
+    }
+    // x = (n / EXP_SIZE) * ln(2) + r, with 0 <= r < ln(2) / EXP_SIZE.
+    int n = (int) Math.floor(x * EXP_SCALE);
+    double r = (x - n * LN2_HI) - n * LN2_LO;
+    double p = 1.0 + r * (1.0 + r * (0.5 + r * (1.0 / 6.0 + r * (1.0 / 24.0))));
+    double scale = Double.longBitsToDouble((long) ((n >> EXP_BITS) + 1023) << 52);
+    return EXP2[n & (EXP_SIZE - 1)] * p * scale;
+  }
+
+  /**
+   * Interpolate the density.
+   *
+   * @param r2 The squared distance, which must be less than r2Max.
+   * @return The density.
+   */
+  double value(double r2) {
+    double t = r2 * invStep;
+    int j = (int) t;
+    double s = t - j;
+    int k = 2 * j;
+    double f0 = nodes[k];
+    double d0 = nodes[k + 1];
+    double f1 = nodes[k + 2];
+    double d1 = nodes[k + 3];
+    double s2 = s * s;
+    double s3 = s2 * s;
+    return (2.0 * s3 - 3.0 * s2 + 1.0) * f0
+        + (s3 - 2.0 * s2 + s) * d0
+        + (3.0 * s2 - 2.0 * s3) * f1
+        + (s3 - s2) * d1;
+  }
+
+  /**
+   * Interpolate the derivative of the density with respect to r^2.
+   *
+   * @param r2 The squared distance, which must be less than r2Max.
+   * @return The derivative.
+   */
+  double derivative(double r2) {
+    double t = r2 * invStep;
+    int j = (int) t;
+    double s = t - j;
+    int k = 2 * j;
+    double f0 = nodes[k];
+    double d0 = nodes[k + 1];
+    double f1 = nodes[k + 2];
+    double d1 = nodes[k + 3];
+    double s2 = s * s;
+    double dp =
+        (6.0 * s2 - 6.0 * s) * (f0 - f1)
+            + (3.0 * s2 - 4.0 * s + 1.0) * d0
+            + (3.0 * s2 - 2.0 * s) * d1;
+    return dp * invStep;
+  }
+
+  /** Identifies a table by form factor, isotropic U and extent. */
+  private static final class Key {
+
+    private final int ffIndex;
+    private final int nGaussians;
+    private final double uIso;
+    private final double r2Max;
+
+    Key(int ffIndex, int nGaussians, double uIso, double r2Max) {
+      this.ffIndex = ffIndex;
+      this.nGaussians = nGaussians;
+      this.uIso = uIso;
+      this.r2Max = r2Max;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return ffIndex == key.ffIndex
+          && nGaussians == key.nGaussians
+          && Double.compare(uIso, key.uIso) == 0
+          && Double.compare(r2Max, key.r2Max) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(ffIndex, nGaussians, uIso, r2Max);
+    }
+  }
+}
@@ -96,6 +96,9 @@ public class DiffractionData implements DataContainer {
   // Settings
   private final double fsigfCutoff;
   private final boolean use_3g;
+  private final boolean densityTable;
+  private final int deltaAtoms;
+  private final int deltaResync;
   private final double aRadBuff;
   private final double xrayScaleTol;
   private final double sigmaATol;
@@ -240,6 +243,9 @@ public class DiffractionData implements DataContainer {
     gridSearch = properties.getBoolean("gridsearch", false);
     splineFit = properties.getBoolean("splinefit", true);
     use_3g = properties.getBoolean("use_3g", true);
+    densityTable = properties.getBoolean("density-table", false);
+    deltaAtoms = properties.getInt("delta-structure-factors", 0);
+    deltaResync = properties.getInt("delta-structure-factors-resync", 50);
     aRadBuff = properties.getDouble("aradbuff", 0.75);
     double sampling = properties.getDouble("sampling", 0.6);
     xrayScaleTol = properties.getDouble("xrayscaletol", 1e-4);
@@ -315,6 +321,11 @@ public class DiffractionData implements DataContainer {
       sb.append("  Target Function\n");
       sb.append("   X-ray refinement weight: ").append(xWeight).append("\n");
       sb.append("   Use cctbx 3 Gaussians: ").append(use_3g).append("\n");
+      sb.append("   Tabulated form factor densities: ").append(densityTable).append("\n");
+      if (deltaAtoms > 0) {
+        sb.append("   Delta structure factors (max atoms): ").append(deltaAtoms).append("\n");
+        sb.append("   Delta updates between full updates: ").append(deltaResync).append("\n");
+      }
       sb.append("   Atomic form factor radius buffer: ").append(aRadBuff).append("\n");
       sb.append("   Reciprocal space sampling rate: ").append(sampling).append("\n");
       sb.append("   Resolution dependent spline scale: ").append(splineFit).append("\n");
@@ -407,6 +418,8 @@ public class DiffractionData implements DataContainer {
               gridMethod);
       refinementData[i].setCrystalReciprocalSpaceFc(crystalReciprocalSpacesFc[i]);
       crystalReciprocalSpacesFc[i].setUse3G(use_3g);
+      crystalReciprocalSpacesFc[i].setDensityTable(densityTable);
+      crystalReciprocalSpacesFc[i].setDeltaAtoms(deltaAtoms, deltaResync);
       crystalReciprocalSpacesFc[i].setWeight(dataFiles[i].getWeight());
       crystalReciprocalSpacesFc[i].lambdaTerm = false;
       crystalReciprocalSpacesFc[i].setNativeEnvironmentApproximation(
@@ -425,6 +438,7 @@ public class DiffractionData implements DataContainer {
               gridMethod);
       refinementData[i].setCrystalReciprocalSpaceFs(crystalReciprocalSpacesFs[i]);
       crystalReciprocalSpacesFs[i].setUse3G(use_3g);
+      crystalReciprocalSpacesFs[i].setDensityTable(densityTable);
       crystalReciprocalSpacesFs[i].setWeight(dataFiles[i].getWeight());
       crystalReciprocalSpacesFs[i].lambdaTerm = false;
       crystalReciprocalSpacesFs[i].setNativeEnvironmentApproximation(
@@ -528,12 +542,18 @@ public class DiffractionData implements DataContainer {
 
   /**
    * Parallelized call to compute atomic density on a grid, followed by FFT to compute structure
-   * factors.
+   * factors. If delta structure factors are enabled and only a few atoms moved, the model
+   * structure factors are instead updated by direct summation and the bulk solvent contribution is
+   * held fixed until the next full computation.
    *
    * @see CrystalReciprocalSpace#computeDensity(double[][], boolean)
+   * @see CrystalReciprocalSpace#computeDeltaDensity(double[][])
    */
   public void computeAtomicDensity() {
     for (int i = 0; i < n; i++) {
+      if (crystalReciprocalSpacesFc[i].computeDeltaDensity(refinementData[i].fc)) {
+        continue;
+      }
       crystalReciprocalSpacesFc[i].computeDensity(refinementData[i].fc);
       if (solventModel != SolventModel.NONE) {
         crystalReciprocalSpacesFs[i].computeDensity(refinementData[i].fs);
@@ -336,6 +336,16 @@ public final class NeutronFormFactor implements FormFactor {
     return occ * sum;
   }
 
+  /**
+   * Compute the form factor at a Cartesian scattering vector, including occupancy and Badd.
+   *
+   * @param s the Cartesian scattering vector (1/A).
+   * @return the form factor.
+   */
+  public double f(double[] s) {
+    return occ * a[0] * exp(-twopi2 * quad_form(s, u[0]));
+  }
+
   /** {@inheritDoc} */
   @Override
   public double rho(double f, double lambda, double[] xyz) {
@@ -57,6 +57,8 @@ public final class SolventGaussFormFactor implements FormFactor {
   private final double[] dxyz = new double[3];
   private final double[] g = new double[3];
   private final double isd2;
+  /** If true, use the fast exponential of {@link DensityTable}. */
+  private boolean useFastExp = false;
 
   /**
    * Constructor for SolventGaussFormFactor.
@@ -97,7 +99,8 @@ public final class SolventGaussFormFactor implements FormFactor {
    * @return a double.
    */
   public double rho(double f, double lambda, double rsq) {
-    return f + exp(-rsq * isd2);
+    double x = -rsq * isd2;
+    return f + (useFastExp ? DensityTable.exp(x) : exp(x));
   }
 
   /** {@inheritDoc} */
@@ -110,7 +113,8 @@ public final class SolventGaussFormFactor implements FormFactor {
     }
     sub(this.xyz, xyz, dxyz);
     double r2 = length2(dxyz);
-    double rho = exp(-r2 * isd2);
+    double x = -r2 * isd2;
+    double rho = useFastExp ? DensityTable.exp(x) : exp(x);
     double prefactor = -dfc * 2.0 * rho * isd2;
     g[0] = prefactor * dxyz[0];
     g[1] = prefactor * dxyz[1];
@@ -118,6 +122,15 @@ public final class SolventGaussFormFactor implements FormFactor {
     atom.addToXYZGradient(g[0], g[1], g[2]);
   }
 
+  /**
+   * Use the fast exponential of {@link DensityTable}, which has a bounded relative error.
+   *
+   * @param useFastExp If true, use the fast exponential.
+   */
+  public void setFastExp(boolean useFastExp) {
+    this.useFastExp = useFastExp;
+  }
+
   /** {@inheritDoc} */
   @Override
   public void update(double[] xyz) {
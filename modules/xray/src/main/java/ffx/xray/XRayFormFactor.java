@@ -1253,8 +1253,14 @@ public final class XRayFormFactor implements FormFactor {
   private final double[][][] u = new double[6][3][3];
   private final double[][][] uinv = new double[6][3][3];
   private final double[][][] jmat = new double[6][3][3];
+  /** Isotropic variance of each Gaussian, used to build density tables. */
+  private final double[] uIso = new double[6];
   private final int nGaussians;
   private double[] anisou = null;
+  /** If true, use tabulated densities and a fast exponential. */
+  private boolean useDensityTable = false;
+  /** The tabulated density for an isotropic atom, or null. */
+  private DensityTable densityTable = null;
   private double uAdd;
   private double occupancy;
   private boolean hasAnisou;
@@ -1437,6 +1443,20 @@ public final class XRayFormFactor implements FormFactor {
     return occupancy * sum;
   }
 
+  /**
+   * Compute the form factor at a Cartesian scattering vector, including occupancy and Badd.
+   *
+   * @param s the Cartesian scattering vector (1/A).
+   * @return the form factor.
+   */
+  public double f(double[] s) {
+    double sum = 0.0;
+    for (int i = 0; i < nGaussians; i++) {
+      sum += a[i] * exp(-twopi2 * quad_form(s, u[i]));
+    }
+    return occupancy * sum;
+  }
+
   /** {@inheritDoc} */
   @Override
   public double rho(double f, double lambda, double[] xyz) {
@@ -1530,9 +1550,28 @@ public final class XRayFormFactor implements FormFactor {
       // b[i] = pow(det, 0.33333333333);
       det = determinant3(uinv[i]);
       binv[i] = pow(det, oneThird);
+      uIso[i] = u[i][0][0];
+    }
+
+    densityTable = null;
+    if (useDensityTable && !hasAnisou) {
+      densityTable =
+          DensityTable.get(
+              ffIndex, a, uIso, nGaussians, anisou[0] + uAdd, atom.getFormFactorWidth2());
     }
   }
 
+  /**
+   * Use tabulated densities for isotropic atoms and a fast exponential otherwise (see {@link
+   * DensityTable}).
+   *
+   * @param useDensityTable If true, use the density table mode.
+   */
+  public void setDensityTable(boolean useDensityTable) {
+    this.useDensityTable = useDensityTable;
+    update(xyz);
+  }
+
   /**
    * rho_n
    *
@@ -1547,13 +1586,22 @@ public final class XRayFormFactor implements FormFactor {
     sub(this.xyz, xyz, xyz);
 
     // Compare r^2 to form factor width^2 to avoid expensive sqrt.
-    if (length2(xyz) > atom.getFormFactorWidth2()) {
+    double r2 = length2(xyz);
+    if (r2 > atom.getFormFactorWidth2()) {
       return f;
     }
 
     double sum = 0.0;
-    for (int i = 0; i < nGaussians; i++) {
-      sum += ainv[i] * exp(-0.5 * quad_form(xyz, uinv[i]));
+    if (densityTable != null && nGaussians == this.nGaussians && r2 < densityTable.r2Max) {
+      sum = densityTable.value(r2);
+    } else if (useDensityTable) {
+      for (int i = 0; i < nGaussians; i++) {
+        sum += ainv[i] * DensityTable.exp(-0.5 * quad_form(xyz, uinv[i]));
+      }
+    } else {
+      for (int i = 0; i < nGaussians; i++) {
+        sum += ainv[i] * exp(-0.5 * quad_form(xyz, uinv[i]));
+      }
     }
     return f + (lambda * occupancy * twopi32 * sum);
   }
@@ -1605,42 +1653,59 @@ public final class XRayFormFactor implements FormFactor {
       refineocc = true;
     }
 
-    for (int i = 0; i < nGaussians; i++) {
-      aex = ainv[i] * exp(-0.5 * quad_form(dxyz, uinv[i]));
-
+    if (densityTable != null
+        && nGaussians == this.nGaussians
+        && r2 < densityTable.r2Max
+        && !refineb) {
+      // For an isotropic atom, sum_i aex_i * uinv_i * dxyz = -2 * (d rho / d r^2) * dxyz.
       if (refinexyz) {
-        vec3Mat3(dxyz, uinv[i], resv);
-        gradp[0] += aex * dot(resv, vx);
-        gradp[1] += aex * dot(resv, vy);
-        gradp[2] += aex * dot(resv, vz);
+        double g = -2.0 * densityTable.derivative(r2);
+        gradp[0] = g * dxyz[0];
+        gradp[1] = g * dxyz[1];
+        gradp[2] = g * dxyz[2];
       }
-
       if (refineocc) {
-        gradp[3] += aex;
+        gradp[3] = densityTable.value(r2);
       }
+    } else {
+      for (int i = 0; i < nGaussians; i++) {
+        double x = -0.5 * quad_form(dxyz, uinv[i]);
+        aex = ainv[i] * (useDensityTable ? DensityTable.exp(x) : exp(x));
 
-      if (refineb) {
-        gradp[4] += aex * 0.5 * (r2 * binv[i] * binv[i] - 3.0 * binv[i]);
-        if (refineanisou) {
-          scalarMat3Mat3(-1.0, uinv[i], u11, resm);
-          mat3Mat3(resm, uinv[i], jmat[0]);
-          scalarMat3Mat3(-1.0, uinv[i], u22, resm);
-          mat3Mat3(resm, uinv[i], jmat[1]);
-          scalarMat3Mat3(-1.0, uinv[i], u33, resm);
-          mat3Mat3(resm, uinv[i], jmat[2]);
-          scalarMat3Mat3(-1.0, uinv[i], u12, resm);
-          mat3Mat3(resm, uinv[i], jmat[3]);
-          scalarMat3Mat3(-1.0, uinv[i], u13, resm);
-          mat3Mat3(resm, uinv[i], jmat[4]);
-          scalarMat3Mat3(-1.0, uinv[i], u23, resm);
-          mat3Mat3(resm, uinv[i], jmat[5]);
+        if (refinexyz) {
+          vec3Mat3(dxyz, uinv[i], resv);
+          gradp[0] += aex * dot(resv, vx);
+          gradp[1] += aex * dot(resv, vy);
+          gradp[2] += aex * dot(resv, vz);
+        }
 
-          gradu[0] += aex * 0.5 * (-quad_form(dxyz, jmat[0]) - uinv[i][0][0]);
-          gradu[1] += aex * 0.5 * (-quad_form(dxyz, jmat[1]) - uinv[i][1][1]);
-          gradu[2] += aex * 0.5 * (-quad_form(dxyz, jmat[2]) - uinv[i][2][2]);
-          gradu[3] += aex * 0.5 * (-quad_form(dxyz, jmat[3]) - uinv[i][0][1] * 2.0);
-          gradu[4] += aex * 0.5 * (-quad_form(dxyz, jmat[4]) - uinv[i][0][2] * 2.0);
-          gradu[5] += aex * 0.5 * (-quad_form(dxyz, jmat[5]) - uinv[i][1][2] * 2.0);
+        if (refineocc) {
+          gradp[3] += aex;
+        }
+
+        if (refineb) {
+          gradp[4] += aex * 0.5 * (r2 * binv[i] * binv[i] - 3.0 * binv[i]);
+          if (refineanisou) {
+            scalarMat3Mat3(-1.0, uinv[i], u11, resm);
+            mat3Mat3(resm, uinv[i], jmat[0]);
+            scalarMat3Mat3(-1.0, uinv[i], u22, resm);
+            mat3Mat3(resm, uinv[i], jmat[1]);
+            scalarMat3Mat3(-1.0, uinv[i], u33, resm);
+            mat3Mat3(resm, uinv[i], jmat[2]);
+            scalarMat3Mat3(-1.0, uinv[i], u12, resm);
+            mat3Mat3(resm, uinv[i], jmat[3]);
+            scalarMat3Mat3(-1.0, uinv[i], u13, resm);
+            mat3Mat3(resm, uinv[i], jmat[4]);
+            scalarMat3Mat3(-1.0, uinv[i], u23, resm);
+            mat3Mat3(resm, uinv[i], jmat[5]);
+
+            gradu[0] += aex * 0.5 * (-quad_form(dxyz, jmat[0]) - uinv[i][0][0]);
+            gradu[1] += aex * 0.5 * (-quad_form(dxyz, jmat[1]) - uinv[i][1][1]);
+            gradu[2] += aex * 0.5 * (-quad_form(dxyz, jmat[2]) - uinv[i][2][2]);
+            gradu[3] += aex * 0.5 * (-quad_form(dxyz, jmat[3]) - uinv[i][0][1] * 2.0);
+            gradu[4] += aex * 0.5 * (-quad_form(dxyz, jmat[4]) - uinv[i][0][2] * 2.0);
+            gradu[5] += aex * 0.5 * (-quad_form(dxyz, jmat[5]) - uinv[i][1][2] * 2.0);
+          }
         }
       }
     }
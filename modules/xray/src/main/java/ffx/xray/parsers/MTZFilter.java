@@ -41,6 +41,8 @@ import static java.lang.Double.parseDouble;
 import static java.lang.Float.parseFloat;
 import static java.lang.Integer.parseInt;
 import static java.lang.String.format;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Arrays.fill;
 import static org.apache.commons.math3.util.FastMath.cos;
 import static org.apache.commons.math3.util.FastMath.max;
 import static org.apache.commons.math3.util.FastMath.min;
@@ -56,13 +58,9 @@ import ffx.crystal.SpaceGroup;
 import ffx.numerics.math.ComplexNumber;
 import ffx.xray.DiffractionRefinementData;
 import ffx.xray.parsers.MTZWriter.MTZType;
-import java.io.DataInputStream;
-import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.logging.Level;
@@ -118,79 +116,60 @@ public class MTZFilter implements DiffractionFileFilter {
       CompositeConfiguration properties) {
 
     DiffractionRefinementData fcdata1 = new DiffractionRefinementData(properties, reflectionlist);
-    DiffractionRefinementData fcdata2 = new DiffractionRefinementData(properties, reflectionlist);
-
     readFcs(mtzFile1, reflectionlist, fcdata1, properties);
-    readFcs(mtzFile2, reflectionlist, fcdata2, properties);
+
+    // Read the second file in place from its mapped columns.
+    MappedMTZ mtz2 = mapFcs(mtzFile2);
+    if (mtz2 == null) {
+      return;
+    }
+    int[] records = indexFcRecords(mtz2, reflectionlist, fcdata1);
 
     // compute running average using mtzFile1 as current average
     logger.info(format(" Iteration for averaging: %d.", iter));
+    ComplexNumber fc2 = new ComplexNumber();
+    ComplexNumber fs2 = new ComplexNumber();
     for (int i = 0; i < reflectionlist.hkllist.size(); i++) {
-      fcdata1.fc[i][0] += (fcdata2.fc[i][0] - fcdata1.fc[i][0]) / iter;
-      fcdata1.fc[i][1] += (fcdata2.fc[i][1] - fcdata1.fc[i][1]) / iter;
+      fc2.re(0.0);
+      fc2.im(0.0);
+      fs2.re(0.0);
+      fs2.im(0.0);
+      int record = records[i];
+      if (record >= 0) {
+        if (fc > 0 && phiC > 0) {
+          polar(mtz2.get(record, fc), mtz2.get(record, phiC), fc2);
+        }
+        if (fs > 0 && phiS > 0) {
+          polar(mtz2.get(record, fs), mtz2.get(record, phiS), fs2);
+        }
+      }
 
-      fcdata1.fs[i][0] += (fcdata2.fs[i][0] - fcdata1.fs[i][0]) / iter;
-      fcdata1.fs[i][1] += (fcdata2.fs[i][1] - fcdata1.fs[i][1]) / iter;
+      fcdata1.fc[i][0] += (fc2.re() - fcdata1.fc[i][0]) / iter;
+      fcdata1.fc[i][1] += (fc2.im() - fcdata1.fc[i][1]) / iter;
+
+      fcdata1.fs[i][0] += (fs2.re() - fcdata1.fs[i][0]) / iter;
+      fcdata1.fs[i][1] += (fs2.im() - fcdata1.fs[i][1]) / iter;
     }
+    mtz2.close();
 
-    // overwrite original MTZ
-    MTZWriter mtzOut = new MTZWriter(reflectionlist, fcdata1, mtzFile1.getName(), MTZType.FCONLY);
+    // Write the average to a temporary file, then replace the original MTZ.
+    File dir = mtzFile1.getAbsoluteFile().getParentFile();
+    File average = new File(dir, mtzFile1.getName() + ".tmp");
+    MTZWriter mtzOut = new MTZWriter(reflectionlist, fcdata1, average.getPath(), MTZType.FCONLY);
     mtzOut.write();
+    try {
+      Files.move(average.toPath(), mtzFile1.toPath(), REPLACE_EXISTING);
+    } catch (IOException e) {
+      String message = format(" Failed to replace %s with the average.", mtzFile1.getName());
+      logger.log(Level.WARNING, message, e);
+    }
   }
 
   /** {@inheritDoc} */
   @Override
   public ReflectionList getReflectionList(File mtzFile, CompositeConfiguration properties) {
-    ByteOrder byteOrder = ByteOrder.nativeOrder();
-    FileInputStream fileInputStream;
-    DataInputStream dataInputStream;
     try {
-      fileInputStream = new FileInputStream(mtzFile);
-      dataInputStream = new DataInputStream(fileInputStream);
-
-      byte[] headerOffset = new byte[4];
-      byte[] bytes = new byte[80];
-      int offset = 0;
-
-      // Eat "MTZ" title.
-      dataInputStream.read(bytes, offset, 4);
-
-      // Header offset.
-      dataInputStream.read(headerOffset, offset, 4);
-
-      // Machine stamp.
-      dataInputStream.read(bytes, offset, 4);
-      ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
-      int stamp = byteBuffer.order(ByteOrder.BIG_ENDIAN).getInt();
-      String stampstr = Integer.toHexString(stamp);
-      switch (stampstr.charAt(0)) {
-        case '1':
-        case '3':
-          if (byteOrder.equals(ByteOrder.LITTLE_ENDIAN)) {
-            byteOrder = ByteOrder.BIG_ENDIAN;
-          }
-          break;
-        case '4':
-          if (byteOrder.equals(ByteOrder.BIG_ENDIAN)) {
-            byteOrder = ByteOrder.LITTLE_ENDIAN;
-          }
-          break;
-      }
-
-      byteBuffer = ByteBuffer.wrap(headerOffset);
-      int headerOffsetI = byteBuffer.order(byteOrder).getInt();
-
-      // skip to header and parse
-      dataInputStream.skipBytes((headerOffsetI - 4) * 4);
-
-      for (Boolean parsing = true; parsing; dataInputStream.read(bytes, offset, 80)) {
-        String mtzstr = new String(bytes);
-        parsing = parseHeader(mtzstr);
-      }
-    } catch (EOFException e) {
-      String message = " MTZ end of file reached.";
-      logger.log(Level.WARNING, message, e);
-      return null;
+      mapHeader(mtzFile).close();
     } catch (IOException e) {
       String message = " MTZ IO exception.";
       logger.log(Level.WARNING, message, e);
@@ -342,266 +321,311 @@ public class MTZFilter implements DiffractionFileFilter {
       DiffractionRefinementData refinementData,
       CompositeConfiguration properties) {
     int nRead, nIgnore, nRes, nFriedel, nCut;
-    ByteOrder byteOrder = ByteOrder.nativeOrder();
-    FileInputStream fileInputStream;
-    DataInputStream dataInputStream;
     boolean transpose = false;
 
     StringBuilder sb = new StringBuilder();
+    MappedMTZ mtz;
     try {
-      fileInputStream = new FileInputStream(mtzFile);
-      dataInputStream = new DataInputStream(fileInputStream);
-
-      byte[] headerOffset = new byte[4];
-      byte[] bytes = new byte[80];
-      int offset = 0;
-
-      // Eat "MTZ" title.
-      dataInputStream.read(bytes, offset, 4);
-      // String mtzstr;
-
-      // Header offset.
-      dataInputStream.read(headerOffset, offset, 4);
-
-      // Machine stamp.
-      dataInputStream.read(bytes, offset, 4);
-      ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
-      int stamp = byteBuffer.order(ByteOrder.BIG_ENDIAN).getInt();
-      String stampString = Integer.toHexString(stamp);
-      switch (stampString.charAt(0)) {
-        case '1':
-        case '3':
-          if (byteOrder.equals(ByteOrder.LITTLE_ENDIAN)) {
-            byteOrder = ByteOrder.BIG_ENDIAN;
-          }
-          break;
-        case '4':
-          if (byteOrder.equals(ByteOrder.BIG_ENDIAN)) {
-            byteOrder = ByteOrder.LITTLE_ENDIAN;
-          }
-          break;
-      }
+      mtz = mapHeader(mtzFile);
+    } catch (IOException e) {
+      String message = " MTZ IO Exception.";
+      logger.log(Level.WARNING, message, e);
+      return false;
+    }
 
-      byteBuffer = ByteBuffer.wrap(headerOffset);
-      int headerOffsetI = byteBuffer.order(byteOrder).getInt();
+    // column identifiers
+    foString = sigFoString = rFreeString = null;
+    if (properties != null) {
+      foString = properties.getString("fostring", null);
+      sigFoString = properties.getString("sigfostring", null);
+      rFreeString = properties.getString("rfreestring", null);
+    }
+    h = k = l = fo = sigFo = rFree = -1;
+    fPlus = sigFPlus = fMinus = sigFMinus = rFreePlus = rFreeMinus = -1;
+    boolean print = true;
+    parseColumns(print);
 
-      // skip to header and parse
-      dataInputStream.skipBytes((headerOffsetI - 4) * 4);
+    if (h < 0 || k < 0 || l < 0) {
+      String message = "Fatal error in MTZ file - no H K L indexes?\n";
+      logger.log(Level.SEVERE, message);
+      mtz.close();
+      return false;
+    }
 
-      for (Boolean parsing = true; parsing; dataInputStream.read(bytes, offset, 80)) {
-        String mtzstr = new String(bytes);
-        parsing = parseHeader(mtzstr);
+    // Only the requested columns are read from the mapped reflection records.
+    int n = mtz.getReflectionCount();
+    MappedMTZ.Column hColumn = mtz.column(h);
+    MappedMTZ.Column kColumn = mtz.column(k);
+    MappedMTZ.Column lColumn = mtz.column(l);
+    MappedMTZ.Column rFreeColumn = rFree > 0 ? mtz.column(rFree) : null;
+    MappedMTZ.Column rFreePlusColumn = rFreePlus > 0 ? mtz.column(rFreePlus) : null;
+    MappedMTZ.Column rFreeMinusColumn = rFreeMinus > 0 ? mtz.column(rFreeMinus) : null;
+
+    // Check if HKLs need to be transposed or not.
+    HKL mate = new HKL();
+    int nPosIgnore = 0;
+    int nTransIgnore = 0;
+    int nZero = 0;
+    int none = 0;
+    for (int i = 0; i < n; i++) {
+      int ih = (int) hColumn.get(i);
+      int ik = (int) kColumn.get(i);
+      int il = (int) lColumn.get(i);
+      reflectionList.findSymHKL(ih, ik, il, mate, false);
+      HKL hklpos = reflectionList.getHKL(mate);
+      if (hklpos == null) {
+        nPosIgnore++;
       }
 
-      // column identifiers
-      foString = sigFoString = rFreeString = null;
-      if (properties != null) {
-        foString = properties.getString("fostring", null);
-        sigFoString = properties.getString("sigfostring", null);
-        rFreeString = properties.getString("rfreestring", null);
-      }
-      h = k = l = fo = sigFo = rFree = -1;
-      fPlus = sigFPlus = fMinus = sigFMinus = rFreePlus = rFreeMinus = -1;
-      boolean print = true;
-      parseColumns(print);
-
-      if (h < 0 || k < 0 || l < 0) {
-        String message = "Fatal error in MTZ file - no H K L indexes?\n";
-        logger.log(Level.SEVERE, message);
-        return false;
+      reflectionList.findSymHKL(ih, ik, il, mate, true);
+      HKL hkltrans = reflectionList.getHKL(mate);
+      if (hkltrans == null) {
+        nTransIgnore++;
       }
-
-      // Reopen to start at beginning.
-      fileInputStream = new FileInputStream(mtzFile);
-      dataInputStream = new DataInputStream(fileInputStream);
-
-      // Skip initial header.
-      dataInputStream.skipBytes(80);
-
-      // Check if HKLs need to be transposed or not.
-      float[] data = new float[nColumns];
-      HKL mate = new HKL();
-      int nPosIgnore = 0;
-      int nTransIgnore = 0;
-      int nZero = 0;
-      int none = 0;
-      for (int i = 0; i < nReflections; i++) {
-        for (int j = 0; j < nColumns; j++) {
-          dataInputStream.read(bytes, offset, 4);
-          byteBuffer = ByteBuffer.wrap(bytes);
-          data[j] = byteBuffer.order(byteOrder).getFloat();
-        }
-        int ih = (int) data[h];
-        int ik = (int) data[k];
-        int il = (int) data[l];
-        reflectionList.findSymHKL(ih, ik, il, mate, false);
-        HKL hklpos = reflectionList.getHKL(mate);
-        if (hklpos == null) {
-          nPosIgnore++;
-        }
-
-        reflectionList.findSymHKL(ih, ik, il, mate, true);
-        HKL hkltrans = reflectionList.getHKL(mate);
-        if (hkltrans == null) {
-          nTransIgnore++;
-        }
-        if (rFree > 0) {
-          if (((int) data[rFree]) == 0) {
-            nZero++;
-          } else if (((int) data[rFree]) == 1) {
-            none++;
-          }
-        }
-        if (rFreePlus > 0) {
-          if (((int) data[rFreePlus]) == 0) {
-            nZero++;
-          } else if (((int) data[rFreePlus]) == 1) {
-            none++;
-          }
-        }
-        if (rFreeMinus > 0) {
-          if (((int) data[rFreeMinus]) == 0) {
-            nZero++;
-          } else if (((int) data[rFreeMinus]) == 1) {
-            none++;
-          }
+      if (rFreeColumn != null) {
+        if (((int) rFreeColumn.get(i)) == 0) {
+          nZero++;
+        } else if (((int) rFreeColumn.get(i)) == 1) {
+          none++;
         }
       }
-      if (nPosIgnore > nTransIgnore) {
-        transpose = true;
+      if (rFreePlusColumn != null) {
+        if (((int) rFreePlusColumn.get(i)) == 0) {
+          nZero++;
+        } else if (((int) rFreePlusColumn.get(i)) == 1) {
+          none++;
+        }
       }
-
-      if (none > (nZero * 2) && refinementData.rFreeFlag < 0) {
-        refinementData.setFreeRFlag(0);
-        sb.append(
-            format(
-                " Setting R free flag to %d based on MTZ file data.\n", refinementData.rFreeFlag));
-      } else if (nZero > (none * 2) && refinementData.rFreeFlag < 0) {
-        refinementData.setFreeRFlag(1);
-        sb.append(
-            format(
-                " Setting R free flag to %d based on MTZ file data.\n", refinementData.rFreeFlag));
-      } else if (refinementData.rFreeFlag < 0) {
-        refinementData.setFreeRFlag(0);
-        sb.append(format(" Setting R free flag to MTZ default: %d\n", refinementData.rFreeFlag));
+      if (rFreeMinusColumn != null) {
+        if (((int) rFreeMinusColumn.get(i)) == 0) {
+          nZero++;
+        } else if (((int) rFreeMinusColumn.get(i)) == 1) {
+          none++;
+        }
       }
+    }
+    if (nPosIgnore > nTransIgnore) {
+      transpose = true;
+    }
 
-      // Reopen to start at beginning
-      fileInputStream = new FileInputStream(mtzFile);
-      dataInputStream = new DataInputStream(fileInputStream);
-
-      // Skip initial header
-      dataInputStream.skipBytes(80);
+    if (none > (nZero * 2) && refinementData.rFreeFlag < 0) {
+      refinementData.setFreeRFlag(0);
+      sb.append(
+          format(" Setting R free flag to %d based on MTZ file data.\n", refinementData.rFreeFlag));
+    } else if (nZero > (none * 2) && refinementData.rFreeFlag < 0) {
+      refinementData.setFreeRFlag(1);
+      sb.append(
+          format(" Setting R free flag to %d based on MTZ file data.\n", refinementData.rFreeFlag));
+    } else if (refinementData.rFreeFlag < 0) {
+      refinementData.setFreeRFlag(0);
+      sb.append(format(" Setting R free flag to MTZ default: %d\n", refinementData.rFreeFlag));
+    }
 
-      // Read in data
-      double[][] anofSigF = new double[refinementData.n][4];
-      for (int i = 0; i < refinementData.n; i++) {
-        anofSigF[i][0] = anofSigF[i][1] = anofSigF[i][2] = anofSigF[i][3] = Double.NaN;
-      }
-      nRead = nIgnore = nRes = nFriedel = nCut = 0;
-      for (int i = 0; i < nReflections; i++) {
-        for (int j = 0; j < nColumns; j++) {
-          dataInputStream.read(bytes, offset, 4);
-          byteBuffer = ByteBuffer.wrap(bytes);
-          data[j] = byteBuffer.order(byteOrder).getFloat();
-        }
-        int ih = (int) data[h];
-        int ik = (int) data[k];
-        int il = (int) data[l];
-        boolean friedel = reflectionList.findSymHKL(ih, ik, il, mate, transpose);
-        HKL hkl = reflectionList.getHKL(mate);
-        if (hkl != null) {
-          if (fo > 0 && sigFo > 0) {
+    // Read in data
+    double[][] anofSigF = new double[refinementData.n][4];
+    for (int i = 0; i < refinementData.n; i++) {
+      anofSigF[i][0] = anofSigF[i][1] = anofSigF[i][2] = anofSigF[i][3] = Double.NaN;
+    }
+    nRead = nIgnore = nRes = nFriedel = nCut = 0;
+    for (int i = 0; i < n; i++) {
+      int ih = (int) hColumn.get(i);
+      int ik = (int) kColumn.get(i);
+      int il = (int) lColumn.get(i);
+      boolean friedel = reflectionList.findSymHKL(ih, ik, il, mate, transpose);
+      HKL hkl = reflectionList.getHKL(mate);
+      if (hkl != null) {
+        if (fo > 0 && sigFo > 0) {
+          float f = mtz.get(i, fo);
+          float sigF = mtz.get(i, sigFo);
+          if (refinementData.fSigFCutoff > 0.0) {
+            if ((f / sigF) < refinementData.fSigFCutoff) {
+              nCut++;
+              continue;
+            }
+          }
+          if (friedel) {
+            anofSigF[hkl.index()][2] = f;
+            anofSigF[hkl.index()][3] = sigF;
+            nFriedel++;
+          } else {
+            anofSigF[hkl.index()][0] = f;
+            anofSigF[hkl.index()][1] = sigF;
+          }
+        } else {
+          if (fPlus > 0 && sigFPlus > 0) {
+            float f = mtz.get(i, fPlus);
+            float sigF = mtz.get(i, sigFPlus);
             if (refinementData.fSigFCutoff > 0.0) {
-              if ((data[fo] / data[sigFo]) < refinementData.fSigFCutoff) {
+              if ((f / sigF) < refinementData.fSigFCutoff) {
                 nCut++;
                 continue;
               }
             }
-            if (friedel) {
-              anofSigF[hkl.index()][2] = data[fo];
-              anofSigF[hkl.index()][3] = data[sigFo];
-              nFriedel++;
-            } else {
-              anofSigF[hkl.index()][0] = data[fo];
-              anofSigF[hkl.index()][1] = data[sigFo];
-            }
-          } else {
-            if (fPlus > 0 && sigFPlus > 0) {
-              if (refinementData.fSigFCutoff > 0.0) {
-                if ((data[fPlus] / data[sigFPlus]) < refinementData.fSigFCutoff) {
-                  nCut++;
-                  continue;
-                }
-              }
-              anofSigF[hkl.index()][0] = data[fPlus];
-              anofSigF[hkl.index()][1] = data[sigFPlus];
-            }
-            if (fMinus > 0 && sigFMinus > 0) {
-              if (refinementData.fSigFCutoff > 0.0) {
-                if ((data[fMinus] / data[sigFMinus]) < refinementData.fSigFCutoff) {
-                  nCut++;
-                  continue;
-                }
-              }
-              anofSigF[hkl.index()][2] = data[fMinus];
-              anofSigF[hkl.index()][3] = data[sigFMinus];
-            }
+            anofSigF[hkl.index()][0] = f;
+            anofSigF[hkl.index()][1] = sigF;
           }
-          if (rFree > 0) {
-            refinementData.setFreeR(hkl.index(), (int) data[rFree]);
-          } else {
-            if (rFreePlus > 0 && rFreeMinus > 0) {
-              // not sure what the correct thing to do here is?
-              refinementData.setFreeR(hkl.index(), (int) data[rFreePlus]);
-            } else if (rFreePlus > 0) {
-              refinementData.setFreeR(hkl.index(), (int) data[rFreePlus]);
-            } else if (rFreeMinus > 0) {
-              refinementData.setFreeR(hkl.index(), (int) data[rFreeMinus]);
+          if (fMinus > 0 && sigFMinus > 0) {
+            float f = mtz.get(i, fMinus);
+            float sigF = mtz.get(i, sigFMinus);
+            if (refinementData.fSigFCutoff > 0.0) {
+              if ((f / sigF) < refinementData.fSigFCutoff) {
+                nCut++;
+                continue;
+              }
             }
+            anofSigF[hkl.index()][2] = f;
+            anofSigF[hkl.index()][3] = sigF;
           }
-          nRead++;
+        }
+        if (rFreeColumn != null) {
+          refinementData.setFreeR(hkl.index(), (int) rFreeColumn.get(i));
         } else {
-          HKL tmp = new HKL(ih, ik, il);
-          if (!reflectionList.resolution.inInverseResSqRange(
-              Crystal.invressq(reflectionList.crystal, tmp))) {
-            nRes++;
-          } else {
-            nIgnore++;
+          if (rFreePlusColumn != null && rFreeMinusColumn != null) {
+            // not sure what the correct thing to do here is?
+            refinementData.setFreeR(hkl.index(), (int) rFreePlusColumn.get(i));
+          } else if (rFreePlusColumn != null) {
+            refinementData.setFreeR(hkl.index(), (int) rFreePlusColumn.get(i));
+          } else if (rFreeMinusColumn != null) {
+            refinementData.setFreeR(hkl.index(), (int) rFreeMinusColumn.get(i));
           }
         }
+        nRead++;
+      } else {
+        HKL tmp = new HKL(ih, ik, il);
+        if (!reflectionList.resolution.inInverseResSqRange(
+            Crystal.invressq(reflectionList.crystal, tmp))) {
+          nRes++;
+        } else {
+          nIgnore++;
+        }
       }
+    }
+    mtz.close();
 
-      // Set up fsigf from F+ and F-.
-      refinementData.generateFsigFfromAnomalousFsigF(anofSigF);
-
-      // Log results.
-      if (logger.isLoggable(Level.INFO)) {
-        sb.append(format(" MTZ file type (machine stamp): %s\n", stampString));
-        sb.append(format(" HKL data is %s\n", transpose ? "transposed" : "not transposed"));
-        sb.append(format(" HKL read in:                             %d\n", nRead));
-        sb.append(format(" HKL read as friedel mates:               %d\n", nFriedel));
-        sb.append(format(" HKL NOT read in (too high resolution):   %d\n", nRes));
-        sb.append(format(" HKL NOT read in (not in internal list?): %d\n", nIgnore));
-        sb.append(format(" HKL NOT read in (F/sigF cutoff):         %d\n", nCut));
-        sb.append(
-            format(" HKL in internal list:                    %d", reflectionList.hkllist.size()));
-        logger.info(sb.toString());
+    // Set up fsigf from F+ and F-.
+    refinementData.generateFsigFfromAnomalousFsigF(anofSigF);
+
+    // Log results.
+    if (logger.isLoggable(Level.INFO)) {
+      sb.append(format(" MTZ file type (machine stamp): %s\n", mtz.getStamp()));
+      sb.append(format(" HKL data is %s\n", transpose ? "transposed" : "not transposed"));
+      sb.append(format(" HKL read in:                             %d\n", nRead));
+      sb.append(format(" HKL read as friedel mates:               %d\n", nFriedel));
+      sb.append(format(" HKL NOT read in (too high resolution):   %d\n", nRes));
+      sb.append(format(" HKL NOT read in (not in internal list?): %d\n", nIgnore));
+      sb.append(format(" HKL NOT read in (F/sigF cutoff):         %d\n", nCut));
+      sb.append(
+          format(" HKL in internal list:                    %d", reflectionList.hkllist.size()));
+      logger.info(sb.toString());
+    }
+    if (rFree < 0 && rFreePlus < 0 && rFreeMinus < 0) {
+      refinementData.generateRFree();
+    }
+
+    return true;
+  }
+
+  /**
+   * Map an MTZ file and parse its header.
+   *
+   * @param mtzFile The MTZ file.
+   * @return The mapped MTZ file.
+   * @throws IOException If the file could not be mapped.
+   */
+  private MappedMTZ mapHeader(File mtzFile) throws IOException {
+    MappedMTZ mtz = MappedMTZ.open(mtzFile);
+    for (String record : mtz.getHeaderRecords()) {
+      if (!parseHeader(record)) {
+        break;
       }
-      if (rFree < 0 && rFreePlus < 0 && rFreeMinus < 0) {
-        refinementData.generateRFree();
+    }
+    return mtz;
+  }
+
+  /**
+   * Find the last record of an MTZ file for each reflection in a reflection list.
+   *
+   * @param mtz The mapped MTZ file.
+   * @param reflectionList The reflection list.
+   * @param fcData Counts of records that were read or ignored are logged for this data.
+   * @return The record for each reflection index, or -1 if the reflection is not present.
+   */
+  private int[] indexFcRecords(
+      MappedMTZ mtz, ReflectionList reflectionList, DiffractionRefinementData fcData) {
+    int nRead, nIgnore, nRes;
+    int[] records = new int[fcData.n];
+    fill(records, -1);
+
+    int n = mtz.getReflectionCount();
+    MappedMTZ.Column hColumn = mtz.column(h);
+    MappedMTZ.Column kColumn = mtz.column(k);
+    MappedMTZ.Column lColumn = mtz.column(l);
+    HKL mate = new HKL();
+    nRead = nIgnore = nRes = 0;
+    for (int i = 0; i < n; i++) {
+      int ih = (int) hColumn.get(i);
+      int ik = (int) kColumn.get(i);
+      int il = (int) lColumn.get(i);
+      reflectionList.findSymHKL(ih, ik, il, mate, false);
+      HKL hkl = reflectionList.getHKL(mate);
+
+      if (hkl != null) {
+        records[hkl.index()] = i;
+        nRead++;
+      } else {
+        HKL tmp = new HKL(ih, ik, il);
+        if (!reflectionList.resolution.inInverseResSqRange(
+            Crystal.invressq(reflectionList.crystal, tmp))) {
+          nRes++;
+        } else {
+          nIgnore++;
+        }
       }
-    } catch (EOFException e) {
-      String message = " MTZ end of file reached.";
-      logger.log(Level.WARNING, message, e);
-      return false;
+    }
+
+    if (logger.isLoggable(Level.INFO)) {
+      StringBuilder sb = new StringBuilder();
+      sb.append(format(" MTZ file type (machine stamp): %s\n", mtz.getStamp()));
+      sb.append(format("  Fc HKL read in:                             %d\n", nRead));
+      sb.append(format("  Fc HKL NOT read in (too high resolution):   %d\n", nRes));
+      sb.append(format("  Fc HKL NOT read in (not in internal list?): %d\n", nIgnore));
+      sb.append(
+          format(
+              "  HKL in internal list:                       %d\n",
+              reflectionList.hkllist.size()));
+      logger.info(sb.toString());
+    }
+    return records;
+  }
+
+  /**
+   * Map an MTZ file of computed structure factors and parse its Fc columns.
+   *
+   * @param mtzFile The MTZ file.
+   * @return The mapped MTZ file, or null if it could not be read.
+   */
+  private MappedMTZ mapFcs(File mtzFile) {
+    MappedMTZ mtz;
+    try {
+      mtz = mapHeader(mtzFile);
     } catch (IOException e) {
       String message = " MTZ IO Exception.";
       logger.log(Level.WARNING, message, e);
-      return false;
+      return null;
     }
 
-    return true;
+    // Column identifiers.
+    fc = phiC = fs = phiS = -1;
+    boolean print = true;
+    parseFcColumns(print);
+
+    if (h < 0 || k < 0 || l < 0) {
+      String message = " Fatal error in MTZ file - no H K L indexes?\n";
+      logger.log(Level.SEVERE, message);
+      mtz.close();
+      return null;
+    }
+    return mtz;
   }
 
   /**
@@ -619,141 +643,44 @@ public class MTZFilter implements DiffractionFileFilter {
       DiffractionRefinementData fcData,
       CompositeConfiguration properties) {
 
-    int nRead, nIgnore, nRes, nFriedel, nCut;
-    ByteOrder byteOrder = ByteOrder.nativeOrder();
-    FileInputStream fileInputStream;
-    DataInputStream dataInputStream;
-
-    StringBuilder sb = new StringBuilder();
-    try {
-      fileInputStream = new FileInputStream(mtzFile);
-      dataInputStream = new DataInputStream(fileInputStream);
-
-      byte[] headerOffset = new byte[4];
-      byte[] bytes = new byte[80];
-      int offset = 0;
-
-      // Eat "MTZ" title.
-      dataInputStream.read(bytes, offset, 4);
-
-      // Header offset.
-      dataInputStream.read(headerOffset, offset, 4);
-
-      // Machine stamp.
-      dataInputStream.read(bytes, offset, 4);
-      ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
-      int stamp = byteBuffer.order(ByteOrder.BIG_ENDIAN).getInt();
-      String stampString = Integer.toHexString(stamp);
-      switch (stampString.charAt(0)) {
-        case '1':
-        case '3':
-          if (byteOrder.equals(ByteOrder.LITTLE_ENDIAN)) {
-            byteOrder = ByteOrder.BIG_ENDIAN;
-          }
-          break;
-        case '4':
-          if (byteOrder.equals(ByteOrder.BIG_ENDIAN)) {
-            byteOrder = ByteOrder.LITTLE_ENDIAN;
-          }
-          break;
-      }
-
-      byteBuffer = ByteBuffer.wrap(headerOffset);
-      int headerOffsetI = byteBuffer.order(byteOrder).getInt();
-
-      // Skip to header and parse.
-      dataInputStream.skipBytes((headerOffsetI - 4) * 4);
-
-      for (Boolean parsing = true; parsing; dataInputStream.read(bytes, offset, 80)) {
-        String mtzString = new String(bytes);
-        parsing = parseHeader(mtzString);
-      }
-
-      // Column identifiers.
-      fc = phiC = fs = phiS = -1;
-      boolean print = true;
-      parseFcColumns(print);
+    MappedMTZ mtz = mapFcs(mtzFile);
+    if (mtz == null) {
+      return false;
+    }
 
-      if (h < 0 || k < 0 || l < 0) {
-        String message = " Fatal error in MTZ file - no H K L indexes?\n";
-        logger.log(Level.SEVERE, message);
-        return false;
+    int[] records = indexFcRecords(mtz, reflectionList, fcData);
+    ComplexNumber complexNumber = new ComplexNumber();
+    for (int i = 0; i < fcData.n; i++) {
+      int record = records[i];
+      if (record < 0) {
+        continue;
       }
-
-      // Reopen to start at beginning.
-      fileInputStream = new FileInputStream(mtzFile);
-      dataInputStream = new DataInputStream(fileInputStream);
-
-      // Skip initial header.
-      dataInputStream.skipBytes(80);
-
-      float[] data = new float[nColumns];
-      HKL mate = new HKL();
-
-      // Read in data.
-      ComplexNumber complexNumber = new ComplexNumber();
-      nRead = nIgnore = nRes = nFriedel = nCut = 0;
-      for (int i = 0; i < nReflections; i++) {
-        for (int j = 0; j < nColumns; j++) {
-          dataInputStream.read(bytes, offset, 4);
-          byteBuffer = ByteBuffer.wrap(bytes);
-          data[j] = byteBuffer.order(byteOrder).getFloat();
-        }
-        int ih = (int) data[h];
-        int ik = (int) data[k];
-        int il = (int) data[l];
-        reflectionList.findSymHKL(ih, ik, il, mate, false);
-        HKL hkl = reflectionList.getHKL(mate);
-
-        if (hkl != null) {
-          if (fc > 0 && phiC > 0) {
-            complexNumber.re(data[fc] * cos(toRadians(data[phiC])));
-            complexNumber.im(data[fc] * sin(toRadians(data[phiC])));
-            fcData.setFc(hkl.index(), complexNumber);
-          }
-          if (fs > 0 && phiS > 0) {
-            complexNumber.re(data[fs] * cos(toRadians(data[phiS])));
-            complexNumber.im(data[fs] * sin(toRadians(data[phiS])));
-            fcData.setFs(hkl.index(), complexNumber);
-          }
-          nRead++;
-        } else {
-          HKL tmp = new HKL(ih, ik, il);
-          if (!reflectionList.resolution.inInverseResSqRange(
-              Crystal.invressq(reflectionList.crystal, tmp))) {
-            nRes++;
-          } else {
-            nIgnore++;
-          }
-        }
+      if (fc > 0 && phiC > 0) {
+        polar(mtz.get(record, fc), mtz.get(record, phiC), complexNumber);
+        fcData.setFc(i, complexNumber);
       }
-
-      if (logger.isLoggable(Level.INFO)) {
-        sb.append(format(" MTZ file type (machine stamp): %s\n", stampString));
-        sb.append(format("  Fc HKL read in:                             %d\n", nRead));
-        sb.append(format("  Fc HKL read as friedel mates:               %d\n", nFriedel));
-        sb.append(format("  Fc HKL NOT read in (too high resolution):   %d\n", nRes));
-        sb.append(format("  Fc HKL NOT read in (not in internal list?): %d\n", nIgnore));
-        sb.append(format("  Fc HKL NOT read in (F/sigF cutoff):         %d\n", nCut));
-        sb.append(
-            format(
-                "  HKL in internal list:                       %d\n",
-                reflectionList.hkllist.size()));
-        logger.info(sb.toString());
+      if (fs > 0 && phiS > 0) {
+        polar(mtz.get(record, fs), mtz.get(record, phiS), complexNumber);
+        fcData.setFs(i, complexNumber);
       }
-    } catch (EOFException e) {
-      String message = " MTZ end of file reached.";
-      logger.log(Level.WARNING, message, e);
-      return false;
-    } catch (IOException e) {
-      String message = " MTZ IO Exception.";
-      logger.log(Level.WARNING, message, e);
-      return false;
     }
+    mtz.close();
 
     return true;
   }
 
+  /**
+   * Set a complex number from an amplitude and a phase in degrees.
+   *
+   * @param amplitude The amplitude.
+   * @param phase The phase (degrees).
+   * @param complexNumber The complex number to set.
+   */
+  private static void polar(float amplitude, float phase, ComplexNumber complexNumber) {
+    complexNumber.re(amplitude * cos(toRadians(phase)));
+    complexNumber.im(amplitude * sin(toRadians(phase)));
+  }
+
   /**
    * Parse the header.
    *
@@ -0,0 +1,337 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.xray.parsers;
+
+import static java.lang.Integer.parseInt;
+import static java.lang.String.format;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static org.apache.commons.math3.util.FastMath.max;
+import static org.apache.commons.math3.util.FastMath.min;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import sun.misc.Unsafe;
+
+/**
+ * Memory-mapped access to a CCP4 MTZ file.
+ *
+ * <p>The reflection records are mapped read-only with the byte order given by the machine stamp
+ * and are decoded in place, so only the columns that are actually requested are ever read. Files
+ * larger than a single mapping are split into several regions that each hold a whole number of
+ * records. The header records that follow the reflection data are read as 80 character strings.
+ * The mapping is released by {@link #close()}, after which values may no longer be read.
+ *
+ * @author Michael J. Schnieders
+ * @see <a href="http://www.ccp4.ac.uk/html/mtzformat.html" target="_blank">MTZ file format</a>
+ * @since 1.0
+ */
+final class MappedMTZ implements Closeable {
+
+  /** The byte offset of the first reflection record. */
+  private static final int DATA_OFFSET = 80;
+  /** The length of a header record. */
+  private static final int RECORD_LENGTH = 80;
+  /** The maximum size of one mapped region of reflection records. */
+  private static final int MAX_REGION = 1 << 30;
+
+  private final ByteOrder byteOrder;
+  private final String stamp;
+  private final String[] headerRecords;
+  private final int nColumns;
+  private final int nReflections;
+  private final int recordsPerRegion;
+  private final ByteBuffer[] regions;
+
+  private MappedMTZ(
+      ByteOrder byteOrder,
+      String stamp,
+      String[] headerRecords,
+      int nColumns,
+      int nReflections,
+      int recordsPerRegion,
+      ByteBuffer[] regions) {
+    this.byteOrder = byteOrder;
+    this.stamp = stamp;
+    this.headerRecords = headerRecords;
+    this.nColumns = nColumns;
+    this.nReflections = nReflections;
+    this.recordsPerRegion = recordsPerRegion;
+    this.regions = regions;
+  }
+
+  /**
+   * Map an MTZ file.
+   *
+   * @param file The MTZ file.
+   * @return The mapped MTZ file.
+   * @throws IOException If the file could not be read or is not a valid MTZ file.
+   */
+  static MappedMTZ open(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < DATA_OFFSET) {
+        throw new IOException(format(" %s is too short to be an MTZ file.", file.getName()));
+      }
+
+      ByteBuffer start = ByteBuffer.allocate(12);
+      readFully(channel, start, 0);
+
+      // The machine stamp determines the byte order of the header offset and the data.
+      int stamp = start.order(ByteOrder.BIG_ENDIAN).getInt(8);
+      String stampString = Integer.toHexString(stamp);
+      ByteOrder byteOrder = ByteOrder.nativeOrder();
+      switch (stampString.charAt(0)) {
+        case '1':
+        case '3':
+          byteOrder = ByteOrder.BIG_ENDIAN;
+          break;
+        case '4':
+          byteOrder = ByteOrder.LITTLE_ENDIAN;
+          break;
+      }
+
+      // The header offset is given in 4-byte words, counting from 1.
+      long headerStart = 4L * (start.order(byteOrder).getInt(4) - 1);
+      if (headerStart < DATA_OFFSET || headerStart > size) {
+        throw new IOException(format(" %s has an invalid MTZ header offset.", file.getName()));
+      }
+
+      ByteBuffer header = ByteBuffer.allocate((int) (size - headerStart));
+      readFully(channel, header, headerStart);
+      String[] headerRecords = new String[header.capacity() / RECORD_LENGTH];
+      byte[] bytes = header.array();
+      for (int i = 0; i < headerRecords.length; i++) {
+        headerRecords[i] =
+            new String(bytes, i * RECORD_LENGTH, RECORD_LENGTH, StandardCharsets.US_ASCII);
+      }
+
+      int nColumns = 0;
+      int nReflections = 0;
+      for (String record : headerRecords) {
+        if (record.startsWith("NCOL")) {
+          String[] tokens = record.trim().split("\\s+");
+          nColumns = parseInt(tokens[1]);
+          nReflections = parseInt(tokens[2]);
+          break;
+        }
+      }
+
+      long recordBytes = 4L * nColumns;
+      if (nColumns <= 0
+          || nReflections < 0
+          || DATA_OFFSET + recordBytes * nReflections > headerStart) {
+        throw new IOException(
+            format(" %s has an invalid MTZ column or reflection count.", file.getName()));
+      }
+
+      // Map the reflection records in regions that each hold a whole number of records.
+      int recordsPerRegion = (int) max(1, MAX_REGION / recordBytes);
+      int nRegions = (nReflections + recordsPerRegion - 1) / recordsPerRegion;
+      ByteBuffer[] regions = new ByteBuffer[nRegions];
+      for (int i = 0; i < nRegions; i++) {
+        long first = (long) i * recordsPerRegion;
+        long count = min(recordsPerRegion, nReflections - first);
+        long position = DATA_OFFSET + first * recordBytes;
+        regions[i] = channel.map(READ_ONLY, position, count * recordBytes).order(byteOrder);
+      }
+
+      return new MappedMTZ(
+          byteOrder,
+          stampString,
+          headerRecords,
+          nColumns,
+          nReflections,
+          recordsPerRegion,
+          regions);
+    }
+  }
+
+  /** Unmap the reflection records. */
+  @Override
+  public void close() {
+    for (int i = 0; i < regions.length; i++) {
+      if (regions[i] != null) {
+        unmap(regions[i]);
+        regions[i] = null;
+      }
+    }
+  }
+
+  /**
+   * Unmap a mapped buffer without waiting for it to be garbage collected, so that the file can be
+   * replaced (on Windows a mapped file cannot be deleted or overwritten).
+   *
+   * @param buffer The mapped buffer.
+   */
+  private static void unmap(ByteBuffer buffer) {
+    try {
+      Field theUnsafe = Unsafe.class.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      ((Unsafe) theUnsafe.get(null)).invokeCleaner(buffer);
+    } catch (Exception e) {
+      // The mapping is released when the buffer is garbage collected.
+    }
+  }
+
+  /**
+   * Fill a buffer from a channel, starting at an absolute position.
+   *
+   * @param channel The channel.
+   * @param buffer The buffer to fill.
+   * @param position The position in the channel.
+   * @throws IOException If the end of the channel is reached first.
+   */
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      int n = channel.read(buffer, position);
+      if (n < 0) {
+        throw new IOException(" MTZ end of file reached.");
+      }
+      position += n;
+    }
+    buffer.flip();
+  }
+
+  /**
+   * The byte order of the reflection data.
+   *
+   * @return The byte order.
+   */
+  ByteOrder getByteOrder() {
+    return byteOrder;
+  }
+
+  /**
+   * The machine stamp as a hexadecimal string.
+   *
+   * @return The machine stamp.
+   */
+  String getStamp() {
+    return stamp;
+  }
+
+  /**
+   * The header records (including any history records after END) as 80 character strings.
+   *
+   * @return The header records.
+   */
+  String[] getHeaderRecords() {
+    return headerRecords;
+  }
+
+  /**
+   * The number of columns in each reflection record.
+   *
+   * @return The number of columns.
+   */
+  int getColumnCount() {
+    return nColumns;
+  }
+
+  /**
+   * The number of reflection records.
+   *
+   * @return The number of reflections.
+   */
+  int getReflectionCount() {
+    return nReflections;
+  }
+
+  /**
+   * Read one value.
+   *
+   * @param reflection The reflection record.
+   * @param column The column.
+   * @return The value.
+   */
+  float get(int reflection, int column) {
+    int region = reflection / recordsPerRegion;
+    int record = reflection - region * recordsPerRegion;
+    return regions[region].getFloat(4 * (record * nColumns + column));
+  }
+
+  /**
+   * A view of one column that reads values in place from the mapped records.
+   *
+   * @param column The column.
+   * @return The column view.
+   */
+  Column column(int column) {
+    if (column < 0 || column >= nColumns) {
+      throw new IndexOutOfBoundsException(format(" MTZ column %d of %d.", column, nColumns));
+    }
+    return new Column(column);
+  }
+
+  /** A zero-copy view of one MTZ column. */
+  final class Column {
+
+    private final int column;
+
+    private Column(int column) {
+      this.column = column;
+    }
+
+    /**
+     * The value of this column for one reflection record.
+     *
+     * @param reflection The reflection record.
+     * @return The value.
+     */
+    float get(int reflection) {
+      return MappedMTZ.this.get(reflection, column);
+    }
+
+    /**
+     * The number of reflection records.
+     *
+     * @return The number of reflections.
+     */
+    int size() {
+      return nReflections;
+    }
+  }
+}
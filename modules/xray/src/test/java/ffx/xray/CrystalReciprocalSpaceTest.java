@@ -38,6 +38,8 @@
 package ffx.xray;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import edu.rit.pj.ParallelTeam;
 import ffx.crystal.Crystal;
@@ -54,7 +56,9 @@ import ffx.potential.parsers.PDBFilter;
 import ffx.potential.utils.PotentialsUtils;
 import ffx.utilities.Keyword;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import org.apache.commons.configuration2.CompositeConfiguration;
 import org.junit.Test;
 
@@ -172,4 +176,87 @@ public class CrystalReciprocalSpaceTest {
     assertEquals("5 26 8 reflection should be correct", -123.05535567943379, a.re(), 0.0001);
     assertEquals("5 26 8 reflection should be correct", -74.59007322382718, a.im(), 0.0001);
   }
+
+  /** Structure factors updated by direct summation for a few moved atoms match a full FFT. */
+  @Test
+  public void test1N7SDelta() {
+    String filename = "ffx/xray/structures/1N7S.pdb";
+
+    // load the structure
+    ClassLoader cl = this.getClass().getClassLoader();
+    File structure = new File(cl.getResource(filename).getPath());
+    PotentialsUtils potutil = new PotentialsUtils();
+    MolecularAssembly mola = potutil.open(structure);
+    CompositeConfiguration properties = mola.getProperties();
+
+    Crystal crystal = new Crystal(39.767, 51.750, 132.938, 90.00, 90.00, 90.00, "P212121");
+    Resolution resolution = new Resolution(1.45);
+
+    ReflectionList reflectionList = new ReflectionList(crystal, resolution);
+    DiffractionRefinementData deltaData =
+        new DiffractionRefinementData(properties, reflectionList);
+    DiffractionRefinementData fullData = new DiffractionRefinementData(properties, reflectionList);
+
+    mola.finalize(true, mola.getForceField());
+    List<Atom> atomList = mola.getAtomList();
+    Atom[] atomArray = atomList.toArray(new Atom[0]);
+    List<Atom> activeAtoms = new ArrayList<>();
+    for (Atom atom : atomArray) {
+      if (atom.isActive()) {
+        activeAtoms.add(atom);
+      }
+    }
+    int nActive = activeAtoms.size();
+    double[] x = new double[3 * nActive];
+    for (int i = 0; i < nActive; i++) {
+      Atom atom = activeAtoms.get(i);
+      x[3 * i] = atom.getX();
+      x[3 * i + 1] = atom.getY();
+      x[3 * i + 2] = atom.getZ();
+    }
+
+    // The delta structure factors are compared against a second, full computation.
+    ParallelTeam parallelTeam = new ParallelTeam();
+    int maxMoved = 10;
+    int resync = 3;
+    CrystalReciprocalSpace delta =
+        new CrystalReciprocalSpace(reflectionList, atomArray, parallelTeam, parallelTeam);
+    delta.setDeltaAtoms(maxMoved, resync);
+    CrystalReciprocalSpace full =
+        new CrystalReciprocalSpace(reflectionList, atomArray, parallelTeam, parallelTeam);
+    delta.computeAtomicDensity(deltaData.fc);
+
+    // Move a side chain sized group of atoms by up to 0.5 A for each update.
+    Random random = new Random(17);
+    for (int update = 0; update <= resync; update++) {
+      int first = random.nextInt(nActive - maxMoved);
+      for (int i = first; i < first + maxMoved; i++) {
+        for (int j = 0; j < 3; j++) {
+          x[3 * i + j] += 0.5 * (random.nextDouble() - 0.5);
+        }
+      }
+      delta.setCoordinates(x);
+      if (update == resync) {
+        // After resync delta updates, the structure factors must be recomputed from the density.
+        assertFalse(delta.computeDeltaDensity(deltaData.fc));
+        break;
+      }
+      assertTrue(delta.computeDeltaDensity(deltaData.fc));
+
+      full.setCoordinates(x);
+      full.computeAtomicDensity(fullData.fc);
+      double diff2 = 0.0;
+      double fc2 = 0.0;
+      for (HKL hkl : reflectionList.hkllist) {
+        int i = hkl.index();
+        double dre = deltaData.fc[i][0] - fullData.fc[i][0];
+        double dim = deltaData.fc[i][1] - fullData.fc[i][1];
+        diff2 += dre * dre + dim * dim;
+        fc2 += fullData.fc[i][0] * fullData.fc[i][0] + fullData.fc[i][1] * fullData.fc[i][1];
+      }
+      double r = Math.sqrt(diff2 / fc2);
+      System.out.println(" Delta update " + (update + 1) + " relative Fc deviation: " + r);
+      assertTrue(" Delta structure factors deviate from a full computation: " + r, r < 1.0e-5);
+    }
+  }
 }
@@ -0,0 +1,136 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.xray;
+
+import static java.lang.String.format;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import edu.rit.pj.ParallelTeam;
+import ffx.crystal.ReflectionList;
+import ffx.potential.MolecularAssembly;
+import ffx.potential.bonded.Atom;
+import ffx.potential.utils.PotentialsUtils;
+import ffx.utilities.FFXTest;
+import ffx.xray.parsers.MTZFilter;
+import java.io.File;
+import java.util.logging.Logger;
+import org.apache.commons.configuration2.CompositeConfiguration;
+import org.junit.Test;
+
+/**
+ * Test that gridding with tabulated form factor densities (density-table = true) reproduces the R
+ * and Rfree of the exact form factors.
+ *
+ * @author Michael J. Schnieders
+ */
+public class DensityTableRefinementTest extends FFXTest {
+
+  private static final Logger logger = Logger.getLogger(DensityTableRefinementTest.class.getName());
+
+  /** Tolerance for R and Rfree (percent), as in XRayMinimizeTest. */
+  private static final double tolerance = 0.02;
+
+  /** The NSF D2 domain (1NSF) of XRayMinimizeTest. */
+  @Test
+  public void testNSF() {
+    Stats exact = refine("ffx/xray/structures/1NSF.pdb", "ffx/xray/structures/1NSF.mtz", false);
+    Stats table = refine("ffx/xray/structures/1NSF.pdb", "ffx/xray/structures/1NSF.mtz", true);
+    logger.info(
+        format(
+            " Exact: R %8.5f Rfree %8.5f; table: R %8.5f Rfree %8.5f",
+            exact.r, exact.rFree, table.r, table.rFree));
+    assertTrue(" R should be a percentage", exact.r > 1.0);
+    assertEquals(" R value", exact.r, table.r, tolerance);
+    assertEquals(" Rfree value", exact.rFree, table.rFree, tolerance);
+  }
+
+  /**
+   * Compute structure factors, fit the bulk solvent, scale and sigmaA, and return R and Rfree.
+   *
+   * @param pdbName The structure.
+   * @param mtzName The reflection data.
+   * @param densityTable Grid atomic densities with tabulated form factors.
+   * @return R and Rfree.
+   */
+  private Stats refine(String pdbName, String mtzName, boolean densityTable) {
+    ClassLoader cl = this.getClass().getClassLoader();
+    File structure = new File(cl.getResource(pdbName).getPath());
+    File mtzFile = new File(cl.getResource(mtzName).getPath());
+    PotentialsUtils potentialsUtils = new PotentialsUtils();
+    MolecularAssembly molecularAssembly = potentialsUtils.open(structure);
+    CompositeConfiguration properties = molecularAssembly.getProperties();
+
+    MTZFilter mtzFilter = new MTZFilter();
+    ReflectionList reflectionList = mtzFilter.getReflectionList(mtzFile);
+    DiffractionRefinementData refinementData =
+        new DiffractionRefinementData(properties, reflectionList);
+    assertTrue(mtzFilter.readFile(mtzFile, reflectionList, refinementData, properties));
+    molecularAssembly.finalize(true, molecularAssembly.getForceField());
+    Atom[] atoms = molecularAssembly.getAtomList().toArray(new Atom[0]);
+
+    ParallelTeam parallelTeam = new ParallelTeam();
+    Stats stats = new Stats();
+    CrystalReciprocalSpace crs =
+        new CrystalReciprocalSpace(reflectionList, atoms, parallelTeam, parallelTeam, false);
+    crs.setDensityTable(densityTable);
+    crs.computeDensity(refinementData.fc);
+    refinementData.setCrystalReciprocalSpaceFc(crs);
+    crs = new CrystalReciprocalSpace(reflectionList, atoms, parallelTeam, parallelTeam, true);
+    crs.computeDensity(refinementData.fs);
+    refinementData.setCrystalReciprocalSpaceFs(crs);
+
+    new ScaleBulkMinimize(reflectionList, refinementData, crs, parallelTeam).minimize(6, 1.0e-4);
+    new SigmaAMinimize(reflectionList, refinementData, parallelTeam).minimize(7, 2.0e-2);
+    new SplineMinimize(
+            reflectionList, refinementData, refinementData.spline, SplineEnergy.Type.FOFC)
+        .minimize(7, 1e-5);
+
+    CrystalStats crystalStats = new CrystalStats(reflectionList, refinementData);
+    stats.r = crystalStats.getR();
+    stats.rFree = crystalStats.getRFree();
+    potentialsUtils.close(molecularAssembly);
+    return stats;
+  }
+
+  /** R and Rfree of one refinement. */
+  private static class Stats {
+    double r;
+    double rFree;
+  }
+}
@@ -0,0 +1,110 @@
+// ******************************************************************************
+//
+// Title:       Force Field X.
+// Description: Force Field X - Software for Molecular Biophysics.
+// Copyright:   Copyright (c) Michael J. Schnieders 2001-2020.
+//
+// This file is part of Force Field X.
+//
+// Force Field X is free software; you can redistribute it and/or modify it
+// under the terms of the GNU General Public License version 3 as published by
+// the Free Software Foundation.
+//
+// Force Field X is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+//
+// You should have received a copy of the GNU General Public License along with
+// Force Field X; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA 02111-1307 USA
+//
+// Linking this library statically or dynamically with other modules is making a
+// combined work based on this library. Thus, the terms and conditions of the
+// GNU General Public License cover the whole combination.
+//
+// As a special exception, the copyright holders of this library give you
+// permission to link this library with independent modules to produce an
+// executable, regardless of the license terms of these independent modules, and
+// to copy and distribute the resulting executable under terms of your choice,
+// provided that you also meet, for each linked independent module, the terms
+// and conditions of the license of that module. An independent module is a
+// module which is not derived from or based on this library. If you modify this
+// library, you may extend this exception to your version of the library, but
+// you are not obligated to do so. If you do not wish to do so, delete this
+// exception statement from your version.
+//
+// ******************************************************************************
+package ffx.xray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Test the interpolation and fast exponential error bounds of DensityTable.
+ *
+ * @author Michael J. Schnieders
+ */
+public class DensityTableTest {
+
+  @Test
+  public void testExp() {
+    Random random = new Random(3);
+    for (int i = 0; i < 1000000; i++) {
+      double x = -random.nextDouble() * ((i % 2 == 0) ? 20.0 : 700.0);
+      double expected = Math.exp(x);
+      assertEquals(expected, DensityTable.exp(x), 1.0e-11 * expected);
+    }
+    assertEquals(1.0, DensityTable.exp(0.0), 0.0);
+    assertEquals(0.0, DensityTable.exp(-800.0), 0.0);
+    assertEquals(0.0, DensityTable.exp(Double.NEGATIVE_INFINITY), 0.0);
+    assertTrue(Double.isNaN(DensityTable.exp(Double.NaN)));
+    assertEquals(Math.exp(1.5), DensityTable.exp(1.5), 0.0);
+  }
+
+  @Test
+  public void testInterpolation() {
+    // Gaussian weights and widths typical of a light atom with B = 5 plus B-add = 2.
+    double[] a = {2.1, 1.9, 1.1, 0.7, 0.2};
+    double[] b = {13.2, 5.0, 29.0, 0.4, 60.0};
+    int nGaussians = a.length;
+    double uIso = 7.0 / (8.0 * Math.PI * Math.PI);
+    double[] u = new double[nGaussians];
+    for (int i = 0; i < nGaussians; i++) {
+      u[i] = uIso + b[i] / (8.0 * Math.PI * Math.PI);
+    }
+    double r2Max = 9.0;
+    DensityTable table = DensityTable.get(-7, a, u, nGaussians, uIso, r2Max);
+    assertNotNull(table);
+    assertSame(table, DensityTable.get(-7, a, u, nGaussians, uIso, r2Max));
+
+    double peak = density(a, u, 0.0);
+    double slope = -derivative(a, u, 0.0);
+    for (int i = 0; i < 100000; i++) {
+      double r2 = r2Max * i / 100000.0;
+      assertEquals(density(a, u, r2), table.value(r2), 1.0e-6 * peak);
+      assertEquals(derivative(a, u, r2), table.derivative(r2), 1.0e-4 * slope);
+    }
+  }
+
+  private static double density(double[] a, double[] u, double r2) {
+    double sum = 0.0;
+    for (int i = 0; i < a.length; i++) {
+      sum += a[i] / Math.sqrt(u[i] * u[i] * u[i]) * Math.exp(-0.5 * r2 / u[i]);
+    }
+    return sum;
+  }
+
+  private static double derivative(double[] a, double[] u, double r2) {
+    double sum = 0.0;
+    for (int i = 0; i < a.length; i++) {
+      sum += -0.5 / u[i] * a[i] / Math.sqrt(u[i] * u[i] * u[i]) * Math.exp(-0.5 * r2 / u[i]);
+    }
+    return sum;
+  }
+}
@@ -91,4 +91,38 @@ public class FormFactorTest {
         carbonFormFactor.rho(0.0, 1.0, xyz),
         0.000001);
   }
+
+  @Test
+  public void testCarbonScatteringVector() {
+    // With an identity reciprocal basis the scattering vector equals the Miller indices.
+    HKL hkl = new HKL(1, 2, -1);
+    double[] s = {1.0, 2.0, -1.0};
+    assertEquals(
+        "carbon form factor at a scattering vector should match (1 2 -1)",
+        carbonFormFactor.f(hkl),
+        carbonFormFactor.f(s),
+        1e-30);
+  }
+
+  @Test
+  public void testCarbonDensityTable() {
+    double[] d = new double[3];
+    Atom carbon = new Atom(1, "C", 'A', d, "ALA", 1, 'A', 1.0, 20.0, "A");
+    carbon.setAtomType(new AtomType(1, 1, "C", null, 6, 12.01, 1));
+    carbon.setFormFactorWidth(3.0);
+    XRayFormFactor exact = new XRayFormFactor(carbon, false, 2.0);
+    XRayFormFactor table = new XRayFormFactor(carbon, false, 2.0);
+    table.setDensityTable(true);
+
+    double peak = exact.rho(0.0, 1.0, new double[3]);
+    for (int i = 0; i < 100; i++) {
+      double r = 0.0299 * i;
+      double[] xyz = {0.6 * r, 0.8 * r, 0.0};
+      assertEquals(
+          "carbon tabulated electron density should match",
+          exact.rho(0.0, 1.0, xyz.clone()),
+          table.rho(0.0, 1.0, xyz.clone()),
+          1.0e-6 * peak);
+    }
+  }
 }
@@ -37,7 +37,11 @@
 // ******************************************************************************
 package ffx.xray.parsers;
 
+import static org.apache.commons.math3.util.FastMath.cos;
+import static org.apache.commons.math3.util.FastMath.sin;
+import static org.apache.commons.math3.util.FastMath.toRadians;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -47,7 +51,11 @@ import ffx.crystal.ReflectionList;
 import ffx.crystal.Resolution;
 import ffx.utilities.Keyword;
 import ffx.xray.DiffractionRefinementData;
+import ffx.xray.parsers.MTZWriter.MTZType;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import org.apache.commons.configuration2.CompositeConfiguration;
 import org.junit.Test;
 
@@ -105,6 +113,62 @@ public class MTZFilterTest {
         mtzFilter.readFile(mtzFile, reflectionList, refinementData, null));
   }
 
+  @Test
+  public void testMappedMTZColumns() throws IOException {
+    MappedMTZ mtz = MappedMTZ.open(mtzFile);
+    assertEquals("mapped mtz number of columns", 6, mtz.getColumnCount());
+    assertEquals("mapped mtz number of reflections", 48115, mtz.getReflectionCount());
+    MappedMTZ.Column h = mtz.column(0);
+    MappedMTZ.Column k = mtz.column(1);
+    MappedMTZ.Column l = mtz.column(2);
+    MappedMTZ.Column fp = mtz.column(4);
+    assertEquals("mapped mtz column size", 48115, fp.size());
+    assertEquals("-10 1 1 H value", -10, (int) h.get(9186));
+    assertEquals("-10 1 1 K value", 1, (int) k.get(9186));
+    assertEquals("-10 1 1 L value", 1, (int) l.get(9186));
+    assertEquals("-10 1 1 FP value", 229.90, fp.get(9186), 0.02);
+    assertEquals("-10 1 1 SIGFP value", 2.50, mtz.get(9186, 5), 0.02);
+  }
+
+  @Test
+  public void testAverageFcs() throws IOException {
+    Path dir = Files.createTempDirectory("MTZFilterTest");
+    File file1 = dir.resolve("fc1.mtz").toFile();
+    File file2 = dir.resolve("fc2.mtz").toFile();
+    DiffractionRefinementData fc1 = new DiffractionRefinementData(properties, reflectionList);
+    DiffractionRefinementData fc2 = new DiffractionRefinementData(properties, reflectionList);
+    for (int i = 0; i < fc1.n; i++) {
+      fc1.fc[i][0] = 1.0 + i % 7;
+      fc1.fc[i][1] = -2.0;
+      fc2.fc[i][0] = 3.0;
+      fc2.fc[i][1] = i % 5;
+    }
+    new MTZWriter(reflectionList, fc1, file1.getPath(), MTZType.FCONLY).write();
+    new MTZWriter(reflectionList, fc2, file2.getPath(), MTZType.FCONLY).write();
+
+    // The first file is replaced by the average while it is being read.
+    MTZFilter mtzFilter = new MTZFilter();
+    mtzFilter.averageFcs(file1, file2, reflectionList, 2, properties);
+    assertFalse("temporary average should be renamed", new File(file1.getPath() + ".tmp").exists());
+
+    // Columns H, K, L, Fs, PHIFs, Fc, PHIFc.
+    try (MappedMTZ mtz = MappedMTZ.open(file1)) {
+      assertTrue("averaged mtz should hold reflections", mtz.getReflectionCount() > 0);
+      for (int i = 0; i < mtz.getReflectionCount(); i++) {
+        HKL hkl =
+            reflectionList.getHKL((int) mtz.get(i, 0), (int) mtz.get(i, 1), (int) mtz.get(i, 2));
+        int j = hkl.index();
+        double f = mtz.get(i, 5);
+        double phi = toRadians(mtz.get(i, 6));
+        assertEquals("average Fc real", 0.5 * (fc1.fc[j][0] + fc2.fc[j][0]), f * cos(phi), 1.0e-4);
+        assertEquals("average Fc imag", 0.5 * (fc1.fc[j][1] + fc2.fc[j][1]), f * sin(phi), 1.0e-4);
+      }
+    }
+    Files.delete(file1.toPath());
+    Files.delete(file2.toPath());
+    Files.delete(dir);
+  }
+
   @Test
   public void testMTZReflectionList() {
     MTZFilter mtzFilter = new MTZFilter();